@@ -0,0 +1,35 @@
+package ir.moke.jsysbox.benchmark;
+
+import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.firewall.NftBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating the commands of a ruleset restore, as nftables script and as libnftables json
+ * document. Nothing is executed, but {@link JFirewall} loads its native library, so libnftables
+ * must be installed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FirewallCommandBenchmark {
+
+    @Benchmark
+    public NftBatch batch(Ruleset ruleset) {
+        return JFirewall.batch().add(ruleset.nfTables);
+    }
+
+    @Benchmark
+    public String script(Ruleset ruleset) {
+        return JFirewall.batch().add(ruleset.nfTables).script();
+    }
+
+    @Benchmark
+    public String json(Ruleset ruleset) {
+        return JFirewall.batch().add(ruleset.nfTables).json();
+    }
+}
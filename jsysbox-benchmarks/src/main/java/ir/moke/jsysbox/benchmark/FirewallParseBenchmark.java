@@ -0,0 +1,52 @@
+package ir.moke.jsysbox.benchmark;
+
+import ir.moke.jsysbox.firewall.config.binary.NFTablesCodec;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesReader;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesVisitor;
+import ir.moke.jsysbox.firewall.model.NFTables;
+import ir.moke.jsysbox.firewall.model.Rule;
+import ir.moke.utils.json.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading rulesets: nftables json through the streaming reader, through jackson databind
+ * ({@code NFTablesDeserializer}, {@code RuleDeserializer}) and binary snapshots.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FirewallParseBenchmark {
+
+    @Benchmark
+    public NFTables readJson(Ruleset ruleset) {
+        return NFTablesReader.read(ruleset.json);
+    }
+
+    @Benchmark
+    public NFTables readJsonDatabind(Ruleset ruleset) {
+        return JsonUtils.toObject(ruleset.json, NFTables.class);
+    }
+
+    /**
+     * streaming pass without collecting the model
+     */
+    @Benchmark
+    public void visitJson(Ruleset ruleset, Blackhole blackhole) {
+        NFTablesReader.read(ruleset.json, new NFTablesVisitor() {
+            @Override
+            public void rule(Rule rule) {
+                blackhole.consume(rule);
+            }
+        });
+    }
+
+    @Benchmark
+    public NFTables decodeBinary(Ruleset ruleset) {
+        return NFTablesCodec.decode(ruleset.bytes);
+    }
+}
@@ -0,0 +1,53 @@
+package ir.moke.jsysbox.benchmark;
+
+import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.firewall.NftSession;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executing a command on a libnftables context created for it, against a pooled session that keeps
+ * its native context. Commands run against the live ruleset, so libnftables must be installed and
+ * the process needs CAP_NET_ADMIN.
+ * <p>
+ * example :
+ * <pre>
+ * java -jar target/benchmarks.jar FirewallSession
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FirewallSessionBenchmark {
+
+    @Param({"list tables"})
+    public String command;
+
+    private NftSession session;
+
+    @Setup
+    public void setup() {
+        session = JFirewall.session();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public String contextPerCommand() {
+        try (NftSession session = JFirewall.openSession()) {
+            return session.exec(command);
+        }
+    }
+
+    @Benchmark
+    public String reusedSession() {
+        return session.exec(command);
+    }
+}
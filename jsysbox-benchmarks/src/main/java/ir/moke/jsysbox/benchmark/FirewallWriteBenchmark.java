@@ -0,0 +1,45 @@
+package ir.moke.jsysbox.benchmark;
+
+import ir.moke.jsysbox.firewall.config.binary.NFTablesCodec;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.Rule;
+import ir.moke.jsysbox.firewall.statement.Statement;
+import ir.moke.utils.json.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing rulesets: nftables json ({@code NFTablesSerializer}, {@code RuleSerializer}), binary
+ * snapshots and the nftables syntax of expressions and statements.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FirewallWriteBenchmark {
+
+    @Benchmark
+    public String writeJson(Ruleset ruleset) {
+        return JsonUtils.toJson(ruleset.nfTables);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary(Ruleset ruleset) {
+        return NFTablesCodec.encode(ruleset.nfTables);
+    }
+
+    @Benchmark
+    public void expressionToString(Ruleset ruleset, Blackhole blackhole) {
+        for (Rule rule : ruleset.nfTables.getRules()) {
+            if (rule.getExpressions() != null) {
+                for (Expression expression : rule.getExpressions()) blackhole.consume(expression.toString());
+            }
+            if (rule.getStatements() != null) {
+                for (Statement statement : rule.getStatements()) blackhole.consume(statement.toString());
+            }
+        }
+    }
+}
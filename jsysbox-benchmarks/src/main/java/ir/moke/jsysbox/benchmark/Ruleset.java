@@ -0,0 +1,121 @@
+package ir.moke.jsysbox.benchmark;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.config.binary.NFTablesCodec;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesReader;
+import ir.moke.jsysbox.firewall.expression.*;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.statement.*;
+import ir.moke.utils.json.JsonUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Ruleset shared by benchmarks, as model, nftables json and binary snapshot.
+ * <p>
+ * {@code ruleset} is the number of rules of a synthetic ruleset or {@link #SAMPLE} for the
+ * ruleset of {@code temp/jfirewall-temp.json}. Synthetic rulesets have one inet table, an input
+ * base chain jumping to chains of {@link #RULES_PER_CHAIN} rules and a named set, rules rotate
+ * through address, port, interface, ct, concatenation, limit, log and reject forms.
+ */
+@State(Scope.Benchmark)
+public class Ruleset {
+    public static final String SAMPLE = "sample";
+    public static final int RULES_PER_CHAIN = 1000;
+    private static final String SAMPLE_RESOURCE = "/jfirewall-temp.json";
+
+    @Param({"1000", "10000", "100000", SAMPLE})
+    public String ruleset;
+
+    public NFTables nfTables;
+    public String json;
+    public byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        json = SAMPLE.equals(ruleset) ? sample() : JsonUtils.toJson(synthetic(Integer.parseInt(ruleset)));
+        // parse back so every benchmark sees the model nftables would report, with handles
+        nfTables = NFTablesReader.read(json);
+        bytes = NFTablesCodec.encode(nfTables);
+    }
+
+    private static String sample() {
+        try (InputStream inputStream = Ruleset.class.getResourceAsStream(SAMPLE_RESOURCE)) {
+            if (inputStream == null) throw new JSysboxException("Missing resource " + SAMPLE_RESOURCE);
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new JSysboxException(e);
+        }
+    }
+
+    /**
+     * @param count number of rules
+     * @return synthetic ruleset
+     */
+    public static NFTables synthetic(int count) {
+        Table table = new Table(TableType.INET, "filter", 1);
+        int handle = 2;
+        Chain input = new Chain(table, "input", handle++, ChainType.FILTER, ChainHook.INPUT, 0, ChainPolicy.DROP);
+        List<String> blocked = IntStream.range(0, 256).mapToObj(i -> "192.0.2.%s".formatted(i)).toList();
+        Set set = new Set(blocked, List.of(), table, "blocked", SetType.IPV4_ADDR, handle++, null, null, null, null, null);
+
+        List<Chain> chains = new ArrayList<>(List.of(input));
+        List<Rule> rules = new ArrayList<>();
+        Chain chain = input;
+        for (int i = 0; i < count; i++) {
+            if (i % RULES_PER_CHAIN == 0) {
+                chain = new Chain(table, "chain" + i / RULES_PER_CHAIN, handle++);
+                chains.add(chain);
+                rules.add(new Rule(input, List.of(), List.of(new VerdictStatement(VerdictStatement.Type.JUMP, chain.getName())), null, handle++));
+            }
+            rules.add(rule(chain, i, handle++));
+        }
+        MetaInfo metaInfo = new MetaInfo("1.0.9", "Old Doc Yak #3", "1");
+        return new NFTables(metaInfo, List.of(table), chains, rules, List.of(set));
+    }
+
+    private static Rule rule(Chain chain, int i, int handle) {
+        String address = "10.%s.%s.%s".formatted((i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+        String port = String.valueOf(1024 + i % 60000);
+        VerdictStatement accept = new VerdictStatement(VerdictStatement.Type.ACCEPT);
+        return switch (i % 8) {
+            case 0 -> new Rule(chain, List.of(
+                    new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of(address)),
+                    new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of(port))),
+                    List.of(new CounterStatement(), accept), null, handle);
+            case 1 -> new Rule(chain, List.of(
+                    new Ip6Expression(Ip6Expression.Field.SADDR, Operation.EQ, List.of("2001:db8::%x/128".formatted(i)))),
+                    List.of(new VerdictStatement(VerdictStatement.Type.DROP)), null, handle);
+            case 2 -> new Rule(chain, List.of(
+                    new MetaExpression(MetaExpression.Field.IIFNAME, Operation.EQ, List.of("eth" + i % 16)),
+                    new UdpExpression(UdpExpression.Field.DPORT, Operation.EQ, List.of(port + "-" + (Integer.parseInt(port) + 100)))),
+                    List.of(new LogStatement("udp-" + i), accept), null, handle);
+            case 3 -> new Rule(chain, List.of(
+                    new CtExpression(CtExpression.Field.STATE, Operation.EQ, List.of("established", "related"))),
+                    List.of(accept), null, handle);
+            case 4 -> new Rule(chain, List.of(
+                    new ConcatExpression(List.of(new Selector(MatchType.IP, IpExpression.Field.SADDR), new Selector(MatchType.TCP, TcpExpression.Field.DPORT)), Operation.EQ, List.of(address + " . " + port))),
+                    List.of(new RejectStatement(null)), null, handle);
+            case 5 -> new Rule(chain, List.of(
+                    new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22", "80", "443"))),
+                    List.of(new LimitStatement(10L, LimitStatement.TimeUnit.SECOND, false), accept), null, handle);
+            case 6 -> new Rule(chain, List.of(
+                    new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("@blocked"))),
+                    List.of(new CounterStatement(), new VerdictStatement(VerdictStatement.Type.DROP)), "blocked " + i, handle);
+            default -> new Rule(chain, List.of(
+                    new IpExpression(IpExpression.Field.DADDR, Operation.NE, List.of(address + "/24")),
+                    new MetaExpression(MetaExpression.Field.MARK, Operation.EQ, List.of(String.valueOf(i)))),
+                    List.of(accept), null, handle);
+        };
+    }
+}
@@ -15,6 +15,19 @@ limitations under the License.
 #include <jni.h>
 #include <stdlib.h>
 #include <nftables/libnftables.h>
+#include <sys/socket.h>
+#include <poll.h>
+#include <errno.h>
+#include <unistd.h>
+#include <endian.h>
+#include <string.h>
+#include <string>
+#include <vector>
+#include <arpa/inet.h>
+#include <linux/netlink.h>
+#include <linux/netfilter.h>
+#include <linux/netfilter/nfnetlink.h>
+#include <linux/netfilter/nf_tables.h>
 
 #include "common.cpp"
 #include "jfirewall.h"
@@ -34,50 +47,415 @@ JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_restore (JNIEnv *
   /* create ruleset: all commands in the buffer are atomically applied */
   const char *filePath = env->GetStringUTFChars(jfilePath, 0);
   err = nft_run_cmd_from_filename(ctx, filePath);
-  if (err < 0) {
-    throwException(env, "failed to apply rules");
-    return ;
-  }
-
   env->ReleaseStringUTFChars(jfilePath, filePath);
-	nft_ctx_free(ctx);
+  nft_ctx_free(ctx);
+
+  if (err < 0) throwException(env, "failed to apply rules");
 }
 
-JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_exec (JNIEnv *env, jclass clazz, jstring jcmd) {
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionOpen (JNIEnv *env, jclass clazz) {
   struct nft_ctx *ctx;
-  int err;
-  const char *output;
 
-  ctx = nft_ctx_new(0);
+  ctx = nft_ctx_new(NFT_CTX_DEFAULT);
   if (!ctx) {
     throwException(env, "Cannot allocate nft context");
-    return NULL;
+    return 0;
   }
- 
+
   nft_ctx_output_set_flags(ctx, NFT_CTX_OUTPUT_HANDLE | NFT_CTX_OUTPUT_JSON);
+  /* json command documents are parsed directly, plain commands fall back to the nft grammar */
+  nft_ctx_input_set_flags(ctx, NFT_CTX_INPUT_JSON);
   nft_ctx_buffer_output(ctx);
+  nft_ctx_buffer_error(ctx);
+
+  return (jlong) ctx;
+}
+
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionExec (JNIEnv *env, jclass clazz, jlong handle, jstring jcmd) {
+  struct nft_ctx *ctx = (struct nft_ctx *) handle;
+  int err;
+  const char *output;
+  const char *error;
 
   const char *cmd = env->GetStringUTFChars(jcmd, 0);
   err = nft_run_cmd_from_buffer(ctx, cmd);
+
+  /* fetching the buffers also rewinds them for the next command of this context */
+  output = nft_ctx_get_output_buffer(ctx);
+  error = nft_ctx_get_error_buffer(ctx);
+
   if (err < 0) {
-    std::string err("Failed to execute firewall statement: [");
-    err.append(cmd);
-    err.append("]");
-    throwException(env,err);
-    return NULL ;
+    std::string msg("Failed to execute firewall statement: ");
+    if (error != NULL && strlen(error) > 0) {
+      msg.append(error);
+    } else {
+      msg.append("[").append(cmd).append("]");
+    }
+    env->ReleaseStringUTFChars(jcmd, cmd);
+    throwException(env, msg);
+    return NULL;
   }
 
-  output = nft_ctx_get_output_buffer(ctx); 
-  if (output == NULL) return NULL ;
-
   env->ReleaseStringUTFChars(jcmd, cmd);
+  if (output == NULL) return NULL;
+
+  return env->NewStringUTF(output);
+}
+
+JNIEXPORT jobject JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionExecBuffer (JNIEnv *env, jclass clazz, jlong handle, jobject buffer, jint offset, jint length) {
+  struct nft_ctx *ctx = (struct nft_ctx *) handle;
+  int err;
+  const char *output;
+  const char *error;
+
+  char *address = (char *) env->GetDirectBufferAddress(buffer);
+  if (address == NULL) {
+    throwException(env, "Command buffer is not direct");
+    return NULL;
+  }
+
+  /* libnftables parses a nul terminated string */
+  char *cmd = (char *) malloc(length + 1);
+  if (cmd == NULL) {
+    throwException(env, "Cannot allocate command buffer");
+    return NULL;
+  }
+  memcpy(cmd, address + offset, length);
+  cmd[length] = '\0';
+
+  err = nft_run_cmd_from_buffer(ctx, cmd);
+  free(cmd);
+
+  output = nft_ctx_get_output_buffer(ctx);
+  error = nft_ctx_get_error_buffer(ctx);
+
+  if (err < 0) {
+    std::string msg("Failed to execute firewall statement: ");
+    if (error != NULL && strlen(error) > 0) {
+      msg.append(error);
+    } else {
+      msg.append("[").append(std::to_string(length)).append(" bytes buffer]");
+    }
+    throwException(env, msg);
+    return NULL;
+  }
+
+  if (output == NULL || strlen(output) == 0) return NULL;
+
+  /* view of the context output buffer, valid until the next command of this context */
+  return env->NewDirectByteBuffer((void *) output, strlen(output));
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionDryRun (JNIEnv *env, jclass clazz, jlong handle, jboolean dryRun) {
+  struct nft_ctx *ctx = (struct nft_ctx *) handle;
+  /* commands are evaluated and sent without the batch end message, the kernel validates and aborts */
+  nft_ctx_set_dry_run(ctx, dryRun == JNI_TRUE);
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionClose (JNIEnv *env, jclass clazz, jlong handle) {
+  struct nft_ctx *ctx = (struct nft_ctx *) handle;
+  if (ctx != NULL) nft_ctx_free(ctx);
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genidOpen (JNIEnv *env, jclass clazz) {
+  int fd = socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_NETFILTER);
+  if (fd < 0) throwException(env, "Failed to open netfilter socket");
+  return fd;
+}
+
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genid (JNIEnv *env, jclass clazz, jint fd, jint seq) {
+  struct {
+    struct nlmsghdr nlh;
+    struct nfgenmsg nfg;
+  } req;
+  char buf[1024];
+  long genid = -1;
+
+  memset(&req, 0, sizeof(req));
+  req.nlh.nlmsg_len = NLMSG_LENGTH(sizeof(struct nfgenmsg));
+  req.nlh.nlmsg_type = (NFNL_SUBSYS_NFTABLES << 8) | NFT_MSG_GETGEN;
+  req.nlh.nlmsg_flags = NLM_F_REQUEST;
+  req.nlh.nlmsg_seq = seq;
+  req.nfg.nfgen_family = AF_UNSPEC;
+  req.nfg.version = NFNETLINK_V0;
+
+  if (send(fd, &req, req.nlh.nlmsg_len, 0) < 0) {
+    throwException(env, "Failed to request ruleset generation");
+    return -1;
+  }
 
-  if (!output) {
-    nft_ctx_free(ctx);
+  /* the socket is reused, replies of earlier requests that were not read carry another sequence */
+  while (genid < 0) {
+    int len = recv(fd, buf, sizeof(buf), 0);
+    if (len < 0) {
+      if (errno == EINTR) continue;
+      throwException(env, "Failed to read ruleset generation");
+      return -1;
+    }
+
+    /* reply is NFT_MSG_NEWGEN carrying NFTA_GEN_ID, or an error message */
+    bool answered = false;
+    for (struct nlmsghdr *nlh = (struct nlmsghdr *) buf; NLMSG_OK(nlh, len); nlh = NLMSG_NEXT(nlh, len)) {
+      if (nlh->nlmsg_seq != (uint32_t) seq) continue;
+      answered = true;
+      if (nlh->nlmsg_type == NLMSG_ERROR) {
+        struct nlmsgerr *err = (struct nlmsgerr *) NLMSG_DATA(nlh);
+        if (err->error != 0) {
+          throwException(env, std::string("Failed to read ruleset generation: ") + strerror(-err->error));
+          return -1;
+        }
+        continue;
+      }
+      if ((nlh->nlmsg_type & 0xff) != NFT_MSG_NEWGEN) continue;
+
+      int attrlen = nlh->nlmsg_len - NLMSG_LENGTH(sizeof(struct nfgenmsg));
+      struct nlattr *attr = (struct nlattr *) ((char *) NLMSG_DATA(nlh) + NLMSG_ALIGN(sizeof(struct nfgenmsg)));
+      while (attrlen >= (int) sizeof(struct nlattr) && attr->nla_len >= sizeof(struct nlattr) && attr->nla_len <= attrlen) {
+        if ((attr->nla_type & NLA_TYPE_MASK) == NFTA_GEN_ID) {
+          genid = ntohl(*(uint32_t *) ((char *) attr + NLA_HDRLEN));
+        }
+        attrlen -= NLA_ALIGN(attr->nla_len);
+        attr = (struct nlattr *) ((char *) attr + NLA_ALIGN(attr->nla_len));
+      }
+    }
+    if (answered && genid < 0) break;
+  }
+
+  if (genid < 0) throwException(env, "Ruleset generation not found in reply");
+  return genid;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genidClose (JNIEnv *env, jclass clazz, jint fd) {
+  if (fd >= 0) close(fd);
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorOpen (JNIEnv *env, jclass clazz, jint rcvbuf) {
+  struct sockaddr_nl addr;
+
+  int fd = socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_NETFILTER);
+  if (fd < 0) {
+    throwException(env, "Failed to open netfilter socket");
+    return -1;
+  }
+
+  /* kernel drops events when the socket buffer is full, recv then reports ENOBUFS */
+  if (rcvbuf > 0) setsockopt(fd, SOL_SOCKET, SO_RCVBUF, &rcvbuf, sizeof(rcvbuf));
+
+  memset(&addr, 0, sizeof(addr));
+  addr.nl_family = AF_NETLINK;
+  addr.nl_groups = 1 << (NFNLGRP_NFTABLES - 1);
+  if (bind(fd, (struct sockaddr *) &addr, sizeof(addr)) < 0) {
+    close(fd);
+    throwException(env, std::string("Failed to subscribe nftables events: ") + strerror(errno));
+    return -1;
+  }
+  return fd;
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorReceive (JNIEnv *env, jclass clazz, jint fd, jbyteArray jbuffer, jint timeout) {
+  struct pollfd pfd;
+  pfd.fd = fd;
+  pfd.events = POLLIN;
+  pfd.revents = 0;
+
+  int ready = poll(&pfd, 1, timeout);
+  if (ready == 0 || (ready < 0 && errno == EINTR)) return 0;
+  if (ready < 0) {
+    throwException(env, std::string("Failed to wait for nftables events: ") + strerror(errno));
+    return 0;
+  }
+
+  jsize size = env->GetArrayLength(jbuffer);
+  jbyte *buffer = env->GetByteArrayElements(jbuffer, NULL);
+  int len = recv(fd, buffer, size, 0);
+  int err = errno;
+  env->ReleaseByteArrayElements(jbuffer, buffer, len > 0 ? 0 : JNI_ABORT);
+
+  if (len < 0) {
+    if (err == ENOBUFS) return -1;
+    if (err == EINTR || err == EAGAIN) return 0;
+    throwException(env, std::string("Failed to read nftables events: ") + strerror(err));
+    return 0;
+  }
+  return len;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorClose (JNIEnv *env, jclass clazz, jint fd) {
+  if (fd >= 0) close(fd);
+}
+
+/* NFT_MSG_GETRULE_RESET, linux 6.2, missing from older uapi headers */
+#define JFIREWALL_MSG_GETRULE_RESET 25
+
+static const char *family_name(int family) {
+  switch (family) {
+    case NFPROTO_INET: return "inet";
+    case NFPROTO_IPV4: return "ip";
+    case NFPROTO_ARP: return "arp";
+    case NFPROTO_NETDEV: return "netdev";
+    case NFPROTO_BRIDGE: return "bridge";
+    case NFPROTO_IPV6: return "ip6";
+    default: return "unknown";
+  }
+}
+
+static int add_attr(char *buf, int offset, int type, const char *value) {
+  struct nlattr *attr = (struct nlattr *) (buf + offset);
+  int len = strlen(value) + 1;
+  attr->nla_type = type;
+  attr->nla_len = NLA_HDRLEN + len;
+  memcpy(buf + offset + NLA_HDRLEN, value, len);
+  return offset + NLA_ALIGN(attr->nla_len);
+}
+
+static uint64_t attr_u64(struct nlattr *attr) {
+  uint64_t value;
+  memcpy(&value, (char *) attr + NLA_HDRLEN, sizeof(value));
+  return be64toh(value);
+}
+
+/* first counter expression of NFTA_RULE_EXPRESSIONS, returns false when the rule has no counter */
+static bool rule_counter(struct nlattr *list, uint64_t *packets, uint64_t *bytes) {
+  int rem = list->nla_len - NLA_HDRLEN;
+  struct nlattr *elem = (struct nlattr *) ((char *) list + NLA_HDRLEN);
+  while (rem >= (int) sizeof(struct nlattr) && elem->nla_len >= sizeof(struct nlattr) && elem->nla_len <= rem) {
+    const char *name = NULL;
+    struct nlattr *data = NULL;
+    int erem = elem->nla_len - NLA_HDRLEN;
+    struct nlattr *attr = (struct nlattr *) ((char *) elem + NLA_HDRLEN);
+    while (erem >= (int) sizeof(struct nlattr) && attr->nla_len >= sizeof(struct nlattr) && attr->nla_len <= erem) {
+      if ((attr->nla_type & NLA_TYPE_MASK) == NFTA_EXPR_NAME) name = (const char *) attr + NLA_HDRLEN;
+      if ((attr->nla_type & NLA_TYPE_MASK) == NFTA_EXPR_DATA) data = attr;
+      erem -= NLA_ALIGN(attr->nla_len);
+      attr = (struct nlattr *) ((char *) attr + NLA_ALIGN(attr->nla_len));
+    }
+    if (name != NULL && data != NULL && strcmp(name, "counter") == 0) {
+      *packets = 0;
+      *bytes = 0;
+      int drem = data->nla_len - NLA_HDRLEN;
+      struct nlattr *value = (struct nlattr *) ((char *) data + NLA_HDRLEN);
+      while (drem >= (int) sizeof(struct nlattr) && value->nla_len >= sizeof(struct nlattr) && value->nla_len <= drem) {
+        if ((value->nla_type & NLA_TYPE_MASK) == NFTA_COUNTER_BYTES) *bytes = attr_u64(value);
+        if ((value->nla_type & NLA_TYPE_MASK) == NFTA_COUNTER_PACKETS) *packets = attr_u64(value);
+        drem -= NLA_ALIGN(value->nla_len);
+        value = (struct nlattr *) ((char *) value + NLA_ALIGN(value->nla_len));
+      }
+      return true;
+    }
+    rem -= NLA_ALIGN(elem->nla_len);
+    elem = (struct nlattr *) ((char *) elem + NLA_ALIGN(elem->nla_len));
+  }
+  return false;
+}
+
+JNIEXPORT jlongArray JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_counters (JNIEnv *env, jclass clazz, jint family, jstring jtable, jstring jchain, jboolean reset, jobject jtables) {
+  char req[1024];
+  std::vector<jlong> result;
+  std::vector<std::string> tables;
+
+  int fd = socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_NETFILTER);
+  if (fd < 0) {
+    throwException(env, "Failed to open netfilter socket");
+    return NULL;
+  }
+
+  /* rule dump, filtered by table and chain; the reset variant zeroes counters as they are read */
+  memset(req, 0, sizeof(req));
+  struct nlmsghdr *nlh = (struct nlmsghdr *) req;
+  struct nfgenmsg *nfg = (struct nfgenmsg *) NLMSG_DATA(nlh);
+  nlh->nlmsg_type = (NFNL_SUBSYS_NFTABLES << 8) | (reset ? JFIREWALL_MSG_GETRULE_RESET : NFT_MSG_GETRULE);
+  nlh->nlmsg_flags = NLM_F_REQUEST | NLM_F_DUMP;
+  nlh->nlmsg_seq = 1;
+  nfg->nfgen_family = family;
+  nfg->version = NFNETLINK_V0;
+  int offset = NLMSG_LENGTH(sizeof(struct nfgenmsg));
+  if (jtable != NULL) {
+    const char *table = env->GetStringUTFChars(jtable, 0);
+    offset = add_attr(req, NLMSG_ALIGN(offset), NFTA_RULE_TABLE, table);
+    env->ReleaseStringUTFChars(jtable, table);
+  }
+  if (jtable != NULL && jchain != NULL) {
+    const char *chain = env->GetStringUTFChars(jchain, 0);
+    offset = add_attr(req, offset, NFTA_RULE_CHAIN, chain);
+    env->ReleaseStringUTFChars(jchain, chain);
+  }
+  nlh->nlmsg_len = offset;
+
+  if (send(fd, req, nlh->nlmsg_len, 0) < 0) {
+    close(fd);
+    throwException(env, "Failed to request rule counters");
     return NULL;
-  } else {
-    jstring result = env -> NewStringUTF(output);
-    nft_ctx_free(ctx);
-    return result ;
   }
+
+  std::vector<char> buf(128 * 1024);
+  bool done = false;
+  while (!done) {
+    int len = recv(fd, buf.data(), buf.size(), 0);
+    if (len < 0) {
+      close(fd);
+      throwException(env, std::string("Failed to read rule counters: ") + strerror(errno));
+      return NULL;
+    }
+    if (len == 0) break;
+    for (struct nlmsghdr *msg = (struct nlmsghdr *) buf.data(); NLMSG_OK(msg, len); msg = NLMSG_NEXT(msg, len)) {
+      if (msg->nlmsg_type == NLMSG_DONE) {
+        done = true;
+        break;
+      }
+      if (msg->nlmsg_type == NLMSG_ERROR) {
+        struct nlmsgerr *err = (struct nlmsgerr *) NLMSG_DATA(msg);
+        if (err->error != 0) {
+          close(fd);
+          throwException(env, std::string("Failed to read rule counters: ") + strerror(-err->error));
+          return NULL;
+        }
+        continue;
+      }
+      if ((msg->nlmsg_type & 0xff) != NFT_MSG_NEWRULE) continue;
+
+      struct nfgenmsg *rule = (struct nfgenmsg *) NLMSG_DATA(msg);
+      const char *table = NULL;
+      uint64_t handle = 0, packets = 0, bytes = 0;
+      bool counter = false;
+      int attrlen = msg->nlmsg_len - NLMSG_LENGTH(sizeof(struct nfgenmsg));
+      struct nlattr *attr = (struct nlattr *) ((char *) rule + NLMSG_ALIGN(sizeof(struct nfgenmsg)));
+      while (attrlen >= (int) sizeof(struct nlattr) && attr->nla_len >= sizeof(struct nlattr) && attr->nla_len <= attrlen) {
+        switch (attr->nla_type & NLA_TYPE_MASK) {
+          case NFTA_RULE_TABLE: table = (const char *) attr + NLA_HDRLEN; break;
+          case NFTA_RULE_HANDLE: handle = attr_u64(attr); break;
+          case NFTA_RULE_EXPRESSIONS: counter = rule_counter(attr, &packets, &bytes); break;
+        }
+        attrlen -= NLA_ALIGN(attr->nla_len);
+        attr = (struct nlattr *) ((char *) attr + NLA_ALIGN(attr->nla_len));
+      }
+      if (!counter || table == NULL) continue;
+
+      std::string key = std::string(family_name(rule->nfgen_family)) + " " + table;
+      jlong index = -1;
+      for (size_t i = 0; i < tables.size(); i++) {
+        if (tables[i] == key) index = i;
+      }
+      if (index < 0) {
+        index = tables.size();
+        tables.push_back(key);
+      }
+      result.push_back(index);
+      result.push_back(handle);
+      result.push_back(packets);
+      result.push_back(bytes);
+    }
+  }
+  close(fd);
+
+  jclass listClass = env->GetObjectClass(jtables);
+  jmethodID add = env->GetMethodID(listClass, "add", "(Ljava/lang/Object;)Z");
+  for (size_t i = 0; i < tables.size(); i++) {
+    jstring name = env->NewStringUTF(tables[i].c_str());
+    env->CallBooleanMethod(jtables, add, name);
+    env->DeleteLocalRef(name);
+  }
+
+  jlongArray array = env->NewLongArray(result.size());
+  env->SetLongArrayRegion(array, 0, result.size(), result.data());
+  return array;
 }
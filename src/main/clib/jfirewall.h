@@ -31,11 +31,99 @@ JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_restore
 
 /*
  * Class:     ir_moke_jsysbox_firewall_JFirewall
- * Method:    exec
- * Signature: (Ljava/lang/String;)Ljava/lang/String;
+ * Method:    sessionOpen
+ * Signature: ()J
  */
-JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_exec
-  (JNIEnv *, jclass, jstring);
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionOpen
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    sessionExec
+ * Signature: (JLjava/lang/String;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionExec
+  (JNIEnv *, jclass, jlong, jstring);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    sessionExecBuffer
+ * Signature: (JLjava/nio/ByteBuffer;II)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionExecBuffer
+  (JNIEnv *, jclass, jlong, jobject, jint, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    sessionDryRun
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionDryRun
+  (JNIEnv *, jclass, jlong, jboolean);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    sessionClose
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_sessionClose
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    genidOpen
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genidOpen
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    genid
+ * Signature: (II)J
+ */
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genid
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    genidClose
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_genidClose
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    monitorOpen
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorOpen
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    monitorReceive
+ * Signature: (I[BI)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorReceive
+  (JNIEnv *, jclass, jint, jbyteArray, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    monitorClose
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_monitorClose
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_firewall_JFirewall
+ * Method:    counters
+ * Signature: (ILjava/lang/String;Ljava/lang/String;ZLjava/util/List;)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_ir_moke_jsysbox_firewall_JFirewall_counters
+  (JNIEnv *, jclass, jint, jstring, jstring, jboolean, jobject);
 
 #ifdef __cplusplus
 }
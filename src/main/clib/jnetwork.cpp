@@ -40,11 +40,17 @@ limitations under the License.
 #include <sys/socket.h>
 
 #include <linux/if_link.h>
+#include <linux/netlink.h>
+#include <linux/rtnetlink.h>
 #include <linux/types.h>
 #include <linux/if_ether.h>
 #include <linux/if_packet.h>
 
 #include <sys/types.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <sched.h>
+#include <poll.h>
 
 #include <bits/ioctls.h>
 #include <string>
@@ -433,3 +439,145 @@ JNIEXPORT jobjectArray JNICALL Java_ir_moke_jsysbox_network_JNetwork_activeEther
 
     return result;
 }
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_NetNs_open(JNIEnv *env, jclass, jstring jpath) {
+    const char *path = env->GetStringUTFChars(jpath, 0);
+    int fd = open(path, O_RDONLY | O_CLOEXEC);
+    int error = errno;
+    string name = path;
+    env->ReleaseStringUTFChars(jpath, path);
+    if (fd < 0) throwException(env, "Failed to open network namespace " + name + ": " + strerror(error));
+    return fd;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_close(JNIEnv *, jclass, jint fd) {
+    close(fd);
+}
+
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_network_NetNs_inode(JNIEnv *env, jclass, jint fd) {
+    struct stat st{};
+    if (fstat(fd, &st) < 0) {
+        throwException(env, "Failed to stat network namespace: " + string(strerror(errno)));
+        return 0;
+    }
+    return (jlong) st.st_ino;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_setns(JNIEnv *env, jclass, jint fd) {
+    if (setns(fd, CLONE_NEWNET) < 0) throwException(env, "Failed to enter network namespace: " + string(strerror(errno)));
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_unshareNet(JNIEnv *env, jclass) {
+    if (unshare(CLONE_NEWNET) < 0) throwException(env, "Failed to create network namespace: " + string(strerror(errno)));
+}
+
+/* NETLINK_CAP_ACK and NETLINK_EXT_ACK, linux 4.3 and 4.12, missing from older uapi headers */
+#define JNETWORK_NETLINK_CAP_ACK 10
+#define JNETWORK_NETLINK_EXT_ACK 11
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkOpen(JNIEnv *env, jclass, jint bufferSize) {
+    struct sockaddr_nl addr{};
+    int on = 1;
+
+    int fd = socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_ROUTE);
+    if (fd < 0) {
+        throwException(env, "Failed to open rtnetlink socket: " + string(strerror(errno)));
+        return -1;
+    }
+
+    /* acks of a batch are queued while the kernel processes it, a full receive buffer drops them */
+    if (bufferSize > 0) {
+        /* beyond wmem_max and rmem_max only with CAP_NET_ADMIN of the initial namespace */
+        if (setsockopt(fd, SOL_SOCKET, SO_SNDBUFFORCE, &bufferSize, sizeof(bufferSize)) < 0)
+            setsockopt(fd, SOL_SOCKET, SO_SNDBUF, &bufferSize, sizeof(bufferSize));
+        if (setsockopt(fd, SOL_SOCKET, SO_RCVBUFFORCE, &bufferSize, sizeof(bufferSize)) < 0)
+            setsockopt(fd, SOL_SOCKET, SO_RCVBUF, &bufferSize, sizeof(bufferSize));
+    }
+    /* acks carry only the header of the request, errors carry a message */
+    setsockopt(fd, SOL_NETLINK, JNETWORK_NETLINK_CAP_ACK, &on, sizeof(on));
+    setsockopt(fd, SOL_NETLINK, JNETWORK_NETLINK_EXT_ACK, &on, sizeof(on));
+
+    addr.nl_family = AF_NETLINK;
+    if (bind(fd, (struct sockaddr *) &addr, sizeof(addr)) < 0) {
+        int error = errno;
+        close(fd);
+        throwException(env, "Failed to bind rtnetlink socket: " + string(strerror(error)));
+        return -1;
+    }
+    return fd;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkSend(JNIEnv *env, jclass, jint fd, jbyteArray jbuffer, jint length) {
+    struct sockaddr_nl kernel{};
+    kernel.nl_family = AF_NETLINK;
+
+    jbyte *buffer = env->GetByteArrayElements(jbuffer, nullptr);
+    ssize_t sent;
+    do {
+        sent = sendto(fd, buffer, length, 0, (struct sockaddr *) &kernel, sizeof(kernel));
+    } while (sent < 0 && errno == EINTR);
+    int error = errno;
+    env->ReleaseByteArrayElements(jbuffer, buffer, JNI_ABORT);
+    if (sent < 0) throwException(env, "Failed to send rtnetlink request: " + string(strerror(error)));
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkReceive(JNIEnv *env, jclass, jint fd, jbyteArray jbuffer, jint timeout) {
+    struct pollfd pfd{};
+    pfd.fd = fd;
+    pfd.events = POLLIN;
+
+    int ready;
+    do {
+        ready = poll(&pfd, 1, timeout);
+    } while (ready < 0 && errno == EINTR);
+    if (ready == 0) {
+        throwException(env, "Timeout waiting for rtnetlink reply");
+        return 0;
+    }
+    if (ready < 0) {
+        throwException(env, "Failed to wait for rtnetlink reply: " + string(strerror(errno)));
+        return 0;
+    }
+
+    jsize size = env->GetArrayLength(jbuffer);
+    jbyte *buffer = env->GetByteArrayElements(jbuffer, nullptr);
+    ssize_t len;
+    do {
+        len = recv(fd, buffer, size, 0);
+    } while (len < 0 && errno == EINTR);
+    int error = errno;
+    env->ReleaseByteArrayElements(jbuffer, buffer, len > 0 ? 0 : JNI_ABORT);
+    if (len < 0) throwException(env, "Failed to read rtnetlink reply: " + string(strerror(error)));
+    return (jint) len;
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkBufferSize(JNIEnv *env, jclass, jint fd) {
+    int size = 0;
+    socklen_t len = sizeof(size);
+    if (getsockopt(fd, SOL_SOCKET, SO_RCVBUF, &size, &len) < 0) {
+        throwException(env, "Failed to read rtnetlink buffer size: " + string(strerror(errno)));
+        return 0;
+    }
+    return size;
+}
+
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkClose(JNIEnv *, jclass, jint fd) {
+    if (fd >= 0) close(fd);
+}
+
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_network_JNetwork_strerror(JNIEnv *env, jclass, jint error) {
+    return env->NewStringUTF(strerror(error));
+}
+
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_ifIndex(JNIEnv *env, jclass, jstring jiface) {
+    const char *iface = env->GetStringUTFChars(jiface, nullptr);
+    unsigned int index = if_nametoindex(iface);
+    env->ReleaseStringUTFChars(jiface, iface);
+    return (jint) index;
+}
+
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_network_JNetwork_ifName(JNIEnv *env, jclass, jint index) {
+    char name[IF_NAMESIZE];
+    if (if_indextoname(index, name) == nullptr) return nullptr;
+    return env->NewStringUTF(name);
+}
@@ -77,6 +77,110 @@ JNIEXPORT jobjectArray JNICALL Java_ir_moke_jsysbox_network_JNetwork_availableEt
 JNIEXPORT jobjectArray JNICALL Java_ir_moke_jsysbox_network_JNetwork_activeEthernetList
         (JNIEnv *, jclass);
 
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    rtnetlinkOpen
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkOpen
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    rtnetlinkSend
+ * Signature: (I[BI)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkSend
+        (JNIEnv *, jclass, jint, jbyteArray, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    rtnetlinkReceive
+ * Signature: (I[BI)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkReceive
+        (JNIEnv *, jclass, jint, jbyteArray, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    rtnetlinkBufferSize
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkBufferSize
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    rtnetlinkClose
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_JNetwork_rtnetlinkClose
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_network_JNetwork_strerror
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    ifIndex
+ * Signature: (Ljava/lang/String;)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_JNetwork_ifIndex
+        (JNIEnv *, jclass, jstring);
+
+/*
+ * Class:     ir_moke_jsysbox_network_JNetwork
+ * Method:    ifName
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_ir_moke_jsysbox_network_JNetwork_ifName
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_NetNs
+ * Method:    open
+ * Signature: (Ljava/lang/String;)I
+ */
+JNIEXPORT jint JNICALL Java_ir_moke_jsysbox_network_NetNs_open
+        (JNIEnv *, jclass, jstring);
+
+/*
+ * Class:     ir_moke_jsysbox_network_NetNs
+ * Method:    close
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_close
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_NetNs
+ * Method:    inode
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_ir_moke_jsysbox_network_NetNs_inode
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_NetNs
+ * Method:    setns
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_setns
+        (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     ir_moke_jsysbox_network_NetNs
+ * Method:    unshareNet
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_ir_moke_jsysbox_network_NetNs_unshareNet
+        (JNIEnv *, jclass);
+
 #ifdef __cplusplus
 }
 #endif
@@ -23,11 +23,14 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
 
 public class JniNativeLoader {
     private static final Logger logger = LoggerFactory.getLogger(JniNativeLoader.class);
     private static final Path LIB_PATH = Paths.get("/META-INF/native");
     private static Path TEMP_DIR_PATH = Paths.get("/tmp/jni");
+    private static final Set<String> loaded = new HashSet<>();
 
     static {
         try {
@@ -43,6 +46,8 @@ public class JniNativeLoader {
     }
 
     public static synchronized void load(String name) {
+        // extracting again would overwrite the mapped library
+        if (!loaded.add(name)) return;
         String arch = System.getProperty("os.arch");
         if (arch.equals("amd64")) {
             extractLibrary("lib" + name + "_x86_64.so");
@@ -0,0 +1,231 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.firewall.model.Chain;
+import ir.moke.jsysbox.firewall.model.Table;
+import ir.moke.jsysbox.firewall.model.TableType;
+
+import java.util.*;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Packet and byte counters of rules read with one netlink rule dump, without listing the ruleset as json.
+ * <p>
+ * Each {@link #sample()} keeps counters in primitive arrays sorted by (table, rule handle) and
+ * computes packets and bytes per second against the previous sample. Rules without counter
+ * statement are not reported. Values are addressed by index {@code 0..size()-1}, use
+ * {@link #indexOf(Table, long)} to find a rule.
+ * <p>
+ * {@link #sample(boolean)} with reset reads and zeroes counters atomically (linux 6.2 or newer),
+ * counters then hold the traffic since the previous reset.
+ * Instances are not thread safe.
+ * <p>
+ * example :
+ * <pre>
+ * CounterSampler sampler = JFirewall.counterSampler(chain);
+ * sampler.sample();
+ * Thread.sleep(1000);
+ * sampler.sample();
+ * for (int i : sampler.hottest(10)) System.out.println(sampler.handle(i) + " " + sampler.pps(i));
+ * </pre>
+ */
+public final class CounterSampler {
+    private static final int HANDLE_BITS = 48;
+    private final Table table;
+    private final Chain chain;
+    private final Map<String, Integer> tableIds = new HashMap<>();
+    private final List<String> tableNames = new ArrayList<>();
+
+    private int size;
+    private long[] keys = new long[0];
+    private long[] packets = new long[0];
+    private long[] bytes = new long[0];
+    private double[] pps = new double[0];
+    private double[] bps = new double[0];
+    private long sampledAt = -1;
+    private boolean reset;
+
+    CounterSampler(Table table, Chain chain) {
+        this.table = table;
+        this.chain = chain;
+    }
+
+    /**
+     * read counters and compute rates since previous sample
+     *
+     * @return number of rules with counter
+     */
+    public int sample() {
+        return sample(false);
+    }
+
+    /**
+     * @param reset zero counters while reading them
+     * @return number of rules with counter
+     */
+    public int sample(boolean reset) {
+        Table target = chain != null ? chain.getTable() : table;
+        int family = target != null ? family(target.getType()) : 0;
+        String tableName = target != null ? target.getName() : null;
+        String chainName = chain != null ? chain.getName() : null;
+
+        List<String> tables = new ArrayList<>();
+        long[] raw = JFirewall.counters(family, tableName, chainName, reset, tables);
+        long now = System.nanoTime();
+
+        int[] ids = new int[tables.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tableIds.computeIfAbsent(tables.get(i), name -> {
+                tableNames.add(name);
+                return tableNames.size() - 1;
+            });
+        }
+
+        int count = raw.length / 4;
+        long[] rawKeys = new long[count];
+        for (int i = 0; i < count; i++) {
+            rawKeys[i] = ((long) ids[(int) raw[i * 4]] << HANDLE_BITS) | raw[i * 4 + 1];
+        }
+        int[] order = sort(count, (a, b) -> Long.compare(rawKeys[a], rawKeys[b]));
+
+        long[] newKeys = new long[count];
+        long[] newPackets = new long[count];
+        long[] newBytes = new long[count];
+        double[] newPps = new double[count];
+        double[] newBps = new double[count];
+        double seconds = sampledAt >= 0 ? (now - sampledAt) / 1_000_000_000.0 : 0;
+
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int k = order[i];
+            newKeys[i] = rawKeys[k];
+            newPackets[i] = raw[k * 4 + 2];
+            newBytes[i] = raw[k * 4 + 3];
+
+            while (previous < size && keys[previous] < newKeys[i]) previous++;
+            if (seconds > 0 && previous < size && keys[previous] == newKeys[i]) {
+                newPps[i] = delta(newPackets[i], packets[previous]) / seconds;
+                newBps[i] = delta(newBytes[i], bytes[previous]) / seconds;
+            }
+        }
+
+        this.size = count;
+        this.keys = newKeys;
+        this.packets = newPackets;
+        this.bytes = newBytes;
+        this.pps = newPps;
+        this.bps = newBps;
+        this.sampledAt = now;
+        this.reset = reset;
+        return count;
+    }
+
+    /**
+     * after a reset the counter started again from zero, otherwise a lower value means the rule was replaced
+     */
+    private long delta(long current, long previous) {
+        if (reset) return current;
+        return current >= previous ? current - previous : current;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of last sample, -1 before the first one
+     */
+    public long sampledAt() {
+        return sampledAt;
+    }
+
+    public long handle(int index) {
+        return keys[index] & ((1L << HANDLE_BITS) - 1);
+    }
+
+    /**
+     * @return "family table" of rule, e.g. {@code inet filter}
+     */
+    public String table(int index) {
+        return tableNames.get((int) (keys[index] >>> HANDLE_BITS));
+    }
+
+    public long packets(int index) {
+        return packets[index];
+    }
+
+    public long bytes(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * @return packets per second since previous sample, 0 on first sample of the rule
+     */
+    public double pps(int index) {
+        return pps[index];
+    }
+
+    /**
+     * @return bytes per second since previous sample, 0 on first sample of the rule
+     */
+    public double bps(int index) {
+        return bps[index];
+    }
+
+    /**
+     * @return index of rule, -1 when the rule has no counter or was not sampled
+     */
+    public int indexOf(Table table, long handle) {
+        Integer id = tableIds.get(table.getType().getValue() + " " + table.getName());
+        if (id == null) return -1;
+        int index = Arrays.binarySearch(keys, 0, size, ((long) id << HANDLE_BITS) | handle);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @param count maximum number of rules
+     * @return indexes of rules with highest packet rate, highest first
+     */
+    public int[] hottest(int count) {
+        int[] order = sort(size, (a, b) -> Double.compare(pps[b], pps[a]));
+        return Arrays.copyOf(order, Math.min(count, size));
+    }
+
+    /**
+     * stable bottom up merge sort of indexes {@code 0..size-1}
+     */
+    private static int[] sort(int size, IntBinaryOperator comparator) {
+        int[] source = new int[size];
+        int[] target = new int[size];
+        for (int i = 0; i < size; i++) source[i] = i;
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int left = low, right = middle, k = low;
+                while (left < middle && right < high) {
+                    target[k++] = comparator.applyAsInt(source[left], source[right]) <= 0 ? source[left++] : source[right++];
+                }
+                while (left < middle) target[k++] = source[left++];
+                while (right < high) target[k++] = source[right++];
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        return source;
+    }
+
+    /**
+     * NFPROTO_* number of table family
+     */
+    private static int family(TableType type) {
+        return switch (type) {
+            case INET -> 1;
+            case IPv4 -> 2;
+            case ARP -> 3;
+            case NETDEV -> 5;
+            case BRIDGE -> 7;
+            case IPv6 -> 10;
+        };
+    }
+}
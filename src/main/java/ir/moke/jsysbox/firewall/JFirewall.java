@@ -1,20 +1,31 @@
 package ir.moke.jsysbox.firewall;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import ir.moke.jsysbox.JSysboxException;
 import ir.moke.jsysbox.JniNativeLoader;
+import ir.moke.jsysbox.firewall.config.binary.NFTablesCodec;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesReader;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesVisitor;
 import ir.moke.jsysbox.firewall.expression.Expression;
 import ir.moke.jsysbox.firewall.model.Set;
 import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.statement.CounterStatement;
 import ir.moke.jsysbox.firewall.statement.Statement;
-import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+import ir.moke.jsysbox.network.NetNs;
 import ir.moke.utils.json.JsonUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,9 +33,12 @@ public class JFirewall {
     private static final Logger logger = LoggerFactory.getLogger(JFirewall.class);
     private static final String VALID_PATTERN = "^[a-zA-Z][a-zA-Z0-9._/-]*$";
     private static final Pattern pattern = Pattern.compile(VALID_PATTERN);
+    private static final Map<Long, Namespace> namespaces = new ConcurrentHashMap<>();
+    private static final byte[] JSON_FLUSH = "{\"flush\":{\"ruleset\":null}}".getBytes(StandardCharsets.UTF_8);
 
     static {
         JniNativeLoader.load("jfirewall");
+        NetNs.onRelease(JFirewall::releaseNamespace);
     }
 
     /**
@@ -35,39 +49,372 @@ public class JFirewall {
     public native static void restore(String filePath);
 
     /**
-     * execute nftables commands
+     * allocate new native nftables context
      *
+     * @return context handle
+     */
+    native static long sessionOpen();
+
+    /**
+     * execute nftables commands on an existing context
+     *
+     * @param handle  context handle
      * @param command nftables command
      * @return result of command
      */
-    private native static String exec(String command);
+    native static String sessionExec(long handle, String command);
+
+    /**
+     * execute nftables commands read from a direct buffer on an existing context
+     *
+     * @param handle  context handle
+     * @param command direct buffer holding commands
+     * @param offset  index of first command byte
+     * @param length  number of command bytes
+     * @return view of the context output buffer, valid until the next command of the context, null when there is no output
+     */
+    native static ByteBuffer sessionExecBuffer(long handle, ByteBuffer command, int offset, int length);
+
+    /**
+     * switch dry run mode of a context, in dry run mode commands are checked by libnftables and the kernel but never committed
+     *
+     * @param handle context handle
+     * @param dryRun true to check only
+     */
+    native static void sessionDryRun(long handle, boolean dryRun);
+
+    /**
+     * release native nftables context
+     *
+     * @param handle context handle
+     */
+    native static void sessionClose(long handle);
+
+    /**
+     * open netfilter netlink socket for generation id requests, it talks to the network namespace of the calling thread
+     *
+     * @return socket file descriptor
+     */
+    native static int genidOpen();
+
+    /**
+     * read nftables ruleset generation id, it changes on every committed transaction
+     *
+     * @param fd  socket of {@link #genidOpen()}
+     * @param seq request sequence number, replies to other sequences are skipped
+     * @return generation id
+     */
+    native static long genid(int fd, int seq);
+
+    native static void genidClose(int fd);
+
+    /**
+     * open netfilter netlink socket subscribed to nftables events
+     *
+     * @param rcvbuf socket receive buffer size in bytes
+     * @return socket file descriptor
+     */
+    native static int monitorOpen(int rcvbuf);
+
+    /**
+     * wait for events and read one datagram
+     *
+     * @return bytes read, 0 on timeout, -1 when the kernel dropped events
+     */
+    native static int monitorReceive(int fd, byte[] buffer, int timeout);
+
+    native static void monitorClose(int fd);
+
+    /**
+     * dump counters of rules, one rule dump request for all selected rules
+     *
+     * @param family NFPROTO_* family, 0 for all
+     * @param table  table name, null for all tables
+     * @param chain  chain name, null for all chains
+     * @param reset  zero counters while reading
+     * @param tables receives "family table" names referenced by index
+     * @return 4 values per rule with counter: table index, handle, packets, bytes
+     */
+    native static long[] counters(int family, String table, String chain, boolean reset, List<String> tables);
+
+    /**
+     * execute nftables commands through the default session pool
+     *
+     * @param command nftables command
+     * @return result of command
+     */
+    static String exec(String command) {
+        try (NftSession session = sessionPool().acquire()) {
+            return session.exec(command);
+        } catch (JSysboxException e) {
+            // callers may have modified cached objects before a failed commit
+            rulesetCache().invalidate();
+            throw e;
+        }
+    }
+
+    static void exec(ByteBuffer command) {
+        try (NftSession session = sessionPool().acquire()) {
+            session.exec(command);
+        } catch (JSysboxException e) {
+            rulesetCache().invalidate();
+            throw e;
+        }
+    }
+
+    static ByteBuffer directBuffer(String command) {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    /**
+     * borrow a session from the pool of the network namespace of the calling thread, commands executed on the same
+     * session reuse one native context.
+     * The session must be closed to return it to the pool.
+     *
+     * @return {@link NftSession}
+     */
+    public static NftSession session() {
+        return sessionPool().acquire();
+    }
+
+    /**
+     * ruleset cache used by lookup methods of this class.
+     * Tables, chains, sets, maps, flowtables and rules returned by lookups are objects of the cache shared by all callers,
+     * they must be treated as read only, {@link #exportToNFTables()} returns a private copy of the ruleset
+     *
+     * @return {@link RulesetCache}
+     */
+    public static RulesetCache rulesetCache() {
+        return namespace().rulesetCache();
+    }
+
+    /**
+     * close pooled sessions and drop the ruleset cache of the network namespace of the calling thread.
+     * That happens on its own once the last {@link NetNs} handle of a namespace is closed and no thread is
+     * inside it, call it before a thread leaves a namespace it holds no handle of
+     */
+    public static void releaseNamespace() {
+        releaseNamespace(NetNs.currentId());
+    }
+
+    private static void releaseNamespace(long id) {
+        Namespace namespace = namespaces.remove(id);
+        if (namespace != null) {
+            namespace.sessionPool().close();
+            namespace.rulesetCache().close();
+        }
+    }
+
+    /**
+     * libnftables contexts talk to the network namespace they were created in,
+     * sessions and cached rulesets are kept per namespace of the calling thread
+     */
+    private static Namespace namespace() {
+        return namespaces.computeIfAbsent(NetNs.currentId(), id -> new Namespace(new NftSessionPool(Runtime.getRuntime().availableProcessors()), new RulesetCache()));
+    }
+
+    private static NftSessionPool sessionPool() {
+        return namespace().sessionPool();
+    }
+
+    /**
+     * open a dedicated session outside the default pool, closing it releases the native context
+     *
+     * @return {@link NftSession}
+     */
+    public static NftSession openSession() {
+        return new NftSession(null);
+    }
 
     public static String export() {
         return exec("list ruleset");
     }
 
     public static NFTables exportToNFTables() {
-        String json = export();
-        return JsonUtils.toObject(json, NFTables.class);
+        return NFTablesReader.read(export());
+    }
+
+    /**
+     * stream live ruleset to visitor, objects are not collected in a {@link NFTables}
+     *
+     * @param visitor receiver of decoded objects
+     */
+    public static void export(NFTablesVisitor visitor) {
+        NFTablesReader.read(export(), visitor);
     }
 
+    /**
+     * apply tables, chains, sets and rules of {@link NFTables} in a single transaction
+     *
+     * @param nfTables ruleset to apply
+     */
     public static void apply(NFTables nfTables) {
-        nfTables.getTables().forEach(JFirewall::tableAdd);
-        nfTables.getChains().forEach(JFirewall::chainAdd);
-        nfTables.getSets().forEach(JFirewall::setAdd);
-        nfTables.getRules().forEach(JFirewall::ruleAdd);
+        batch().add(nfTables).commit();
+    }
+
+    /**
+     * check tables, chains, sets and rules of {@link NFTables} in a single dry run transaction, nothing is committed
+     *
+     * @param nfTables ruleset to check
+     * @return {@link NftValidation} with one error per rejected item
+     */
+    public static NftValidation validate(NFTables nfTables) {
+        return NftBatch.validate(nfTables);
+    }
+
+    /**
+     * listen to ruleset changes of all processes, see {@link NftMonitor}
+     *
+     * @param listener called on the monitor thread for every event
+     * @return running monitor, close it to stop listening
+     */
+    public static NftMonitor monitor(Consumer<RulesetEvent> listener) {
+        return monitor(listener, NftMonitor.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param listener called on the monitor thread for every event
+     * @param capacity number of events buffered before reading from the kernel stops
+     */
+    public static NftMonitor monitor(Consumer<RulesetEvent> listener, int capacity) {
+        return new NftMonitor(listener, capacity);
+    }
+
+    /**
+     * start a writer that coalesces mutations of concurrent callers into single transactions, see {@link NftWriter}
+     *
+     * @return running writer, close it to stop
+     */
+    public static NftWriter writer() {
+        return writer(NftWriter.DEFAULT_WINDOW, NftWriter.DEFAULT_MAX_OPERATIONS);
+    }
+
+    /**
+     * @param window        time mutations are collected after the first queued mutation
+     * @param maxOperations operations after which no more mutations join the transaction, a single mutation may add more
+     */
+    public static NftWriter writer(Duration window, int maxOperations) {
+        return new NftWriter(window, maxOperations);
+    }
+
+    /**
+     * sample counters of all rules, see {@link CounterSampler}
+     */
+    public static CounterSampler counterSampler() {
+        return new CounterSampler(null, null);
+    }
+
+    public static CounterSampler counterSampler(Table table) {
+        return new CounterSampler(table, null);
+    }
+
+    public static CounterSampler counterSampler(Chain chain) {
+        return new CounterSampler(null, chain);
+    }
+
+    /**
+     * start a new batch of operations, see {@link NftBatch}
+     *
+     * @return empty {@link NftBatch}
+     */
+    public static NftBatch batch() {
+        return new NftBatch();
+    }
+
+    /**
+     * converge live ruleset to {@code desired} with the minimal set of changes, applied in a single transaction.
+     * Unchanged rules keep their handles and counters, see {@link NftReconciler}
+     *
+     * @param desired desired ruleset
+     * @return applied operations
+     */
+    public static NftBatch reconcile(NFTables desired) {
+        NftBatch plan = NftReconciler.plan(exportToNFTables(), desired);
+        plan.commit();
+        return plan;
     }
 
     public static void backup(File file) {
-        String str = export();
-        try (FileWriter fileWriter = new FileWriter(file)) {
-            fileWriter.write(str);
-            fileWriter.flush();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            backup(channel);
         } catch (IOException e) {
             throw new JSysboxException(e);
         }
     }
 
+    /**
+     * write live ruleset as json to channel, the export is written from the native output buffer without a java string
+     *
+     * @param channel target channel, it is not closed
+     * @return number of bytes written
+     */
+    public static long backup(WritableByteChannel channel) {
+        try (NftSession session = sessionPool().acquire()) {
+            return session.exec("list ruleset", channel);
+        }
+    }
+
+    /**
+     * replace live ruleset with the ruleset in buffer, flush and load are applied in a single transaction
+     * <p>
+     * the buffer holds nftables script or a json document as written by {@link #backup(WritableByteChannel)},
+     * it is passed to libnftables without decoding to a java string
+     *
+     * @param ruleset script or json document between position and limit, the position is not changed
+     */
+    public static void restore(ByteBuffer ruleset) {
+        exec(withFlush(ruleset));
+    }
+
+    /**
+     * replace live ruleset with a ruleset held in memory, see {@link #restore(ByteBuffer)}
+     *
+     * @param ruleset nftables script or json document, not a file path
+     */
+    public static void restoreRuleset(String ruleset) {
+        exec(withFlush(ByteBuffer.wrap(ruleset.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * replace live ruleset with tables, chains, sets, maps, flowtables and rules of {@link NFTables} in a single transaction
+     *
+     * @param nfTables ruleset to load
+     */
+    public static void restore(NFTables nfTables) {
+        batch().rulesetFlush().add(nfTables).commit();
+    }
+
+    /**
+     * prepend flush ruleset, as first command of a json document or first line of a script
+     */
+    private static ByteBuffer withFlush(ByteBuffer ruleset) {
+        ByteBuffer source = ruleset.duplicate();
+        int first = skipWhitespace(source, source.position());
+        if (first == source.limit() || source.get(first) != '{') {
+            byte[] flush = (NftCommands.rulesetFlush() + "\n").getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocateDirect(flush.length + source.remaining()).put(flush).put(source).flip();
+        }
+
+        int array = first;
+        while (array < source.limit() && source.get(array) != '[') array++;
+        if (array == source.limit()) throw new JSysboxException("Invalid nftables json document");
+        int next = skipWhitespace(source, array + 1);
+        boolean empty = next < source.limit() && source.get(next) == ']';
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(source.remaining() + JSON_FLUSH.length + 1);
+        buffer.put(source.duplicate().limit(array + 1));
+        buffer.put(JSON_FLUSH);
+        if (!empty) buffer.put((byte) ',');
+        buffer.put(source.position(array + 1));
+        return buffer.flip();
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int index) {
+        while (index < buffer.limit() && Character.isWhitespace(buffer.get(index))) index++;
+        return index;
+    }
+
     public static String serializeJson(NFTables nfTables) {
         return JsonUtils.toJson(nfTables);
     }
@@ -76,26 +423,27 @@ public class JFirewall {
         return JsonUtils.toObject(json, NFTables.class);
     }
 
+    /**
+     * encode ruleset in the binary snapshot format, see {@link NFTablesCodec}
+     *
+     * @param nfTables ruleset
+     * @return snapshot bytes
+     */
     public static byte[] serializeByteCode(NFTables nfTables) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
-            os.writeObject(nfTables);
-            os.flush();
-            return bos.toByteArray();
-        } catch (Exception e) {
-            throw new JSysboxException(e);
-        }
+        return NFTablesCodec.encode(nfTables);
     }
 
+    /**
+     * decode ruleset written by {@link #serializeByteCode(NFTables)}
+     *
+     * @param bytes snapshot bytes
+     * @return ruleset
+     */
     public static NFTables deserializeByteCode(byte[] bytes) {
-        try (ObjectInputStream os = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
-            return (NFTables) os.readObject();
-        } catch (Exception e) {
-            throw new JSysboxException(e);
-        }
+        return NFTablesCodec.decode(bytes);
     }
 
-    private static void checkCharacters(String str) {
+    static void checkCharacters(String str) {
         Matcher matcher = pattern.matcher(str);
         boolean matches = matcher.matches();
         if (!matches) throw new JSysboxException("String contains invalid character: " + str);
@@ -111,20 +459,11 @@ public class JFirewall {
     }
 
     public static NFTables nfTables() {
-        String json = export();
-        return JsonUtils.toObject(json, NFTables.class);
+        return exportToNFTables();
     }
 
     public static MetaInfo metaInfo() {
-        String json = export();
-        JsonNode root = JsonUtils.toObject(json, JsonNode.class);
-        ArrayNode nftablesArray = (ArrayNode) root.get("nftables");
-        for (JsonNode jsonNode : nftablesArray) {
-            if (jsonNode.has("metainfo")) {
-                return JsonUtils.toObject(jsonNode.get("metainfo").toString(), MetaInfo.class);
-            }
-        }
-        return null;
+        return rulesetCache().nfTables().getMetaInfo();
     }
 
     /**
@@ -135,13 +474,13 @@ public class JFirewall {
      */
     public static Table tableAdd(String name, TableType type) {
         checkCharacters(name);
-        exec("add table %s %s".formatted(type.getValue(), name));
+        exec(NftCommands.tableAdd(type, name));
         return table(name, type);
     }
 
     public static Table tableAdd(Table table) {
         checkCharacters(table.getName());
-        exec("add table %s %s".formatted(table.getType().getValue(), table.getName()));
+        exec(NftCommands.tableAdd(table.getType(), table.getName()));
         return table(table.getName(), table.getType());
     }
 
@@ -151,39 +490,57 @@ public class JFirewall {
      * @return List of tables {@link Table}
      */
     public static List<Table> tableList() {
-        String result = exec("list tables");
-        List<Table> tables = new ArrayList<>();
-        JsonNode jsonNode = JsonUtils.toObject(result, JsonNode.class);
-        JsonNode nftablesNode = jsonNode.get("nftables");
-        for (JsonNode node : nftablesNode) {
-            if (node.has("table")) {
-                Table table = JsonUtils.toObject(node.get("table").toString(), Table.class);
-                tables.add(table);
-            }
-        }
-        return tables;
+        return new ArrayList<>(rulesetCache().tables());
     }
 
     /**
-     * Rename table
+     * Rename table, the renamed copy and removal of the old table are applied in a single transaction
      *
      * @param handle  target table handle
      * @param newName table new name
      */
     public static synchronized void tableRename(int handle, String newName) {
+        checkCharacters(newName);
+        tableCheckExists(handle);
         Table table = table(handle);
-        List<List<Rule>> chainRules = chainList(table).stream().map(JFirewall::ruleList).toList();
-
-        tableRemove(handle);
-        Table newTable = tableAdd(newName, table.getType());
-        for (List<Rule> ruleList : chainRules) {
-            for (Rule rule : ruleList) {
-                Chain chain = rule.getChain();
-                chain.setTable(newTable);
-                Chain newChain = chainAdd(chain);
-                ruleAdd(newChain, rule.getExpressions(), rule.getStatements(), rule.getComment());
-            }
+        Table newTable = new Table(table.getType(), newName);
+        NFTables nfTables = exportToNFTables();
+
+        // build the renamed copy next to the old table, then drop the old one in the same transaction
+        NftBatch batch = batch().tableAdd(newTable);
+        Map<String, Chain> chains = new HashMap<>();
+        for (Chain chain : nfTables.getChains()) {
+            if (!sameTable(chain.getTable(), table)) continue;
+            Chain copy = new Chain(newTable, chain.getName(), 0, chain.getType(), chain.getHook(), chain.getPriority(), chain.getPolicy());
+            chains.put(chain.getName(), copy);
+            batch.chainAdd(copy);
+        }
+        for (Set set : nfTables.getSets()) {
+            if (!sameTable(set.getTable(), table)) continue;
+            batch.setAdd(new Set(set.getElements(), set.getFlags(), newTable, set.getName(), set.getType(), 0, set.getSize(), set.getTimeout(), set.getGcInterval(), set.getPolicy(), set.getComment()));
+        }
+        for (ir.moke.jsysbox.firewall.model.Map map : nfTables.getMaps()) {
+            if (!sameTable(map.getTable(), table)) continue;
+            batch.mapAdd(new ir.moke.jsysbox.firewall.model.Map(map.getElements(), map.getFlags(), newTable, map.getName(), map.getKeyType(), map.getDataType(), 0, map.getSize(), map.getTimeout(), map.getGcInterval(), map.getPolicy(), map.getComment()));
         }
+        for (VerdictMap map : nfTables.getVerdictMaps()) {
+            if (!sameTable(map.getTable(), table)) continue;
+            batch.mapAdd(new VerdictMap(map.getElements(), map.getFlags(), newTable, map.getName(), map.getKeyType(), 0, map.getSize(), map.getTimeout(), map.getGcInterval(), map.getPolicy(), map.getComment()));
+        }
+        for (Flowtable flowtable : nfTables.getFlowtables()) {
+            if (!sameTable(flowtable.getTable(), table)) continue;
+            batch.flowtableAdd(new Flowtable(newTable, flowtable.getName(), 0, flowtable.getHook(), flowtable.getPriority(), flowtable.getDevices(), flowtable.isOffload()));
+        }
+        for (Rule rule : nfTables.getRules()) {
+            if (!sameTable(rule.getChain().getTable(), table)) continue;
+            Chain chain = chains.get(rule.getChain().getName());
+            batch.ruleCopy(new Rule(chain, rule.getExpressions(), rule.getStatements(), rule.getComment(), null), null);
+        }
+        batch.tableRemove(table).commit();
+    }
+
+    private static boolean sameTable(Table t1, Table t2) {
+        return t1.getType() == t2.getType() && Objects.equals(t1.getName(), t2.getName());
     }
 
     /**
@@ -202,7 +559,7 @@ public class JFirewall {
      * @param table {@link Table}
      */
     public static void tableRemove(Table table) {
-        exec("delete table handle %s".formatted(table.getHandle()));
+        exec(NftCommands.tableRemove(table));
     }
 
     /**
@@ -211,8 +568,7 @@ public class JFirewall {
      * @param handle table handle id
      */
     public static void tableCheckExists(int handle) {
-        boolean exists = tableList().stream().anyMatch(item -> item.getHandle() == handle);
-        if (!exists) throw new JSysboxException("Table with handle %s does not exists".formatted(handle));
+        if (rulesetCache().table(handle) == null) throw new JSysboxException("Table with handle %s does not exists".formatted(handle));
     }
 
     /**
@@ -222,11 +578,7 @@ public class JFirewall {
      * @return table {@link Table}
      */
     public static Table table(int handle) {
-        return tableList()
-                .stream()
-                .filter(item -> item.getHandle() == handle)
-                .findFirst()
-                .orElse(null);
+        return rulesetCache().table(handle);
     }
 
     /**
@@ -236,12 +588,7 @@ public class JFirewall {
      * @return table {@link Table}
      */
     public static Table table(String name, TableType type) {
-        return tableList()
-                .stream()
-                .filter(item -> item.getName().equals(name))
-                .filter(item -> item.getType().equals(type))
-                .findFirst()
-                .orElse(null);
+        return rulesetCache().table(name, type);
     }
 
     /**
@@ -257,14 +604,7 @@ public class JFirewall {
      */
     public static Chain chainAdd(Table table, String name, ChainType type, ChainHook hook, ChainPolicy policy, Integer priority) throws JSysboxException {
         priority = calculatePriority(table, priority);
-        String cmd = "add chain %s %s %s {type %s hook %s priority %s ; policy %s ; }";
-
-        String tableType = table.getType().getValue();
-        String tableName = table.getName();
-        String chainType = type.getValue();
-        String chainHook = hook.getValue();
-        String chainPolicy = type.equals(ChainType.NAT) ? ChainPolicy.ACCEPT.getValue() : policy.getValue();
-        exec(cmd.formatted(tableType, tableName, name, chainType, chainHook, priority, chainPolicy));
+        exec(NftCommands.chainAdd(table, name, type, hook, policy, priority));
 
         return chain(table, name);
     }
@@ -278,8 +618,7 @@ public class JFirewall {
      */
     public static Chain chainAdd(Table table, String name) throws JSysboxException {
         checkCharacters(name);
-        String cmd = "add chain %s %s %s";
-        exec(cmd.formatted(table.getType().getValue(), table.getName(), name));
+        exec(NftCommands.chainAdd(table, name));
         return chain(table, name);
     }
 
@@ -288,8 +627,7 @@ public class JFirewall {
         if (table == null) throw new JSysboxException("Table with handle %s does not exists".formatted(tableHandle));
 
         checkCharacters(name);
-        String cmd = "add chain %s %s %s";
-        exec(cmd.formatted(table.getType().getValue(), table.getName(), name));
+        exec(NftCommands.chainAdd(table, name));
         return chain(table, name);
     }
 
@@ -307,83 +645,71 @@ public class JFirewall {
      * @return list of chains {@link Chain}
      */
     public static List<Chain> chainList() {
-        String result = exec("list chains");
-        List<Chain> chains = new ArrayList<>();
-        JsonNode jsonNode = JsonUtils.toObject(result, JsonNode.class);
-        JsonNode nftablesNode = jsonNode.get("nftables");
-        for (JsonNode node : nftablesNode) {
-            if (node.has("chain")) {
-                Chain chain = JsonUtils.toObject(node.get("chain").toString(), Chain.class);
-                chains.add(chain);
-            }
-        }
-        return chains;
+        return new ArrayList<>(rulesetCache().chains());
     }
 
     public static List<Chain> chainList(Table table) {
-        return chainList().stream().filter(item -> item.getTable().equals(table)).toList();
+        return new ArrayList<>(rulesetCache().chains(table));
     }
 
     public static List<Chain> chainList(int tableHandle) {
-        return chainList().stream().filter(item -> item.getTable().getHandle() == tableHandle).toList();
+        Table table = table(tableHandle);
+        return table != null ? chainList(table) : new ArrayList<>();
     }
 
     public static Chain chain(Table table, String name) {
-        return chainList().stream()
-                .filter(item -> item.getTable().equals(table))
-                .filter(item -> item.getName().equals(name))
-                .findFirst()
-                .orElse(null);
+        return rulesetCache().chain(table, name);
     }
 
     public static Chain chain(int tableHandle, int chainHandle) {
-        return chainList().stream()
-                .filter(item -> item.getTable().getHandle() == tableHandle)
-                .filter(item -> item.getHandle() == chainHandle)
-                .findFirst()
-                .orElse(null);
+        Table table = table(tableHandle);
+        return table != null ? chain(table, chainHandle) : null;
     }
 
     public static Chain chain(Table table, int handle) {
-        return chainList().stream()
-                .filter(item -> item.getTable().equals(table))
-                .filter(item -> item.getHandle() == handle)
-                .findFirst()
-                .orElse(null);
+        return rulesetCache().chain(table, handle);
     }
 
     public static Chain chain(String tableName, TableType tableType, String name) {
-        return chainList().stream()
-                .filter(item -> item.getTable().getName().equals(tableName))
-                .filter(item -> item.getTable().getType().equals(tableType))
-                .filter(item -> item.getName().equals(name))
-                .findFirst()
-                .orElse(null);
+        return chain(new Table(tableType, tableName), name);
     }
 
     /**
-     * Update chain properties
+     * Update chain properties. Name and policy are changed in place, changing type, hook or priority
+     * recreates the chain with its rules in a single transaction.
+     * The given chain is not modified, it may be an object of the ruleset cache.
      *
      * @param chain instance of {@link Chain}
      * @param name  new chain name
+     * @return updated chain
      */
-    public static synchronized void chainUpdate(Chain chain, String name, ChainType type, ChainPolicy policy, ChainHook hook, Integer priority) {
-        List<Rule> rules = ruleList(chain);
-
-        // remove old chain
-        chainRemove(chain);
-
-        // set new name and apply on firewall
-        Optional.ofNullable(name).ifPresent(chain::setName);
-        Optional.ofNullable(policy).ifPresent(chain::setPolicy);
-        Optional.ofNullable(hook).ifPresent(chain::setHook);
-        Optional.ofNullable(type).ifPresent(chain::setType);
-        Optional.ofNullable(priority).ifPresent(chain::setPriority);
-
-        Chain newChain = chainAdd(chain);
-        for (Rule rule : rules) {
-            ruleAdd(newChain, rule.getExpressions(), rule.getStatements(), rule.getComment());
+    public static synchronized Chain chainUpdate(Chain chain, String name, ChainType type, ChainPolicy policy, ChainHook hook, Integer priority) {
+        boolean rebuild = (type != null && type != chain.getType())
+                || (hook != null && hook != chain.getHook())
+                || (priority != null && !priority.equals(chain.getPriority()));
+        boolean rename = name != null && !name.equals(chain.getName());
+        boolean updatePolicy = policy != null && policy != chain.getPolicy();
+        Chain updated = new Chain(chain.getTable(),
+                name != null ? name : chain.getName(),
+                chain.getHandle(),
+                type != null ? type : chain.getType(),
+                hook != null ? hook : chain.getHook(),
+                priority != null ? priority : chain.getPriority(),
+                policy != null ? policy : chain.getPolicy());
+
+        NftBatch batch = batch();
+        if (rebuild) {
+            // type, hook and priority of a chain are fixed by the kernel, recreate it with its rules
+            List<Rule> rules = ruleList(chain);
+            batch.chainFlush(chain).chainRemove(chain);
+            batch.chainAdd(updated);
+            rules.forEach(rule -> batch.ruleCopy(new Rule(updated, rule.getExpressions(), rule.getStatements(), rule.getComment(), null), null));
+        } else {
+            if (rename) batch.chainRename(chain, name);
+            if (updatePolicy && updated.getType() != null) batch.chainAdd(updated);
         }
+        batch.commit();
+        return chain(chain.getTable(), updated.getName());
     }
 
     /**
@@ -392,38 +718,88 @@ public class JFirewall {
      * @param chain chain object to remove {@link Chain}
      */
     public static void chainRemove(Chain chain) {
-        int handle = chain.getHandle();
-        TableType tableType = chain.getTable().getType();
-        String tableName = chain.getTable().getName();
-        String cmd = "delete chain %s %s handle %s".formatted(tableType.getValue(), tableName, handle);
-        exec(cmd);
+        exec(NftCommands.chainRemove(chain));
     }
 
     /**
-     * Update chain priority
+     * Update chain priority. Base chains of the same hook are evaluated by priority, only chains
+     * out of order get a new priority and are recreated with their rules, in a single transaction.
      *
      * @param tableHandle  table of chain
      * @param chainHandles List of new chain handles order
      */
     public static synchronized List<Chain> chainSwitch(int tableHandle, List<Integer> chainHandles) {
         List<Chain> currentChains = chainList(tableHandle);
-        Map<Chain, List<Rule>> map = new LinkedHashMap<>();
+        List<Chain> ordered = new ArrayList<>();
         for (Integer chainHandle : chainHandles) {
-            for (int i = 0; i < currentChains.size(); i++) {
-                Chain currentChain = currentChains.get(i);
-                if (currentChain.getHandle() == chainHandle) {
-                    currentChain.setPriority(i);
-                    map.put(currentChain, ruleList(currentChain));
-                }
+            currentChains.stream().filter(item -> item.getHandle() == chainHandle).findFirst().ifPresent(ordered::add);
+        }
+        currentChains.stream().filter(item -> !ordered.contains(item)).forEach(ordered::add);
+
+        // only base chains on the same hook have an order, given by their priority
+        Map<ChainHook, List<Chain>> hooks = new LinkedHashMap<>();
+        ordered.stream()
+                .filter(item -> item.getHook() != null)
+                .forEach(item -> hooks.computeIfAbsent(item.getHook(), k -> new ArrayList<>()).add(item));
+
+        NftBatch batch = batch();
+        for (List<Chain> chains : hooks.values()) {
+            int[] priorities = chainPriorities(chains);
+            for (int i = 0; i < chains.size(); i++) {
+                Chain chain = chains.get(i);
+                int current = chain.getPriority() != null ? chain.getPriority() : 0;
+                if (priorities[i] == current) continue;
+                List<Rule> rules = ruleList(chain);
+                batch.chainFlush(chain).chainRemove(chain);
+                Chain copy = new Chain(chain.getTable(), chain.getName(), 0, chain.getType(), chain.getHook(), priorities[i], chain.getPolicy());
+                batch.chainAdd(copy);
+                rules.forEach(rule -> batch.ruleCopy(new Rule(copy, rule.getExpressions(), rule.getStatements(), rule.getComment(), null), null));
             }
         }
+        batch.commit();
+        return chainList(tableHandle);
+    }
 
-        currentChains.forEach(JFirewall::chainRemove);
-        for (Chain chain : map.keySet()) {
-            chainAdd(chain);
-            map.get(chain).forEach(JFirewall::ruleAdd);
+    /**
+     * new priorities for chains in requested order, chains that are already in order keep their priority
+     *
+     * @param chains base chains of one hook in requested order
+     * @return strictly increasing priorities
+     */
+    private static int[] chainPriorities(List<Chain> chains) {
+        int size = chains.size();
+        int[] current = new int[size];
+        for (int i = 0; i < size; i++) {
+            current[i] = chains.get(i).getPriority() != null ? chains.get(i).getPriority() : 0;
         }
-        return chainList(tableHandle);
+
+        // rank priorities, the kept run is the longest strictly increasing one
+        int[] sorted = Arrays.stream(current).distinct().sorted().toArray();
+        int[] ranks = new int[size];
+        for (int i = 0; i < size; i++) ranks[i] = Arrays.binarySearch(sorted, current[i]);
+        boolean[] kept = NftReconciler.longestIncreasing(ranks);
+
+        int[] result = new int[size];
+        Integer previous = null;
+        for (int i = 0; i < size; i++) {
+            if (kept[i]) {
+                result[i] = current[i];
+            } else {
+                Integer next = null;
+                for (int j = i + 1; j < size && next == null; j++) {
+                    if (kept[j]) next = current[j];
+                }
+                int candidate = previous != null ? previous + 1 : (next != null ? next - 1 : current[i]);
+                if (next != null && candidate >= next) {
+                    // no free priority between neighbours, renumber the whole hook
+                    for (int j = 0; j < size; j++) result[j] = sorted[0] + j;
+                    return result;
+                }
+                result[i] = candidate;
+            }
+            previous = result[i];
+        }
+        return result;
     }
 
     private static Integer calculatePriority(Table table, Integer priority) {
@@ -448,18 +824,7 @@ public class JFirewall {
      * @param policy     set policy type {@link SetPolicy}
      */
     public static Set setAdd(TableType tableType, String tableName, String setName, SetType setType, List<FlagType> flags, Integer timeout, Integer gcInterval, Integer size, String comment, SetPolicy policy) {
-        StringBuilder sb = new StringBuilder("add set %s %s %s { type %s".formatted(tableType.getValue(), tableName, setName, setType.getValue())).append(";");
-        if (flags != null && !flags.isEmpty()) {
-            sb.append(" flags ").append(String.join(",", flags.stream().map(FlagType::getValue).toList())).append(";");
-        }
-        Optional.ofNullable(timeout).ifPresent(item -> sb.append(" timeout ").append(item).append("s").append(";"));
-        Optional.ofNullable(gcInterval).ifPresent(item -> sb.append(" gc-interval ").append(item).append("s").append(";"));
-        Optional.ofNullable(size).ifPresent(item -> sb.append(" size ").append(item).append(";"));
-        Optional.ofNullable(comment).ifPresent(item -> sb.append(" comment ").append("\"").append(item).append("\"").append(";"));
-        Optional.ofNullable(policy).ifPresent(item -> sb.append(" policy ").append(policy.getValue()).append(";"));
-        if (flags != null && flags.contains(FlagType.INTERVAL)) sb.append(" auto-merge ").append(";");
-        sb.append(" } ");
-        exec(sb.toString());
+        batch().setAdd(new Set(null, flags, new Table(tableType, tableName), setName, setType, 0, size, timeout, gcInterval, policy, comment)).commit();
         return set(tableName, tableType, setName);
     }
 
@@ -472,29 +837,19 @@ public class JFirewall {
      * @return the set {@link Set}
      */
     public static Set set(String tableName, TableType tableType, String setName) {
-        return setList().stream()
-                .filter(item -> item.getTable().getName().equals(tableName))
-                .filter(item -> item.getTable().getType().equals(tableType))
-                .filter(item -> item.getName().equals(setName))
-                .findFirst()
-                .orElse(null);
+        return set(new Table(tableType, tableName), setName);
     }
 
     public static Set set(Table table, String setName) {
-        return set(table.getName(), table.getType(), setName);
+        return refresh(rulesetCache().set(table, setName));
     }
 
     public static Set set(Table table, int handle) {
-        return setList().stream()
-                .filter(item -> item.getTable().equals(table))
-                .filter(item -> item.getHandle() == handle)
-                .findFirst().orElse(null);
+        return refresh(rulesetCache().set(table, handle));
     }
 
     public static List<Set> set(Table table) {
-        return setList().stream()
-                .filter(item -> item.getTable().equals(table))
-                .toList();
+        return rulesetCache().sets(table).stream().map(JFirewall::refresh).toList();
     }
 
     /**
@@ -524,17 +879,35 @@ public class JFirewall {
      * @return list of {@link Set}
      */
     public static List<Set> setList() {
-        String result = exec("list sets");
-        List<Set> sets = new ArrayList<>();
-        JsonNode jsonNode = JsonUtils.toObject(result, JsonNode.class);
-        JsonNode nftablesNode = jsonNode.get("nftables");
-        for (JsonNode node : nftablesNode) {
-            if (node.has("set")) {
-                Set set = JsonUtils.toObject(node.get("set").toString(), Set.class);
-                sets.add(set);
-            }
-        }
-        return sets;
+        return new ArrayList<>(rulesetCache().sets().stream().map(JFirewall::refresh).toList());
+    }
+
+    /**
+     * synchronize elements of set with a desired collection, see {@link SetSync}
+     *
+     * @param set target set {@link Set}
+     */
+    public static SetSync setSync(Set set) {
+        return new SetSync(set);
+    }
+
+    /**
+     * the kernel changes elements of timeout and dynamic sets without a new ruleset generation,
+     * read those sets again instead of returning cached elements
+     */
+    private static Set refresh(Set set) {
+        if (set == null) return null;
+        boolean dynamic = set.getTimeout() != null
+                || (set.getFlags() != null && (set.getFlags().contains(FlagType.TIMEOUT) || set.getFlags().contains(FlagType.DYNAMIC)));
+        if (!dynamic) return set;
+
+        Table table = set.getTable();
+        String result = exec("list set %s %s %s".formatted(table.getType().getValue(), table.getName(), set.getName()));
+        List<Set> sets = NFTablesReader.read(result).getSets();
+        if (sets.isEmpty()) return set;
+        Set fresh = sets.getFirst();
+        fresh.setTable(table);
+        return fresh;
     }
 
     public static synchronized void setRename(int tableHandle, int setHandle, String newName) {
@@ -549,11 +922,7 @@ public class JFirewall {
      * @param set set to remove {@link Set}
      */
     public static void setRemove(Set set) {
-        int handle = set.getHandle();
-        TableType tableType = set.getTable().getType();
-        String tableName = set.getTable().getName();
-        String cmd = "delete set %s %s handle %s";
-        exec(cmd.formatted(tableType.getValue(), tableName, handle));
+        exec(NftCommands.setRemove(set));
     }
 
     /**
@@ -563,11 +932,7 @@ public class JFirewall {
      * @param items list of elements
      */
     public static void setAddElement(Set set, List<String> items) {
-        String tableType = set.getTable().getType().getValue();
-        String tableName = set.getTable().getName();
-        String name = set.getName();
-        String cmd = "add element %s %s %s { %s }".formatted(tableType, tableName, name, String.join(",", items));
-        exec(cmd);
+        batch().setAddElement(set, items).commit();
     }
 
     /**
@@ -577,11 +942,155 @@ public class JFirewall {
      * @param items list of elements
      */
     public static void setRemoveElement(Set set, List<String> items) {
-        String tableType = set.getTable().getType().getValue();
-        String tableName = set.getTable().getName();
-        String name = set.getName();
-        String cmd = "delete element %s %s %s { %s }".formatted(tableType, tableName, name, String.join(",", items));
-        exec(cmd);
+        batch().setRemoveElement(set, items).commit();
+    }
+
+    /**
+     * nftables add new map, elements of the map are added in the same transaction. When the map
+     * exists, elements mapped to another value are replaced
+     * example :
+     * add map inet filter ports { type inet_service : ipv4_addr; }
+     *
+     * @param map map {@link ir.moke.jsysbox.firewall.model.Map}
+     * @return the created map
+     */
+    public static ir.moke.jsysbox.firewall.model.Map mapAdd(ir.moke.jsysbox.firewall.model.Map map) {
+        mapAdd(batch(), map).commit();
+        return map(map.getTable(), map.getName());
+    }
+
+    /**
+     * nftables add new verdict map, elements of the map are added in the same transaction. When the map
+     * exists, elements mapped to another verdict are replaced
+     * example :
+     * add map inet filter tenants { type ipv4_addr . inet_service : verdict; }
+     *
+     * @param map verdict map {@link VerdictMap}
+     * @return the created verdict map
+     */
+    public static VerdictMap verdictMapAdd(VerdictMap map) {
+        mapAdd(batch(), map).commit();
+        return verdictMap(map.getTable(), map.getName());
+    }
+
+    private static <V> NftBatch mapAdd(NftBatch batch, NamedMap<V> map) {
+        // the kernel refuses to remap an existing key, delete it first in the same transaction
+        NamedMap<V> live = liveMap(map);
+        if (live != null) batch.mapRemoveElement(live, NftBatch.changedKeys(live, map.getElements()));
+        return batch.mapAdd(map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> NamedMap<V> liveMap(NamedMap<V> map) {
+        NamedMap<?> live = map instanceof VerdictMap ? verdictMap(map.getTable(), map.getName()) : map(map.getTable(), map.getName());
+        return (NamedMap<V>) live;
+    }
+
+    public static ir.moke.jsysbox.firewall.model.Map map(Table table, String name) {
+        return rulesetCache().map(table, name);
+    }
+
+    public static List<ir.moke.jsysbox.firewall.model.Map> map(Table table) {
+        return new ArrayList<>(rulesetCache().maps(table));
+    }
+
+    public static VerdictMap verdictMap(Table table, String name) {
+        return rulesetCache().verdictMap(table, name);
+    }
+
+    public static List<VerdictMap> verdictMap(Table table) {
+        return new ArrayList<>(rulesetCache().verdictMaps(table));
+    }
+
+    /**
+     * nftables list of current maps
+     *
+     * @return list of {@link ir.moke.jsysbox.firewall.model.Map}
+     */
+    public static List<ir.moke.jsysbox.firewall.model.Map> mapList() {
+        return new ArrayList<>(rulesetCache().maps());
+    }
+
+    /**
+     * nftables list of current verdict maps
+     *
+     * @return list of {@link VerdictMap}
+     */
+    public static List<VerdictMap> verdictMapList() {
+        return new ArrayList<>(rulesetCache().verdictMaps());
+    }
+
+    /**
+     * nftables remove map or verdict map
+     *
+     * @param map map to remove
+     */
+    public static void mapRemove(NamedMap<?> map) {
+        batch().mapRemove(map).commit();
+    }
+
+    /**
+     * add or replace elements of map in one transaction
+     * example :
+     * add element inet filter tenants { 10.0.0.1 . 22 : jump tenant_a, 10.0.0.2 . 22 : drop }
+     *
+     * @param map   target map
+     * @param items value by key
+     */
+    public static <V> void mapAddElement(NamedMap<V> map, Map<String, V> items) {
+        NamedMap<V> live = liveMap(map);
+        NftBatch batch = batch();
+        if (live != null) {
+            batch.mapReplaceElement(live, items);
+        } else {
+            batch.mapAddElement(map, items);
+        }
+        batch.commit();
+    }
+
+    /**
+     * remove elements of map in one transaction
+     *
+     * @param map  target map
+     * @param keys keys of elements
+     */
+    public static void mapRemoveElement(NamedMap<?> map, List<String> keys) {
+        batch().mapRemoveElement(map, keys).commit();
+    }
+
+    /**
+     * nftables add new flowtable
+     * example :
+     * add flowtable inet filter ft { hook ingress priority 0; devices = { eth0, eth1 }; }
+     *
+     * @param flowtable flowtable {@link Flowtable}
+     * @return the created flowtable
+     */
+    public static Flowtable flowtableAdd(Flowtable flowtable) {
+        batch().flowtableAdd(flowtable).commit();
+        return flowtable(flowtable.getTable(), flowtable.getName());
+    }
+
+    public static Flowtable flowtable(Table table, String name) {
+        return rulesetCache().flowtable(table, name);
+    }
+
+    /**
+     * nftables list of current flowtables
+     *
+     * @return list of {@link Flowtable}
+     */
+    public static List<Flowtable> flowtableList() {
+        return new ArrayList<>(rulesetCache().flowtables());
+    }
+
+    /**
+     * nftables remove flowtable, rules with {@code flow add} to the flowtable must be removed first
+     *
+     * @param flowtable flowtable to remove
+     */
+    public static void flowtableRemove(Flowtable flowtable) {
+        batch().flowtableRemove(flowtable).commit();
     }
 
     /**
@@ -592,29 +1101,7 @@ public class JFirewall {
      * add rule filter output ip daddr 192.168.0.0/24 accept
      */
     public static void ruleAdd(Chain chain, List<Expression> expressions, List<Statement> statements, String comment) {
-        try {
-            Table table = chain.getTable();
-            String chainName = chain.getName();
-            TableType tableType = table.getType();
-            String tableName = table.getName();
-            String expr = expressions != null && !expressions.isEmpty() ? String.join(" ", expressions.stream().map(Expression::toString).toList()) : "";
-            String stt = statements != null && !statements.isEmpty() ? String.join(" ", statements.stream().sorted(sortStatements()).map(Statement::toString).toList()) : "";
-
-            StringBuilder sb = new StringBuilder("add rule");
-            sb.append(" ").append(tableType.getValue());
-            sb.append(" ").append(tableName);
-            sb.append(" ").append(chainName);
-            sb.append(" ").append(expr);
-            sb.append(" ").append(stt);
-            Optional.ofNullable(comment).ifPresent(item -> sb.append(" comment ").append("\"").append(item).append("\""));
-            exec(sb.toString());
-        } catch (Exception e) {
-            if (e instanceof JSysboxException jse) {
-                logger.error("nftables syntax error", jse);
-            } else {
-                throw new RuntimeException(e);
-            }
-        }
+        batch().ruleAdd(chain, expressions, statements, comment).commit();
     }
 
     public static void ruleAdd(Rule rule) {
@@ -632,27 +1119,7 @@ public class JFirewall {
     }
 
     public static void ruleInsert(Chain chain, List<Expression> expressions, List<Statement> statements, String comment, int handle) {
-        try {
-            Table table = chain.getTable();
-            String chainName = chain.getName();
-            TableType tableType = table.getType();
-            String tableName = table.getName();
-            String sb = "insert rule" +
-                    " " + tableType.getValue() +
-                    " " + tableName +
-                    " " + chainName +
-                    " position " + handle +
-                    " " + String.join(" ", expressions.stream().map(Expression::toString).toList()) +
-                    " " + String.join(" ", statements.stream().sorted(sortStatements()).map(Statement::toString).toList()) +
-                    " comment " + "\"" + comment + "\"";
-            exec(sb);
-        } catch (Exception e) {
-            if (e instanceof JSysboxException jse) {
-                logger.error("nftables syntax error", jse);
-            } else {
-                throw new RuntimeException(e);
-            }
-        }
+        batch().ruleInsert(new Rule(chain, expressions, statements, comment, null), handle).commit();
     }
 
     /**
@@ -661,15 +1128,14 @@ public class JFirewall {
     public static List<Rule> ruleList(Chain chain) {
         String result = exec(chain != null ? "list chain %s %s %s".formatted(chain.getTable().getType().getValue(), chain.getTable().getName(), chain.getName()) : "list ruleset");
         List<Rule> rules = new ArrayList<>();
-        JsonNode jsonNode = JsonUtils.toObject(result, JsonNode.class);
-        JsonNode nftablesNode = jsonNode.get("nftables");
-        for (JsonNode node : nftablesNode) {
-            if (node.has("rule")) {
-                JsonNode ruleNode = node.get("rule");
-                Rule rule = JsonUtils.toObject(ruleNode.toString(), Rule.class);
+        NFTablesReader.read(result, new NFTablesVisitor() {
+            @Override
+            public void rule(Rule rule) {
+                Chain ruleChain = rulesetCache().chain(rule.getChain().getTable(), rule.getChain().getName());
+                if (ruleChain != null) rule.setChain(ruleChain);
                 rules.add(rule);
             }
-        }
+        });
         return rules;
     }
 
@@ -680,56 +1146,82 @@ public class JFirewall {
      */
     public static void ruleCheckExists(Chain chain, long id) {
         if (chain == null) throw new JSysboxException("Empty chain");
-        boolean exists = ruleList(chain)
-                .stream()
-                .filter(item -> item.getChain().getTable().equals(chain.getTable()))
-                .filter(item -> item.getChain().equals(chain))
-                .anyMatch(item -> item.getHandle() == id);
-        if (!exists) throw new JSysboxException("rule with handle %s does not exists".formatted(id));
+        if (rulesetCache().rule(chain, id) == null) throw new JSysboxException("rule with handle %s does not exists".formatted(id));
     }
 
     public static Rule rule(Chain chain, int handle) {
-        return ruleList(chain)
-                .stream()
-                .filter(item -> item.getChain().equals(chain))
-                .filter(item -> item.getHandle() == handle)
-                .findFirst()
-                .orElse(null);
+        return rulesetCache().rule(chain, handle);
     }
 
     /**
      * Update rule
      */
     public static synchronized void ruleUpdate(Chain chain, int handle, List<Expression> expressions, List<Statement> statements, String comment) {
-        Rule rule = rule(chain, handle);
-        rule.setExpressions(expressions);
-        rule.setStatements(statements);
-        rule.setComment(comment);
-        ruleUpdate(rule);
+        ruleCheckExists(chain, handle);
+        ruleUpdate(new Rule(chain, expressions, statements, comment, handle));
     }
 
+    /**
+     * replace rule in place, rule keeps its handle, position and counter values
+     *
+     * @param rule rule with handle of an existing rule
+     */
     public static synchronized void ruleUpdate(Rule rule) {
-        List<Rule> ruleList = ruleList(rule.getChain());
-        ruleList.forEach(JFirewall::ruleRemove);
+        ruleUpdate(List.of(rule));
+    }
+
+    /**
+     * replace many rules in a single transaction, see {@link #ruleUpdate(Rule)}
+     *
+     * @param rules rules with handle of existing rules
+     */
+    public static synchronized void ruleUpdate(List<Rule> rules) {
+        Map<String, List<Rule>> liveRules = new HashMap<>();
+        NftBatch batch = batch();
+        for (Rule rule : rules) {
+            Chain chain = rule.getChain();
+            if (chain == null) throw new JSysboxException("Empty chain");
+            if (rule.getHandle() == null) throw new JSysboxException("rule handle is required");
+            String key = "%s %s %s".formatted(chain.getTable().getType().getValue(), chain.getTable().getName(), chain.getName());
+            Rule live = liveRules.computeIfAbsent(key, k -> ruleList(chain))
+                    .stream()
+                    .filter(item -> item.getHandle().equals(rule.getHandle()))
+                    .findFirst()
+                    .orElseThrow(() -> new JSysboxException("rule with handle %s does not exists".formatted(rule.getHandle())));
+            batch.ruleReplace(new Rule(chain, rule.getExpressions(), keepCounter(rule.getStatements(), live.getStatements()), rule.getComment(), rule.getHandle()));
+        }
+        batch.commit();
+    }
 
-        int index = ruleList.indexOf(rule);
-        if (index != -1) ruleList.set(index, rule);
-        ruleList.forEach(JFirewall::ruleAdd);
+    private static List<Statement> keepCounter(List<Statement> statements, List<Statement> liveStatements) {
+        if (statements == null || liveStatements == null) return statements;
+        CounterStatement liveCounter = liveStatements.stream()
+                .filter(CounterStatement.class::isInstance)
+                .map(CounterStatement.class::cast)
+                .findFirst()
+                .orElse(null);
+        if (liveCounter == null) return statements;
+        return statements.stream()
+                .map(item -> item instanceof CounterStatement counter && counter.getPackets() == null ? liveCounter : item)
+                .toList();
     }
 
     /**
-     * Change priority of rule r1 and r2 .
+     * Change order of rules. Only rules that are out of order are moved, in a single transaction.
+     * Moved rules keep their counters but get a new handle, rules missing from the list go to the end of chain.
      *
      * @param chain       Target chain
      * @param ruleHandles new order list of rule handles
      */
     public static synchronized List<Rule> ruleSwitch(Chain chain, List<Integer> ruleHandles) {
         List<Rule> rules = ruleList(chain);
-        rules.forEach(JFirewall::ruleRemove);
-
+        List<Rule> ordered = new ArrayList<>();
         for (Integer handle : ruleHandles) {
-            rules.stream().filter(item -> item.getHandle().equals(handle)).findFirst().ifPresent(JFirewall::ruleAdd);
+            rules.stream().filter(item -> item.getHandle().equals(handle)).findFirst().ifPresent(ordered::add);
         }
+        rules.stream().filter(item -> !ordered.contains(item)).forEach(ordered::add);
+
+        NftReconciler.reorder(rules, ordered).commit();
         return ruleList(chain);
     }
 
@@ -739,26 +1231,13 @@ public class JFirewall {
      */
     public static void ruleRemove(Chain chain, long handleId) {
         ruleCheckExists(chain, handleId);
-        String tableName = chain.getTable().getName();
-        TableType tableType = chain.getTable().getType();
-        String chainName = chain.getName();
-        String cmd = "delete rule %s %s %s handle %s".formatted(tableType.getValue(), tableName, chainName, handleId);
-        exec(cmd);
+        exec(NftCommands.ruleRemove(chain, handleId));
     }
 
     public static void ruleRemove(Rule rule) {
         ruleRemove(rule.getChain(), rule.getHandle());
     }
 
-    private static Comparator<Statement> sortStatements() {
-        return (stt1, stt2) -> {
-            if (stt1 instanceof VerdictStatement && !(stt2 instanceof VerdictStatement)) {
-                return 1;
-            } else if (!(stt1 instanceof VerdictStatement) && stt2 instanceof VerdictStatement) {
-                return -1;
-            } else {
-                return 0;
-            }
-        };
+    private record Namespace(NftSessionPool sessionPool, RulesetCache rulesetCache) {
     }
 }
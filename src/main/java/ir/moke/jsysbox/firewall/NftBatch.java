@@ -0,0 +1,428 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collect nftables operations and submit them as one transaction.
+ * <p>
+ * libnftables turns all commands of a single buffer into one netlink batch, so {@link #commit()}
+ * is all-or-nothing: either every operation is applied or the ruleset stays untouched.
+ * Operations are written as libnftables json commands when they are added, rules and sets are not
+ * formatted as text and parsed again by the nft grammar. The nftables script of the operations is
+ * rendered only on demand, for {@link #script()}, {@link #validate()} and batches json can not express.
+ * Objects added to a batch must not be changed until it is committed. Nothing is read back after
+ * commit, use {@link JFirewall} lookups when handles are needed.
+ * <p>
+ * example :
+ * <pre>
+ * JFirewall.batch()
+ *         .tableAdd(table)
+ *         .chainAdd(chain)
+ *         .ruleAdd(rule)
+ *         .commit();
+ * </pre>
+ */
+public class NftBatch {
+    private static final Logger logger = LoggerFactory.getLogger(NftBatch.class);
+    private final List<Supplier<String>> scripts = new ArrayList<>();
+    private final List<Object> items = new ArrayList<>();
+    // null once an operation can only be written as script
+    private NftJson.Document document = new NftJson.Document();
+    // script checked by the last successful validate(), null once an operation is added after it
+    private String validated;
+
+    NftBatch() {
+    }
+
+    /**
+     * remove all tables of all families, followed by the other operations of the batch the ruleset is replaced atomically
+     */
+    public NftBatch rulesetFlush() {
+        add(null, NftCommands::rulesetFlush, NftJson.rulesetFlush());
+        return this;
+    }
+
+    public NftBatch tableAdd(Table table) {
+        JFirewall.checkCharacters(table.getName());
+        add(table, () -> NftCommands.tableAdd(table.getType(), table.getName()), NftJson.tableAdd(table.getType(), table.getName()));
+        return this;
+    }
+
+    public NftBatch tableRemove(Table table) {
+        add(table, () -> NftCommands.tableRemove(table), NftJson.tableRemove(table));
+        return this;
+    }
+
+    public NftBatch chainAdd(Chain chain) {
+        JFirewall.checkCharacters(chain.getName());
+        add(chain, () -> NftCommands.chainAdd(chain), NftJson.chainAdd(chain));
+        return this;
+    }
+
+    public NftBatch chainRemove(Chain chain) {
+        add(chain, () -> NftCommands.chainRemove(chain), NftJson.chainRemove(chain));
+        return this;
+    }
+
+    public NftBatch chainRename(Chain chain, String newName) {
+        JFirewall.checkCharacters(newName);
+        add(chain, () -> NftCommands.chainRename(chain, newName), NftJson.chainRename(chain, newName));
+        return this;
+    }
+
+    /**
+     * remove all rules of chain
+     *
+     * @param chain {@link Chain}
+     */
+    public NftBatch chainFlush(Chain chain) {
+        add(chain, () -> NftCommands.chainFlush(chain), NftJson.chainFlush(chain));
+        return this;
+    }
+
+    /**
+     * add set, elements of the set are added in the same batch
+     *
+     * @param set {@link Set}
+     */
+    public NftBatch setAdd(Set set) {
+        add(set, () -> NftCommands.setAdd(set), NftJson.setAdd(set));
+        if (set.getElements() != null && !set.getElements().isEmpty()) setAddElement(set, set.getElements());
+        return this;
+    }
+
+    public NftBatch setRemove(Set set) {
+        add(set, () -> NftCommands.setRemove(set), NftJson.setRemove(set));
+        return this;
+    }
+
+    public NftBatch setAddElement(Set set, List<String> items) {
+        if (items != null && !items.isEmpty()) add(set, () -> NftCommands.setAddElement(set, items), NftJson.setAddElement(set, items));
+        return this;
+    }
+
+    /**
+     * add elements with their own timeout
+     *
+     * @param set   {@link Set} with timeout flag
+     * @param items element to timeout, null timeout uses timeout of the set
+     */
+    public NftBatch setAddElement(Set set, Map<String, Duration> items) {
+        if (items != null && !items.isEmpty()) add(set, () -> NftCommands.setAddElement(set, items), NftJson.setAddElement(set, items));
+        return this;
+    }
+
+    public NftBatch setRemoveElement(Set set, List<String> items) {
+        if (items != null && !items.isEmpty()) add(set, () -> NftCommands.setRemoveElement(set, items), NftJson.setRemoveElement(set, items));
+        return this;
+    }
+
+    /**
+     * add map or verdict map, elements of the map are added in the same batch
+     *
+     * @param map {@link ir.moke.jsysbox.firewall.model.Map} or {@link VerdictMap}
+     */
+    public NftBatch mapAdd(NamedMap<?> map) {
+        JFirewall.checkCharacters(map.getName());
+        add(map, () -> NftCommands.mapAdd(map), NftJson.mapAdd(map));
+        if (map.getElements() != null && !map.getElements().isEmpty()) add(map, () -> NftCommands.mapAddElement(map, map.getElements()), NftJson.mapAddElement(map, map.getElements()));
+        return this;
+    }
+
+    public NftBatch mapRemove(NamedMap<?> map) {
+        add(map, () -> NftCommands.mapRemove(map), NftJson.mapRemove(map));
+        return this;
+    }
+
+    /**
+     * add elements, all elements are sent in one command. The kernel rejects a key that is already mapped
+     * to another value (EBUSY), see {@link #mapReplaceElement(NamedMap, Map)}
+     *
+     * @param map   map or verdict map
+     * @param items value by key
+     */
+    public <V> NftBatch mapAddElement(NamedMap<V> map, Map<String, V> items) {
+        if (items != null && !items.isEmpty()) add(map, () -> NftCommands.mapAddElement(map, items), NftJson.mapAddElement(map, items));
+        return this;
+    }
+
+    /**
+     * add or replace elements, keys of {@code live} mapped to another value are deleted before all items are added
+     *
+     * @param live  map with its current elements, like {@link JFirewall#map(Table, String)}
+     * @param items value by key
+     */
+    public <V> NftBatch mapReplaceElement(NamedMap<V> live, Map<String, V> items) {
+        if (items == null || items.isEmpty()) return this;
+        return mapRemoveElement(live, changedKeys(live, items)).mapAddElement(live, items);
+    }
+
+    /**
+     * @return keys of items that {@code live} maps to another value
+     */
+    static <V> List<String> changedKeys(NamedMap<V> live, Map<String, V> items) {
+        Map<String, V> current = live.getElements() != null ? live.getElements() : Map.of();
+        if (items == null) return List.of();
+        return items.entrySet().stream()
+                .filter(item -> current.containsKey(item.getKey()))
+                .filter(item -> !String.valueOf(current.get(item.getKey())).equals(String.valueOf(item.getValue())))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public NftBatch mapRemoveElement(NamedMap<?> map, List<String> keys) {
+        if (keys != null && !keys.isEmpty()) add(map, () -> NftCommands.mapRemoveElement(map, keys), NftJson.mapRemoveElement(map, keys));
+        return this;
+    }
+
+    /**
+     * add flowtable, an offloaded flowtable makes the batch fall back to script on commit
+     *
+     * @param flowtable {@link Flowtable}
+     */
+    public NftBatch flowtableAdd(Flowtable flowtable) {
+        JFirewall.checkCharacters(flowtable.getName());
+        add(flowtable, () -> NftCommands.flowtableAdd(flowtable), NftJson.flowtableAdd(flowtable));
+        return this;
+    }
+
+    public NftBatch flowtableRemove(Flowtable flowtable) {
+        add(flowtable, () -> NftCommands.flowtableRemove(flowtable), NftJson.flowtableRemove(flowtable));
+        return this;
+    }
+
+    public NftBatch ruleAdd(Chain chain, List<Expression> expressions, List<Statement> statements, String comment) {
+        return ruleAdd(new Rule(chain, expressions, statements, comment, null));
+    }
+
+    public NftBatch ruleAdd(Rule rule) {
+        add(rule, () -> NftCommands.ruleAdd(rule), NftJson.rule("add", rule, null, false));
+        return this;
+    }
+
+    /**
+     * insert rule before another rule
+     *
+     * @param rule     {@link Rule}
+     * @param position handle of the rule that follows the new rule
+     */
+    public NftBatch ruleInsert(Rule rule, int position) {
+        add(rule, () -> NftCommands.ruleInsert(rule, position), NftJson.rule("insert", rule, position, false));
+        return this;
+    }
+
+    /**
+     * add rule with values of its counter statement, used to move or copy existing rules
+     *
+     * @param rule     {@link Rule}, its chain is the destination
+     * @param position handle of the rule that follows the copy, null to append
+     */
+    public NftBatch ruleCopy(Rule rule, Integer position) {
+        add(rule, () -> NftCommands.ruleCopy(rule, position), NftJson.rule(position != null ? "insert" : "add", rule, position, true));
+        return this;
+    }
+
+    /**
+     * replace rule in place, the rule must have the handle of an existing rule
+     *
+     * @param rule {@link Rule}
+     */
+    public NftBatch ruleReplace(Rule rule) {
+        add(rule, () -> NftCommands.ruleReplace(rule), NftJson.rule("replace", rule, rule.getHandle(), true));
+        return this;
+    }
+
+    public NftBatch ruleRemove(Chain chain, long handle) {
+        add(chain, () -> NftCommands.ruleRemove(chain, handle), NftJson.ruleRemove(chain, handle));
+        return this;
+    }
+
+    public NftBatch ruleRemove(Rule rule) {
+        return ruleRemove(rule.getChain(), rule.getHandle());
+    }
+
+    /**
+     * add all tables, chains, sets and maps (with elements), flowtables and rules of {@link NFTables}
+     *
+     * @param nfTables source ruleset
+     */
+    public NftBatch add(NFTables nfTables) {
+        nfTables.getTables().forEach(this::tableAdd);
+        nfTables.getChains().forEach(this::chainAdd);
+        nfTables.getSets().forEach(this::setAdd);
+        if (nfTables.getMaps() != null) nfTables.getMaps().forEach(this::mapAdd);
+        if (nfTables.getVerdictMaps() != null) nfTables.getVerdictMaps().forEach(this::mapAdd);
+        if (nfTables.getFlowtables() != null) nfTables.getFlowtables().forEach(this::flowtableAdd);
+        nfTables.getRules().forEach(this::ruleAdd);
+        return this;
+    }
+
+    /**
+     * append all operations of another batch
+     *
+     * @param batch source batch, it is not changed
+     */
+    public NftBatch add(NftBatch batch) {
+        validated = null;
+        scripts.addAll(batch.scripts);
+        items.addAll(batch.items);
+        if (document != null && batch.document != null) {
+            document.append(batch.document);
+        } else {
+            document = null;
+        }
+        return this;
+    }
+
+    /**
+     * @param script renders the nftables command of the operation when the script is needed
+     * @param json   written to the json document right away, null when the operation has no json form
+     */
+    private NftBatch add(Object item, Supplier<String> script, NftJson.Command json) {
+        validated = null;
+        scripts.add(script);
+        items.add(item);
+        if (document == null) return this;
+        if (json == null) {
+            document = null;
+            return this;
+        }
+        try {
+            document.append(json);
+        } catch (JSysboxException e) {
+            logger.debug("json command not available, submit script: {}", e.getMessage());
+            document = null;
+        }
+        return this;
+    }
+
+    /**
+     * append raw nftables command, a batch with raw commands is submitted as script
+     *
+     * @param command nftables command
+     */
+    public NftBatch command(String command) {
+        return add(null, () -> command, null);
+    }
+
+    /**
+     * @return nftables command of every operation, rendered by this call
+     */
+    public List<String> getCommands() {
+        List<String> commands = new ArrayList<>(scripts.size());
+        for (Supplier<String> script : scripts) {
+            commands.add(script.get());
+        }
+        return Collections.unmodifiableList(commands);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * @return new line separated nftables script of this batch
+     */
+    public String script() {
+        return String.join("\n", getCommands());
+    }
+
+    /**
+     * @return libnftables json command document of this batch, null when the batch has raw commands or
+     * operations json can not express
+     */
+    public String json() {
+        return document != null ? document.toString() : null;
+    }
+
+    /**
+     * check all operations in one dry run transaction, nothing is committed
+     * <p>
+     * the batch is checked as script, libnftables reports errors of a script with line and column,
+     * so every error points at its item and, for rules, at the rejected expression or statement.
+     * A valid batch commits exactly the checked script, unless operations are added after validation
+     *
+     * @return {@link NftValidation}, valid when the batch would commit
+     */
+    public NftValidation validate() {
+        return validate(List.of());
+    }
+
+    private NftValidation validate(List<NftValidation.Error> errors) {
+        if (items.isEmpty()) return new NftValidation(errors);
+        List<String> commands = getCommands();
+        String script = String.join("\n", commands);
+        try (NftSession session = JFirewall.session()) {
+            session.check(script);
+            if (errors.isEmpty()) validated = script;
+            return new NftValidation(errors);
+        } catch (JSysboxException e) {
+            return NftValidation.parse(e.getMessage(), commands, items, errors);
+        }
+    }
+
+    /**
+     * check all items of {@link NFTables} in one dry run transaction, items the batch can not write are
+     * reported without being sent
+     *
+     * @param nfTables ruleset to check
+     */
+    static NftValidation validate(NFTables nfTables) {
+        NftBatch batch = new NftBatch();
+        List<NftValidation.Error> errors = new ArrayList<>();
+        batch.tryAdd(nfTables.getTables(), batch::tableAdd, errors);
+        batch.tryAdd(nfTables.getChains(), batch::chainAdd, errors);
+        batch.tryAdd(nfTables.getSets(), batch::setAdd, errors);
+        batch.tryAdd(nfTables.getMaps(), batch::mapAdd, errors);
+        batch.tryAdd(nfTables.getVerdictMaps(), batch::mapAdd, errors);
+        batch.tryAdd(nfTables.getFlowtables(), batch::flowtableAdd, errors);
+        batch.tryAdd(nfTables.getRules(), batch::ruleAdd, errors);
+        return batch.validate(errors);
+    }
+
+    private <T> void tryAdd(List<T> items, Consumer<T> operation, List<NftValidation.Error> errors) {
+        if (items == null) return;
+        for (T item : items) {
+            try {
+                operation.accept(item);
+            } catch (JSysboxException e) {
+                errors.add(new NftValidation.Error(-1, item, null, 0, 0, e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * submit all operations as a single transaction
+     * <p>
+     * operations are sent as json document, a batch with operations the json writer does not support is sent as script.
+     * A batch checked by {@link #validate()} sends the validated script, so the committed transaction is the checked one
+     */
+    public void commit() {
+        if (items.isEmpty()) return;
+        if (validated != null) {
+            JFirewall.exec(validated);
+        } else if (document != null) {
+            JFirewall.exec(document.buffer());
+        } else {
+            JFirewall.exec(script());
+        }
+    }
+}
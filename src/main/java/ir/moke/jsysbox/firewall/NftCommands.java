@@ -0,0 +1,259 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.CounterStatement;
+import ir.moke.jsysbox.firewall.statement.Statement;
+import ir.moke.jsysbox.firewall.statement.VerdictMapStatement;
+import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * nftables command line builders shared by {@link JFirewall} and {@link NftBatch}
+ */
+final class NftCommands {
+
+    private NftCommands() {
+    }
+
+    static String tableAdd(TableType type, String name) {
+        return "add table %s %s".formatted(type.getValue(), name);
+    }
+
+    static String rulesetFlush() {
+        return "flush ruleset";
+    }
+
+    static String tableRemove(Table table) {
+        if (table.getHandle() > 0) return "delete table handle %s".formatted(table.getHandle());
+        return "delete table %s %s".formatted(table.getType().getValue(), table.getName());
+    }
+
+    static String chainAdd(Table table, String name) {
+        return "add chain %s %s %s".formatted(table.getType().getValue(), table.getName(), name);
+    }
+
+    static String chainAdd(Table table, String name, ChainType type, ChainHook hook, ChainPolicy policy, Integer priority) {
+        String cmd = "add chain %s %s %s {type %s hook %s priority %s ; policy %s ; }";
+        String chainPolicy = type.equals(ChainType.NAT) || policy == null ? ChainPolicy.ACCEPT.getValue() : policy.getValue();
+        return cmd.formatted(table.getType().getValue(), table.getName(), name, type.getValue(), hook.getValue(), priority != null ? priority : 0, chainPolicy);
+    }
+
+    static String chainAdd(Chain chain) {
+        if (chain.getType() != null) {
+            return chainAdd(chain.getTable(), chain.getName(), chain.getType(), chain.getHook(), chain.getPolicy(), chain.getPriority());
+        }
+        return chainAdd(chain.getTable(), chain.getName());
+    }
+
+    static String chainRemove(Chain chain) {
+        Table table = chain.getTable();
+        if (chain.getHandle() > 0) {
+            return "delete chain %s %s handle %s".formatted(table.getType().getValue(), table.getName(), chain.getHandle());
+        }
+        return "delete chain %s %s %s".formatted(table.getType().getValue(), table.getName(), chain.getName());
+    }
+
+    static String chainFlush(Chain chain) {
+        Table table = chain.getTable();
+        return "flush chain %s %s %s".formatted(table.getType().getValue(), table.getName(), chain.getName());
+    }
+
+    static String chainRename(Chain chain, String newName) {
+        Table table = chain.getTable();
+        return "rename chain %s %s %s %s".formatted(table.getType().getValue(), table.getName(), chain.getName(), newName);
+    }
+
+    static String setAdd(TableType tableType, String tableName, String setName, SetType setType, List<FlagType> flags, Integer timeout, Integer gcInterval, Integer size, String comment, SetPolicy policy) {
+        StringBuilder sb = new StringBuilder("add set %s %s %s { type %s".formatted(tableType.getValue(), tableName, setName, setType.getValue())).append(";");
+        if (flags != null && !flags.isEmpty()) {
+            sb.append(" flags ").append(String.join(",", flags.stream().map(FlagType::getValue).toList())).append(";");
+        }
+        Optional.ofNullable(timeout).ifPresent(item -> sb.append(" timeout ").append(item).append("s").append(";"));
+        Optional.ofNullable(gcInterval).ifPresent(item -> sb.append(" gc-interval ").append(item).append("s").append(";"));
+        Optional.ofNullable(size).ifPresent(item -> sb.append(" size ").append(item).append(";"));
+        Optional.ofNullable(comment).ifPresent(item -> sb.append(" comment ").append("\"").append(item).append("\"").append(";"));
+        Optional.ofNullable(policy).ifPresent(item -> sb.append(" policy ").append(policy.getValue()).append(";"));
+        if (flags != null && flags.contains(FlagType.INTERVAL)) sb.append(" auto-merge ").append(";");
+        sb.append(" } ");
+        return sb.toString();
+    }
+
+    static String setAdd(Set set) {
+        return setAdd(set.getTable().getType(), set.getTable().getName(), set.getName(), set.getType(), set.getFlags(), set.getTimeout(), set.getGcInterval(), set.getSize(), set.getComment(), set.getPolicy());
+    }
+
+    static String setRemove(Set set) {
+        Table table = set.getTable();
+        if (set.getHandle() > 0) {
+            return "delete set %s %s handle %s".formatted(table.getType().getValue(), table.getName(), set.getHandle());
+        }
+        return "delete set %s %s %s".formatted(table.getType().getValue(), table.getName(), set.getName());
+    }
+
+    static String setAddElement(Set set, List<String> items) {
+        return element("add", set, items);
+    }
+
+    /**
+     * add elements with their own timeout, elements without timeout use timeout of the set
+     */
+    static String setAddElement(Set set, Map<String, Duration> items) {
+        List<String> elements = items.entrySet().stream()
+                .map(item -> item.getValue() != null ? "%s timeout %ss".formatted(item.getKey(), item.getValue().toSeconds()) : item.getKey())
+                .toList();
+        return element("add", set, elements);
+    }
+
+    static String setRemoveElement(Set set, List<String> items) {
+        return element("delete", set, items);
+    }
+
+    private static String element(String verb, Set set, List<String> items) {
+        return element(verb, set.getTable(), set.getName(), items);
+    }
+
+    private static String element(String verb, Table table, String name, List<String> items) {
+        return "%s element %s %s %s { %s }".formatted(verb, table.getType().getValue(), table.getName(), name, String.join(",", items));
+    }
+
+    static String mapAdd(NamedMap<?> map) {
+        Table table = map.getTable();
+        StringBuilder sb = new StringBuilder("add map %s %s %s { type %s : %s;".formatted(table.getType().getValue(), table.getName(), map.getName(), map.getKeyTypeValue(), map.getDataTypeValue()));
+        List<FlagType> flags = map.getFlags();
+        if (flags != null && !flags.isEmpty()) {
+            sb.append(" flags ").append(String.join(",", flags.stream().map(FlagType::getValue).toList())).append(";");
+        }
+        Optional.ofNullable(map.getTimeout()).ifPresent(item -> sb.append(" timeout ").append(item).append("s").append(";"));
+        Optional.ofNullable(map.getGcInterval()).ifPresent(item -> sb.append(" gc-interval ").append(item).append("s").append(";"));
+        Optional.ofNullable(map.getSize()).ifPresent(item -> sb.append(" size ").append(item).append(";"));
+        Optional.ofNullable(map.getComment()).ifPresent(item -> sb.append(" comment ").append("\"").append(item).append("\"").append(";"));
+        Optional.ofNullable(map.getPolicy()).ifPresent(item -> sb.append(" policy ").append(item.getValue()).append(";"));
+        sb.append(" } ");
+        return sb.toString();
+    }
+
+    static String mapRemove(NamedMap<?> map) {
+        Table table = map.getTable();
+        if (map.getHandle() > 0) {
+            return "delete map %s %s handle %s".formatted(table.getType().getValue(), table.getName(), map.getHandle());
+        }
+        return "delete map %s %s %s".formatted(table.getType().getValue(), table.getName(), map.getName());
+    }
+
+    static String mapAddElement(NamedMap<?> map, Map<String, ?> items) {
+        List<String> elements = items.entrySet().stream()
+                .map(item -> item.getKey() + " : " + item.getValue())
+                .toList();
+        return element("add", map.getTable(), map.getName(), elements);
+    }
+
+    static String mapRemoveElement(NamedMap<?> map, List<String> keys) {
+        return element("delete", map.getTable(), map.getName(), keys);
+    }
+
+    static String flowtableAdd(Flowtable flowtable) {
+        Table table = flowtable.getTable();
+        StringBuilder sb = new StringBuilder("add flowtable %s %s %s {".formatted(table.getType().getValue(), table.getName(), flowtable.getName()));
+        ChainHook hook = flowtable.getHook() != null ? flowtable.getHook() : ChainHook.INGRESS;
+        sb.append(" hook ").append(hook.getValue()).append(" priority ").append(flowtable.getPriority() != null ? flowtable.getPriority() : 0).append(";");
+        if (flowtable.getDevices() != null && !flowtable.getDevices().isEmpty()) {
+            sb.append(" devices = { ").append(String.join(", ", flowtable.getDevices())).append(" };");
+        }
+        if (flowtable.isOffload()) sb.append(" flags offload;");
+        sb.append(" }");
+        return sb.toString();
+    }
+
+    static String flowtableRemove(Flowtable flowtable) {
+        Table table = flowtable.getTable();
+        if (flowtable.getHandle() > 0) {
+            return "delete flowtable %s %s handle %s".formatted(table.getType().getValue(), table.getName(), flowtable.getHandle());
+        }
+        return "delete flowtable %s %s %s".formatted(table.getType().getValue(), table.getName(), flowtable.getName());
+    }
+
+    /**
+     * {add | insert} rule [family] table chain [position handle] statement ... [comment comment]
+     */
+    static String rule(String verb, Chain chain, List<Expression> expressions, List<Statement> statements, String comment, Integer position) {
+        return rule(verb, chain, expressions, statements, comment, position != null ? "position " + position : null, false);
+    }
+
+    private static String rule(String verb, Chain chain, List<Expression> expressions, List<Statement> statements, String comment, String location, boolean counterValues) {
+        Table table = chain.getTable();
+        String expr = expressions != null && !expressions.isEmpty() ? String.join(" ", expressions.stream().map(Expression::toString).toList()) : "";
+        String stt = statements != null && !statements.isEmpty() ? String.join(" ", statements.stream().sorted(sortStatements()).map(item -> statement(item, counterValues)).toList()) : "";
+
+        StringBuilder sb = new StringBuilder(verb).append(" rule");
+        sb.append(" ").append(table.getType().getValue());
+        sb.append(" ").append(table.getName());
+        sb.append(" ").append(chain.getName());
+        if (location != null) sb.append(" ").append(location);
+        sb.append(" ").append(expr);
+        sb.append(" ").append(stt);
+        Optional.ofNullable(comment).ifPresent(item -> sb.append(" comment ").append("\"").append(item).append("\""));
+        return sb.toString();
+    }
+
+    /**
+     * counter values are written only when requested, a bare counter starts again from zero
+     */
+    private static String statement(Statement statement, boolean counterValues) {
+        if (counterValues && statement instanceof CounterStatement counter && counter.getPackets() != null && counter.getBytes() != null) {
+            return "counter packets %s bytes %s".formatted(counter.getPackets(), counter.getBytes());
+        }
+        return statement.toString();
+    }
+
+    /**
+     * add rule, or insert it before {@code position}, with values of its counter statement
+     */
+    static String ruleCopy(Rule rule, Integer position) {
+        String verb = position != null ? "insert" : "add";
+        String location = position != null ? "position " + position : null;
+        return rule(verb, rule.getChain(), rule.getExpressions(), rule.getStatements(), rule.getComment(), location, true);
+    }
+
+    /**
+     * replace rule [family] table chain handle handle statement ... [comment comment]
+     * <p>
+     * rule keeps its handle and position, values of its counter statement are carried to the new rule
+     */
+    static String ruleReplace(Rule rule) {
+        return rule("replace", rule.getChain(), rule.getExpressions(), rule.getStatements(), rule.getComment(), "handle " + rule.getHandle(), true);
+    }
+
+    static String ruleAdd(Rule rule) {
+        return rule("add", rule.getChain(), rule.getExpressions(), rule.getStatements(), rule.getComment(), null);
+    }
+
+    static String ruleInsert(Rule rule, int position) {
+        return rule("insert", rule.getChain(), rule.getExpressions(), rule.getStatements(), rule.getComment(), position);
+    }
+
+    static String ruleRemove(Chain chain, long handle) {
+        Table table = chain.getTable();
+        return "delete rule %s %s %s handle %s".formatted(table.getType().getValue(), table.getName(), chain.getName(), handle);
+    }
+
+    static Comparator<Statement> sortStatements() {
+        return (stt1, stt2) -> {
+            boolean verdict1 = stt1 instanceof VerdictStatement || stt1 instanceof VerdictMapStatement;
+            boolean verdict2 = stt2 instanceof VerdictStatement || stt2 instanceof VerdictMapStatement;
+            if (verdict1 && !verdict2) {
+                return 1;
+            } else if (!verdict1 && verdict2) {
+                return -1;
+            } else {
+                return 0;
+            }
+        };
+    }
+}
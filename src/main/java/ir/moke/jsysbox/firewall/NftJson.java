@@ -0,0 +1,446 @@
+package ir.moke.jsysbox.firewall;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.config.serializer.FlowtableSerializer;
+import ir.moke.jsysbox.firewall.config.serializer.JsonValues;
+import ir.moke.jsysbox.firewall.config.serializer.MapSerializer;
+import ir.moke.jsysbox.firewall.config.serializer.RuleSerializer;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * libnftables json command builders, json counterpart of {@link NftCommands}
+ * <p>
+ * Each command is written as {@code {"verb": {"object": {...}}}} into the {@code nftables} array of
+ * one {@link Document}, objects are written straight from the model without formatting and parsing text.
+ * Chain commands capture family, table, name and properties of the chain when created, a chain
+ * changed before the command is written does not change them.
+ */
+final class NftJson {
+    private static final JsonFactory factory = new JsonFactory();
+
+    @FunctionalInterface
+    interface Command {
+        void write(JsonGenerator gen) throws IOException;
+    }
+
+    private NftJson() {
+    }
+
+    /**
+     * json document of a batch in a direct buffer, commands are serialized when they are appended and
+     * the buffer is handed to libnftables without a java string
+     */
+    static final class Document {
+        private static final byte[] PREFIX = "{\"nftables\":[".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+        private static final int CAPACITY = 1024;
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                reserve(1).put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                reserve(len).put(b, off, len);
+            }
+        };
+        // allocated with the first command
+        private ByteBuffer buffer;
+        private int commands;
+
+        /**
+         * serialize command at the end of the document, a command that fails leaves the document unchanged
+         */
+        void append(Command command) {
+            int mark = buffer != null ? buffer.position() : PREFIX.length;
+            try (JsonGenerator gen = factory.createGenerator(output)) {
+                if (commands > 0) output.write(',');
+                command.write(gen);
+            } catch (IOException | RuntimeException e) {
+                if (buffer != null) buffer.position(mark);
+                throw new JSysboxException("Failed to serialize nftables command: %s".formatted(e.getMessage()), e);
+            }
+            commands++;
+        }
+
+        /**
+         * append serialized commands of another document
+         */
+        void append(Document document) {
+            if (document.commands == 0) return;
+            ByteBuffer content = document.buffer.duplicate().flip().position(PREFIX.length);
+            ByteBuffer target = reserve(content.remaining() + 1);
+            if (commands > 0) target.put((byte) ',');
+            target.put(content);
+            commands += document.commands;
+        }
+
+        /**
+         * @return view of the whole document between position and limit, valid until the next append
+         */
+        ByteBuffer buffer() {
+            ByteBuffer target = reserve(SUFFIX.length);
+            int end = target.position();
+            ByteBuffer view = target.put(SUFFIX).duplicate().flip();
+            target.position(end);
+            return view;
+        }
+
+        @Override
+        public String toString() {
+            ByteBuffer view = buffer();
+            byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer reserve(int length) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(Math.max(CAPACITY, PREFIX.length + length)).put(PREFIX);
+            } else if (buffer.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + length));
+                buffer = grown.put(buffer.flip());
+            }
+            return buffer;
+        }
+    }
+
+    static Command rulesetFlush() {
+        return gen -> {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("flush");
+            gen.writeNullField("ruleset");
+            gen.writeEndObject();
+            gen.writeEndObject();
+        };
+    }
+
+    static Command tableAdd(TableType type, String name) {
+        return gen -> {
+            start(gen, "add", "table");
+            gen.writeStringField("family", type.getValue());
+            gen.writeStringField("name", name);
+            end(gen);
+        };
+    }
+
+    static Command tableRemove(Table table) {
+        return gen -> {
+            start(gen, "delete", "table");
+            if (table.getType() != null) gen.writeStringField("family", table.getType().getValue());
+            if (table.getHandle() > 0) {
+                gen.writeNumberField("handle", table.getHandle());
+            } else {
+                gen.writeStringField("name", table.getName());
+            }
+            end(gen);
+        };
+    }
+
+    static Command chainAdd(Chain chain) {
+        ChainRef ref = ChainRef.of(chain);
+        ChainType type = chain.getType();
+        ChainHook hook = chain.getHook();
+        int priority = chain.getPriority() != null ? chain.getPriority() : 0;
+        ChainPolicy policy = ChainType.NAT.equals(type) || chain.getPolicy() == null ? ChainPolicy.ACCEPT : chain.getPolicy();
+        return gen -> {
+            start(gen, "add", "chain");
+            ref.write(gen);
+            if (type != null) {
+                gen.writeStringField("type", type.getValue());
+                gen.writeStringField("hook", hook.getValue());
+                gen.writeNumberField("prio", priority);
+                gen.writeStringField("policy", policy.getValue());
+            }
+            end(gen);
+        };
+    }
+
+    static Command chainRemove(Chain chain) {
+        ChainRef ref = ChainRef.of(chain);
+        long handle = chain.getHandle();
+        return gen -> {
+            start(gen, "delete", "chain");
+            gen.writeStringField("family", ref.family());
+            gen.writeStringField("table", ref.table());
+            if (handle > 0) {
+                gen.writeNumberField("handle", handle);
+            } else {
+                gen.writeStringField("name", ref.name());
+            }
+            end(gen);
+        };
+    }
+
+    static Command chainFlush(Chain chain) {
+        ChainRef ref = ChainRef.of(chain);
+        return gen -> {
+            start(gen, "flush", "chain");
+            ref.write(gen);
+            end(gen);
+        };
+    }
+
+    static Command chainRename(Chain chain, String newName) {
+        ChainRef ref = ChainRef.of(chain);
+        return gen -> {
+            start(gen, "rename", "chain");
+            ref.write(gen);
+            gen.writeStringField("newname", newName);
+            end(gen);
+        };
+    }
+
+    static Command setAdd(Set set) {
+        return gen -> {
+            start(gen, "add", "set");
+            setFields(gen, set);
+            gen.writeStringField("type", set.getType().getValue());
+            List<FlagType> flags = set.getFlags();
+            if (flags != null && !flags.isEmpty()) {
+                gen.writeArrayFieldStart("flags");
+                for (FlagType flag : flags) {
+                    gen.writeString(flag.getValue());
+                }
+                gen.writeEndArray();
+            }
+            if (set.getTimeout() != null) gen.writeNumberField("timeout", set.getTimeout());
+            if (set.getGcInterval() != null) gen.writeNumberField("gc-interval", set.getGcInterval());
+            if (set.getSize() != null) gen.writeNumberField("size", set.getSize());
+            if (set.getComment() != null) gen.writeStringField("comment", set.getComment());
+            if (set.getPolicy() != null) gen.writeStringField("policy", set.getPolicy().getValue());
+            if (flags != null && flags.contains(FlagType.INTERVAL)) gen.writeBooleanField("auto-merge", true);
+            end(gen);
+        };
+    }
+
+    static Command setRemove(Set set) {
+        return gen -> {
+            start(gen, "delete", "set");
+            Table table = set.getTable();
+            gen.writeStringField("family", table.getType().getValue());
+            gen.writeStringField("table", table.getName());
+            if (set.getHandle() > 0) {
+                gen.writeNumberField("handle", set.getHandle());
+            } else {
+                gen.writeStringField("name", set.getName());
+            }
+            end(gen);
+        };
+    }
+
+    static Command setAddElement(Set set, List<String> items) {
+        return element("add", set, items);
+    }
+
+    /**
+     * elements with timeout are written as {@code {"elem": {"val": ..., "timeout": seconds}}}
+     */
+    static Command setAddElement(Set set, Map<String, Duration> items) {
+        return gen -> {
+            start(gen, "add", "element");
+            setFields(gen, set);
+            gen.writeArrayFieldStart("elem");
+            for (Map.Entry<String, Duration> item : items.entrySet()) {
+                if (item.getValue() == null) {
+                    JsonValues.write(gen, item.getKey());
+                    continue;
+                }
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("elem");
+                gen.writeFieldName("val");
+                JsonValues.write(gen, item.getKey());
+                gen.writeNumberField("timeout", item.getValue().toSeconds());
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            end(gen);
+        };
+    }
+
+    static Command setRemoveElement(Set set, List<String> items) {
+        return element("delete", set, items);
+    }
+
+    private static Command element(String verb, Set set, List<String> items) {
+        return gen -> {
+            start(gen, verb, "element");
+            setFields(gen, set);
+            JsonValues.writeArray(gen, "elem", items);
+            end(gen);
+        };
+    }
+
+    static Command mapAdd(NamedMap<?> map) {
+        return gen -> {
+            start(gen, "add", "map");
+            mapFields(gen, map);
+            MapSerializer.writeType(gen, map);
+            List<FlagType> flags = map.getFlags();
+            if (flags != null && !flags.isEmpty()) {
+                gen.writeArrayFieldStart("flags");
+                for (FlagType flag : flags) {
+                    gen.writeString(flag.getValue());
+                }
+                gen.writeEndArray();
+            }
+            if (map.getTimeout() != null) gen.writeNumberField("timeout", map.getTimeout());
+            if (map.getGcInterval() != null) gen.writeNumberField("gc-interval", map.getGcInterval());
+            if (map.getSize() != null) gen.writeNumberField("size", map.getSize());
+            if (map.getComment() != null) gen.writeStringField("comment", map.getComment());
+            if (map.getPolicy() != null) gen.writeStringField("policy", map.getPolicy().getValue());
+            end(gen);
+        };
+    }
+
+    static Command mapRemove(NamedMap<?> map) {
+        return gen -> {
+            start(gen, "delete", "map");
+            Table table = map.getTable();
+            gen.writeStringField("family", table.getType().getValue());
+            gen.writeStringField("table", table.getName());
+            if (map.getHandle() > 0) {
+                gen.writeNumberField("handle", map.getHandle());
+            } else {
+                gen.writeStringField("name", map.getName());
+            }
+            end(gen);
+        };
+    }
+
+    /**
+     * elements are written as {@code [key, value]} pairs
+     */
+    static Command mapAddElement(NamedMap<?> map, Map<String, ?> items) {
+        return gen -> {
+            start(gen, "add", "element");
+            mapFields(gen, map);
+            MapSerializer.writeElements(gen, items);
+            end(gen);
+        };
+    }
+
+    static Command mapRemoveElement(NamedMap<?> map, List<String> keys) {
+        return gen -> {
+            start(gen, "delete", "element");
+            mapFields(gen, map);
+            JsonValues.writeArray(gen, "elem", keys);
+            end(gen);
+        };
+    }
+
+    /**
+     * the json grammar of nft has no flowtable flags, offloaded flowtables are submitted as script
+     */
+    static Command flowtableAdd(Flowtable flowtable) {
+        return gen -> {
+            if (flowtable.isOffload()) throw new JSysboxException("Flowtable flags are not supported by json commands");
+            start(gen, "add", "flowtable");
+            gen.writeStringField("family", flowtable.getTable().getType().getValue());
+            gen.writeStringField("table", flowtable.getTable().getName());
+            gen.writeStringField("name", flowtable.getName());
+            FlowtableSerializer.writeFields(gen, flowtable);
+            end(gen);
+        };
+    }
+
+    static Command flowtableRemove(Flowtable flowtable) {
+        return gen -> {
+            start(gen, "delete", "flowtable");
+            Table table = flowtable.getTable();
+            gen.writeStringField("family", table.getType().getValue());
+            gen.writeStringField("table", table.getName());
+            if (flowtable.getHandle() > 0) {
+                gen.writeNumberField("handle", flowtable.getHandle());
+            } else {
+                gen.writeStringField("name", flowtable.getName());
+            }
+            end(gen);
+        };
+    }
+
+    /**
+     * {@code handle} of add, insert and replace is the position: add after, insert before or replace that rule
+     *
+     * @param counterValues keep packets and bytes of counter statements
+     */
+    static Command rule(String verb, Rule rule, Integer handle, boolean counterValues) {
+        ChainRef ref = ChainRef.of(rule.getChain());
+        return gen -> {
+            start(gen, verb, "rule");
+            gen.writeStringField("family", ref.family());
+            gen.writeStringField("table", ref.table());
+            gen.writeStringField("chain", ref.name());
+            if (handle != null) gen.writeNumberField("handle", handle);
+            if (rule.getComment() != null) gen.writeStringField("comment", rule.getComment());
+            RuleSerializer.writeExpr(gen, rule, counterValues);
+            end(gen);
+        };
+    }
+
+    static Command ruleRemove(Chain chain, long handle) {
+        ChainRef ref = ChainRef.of(chain);
+        return gen -> {
+            start(gen, "delete", "rule");
+            gen.writeStringField("family", ref.family());
+            gen.writeStringField("table", ref.table());
+            gen.writeStringField("chain", ref.name());
+            gen.writeNumberField("handle", handle);
+            end(gen);
+        };
+    }
+
+
+    private static void setFields(JsonGenerator gen, Set set) throws IOException {
+        gen.writeStringField("family", set.getTable().getType().getValue());
+        gen.writeStringField("table", set.getTable().getName());
+        gen.writeStringField("name", set.getName());
+    }
+
+    private static void mapFields(JsonGenerator gen, NamedMap<?> map) throws IOException {
+        gen.writeStringField("family", map.getTable().getType().getValue());
+        gen.writeStringField("table", map.getTable().getName());
+        gen.writeStringField("name", map.getName());
+    }
+
+    /**
+     * identity of a chain, taken when the command is created
+     */
+    private record ChainRef(String family, String table, String name) {
+        static ChainRef of(Chain chain) {
+            Table table = chain.getTable();
+            return new ChainRef(table.getType().getValue(), table.getName(), chain.getName());
+        }
+
+        void write(JsonGenerator gen) throws IOException {
+            gen.writeStringField("family", family);
+            gen.writeStringField("table", table);
+            gen.writeStringField("name", name);
+        }
+    }
+
+    private static void start(JsonGenerator gen, String verb, String object) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart(verb);
+        gen.writeObjectFieldStart(object);
+    }
+
+    private static void end(JsonGenerator gen) throws IOException {
+        gen.writeEndObject();
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+}
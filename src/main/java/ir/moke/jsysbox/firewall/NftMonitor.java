@@ -0,0 +1,278 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.model.RulesetEvent;
+import ir.moke.jsysbox.firewall.model.TableType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Stream of ruleset changes from the netfilter netlink group NFNLGRP_NFTABLES.
+ * <p>
+ * A reader thread decodes netlink messages into {@link RulesetEvent}s and puts them in a bounded
+ * queue, a dispatcher thread hands them to the listener in order. A slow listener fills the queue,
+ * the reader then stops reading and the kernel keeps events in the socket buffer. When the socket
+ * buffer overflows the kernel drops events and the listener receives {@link RulesetEvent.Type#OVERFLOW}.
+ * <p>
+ * Set elements are rendered by key length: addresses, ports and mac addresses as text, other keys
+ * as hex. Interval sets report the end of a range as separate element which is skipped.
+ */
+public final class NftMonitor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NftMonitor.class);
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int SOCKET_BUFFER = 4 * 1024 * 1024;
+    private static final int POLL_TIMEOUT = 200;
+
+    private static final int NFNL_SUBSYS_NFTABLES = 10;
+    private static final int NFT_MSG_NEWTABLE = 0;
+    private static final int NFT_MSG_DELTABLE = 2;
+    private static final int NFT_MSG_NEWCHAIN = 3;
+    private static final int NFT_MSG_DELCHAIN = 5;
+    private static final int NFT_MSG_NEWRULE = 6;
+    private static final int NFT_MSG_DELRULE = 8;
+    private static final int NFT_MSG_NEWSET = 9;
+    private static final int NFT_MSG_DELSET = 11;
+    private static final int NFT_MSG_NEWSETELEM = 12;
+    private static final int NFT_MSG_DELSETELEM = 14;
+    private static final int NFT_MSG_NEWGEN = 15;
+    private static final int NFT_SET_ELEM_INTERVAL_END = 1;
+
+    private final Consumer<RulesetEvent> listener;
+    private final BlockingQueue<RulesetEvent> queue;
+    private final int fd;
+    private final Thread reader;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    NftMonitor(Consumer<RulesetEvent> listener, int capacity) {
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.fd = JFirewall.monitorOpen(SOCKET_BUFFER);
+        this.reader = new Thread(this::read, "nft-monitor-reader");
+        this.dispatcher = new Thread(this::dispatch, "nft-monitor");
+        reader.setDaemon(true);
+        dispatcher.setDaemon(true);
+        reader.start();
+        dispatcher.start();
+    }
+
+    /**
+     * @return events waiting for the listener
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * stop reading, events already queued are dropped
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        reader.interrupt();
+        dispatcher.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JFirewall.monitorClose(fd);
+        queue.clear();
+    }
+
+    private void read() {
+        byte[] buffer = new byte[256 * 1024];
+        List<RulesetEvent> events = new ArrayList<>();
+        try {
+            while (running) {
+                int len = JFirewall.monitorReceive(fd, buffer, POLL_TIMEOUT);
+                if (len < 0) {
+                    queue.put(new RulesetEvent(RulesetEvent.Type.OVERFLOW, null, null, null, null, -1, List.of(), -1, null));
+                } else if (len > 0) {
+                    decode(buffer, len, events);
+                    for (RulesetEvent event : events) {
+                        queue.put(event);
+                    }
+                    events.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (JSysboxException e) {
+            logger.error("nftables monitor stopped", e);
+            running = false;
+            dispatcher.interrupt();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (running || !queue.isEmpty()) {
+                RulesetEvent event = queue.take();
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException e) {
+                    logger.error("nftables event listener failed", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * decode netlink messages of one datagram
+     */
+    static void decode(byte[] buffer, int length, List<RulesetEvent> events) {
+        ByteBuffer host = ByteBuffer.wrap(buffer, 0, length).order(ByteOrder.nativeOrder());
+        ByteBuffer net = ByteBuffer.wrap(buffer, 0, length).order(ByteOrder.BIG_ENDIAN);
+        int offset = 0;
+        while (offset + 20 <= length) {
+            int len = host.getInt(offset);
+            int type = host.getShort(offset + 4) & 0xFFFF;
+            if (len < 16 || offset + len > length) break;
+            if ((type >> 8) == NFNL_SUBSYS_NFTABLES && len >= 20) {
+                TableType family = family(buffer[offset + 16] & 0xFF);
+                RulesetEvent event = event(host, net, type & 0xFF, family, offset + 20, offset + len);
+                if (event != null) events.add(event);
+            }
+            offset += align(len);
+        }
+    }
+
+    private static RulesetEvent event(ByteBuffer host, ByteBuffer net, int message, TableType family, int start, int end) {
+        int[][] attrs = attributes(host, start, end);
+        return switch (message) {
+            case NFT_MSG_NEWTABLE, NFT_MSG_DELTABLE -> new RulesetEvent(message == NFT_MSG_NEWTABLE ? RulesetEvent.Type.ADD : RulesetEvent.Type.DELETE,
+                    RulesetEvent.ObjectType.TABLE, family, string(net, attrs[1]), null, u64(net, attrs[4]), List.of(), -1, null);
+            case NFT_MSG_NEWCHAIN, NFT_MSG_DELCHAIN -> new RulesetEvent(message == NFT_MSG_NEWCHAIN ? RulesetEvent.Type.ADD : RulesetEvent.Type.DELETE,
+                    RulesetEvent.ObjectType.CHAIN, family, string(net, attrs[1]), string(net, attrs[3]), u64(net, attrs[2]), List.of(), -1, null);
+            case NFT_MSG_NEWRULE, NFT_MSG_DELRULE -> new RulesetEvent(message == NFT_MSG_NEWRULE ? RulesetEvent.Type.ADD : RulesetEvent.Type.DELETE,
+                    RulesetEvent.ObjectType.RULE, family, string(net, attrs[1]), string(net, attrs[2]), u64(net, attrs[3]), List.of(), -1, null);
+            case NFT_MSG_NEWSET, NFT_MSG_DELSET -> new RulesetEvent(message == NFT_MSG_NEWSET ? RulesetEvent.Type.ADD : RulesetEvent.Type.DELETE,
+                    RulesetEvent.ObjectType.SET, family, string(net, attrs[1]), string(net, attrs[2]), u64(net, attrs[16]), List.of(), -1, null);
+            case NFT_MSG_NEWSETELEM, NFT_MSG_DELSETELEM -> new RulesetEvent(message == NFT_MSG_NEWSETELEM ? RulesetEvent.Type.ADD : RulesetEvent.Type.DELETE,
+                    RulesetEvent.ObjectType.ELEMENT, family, string(net, attrs[1]), string(net, attrs[2]), -1, elements(host, net, attrs[3]), -1, null);
+            case NFT_MSG_NEWGEN -> new RulesetEvent(RulesetEvent.Type.COMMIT, null, null, null, null, -1, List.of(),
+                    attrs[1] != null ? net.getInt(attrs[1][0]) & 0xFFFFFFFFL : -1, string(net, attrs[3]));
+            default -> null;
+        };
+    }
+
+    /**
+     * NFTA_SET_ELEM_LIST_ELEMENTS: NFTA_LIST_ELEM entries with NFTA_SET_ELEM_KEY, NFTA_SET_ELEM_FLAGS and NFTA_SET_ELEM_KEY_END
+     */
+    private static List<String> elements(ByteBuffer host, ByteBuffer net, int[] list) {
+        if (list == null) return List.of();
+        List<String> elements = new ArrayList<>();
+        int offset = list[0];
+        int end = list[0] + list[1];
+        while (offset + 4 <= end) {
+            int len = host.getShort(offset) & 0xFFFF;
+            if (len < 4 || offset + len > end) break;
+            int[][] elem = attributes(host, offset + 4, offset + len);
+            boolean intervalEnd = elem[3] != null && (net.getInt(elem[3][0]) & NFT_SET_ELEM_INTERVAL_END) != 0;
+            String key = data(host, net, elem[1]);
+            if (key != null && !intervalEnd) {
+                String keyEnd = data(host, net, elem[10]);
+                elements.add(keyEnd != null ? key + "-" + keyEnd : key);
+            }
+            offset += align(len);
+        }
+        return Collections.unmodifiableList(elements);
+    }
+
+    /**
+     * value of nested NFTA_DATA_VALUE
+     */
+    private static String data(ByteBuffer host, ByteBuffer net, int[] attr) {
+        if (attr == null) return null;
+        int[] value = attributes(host, attr[0], attr[0] + attr[1])[1];
+        if (value == null) return null;
+        byte[] bytes = new byte[value[1]];
+        net.get(value[0], bytes);
+        return switch (bytes.length) {
+            case 4, 16 -> address(bytes);
+            case 1 -> String.valueOf(bytes[0] & 0xFF);
+            case 2 -> String.valueOf(net.getShort(value[0]) & 0xFFFF);
+            case 6 -> "%02x:%02x:%02x:%02x:%02x:%02x".formatted(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5]);
+            default -> hex(bytes);
+        };
+    }
+
+    private static String address(byte[] bytes) {
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            return hex(bytes);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder("0x");
+        for (byte b : bytes) sb.append("%02x".formatted(b));
+        return sb.toString();
+    }
+
+    /**
+     * @return offset and length of attribute payloads indexed by attribute type
+     */
+    private static int[][] attributes(ByteBuffer host, int start, int end) {
+        int[][] attrs = new int[32][];
+        int offset = start;
+        while (offset + 4 <= end) {
+            int len = host.getShort(offset) & 0xFFFF;
+            int type = host.getShort(offset + 2) & 0x3FFF;
+            if (len < 4 || offset + len > end) break;
+            if (type < attrs.length) attrs[type] = new int[]{offset + 4, len - 4};
+            offset += align(len);
+        }
+        return attrs;
+    }
+
+    private static String string(ByteBuffer net, int[] attr) {
+        if (attr == null) return null;
+        int len = attr[1];
+        while (len > 0 && net.get(attr[0] + len - 1) == 0) len--;
+        byte[] bytes = new byte[len];
+        net.get(attr[0], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long u64(ByteBuffer net, int[] attr) {
+        return attr != null && attr[1] >= 8 ? net.getLong(attr[0]) : -1;
+    }
+
+    private static int align(int len) {
+        return (len + 3) & ~3;
+    }
+
+    private static TableType family(int family) {
+        return switch (family) {
+            case 1 -> TableType.INET;
+            case 2 -> TableType.IPv4;
+            case 3 -> TableType.ARP;
+            case 5 -> TableType.NETDEV;
+            case 7 -> TableType.BRIDGE;
+            case 10 -> TableType.IPv6;
+            default -> null;
+        };
+    }
+}
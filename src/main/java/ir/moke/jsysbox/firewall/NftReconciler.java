@@ -0,0 +1,460 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.FlowOffloadStatement;
+import ir.moke.jsysbox.firewall.statement.NatStatement;
+import ir.moke.jsysbox.firewall.statement.Statement;
+import ir.moke.jsysbox.firewall.statement.VerdictMapStatement;
+import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+
+import java.util.*;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compute the minimal {@link NftBatch} that converges a live ruleset to a desired {@link NFTables}.
+ * <p>
+ * Tables, chains, sets, maps, verdict maps and flowtables are matched by family and name, rules are matched inside their chain by
+ * expressions, statements and comment, never by handle. Rules that already exist in the right order
+ * are left untouched, so their handles and counters survive. Only the longest run of rules that keeps
+ * its relative order is kept, every other rule is deleted and inserted again at its desired position.
+ * <p>
+ * A base chain whose type, hook or priority changed and a set, map or flowtable whose definition changed
+ * can not be updated in place, they are deleted and created again together with the rules using them. Map
+ * elements mapped to another value are deleted and added again, the kernel does not remap a key.
+ */
+public final class NftReconciler {
+
+    private NftReconciler() {
+    }
+
+    /**
+     * @param current live ruleset, usually {@link JFirewall#exportToNFTables()}
+     * @param desired desired ruleset
+     * @return operations to apply, empty when both rulesets are equal
+     */
+    public static NftBatch plan(NFTables current, NFTables desired) {
+        Map<String, Table> currentTables = index(current.getTables(), NftReconciler::key);
+        Map<String, Table> desiredTables = index(desired.getTables(), NftReconciler::key);
+        Map<String, Chain> currentChains = index(current.getChains(), NftReconciler::key);
+        Map<String, Chain> desiredChains = index(desired.getChains(), NftReconciler::key);
+        Map<String, Set> currentSets = index(current.getSets(), NftReconciler::key);
+        Map<String, Set> desiredSets = index(desired.getSets(), NftReconciler::key);
+        Map<String, NamedMap<?>> currentMaps = maps(current);
+        Map<String, NamedMap<?>> desiredMaps = maps(desired);
+        Map<String, Flowtable> currentFlowtables = index(nullToEmpty(current.getFlowtables()), NftReconciler::key);
+        Map<String, Flowtable> desiredFlowtables = index(nullToEmpty(desired.getFlowtables()), NftReconciler::key);
+        Map<String, List<Rule>> currentRules = group(current.getRules());
+        Map<String, List<Rule>> desiredRules = group(desired.getRules());
+
+        java.util.Set<String> removedTables = new HashSet<>(currentTables.keySet());
+        removedTables.removeAll(desiredTables.keySet());
+
+        // chains and sets that must be deleted (gone or changed) and created (new or changed)
+        List<Chain> chainsToRemove = new ArrayList<>();
+        List<Chain> chainsToAdd = new ArrayList<>();
+        java.util.Set<String> recreatedChains = new HashSet<>();
+        for (Chain chain : currentChains.values()) {
+            if (removedTables.contains(key(chain.getTable()))) continue;
+            Chain target = desiredChains.get(key(chain));
+            if (target == null) {
+                chainsToRemove.add(chain);
+            } else if (!sameHook(chain, target)) {
+                chainsToRemove.add(chain);
+                recreatedChains.add(key(chain));
+            }
+        }
+        for (Chain chain : desiredChains.values()) {
+            Chain live = currentChains.get(key(chain));
+            if (live == null || recreatedChains.contains(key(chain)) || !samePolicy(live, chain)) chainsToAdd.add(chain);
+        }
+
+        List<Set> setsToRemove = new ArrayList<>();
+        List<Set> setsToAdd = new ArrayList<>();
+        java.util.Set<String> recreatedSets = new HashSet<>();
+        for (Set set : currentSets.values()) {
+            if (removedTables.contains(key(set.getTable()))) continue;
+            Set target = desiredSets.get(key(set));
+            if (target == null || !sameDefinition(set, target)) {
+                setsToRemove.add(set);
+                if (target != null) recreatedSets.add(key(set));
+            }
+        }
+        for (Set set : desiredSets.values()) {
+            if (!currentSets.containsKey(key(set)) || recreatedSets.contains(key(set))) setsToAdd.add(set);
+        }
+
+        List<NamedMap<?>> mapsToRemove = new ArrayList<>();
+        List<NamedMap<?>> mapsToAdd = new ArrayList<>();
+        java.util.Set<String> recreatedMaps = new HashSet<>();
+        for (Map.Entry<String, NamedMap<?>> entry : currentMaps.entrySet()) {
+            NamedMap<?> map = entry.getValue();
+            if (removedTables.contains(key(map.getTable()))) continue;
+            NamedMap<?> target = desiredMaps.get(entry.getKey());
+            if (target == null || !sameDefinition(map, target)) {
+                mapsToRemove.add(map);
+                if (target != null) recreatedMaps.add(entry.getKey());
+            }
+        }
+        desiredMaps.forEach((mapKey, map) -> {
+            if (!currentMaps.containsKey(mapKey) || recreatedMaps.contains(mapKey)) mapsToAdd.add(map);
+        });
+
+        List<Flowtable> flowtablesToRemove = new ArrayList<>();
+        List<Flowtable> flowtablesToAdd = new ArrayList<>();
+        java.util.Set<String> recreatedFlowtables = new HashSet<>();
+        for (Flowtable flowtable : currentFlowtables.values()) {
+            if (removedTables.contains(key(flowtable.getTable()))) continue;
+            Flowtable target = desiredFlowtables.get(key(flowtable));
+            if (target == null || !sameDefinition(flowtable, target)) {
+                flowtablesToRemove.add(flowtable);
+                if (target != null) recreatedFlowtables.add(key(flowtable));
+            }
+        }
+        for (Flowtable flowtable : desiredFlowtables.values()) {
+            if (!currentFlowtables.containsKey(key(flowtable)) || recreatedFlowtables.contains(key(flowtable))) flowtablesToAdd.add(flowtable);
+        }
+
+        // a rule that points to a deleted chain, set, map or flowtable must go first, otherwise the kernel refuses the delete
+        java.util.Set<String> removedChainNames = new HashSet<>();
+        chainsToRemove.forEach(item -> removedChainNames.add(key(item)));
+        // sets and maps share one namespace in a table
+        java.util.Set<String> removedSetNames = new HashSet<>();
+        setsToRemove.forEach(item -> removedSetNames.add(key(item)));
+        mapsToRemove.forEach(item -> removedSetNames.add(key(item.getTable()) + " " + item.getName()));
+        java.util.Set<String> removedFlowtableNames = new HashSet<>();
+        flowtablesToRemove.forEach(item -> removedFlowtableNames.add(key(item)));
+
+        List<Rule> rulesToRemove = new ArrayList<>();
+        List<Runnable> ruleInserts = new ArrayList<>();
+        NftBatch batch = new NftBatch();
+
+        for (Map.Entry<String, Chain> entry : currentChains.entrySet()) {
+            String chainKey = entry.getKey();
+            if (removedTables.contains(key(entry.getValue().getTable())) || removedChainNames.contains(chainKey)) continue;
+            List<Rule> live = currentRules.getOrDefault(chainKey, Collections.emptyList());
+            List<Rule> target = desiredRules.getOrDefault(chainKey, Collections.emptyList());
+            diffRules(live, target, removedChainNames, removedSetNames, removedFlowtableNames, rulesToRemove, ruleInserts, batch);
+        }
+        for (Map.Entry<String, List<Rule>> entry : desiredRules.entrySet()) {
+            String chainKey = entry.getKey();
+            if (currentChains.containsKey(chainKey) && !removedTables.contains(key(currentChains.get(chainKey).getTable())) && !removedChainNames.contains(chainKey)) continue;
+            entry.getValue().forEach(rule -> ruleInserts.add(() -> batch.ruleAdd(rule)));
+        }
+
+        rulesToRemove.forEach(batch::ruleRemove);
+        // verdict map elements may jump to a deleted chain as well
+        List<Runnable> elementAdds = new ArrayList<>();
+        desiredMaps.forEach((mapKey, map) -> {
+            NamedMap<?> live = currentMaps.get(mapKey);
+            if (live == null || recreatedMaps.contains(mapKey) || removedTables.contains(key(live.getTable()))) return;
+            diffElements(live, map, removedChainNames, batch, elementAdds);
+        });
+        mapsToRemove.forEach(batch::mapRemove);
+        // flush every chain before deleting any, chains may jump to each other
+        chainsToRemove.forEach(batch::chainFlush);
+        chainsToRemove.forEach(batch::chainRemove);
+        setsToRemove.forEach(batch::setRemove);
+        flowtablesToRemove.forEach(batch::flowtableRemove);
+        removedTables.forEach(item -> batch.tableRemove(currentTables.get(item)));
+
+        desiredTables.forEach((tableKey, table) -> {
+            if (!currentTables.containsKey(tableKey)) batch.tableAdd(table);
+        });
+        chainsToAdd.forEach(batch::chainAdd);
+        setsToAdd.forEach(batch::setAdd);
+        mapsToAdd.forEach(batch::mapAdd);
+        flowtablesToAdd.forEach(batch::flowtableAdd);
+        elementAdds.forEach(Runnable::run);
+        for (Set set : desiredSets.values()) {
+            Set live = currentSets.get(key(set));
+            if (live == null || recreatedSets.contains(key(set))) continue;
+            batch.setRemoveElement(live, difference(live.getElements(), set.getElements()));
+            batch.setAddElement(set, difference(set.getElements(), live.getElements()));
+        }
+        ruleInserts.forEach(Runnable::run);
+        return batch;
+    }
+
+    private static void diffRules(List<Rule> live, List<Rule> target, java.util.Set<String> removedChains, java.util.Set<String> removedSets, java.util.Set<String> removedFlowtables, List<Rule> rulesToRemove, List<Runnable> ruleInserts, NftBatch batch) {
+        // candidate pairs: every desired rule takes the first unused live rule with the same content
+        Map<String, Deque<Integer>> byContent = new HashMap<>();
+        for (int i = 0; i < live.size(); i++) {
+            Rule rule = live.get(i);
+            if (references(rule, removedChains, removedSets, removedFlowtables)) continue;
+            byContent.computeIfAbsent(ruleKey(rule), k -> new ArrayDeque<>()).addLast(i);
+        }
+        int[] matches = new int[target.size()];
+        for (int i = 0; i < target.size(); i++) {
+            Deque<Integer> candidates = byContent.get(ruleKey(target.get(i)));
+            matches[i] = candidates == null || candidates.isEmpty() ? -1 : candidates.pollFirst();
+        }
+
+        place(live, target, matches, false, rulesToRemove, ruleInserts, batch);
+    }
+
+    /**
+     * operations to bring rules of a chain to the order of {@code target}, only rules out of order are moved.
+     * Moved rules keep their counter values but get a new handle.
+     *
+     * @param live   rules of the chain in current order
+     * @param target same rules in requested order
+     * @return operations to apply
+     */
+    static NftBatch reorder(List<Rule> live, List<Rule> target) {
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < live.size(); i++) positions.put(live.get(i).getHandle(), i);
+        int[] matches = new int[target.size()];
+        for (int i = 0; i < target.size(); i++) matches[i] = positions.getOrDefault(target.get(i).getHandle(), -1);
+
+        NftBatch batch = new NftBatch();
+        List<Rule> rulesToRemove = new ArrayList<>();
+        List<Runnable> ruleInserts = new ArrayList<>();
+        place(live, target, matches, true, rulesToRemove, ruleInserts, batch);
+        rulesToRemove.forEach(batch::ruleRemove);
+        ruleInserts.forEach(Runnable::run);
+        return batch;
+    }
+
+    /**
+     * keep the longest ordered run of matched rules, remove every other live rule and (re)insert every other target rule
+     *
+     * @param matches index of the live rule matching each target rule, -1 when there is none
+     * @param copy    keep counter values of inserted rules
+     */
+    private static void place(List<Rule> live, List<Rule> target, int[] matches, boolean copy, List<Rule> rulesToRemove, List<Runnable> ruleInserts, NftBatch batch) {
+        boolean[] kept = longestIncreasing(matches);
+        boolean[] liveKept = new boolean[live.size()];
+        for (int i = 0; i < matches.length; i++) {
+            if (kept[i]) liveKept[matches[i]] = true;
+        }
+        for (int i = 0; i < live.size(); i++) {
+            if (!liveKept[i]) rulesToRemove.add(live.get(i));
+        }
+
+        // new rules go before the next kept rule, rules after the last kept one are appended
+        Integer next = null;
+        Integer[] anchors = new Integer[target.size()];
+        for (int i = target.size() - 1; i >= 0; i--) {
+            if (kept[i]) {
+                next = live.get(matches[i]).getHandle();
+            } else {
+                anchors[i] = next;
+            }
+        }
+        for (int i = 0; i < target.size(); i++) {
+            if (kept[i]) continue;
+            Rule rule = target.get(i);
+            Integer anchor = anchors[i];
+            ruleInserts.add(() -> {
+                if (copy) {
+                    batch.ruleCopy(rule, anchor);
+                } else if (anchor == null) {
+                    batch.ruleAdd(rule);
+                } else {
+                    batch.ruleInsert(rule, anchor);
+                }
+            });
+        }
+    }
+
+    /**
+     * longest strictly increasing subsequence of {@code sequence}, negative values never take part
+     *
+     * @param sequence values
+     * @return flags of members of the subsequence
+     */
+    static boolean[] longestIncreasing(int[] sequence) {
+        int n = sequence.length;
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            if (sequence[i] < 0) continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sequence[tails[mid]] < sequence[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+        boolean[] result = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    /**
+     * structural identity of a rule, counter values and handle are ignored
+     */
+    static String ruleKey(Rule rule) {
+        StringBuilder sb = new StringBuilder();
+        if (rule.getExpressions() != null) {
+            for (Expression expression : rule.getExpressions()) sb.append(expression).append(' ');
+        }
+        sb.append('|');
+        if (rule.getStatements() != null) {
+            rule.getStatements().stream()
+                    .sorted(NftCommands.sortStatements())
+                    .map(Statement::toString)
+                    .forEach(item -> sb.append(item).append(' '));
+        }
+        sb.append('|').append(rule.getComment() == null ? "" : rule.getComment());
+        return sb.toString();
+    }
+
+    /**
+     * delete elements gone, remapped or jumping to a deleted chain, add elements new or remapped
+     */
+    private static <V> void diffElements(NamedMap<?> live, NamedMap<V> target, java.util.Set<String> removedChains, NftBatch batch, List<Runnable> elementAdds) {
+        Map<String, ?> current = live.getElements() != null ? live.getElements() : Map.of();
+        Map<String, V> desired = target.getElements() != null ? target.getElements() : Map.of();
+        String table = key(live.getTable());
+        List<String> removed = new ArrayList<>();
+        Map<String, V> added = new LinkedHashMap<>();
+        current.forEach((element, value) -> {
+            boolean jumps = value instanceof VerdictStatement verdict && verdict.getChainName() != null
+                    && removedChains.contains(table + " " + verdict.getChainName());
+            if (!desired.containsKey(element) || jumps || !String.valueOf(value).equals(String.valueOf(desired.get(element)))) {
+                removed.add(element);
+            }
+        });
+        desired.forEach((element, value) -> {
+            if (!current.containsKey(element) || removed.contains(element)) added.put(element, value);
+        });
+        batch.mapRemoveElement(live, removed);
+        elementAdds.add(() -> batch.mapAddElement(target, added));
+    }
+
+    private static boolean references(Rule rule, java.util.Set<String> chains, java.util.Set<String> sets, java.util.Set<String> flowtables) {
+        Table table = rule.getChain().getTable();
+        if (!sets.isEmpty() && rule.getExpressions() != null) {
+            for (Expression expression : rule.getExpressions()) {
+                if (expression.getValues() == null) continue;
+                for (String value : expression.getValues()) {
+                    if (value.startsWith("@") && sets.contains(key(table) + " " + value.substring(1))) return true;
+                }
+            }
+        }
+        if (rule.getStatements() != null) {
+            for (Statement statement : rule.getStatements()) {
+                if (statement instanceof VerdictStatement verdict && verdict.getChainName() != null
+                        && chains.contains(key(table) + " " + verdict.getChainName())) return true;
+                String map = statement instanceof VerdictMapStatement verdictMap ? verdictMap.getMap()
+                        : statement instanceof NatStatement nat ? nat.getMap() : null;
+                if (map != null && sets.contains(key(table) + " " + map)) return true;
+                if (statement instanceof FlowOffloadStatement offload && flowtables.contains(key(table) + " " + offload.getFlowtable())) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameHook(Chain live, Chain target) {
+        return live.getType() == target.getType()
+                && live.getHook() == target.getHook()
+                && Objects.equals(priority(live), priority(target));
+    }
+
+    private static boolean samePolicy(Chain live, Chain target) {
+        return live.getType() == null || policy(live) == policy(target);
+    }
+
+    private static Integer priority(Chain chain) {
+        if (chain.getType() == null) return null;
+        return chain.getPriority() != null ? chain.getPriority() : 0;
+    }
+
+    private static ChainPolicy policy(Chain chain) {
+        if (chain.getType() == null) return null;
+        return chain.getType() == ChainType.NAT || chain.getPolicy() == null ? ChainPolicy.ACCEPT : chain.getPolicy();
+    }
+
+    private static boolean sameDefinition(Set live, Set target) {
+        return live.getType() == target.getType()
+                && new HashSet<>(nullToEmpty(live.getFlags())).equals(new HashSet<>(nullToEmpty(target.getFlags())))
+                && Objects.equals(live.getTimeout(), target.getTimeout())
+                && Objects.equals(live.getGcInterval(), target.getGcInterval())
+                && Objects.equals(live.getSize(), target.getSize())
+                && Objects.equals(live.getComment(), target.getComment())
+                && Objects.equals(live.getPolicy(), target.getPolicy());
+    }
+
+    private static boolean sameDefinition(NamedMap<?> live, NamedMap<?> target) {
+        return live.getClass() == target.getClass()
+                && Objects.equals(live.getKeyType(), target.getKeyType())
+                && Objects.equals(live.getDataTypeValue(), target.getDataTypeValue())
+                && new HashSet<>(nullToEmpty(live.getFlags())).equals(new HashSet<>(nullToEmpty(target.getFlags())))
+                && Objects.equals(live.getTimeout(), target.getTimeout())
+                && Objects.equals(live.getGcInterval(), target.getGcInterval())
+                && Objects.equals(live.getSize(), target.getSize())
+                && Objects.equals(live.getComment(), target.getComment())
+                && Objects.equals(live.getPolicy(), target.getPolicy());
+    }
+
+    private static boolean sameDefinition(Flowtable live, Flowtable target) {
+        return live.getHook() == target.getHook()
+                && Objects.equals(priority(live), priority(target))
+                && new HashSet<>(nullToEmpty(live.getDevices())).equals(new HashSet<>(nullToEmpty(target.getDevices())))
+                && live.isOffload() == target.isOffload();
+    }
+
+    private static int priority(Flowtable flowtable) {
+        return flowtable.getPriority() != null ? flowtable.getPriority() : 0;
+    }
+
+    private static Map<String, NamedMap<?>> maps(NFTables nfTables) {
+        Map<String, NamedMap<?>> maps = new LinkedHashMap<>();
+        for (NamedMap<?> map : nullToEmpty(nfTables.getMaps())) maps.putIfAbsent(key(map.getTable()) + " " + map.getName(), map);
+        for (NamedMap<?> map : nullToEmpty(nfTables.getVerdictMaps())) maps.putIfAbsent(key(map.getTable()) + " " + map.getName(), map);
+        return maps;
+    }
+
+    private static List<String> difference(List<String> source, List<String> other) {
+        java.util.Set<String> exclude = new HashSet<>(nullToEmpty(other));
+        return nullToEmpty(source).stream().filter(item -> !exclude.contains(item)).distinct().toList();
+    }
+
+    private static <T> List<T> nullToEmpty(List<T> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+
+    private static Map<String, List<Rule>> group(List<Rule> rules) {
+        Map<String, List<Rule>> map = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            map.computeIfAbsent(key(rule.getChain()), k -> new ArrayList<>()).add(rule);
+        }
+        return map;
+    }
+
+    private static <T> Map<String, T> index(List<T> list, Function<T, String> key) {
+        Map<String, T> map = new LinkedHashMap<>();
+        for (T item : list) map.putIfAbsent(key.apply(item), item);
+        return map;
+    }
+
+    private static String key(Table table) {
+        return table.getType().getValue() + " " + table.getName();
+    }
+
+    private static String key(Chain chain) {
+        return key(chain.getTable()) + " " + chain.getName();
+    }
+
+    private static String key(Set set) {
+        return key(set.getTable()) + " " + set.getName();
+    }
+
+    private static String key(Flowtable flowtable) {
+        return key(flowtable.getTable()) + " " + flowtable.getName();
+    }
+}
@@ -0,0 +1,123 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Long-lived libnftables context.
+ * <p>
+ * A session keeps one native {@code nft_ctx} alive between commands, so consecutive commands
+ * skip context allocation and reuse the ruleset cache libnftables keeps inside the context.
+ * The native context is not thread safe, {@link #exec(String)} serializes callers of the same session.
+ * <p>
+ * Sessions borrowed from a {@link NftSessionPool} return to the pool on {@link #close()},
+ * sessions created by {@link JFirewall#openSession()} release their native context instead.
+ */
+public class NftSession implements AutoCloseable {
+    private final NftSessionPool pool;
+    private long handle;
+    private boolean borrowed;
+
+    NftSession(NftSessionPool pool) {
+        this.pool = pool;
+        this.handle = JFirewall.sessionOpen();
+    }
+
+    /**
+     * execute nftables commands on this session
+     *
+     * @param command nftables command, multiple commands separated by new line are applied atomically
+     * @return result of command
+     */
+    public synchronized String exec(String command) {
+        if (handle == 0) throw new JSysboxException("nftables session is closed");
+        return JFirewall.sessionExec(handle, command);
+    }
+
+    /**
+     * execute nftables commands read from buffer, commands are not decoded to a java string
+     *
+     * @param command nftables commands or json document between position and limit, the position is not changed
+     */
+    public synchronized void exec(ByteBuffer command) {
+        execBuffer(command);
+    }
+
+    /**
+     * execute nftables commands and write their output to channel, output is written from the native
+     * buffer of the context without a java string
+     *
+     * @param command nftables command
+     * @param channel receiver of command output
+     * @return number of bytes written
+     */
+    public synchronized long exec(String command, WritableByteChannel channel) {
+        ByteBuffer output = execBuffer(JFirewall.directBuffer(command));
+        if (output == null) return 0;
+        long written = 0;
+        try {
+            while (output.hasRemaining()) written += channel.write(output);
+        } catch (IOException e) {
+            throw new JSysboxException(e);
+        }
+        return written;
+    }
+
+    private ByteBuffer execBuffer(ByteBuffer command) {
+        if (handle == 0) throw new JSysboxException("nftables session is closed");
+        ByteBuffer buffer = command.isDirect() ? command : ByteBuffer.allocateDirect(command.remaining()).put(command.duplicate()).flip();
+        return JFirewall.sessionExecBuffer(handle, buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * check nftables commands on this session without committing them, libnftables evaluates the
+     * commands and the kernel checks the batch, then aborts it
+     *
+     * @param command nftables command, multiple commands separated by new line are checked as one transaction
+     * @throws JSysboxException with libnftables errors when a command is rejected
+     */
+    public synchronized void check(String command) {
+        if (handle == 0) throw new JSysboxException("nftables session is closed");
+        JFirewall.sessionDryRun(handle, true);
+        try {
+            JFirewall.sessionExec(handle, command);
+        } finally {
+            JFirewall.sessionDryRun(handle, false);
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return handle != 0;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.release(this);
+        } else {
+            destroy();
+        }
+    }
+
+    synchronized void destroy() {
+        if (handle != 0) {
+            JFirewall.sessionClose(handle);
+            handle = 0;
+        }
+    }
+
+    synchronized boolean borrow() {
+        if (borrowed) return false;
+        borrowed = true;
+        return true;
+    }
+
+    synchronized boolean giveBack() {
+        if (!borrowed) return false;
+        borrowed = false;
+        return true;
+    }
+}
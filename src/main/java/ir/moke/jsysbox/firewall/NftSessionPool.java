@@ -0,0 +1,70 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pool of {@link NftSession}.
+ * At most {@code maxSessions} native contexts exist at the same time, callers block until a session is free.
+ */
+public class NftSessionPool implements AutoCloseable {
+    private final Deque<NftSession> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final int maxSessions;
+    private volatile boolean closed;
+
+    public NftSessionPool(int maxSessions) {
+        if (maxSessions < 1) throw new JSysboxException("Session pool size must be positive");
+        this.maxSessions = maxSessions;
+        this.permits = new Semaphore(maxSessions, true);
+    }
+
+    /**
+     * borrow a session, the session must be closed to return it to the pool
+     *
+     * @return {@link NftSession}
+     */
+    public NftSession acquire() {
+        if (closed) throw new JSysboxException("nftables session pool is closed");
+        permits.acquireUninterruptibly();
+        try {
+            NftSession session = idle.pollFirst();
+            if (session == null) session = new NftSession(this);
+            session.borrow();
+            return session;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(NftSession session) {
+        if (!session.giveBack()) return;
+        if (closed) {
+            session.destroy();
+        } else {
+            idle.offerFirst(session);
+        }
+        permits.release();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getIdleSessions() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        NftSession session;
+        while ((session = idle.pollFirst()) != null) {
+            session.destroy();
+        }
+    }
+}
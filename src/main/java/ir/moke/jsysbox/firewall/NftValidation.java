@@ -0,0 +1,145 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.Chain;
+import ir.moke.jsysbox.firewall.model.Rule;
+import ir.moke.jsysbox.firewall.statement.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Result of a dry run of a {@link NftBatch}, see {@link NftBatch#validate()}.
+ * <p>
+ * libnftables reports errors of a script with their location, {@code <cmdline>:line:first-last: Error: message}.
+ * Every command of the batch is one line, so the line gives the batch item and, for rules, the column
+ * gives the {@link Expression} or {@link Statement} nftables rejected. libnftables stops reporting after
+ * 10 errors of the same run.
+ * <p>
+ * example :
+ * <pre>
+ * NftValidation validation = JFirewall.validate(nfTables);
+ * for (NftValidation.Error error : validation.errors()) {
+ *     System.out.println(error.rule() + " " + error.expression() + " " + error.message());
+ * }
+ * </pre>
+ */
+public final class NftValidation {
+    private static final Pattern LOCATION = Pattern.compile("^<cmdline>:(\\d+):(\\d+)-(\\d+): Error: (.*)$", Pattern.MULTILINE);
+    private static final String ERROR_PREFIX = "Failed to execute firewall statement: ";
+    private final List<Error> errors;
+
+    NftValidation(List<Error> errors) {
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    public List<Error> errors() {
+        return errors;
+    }
+
+    /**
+     * map libnftables error output of a dry run back to the batch items
+     *
+     * @param output   error output of libnftables
+     * @param commands commands of the batch, one per item
+     * @param items    source object of each command, null for raw commands
+     * @param errors   errors found before the dry run
+     */
+    static NftValidation parse(String output, List<String> commands, List<Object> items, List<Error> errors) {
+        List<Error> result = new ArrayList<>(errors);
+        String text = output != null && output.startsWith(ERROR_PREFIX) ? output.substring(ERROR_PREFIX.length()) : output;
+
+        // first line of each command, commands added with NftBatch#command may span lines
+        int[] lines = new int[commands.size()];
+        int line = 1;
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = line;
+            line += (int) commands.get(i).chars().filter(c -> c == '\n').count() + 1;
+        }
+
+        Matcher matcher = LOCATION.matcher(text != null ? text : "");
+        boolean located = false;
+        while (matcher.find()) {
+            located = true;
+            int errorLine = Integer.parseInt(matcher.group(1));
+            int column = Integer.parseInt(matcher.group(2));
+            int index = Arrays.binarySearch(lines, errorLine);
+            if (index < 0) index = -index - 2;
+            if (index < 0 || index >= commands.size()) {
+                result.add(new Error(-1, null, null, errorLine, column, matcher.group(4)));
+                continue;
+            }
+            Object item = items.get(index);
+            Object element = errorLine == lines[index] && item instanceof Rule rule ? element(commands.get(index), rule, column) : null;
+            result.add(new Error(index, item, element, errorLine, column, matcher.group(4)));
+        }
+        if (!located && text != null) result.add(new Error(-1, null, null, 0, 0, text.trim().replaceFirst("^Error: ", "")));
+        return new NftValidation(result);
+    }
+
+    /**
+     * find expression or statement of rule written at column of its command
+     */
+    private static Object element(String command, Rule rule, int column) {
+        Chain chain = rule.getChain();
+        String head = " rule %s %s %s".formatted(chain.getTable().getType().getValue(), chain.getTable().getName(), chain.getName());
+        int cursor = command.indexOf(head);
+        if (cursor < 0) return null;
+        cursor += head.length();
+        int position = column - 1;
+
+        List<Object> elements = new ArrayList<>();
+        if (rule.getExpressions() != null) elements.addAll(rule.getExpressions());
+        if (rule.getStatements() != null) rule.getStatements().stream().sorted(NftCommands.sortStatements()).forEach(elements::add);
+        for (Object element : elements) {
+            String text = element.toString();
+            int start = command.indexOf(text, cursor);
+            if (start < 0) continue;
+            if (position >= start && position < start + text.length()) return element;
+            cursor = start + text.length();
+        }
+        return null;
+    }
+
+    /**
+     * @param index   index of the command in the batch, -1 when the error has no command
+     * @param item    {@link ir.moke.jsysbox.firewall.model.Table}, {@link Chain}, {@link ir.moke.jsysbox.firewall.model.Set},
+     *                map, flowtable or {@link Rule} of the command, null for raw commands
+     * @param element {@link Expression} or {@link Statement} of the rule at the error location, null when the
+     *                error is about the whole command
+     * @param line    line of the error in the batch script, 0 when unknown
+     * @param column  first column of the error, 0 when unknown
+     * @param message error message of libnftables
+     */
+    public record Error(int index, Object item, Object element, int line, int column, String message) {
+
+        /**
+         * @return rule of the command, null when the command is not a rule
+         */
+        public Rule rule() {
+            return item instanceof Rule rule ? rule : null;
+        }
+
+        /**
+         * @return rejected expression, null when the error is not about an expression
+         */
+        public Expression expression() {
+            return element instanceof Expression expression ? expression : null;
+        }
+
+        /**
+         * @return rejected statement, null when the error is not about a statement
+         */
+        public Statement statement() {
+            return element instanceof Statement statement ? statement : null;
+        }
+    }
+}
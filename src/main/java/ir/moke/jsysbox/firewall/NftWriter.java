@@ -0,0 +1,226 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Single writer of the ruleset for concurrent callers.
+ * <p>
+ * Callers submit mutations, a mutation adds operations to a {@link NftBatch}. The writer thread
+ * takes the first queued mutation, collects the mutations queued within {@code window} until they
+ * add {@code maxOperations} operations and commits all of them as one transaction. Mutations are applied in
+ * submission order, the future of a mutation completes when its transaction is committed.
+ * <p>
+ * When the coalesced transaction fails, its mutations are committed again one by one in the same
+ * order, so a rejected mutation fails only its own future. Unexpected errors fail the futures of
+ * the transaction and the writer goes on with the next mutations. Mutations run on the writer thread and
+ * lookups inside a mutation see the ruleset before the transaction, not the operations of earlier
+ * mutations of the same transaction.
+ * <p>
+ * example :
+ * <pre>
+ * try (NftWriter writer = JFirewall.writer()) {
+ *     CompletableFuture&lt;Void&gt; added = writer.submit(batch -&gt; batch.setAddElement(set, List.of("10.0.0.1")));
+ *     writer.submit(batch -&gt; batch.ruleAdd(rule));
+ *     added.join();
+ * }
+ * </pre>
+ */
+public final class NftWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NftWriter.class);
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(2);
+    public static final int DEFAULT_MAX_OPERATIONS = 1024;
+    private static final int POLL_TIMEOUT = 200;
+
+    private final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+    private final long window;
+    private final int maxOperations;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile long transactions;
+    private volatile long mutations;
+
+    NftWriter(Duration window, int maxOperations) {
+        if (maxOperations < 1) throw new JSysboxException("maxOperations must be positive");
+        this.window = window.toNanos();
+        this.maxOperations = maxOperations;
+        this.writer = new Thread(this::write, "nft-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * queue a mutation
+     *
+     * @param mutation adds operations to the batch of the transaction
+     * @return future completed when the operations are committed, completed exceptionally when the mutation
+     * throws or nftables rejects its operations
+     */
+    public CompletableFuture<Void> submit(Consumer<NftBatch> mutation) {
+        Mutation item = new Mutation(mutation);
+        if (running) {
+            queue.add(item);
+            // closed meanwhile, the writer and close() may both have drained the queue already
+            if (running || !queue.remove(item)) return item.future;
+        }
+        item.future.completeExceptionally(new JSysboxException("nftables writer is closed"));
+        return item.future;
+    }
+
+    /**
+     * queue all operations of batch as one mutation
+     *
+     * @param batch {@link NftBatch}
+     */
+    public CompletableFuture<Void> submit(NftBatch batch) {
+        return submit(target -> target.add(batch));
+    }
+
+    /**
+     * @return future completed when all mutations submitted before are done
+     */
+    public CompletableFuture<Void> flush() {
+        return submit(batch -> {
+        });
+    }
+
+    /**
+     * @return mutations waiting for the writer
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * @return committed transactions
+     */
+    public long transactions() {
+        return transactions;
+    }
+
+    /**
+     * @return committed mutations
+     */
+    public long mutations() {
+        return mutations;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * stop accepting mutations, mutations already queued are committed before the writer stops
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Mutation item;
+        while ((item = queue.poll()) != null) {
+            item.future.completeExceptionally(new JSysboxException("nftables writer is closed"));
+        }
+    }
+
+    private void write() {
+        List<Mutation> pending = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                Mutation first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                try {
+                    int operations = prepare(first, pending);
+                    long deadline = System.nanoTime() + window;
+                    while (operations < maxOperations) {
+                        Mutation next = queue.poll();
+                        if (next == null) {
+                            long wait = deadline - System.nanoTime();
+                            if (wait <= 0) break;
+                            next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                            if (next == null) break;
+                        }
+                        operations += prepare(next, pending);
+                    }
+                    commit(pending);
+                } catch (RuntimeException e) {
+                    logger.error("nftables writer transaction failed", e);
+                    pending.forEach(item -> item.future.completeExceptionally(e));
+                }
+                pending.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+            pending.forEach(item -> item.future.completeExceptionally(new JSysboxException("nftables writer interrupted", e)));
+        }
+    }
+
+    /**
+     * run mutation on its own batch, a mutation that throws fails only its future
+     *
+     * @return operations added by the mutation
+     */
+    private static int prepare(Mutation item, List<Mutation> pending) {
+        try {
+            item.mutation.accept(item.batch);
+        } catch (RuntimeException e) {
+            item.future.completeExceptionally(e);
+            return 0;
+        }
+        pending.add(item);
+        return item.batch.size();
+    }
+
+    private void commit(List<Mutation> pending) {
+        NftBatch transaction = new NftBatch();
+        pending.forEach(item -> transaction.add(item.batch));
+
+        try {
+            transaction.commit();
+            if (!transaction.isEmpty()) transactions++;
+            mutations += pending.size();
+            pending.forEach(item -> item.future.complete(null));
+        } catch (RuntimeException e) {
+            if (pending.size() == 1) {
+                pending.getFirst().future.completeExceptionally(e);
+                return;
+            }
+            logger.debug("transaction of {} mutations rejected, commit them one by one: {}", pending.size(), e.getMessage());
+            for (Mutation item : pending) {
+                try {
+                    item.batch.commit();
+                    if (!item.batch.isEmpty()) transactions++;
+                    mutations++;
+                    item.future.complete(null);
+                } catch (RuntimeException ex) {
+                    item.future.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    private static final class Mutation {
+        private final Consumer<NftBatch> mutation;
+        private final NftBatch batch = new NftBatch();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Mutation(Consumer<NftBatch> mutation) {
+            this.mutation = mutation;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesReader;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+
+import java.util.*;
+import java.util.Map;
+
+/**
+ * Parsed copy of the live ruleset with hash indexes by handle and by (family, table, name).
+ * <p>
+ * Every lookup first reads the ruleset generation id of the kernel, a single small netlink request
+ * on a socket the cache keeps open in its network namespace.
+ * The ruleset is listed and parsed again only when the generation changed, so repeated lookups do
+ * no JSON work while nobody touches the firewall.
+ * <p>
+ * The generation does not change when packets hit a counter or when the kernel adds or expires
+ * elements of dynamic and timeout sets, those values are as old as the last reload.
+ * Returned objects are shared between callers and must not be modified.
+ */
+public class RulesetCache {
+    private volatile Snapshot snapshot;
+    private int socket = -1;
+    private int sequence;
+
+    RulesetCache() {
+    }
+
+    /**
+     * @return generation id of the cached ruleset, -1 when nothing is cached
+     */
+    public long generation() {
+        Snapshot current = snapshot;
+        return current != null ? current.genid : -1;
+    }
+
+    /**
+     * drop cached ruleset, next lookup lists the ruleset again
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    public NFTables nfTables() {
+        return current().nfTables;
+    }
+
+    public List<Table> tables() {
+        return current().nfTables.getTables();
+    }
+
+    public Table table(int handle) {
+        return current().tablesByHandle.get(handle);
+    }
+
+    public Table table(String name, TableType type) {
+        return current().tables.get(key(type, name));
+    }
+
+    public List<Chain> chains() {
+        return current().nfTables.getChains();
+    }
+
+    public List<Chain> chains(Table table) {
+        Snapshot current = current();
+        return current.chainsByTable.getOrDefault(current.key(table), Collections.emptyList());
+    }
+
+    public Chain chain(Table table, String name) {
+        Snapshot current = current();
+        return current.chains.get(current.key(table) + " " + name);
+    }
+
+    public Chain chain(Table table, int handle) {
+        Snapshot current = current();
+        return current.chainsByHandle.get(current.key(table) + " " + handle);
+    }
+
+    public List<Set> sets() {
+        return current().nfTables.getSets();
+    }
+
+    public List<Set> sets(Table table) {
+        Snapshot current = current();
+        return current.setsByTable.getOrDefault(current.key(table), Collections.emptyList());
+    }
+
+    public Set set(Table table, String name) {
+        Snapshot current = current();
+        return current.sets.get(current.key(table) + " " + name);
+    }
+
+    public Set set(Table table, int handle) {
+        Snapshot current = current();
+        return current.setsByHandle.get(current.key(table) + " " + handle);
+    }
+
+    public List<ir.moke.jsysbox.firewall.model.Map> maps() {
+        return current().nfTables.getMaps();
+    }
+
+    public List<ir.moke.jsysbox.firewall.model.Map> maps(Table table) {
+        Snapshot current = current();
+        return current.mapsByTable.getOrDefault(current.key(table), Collections.emptyList());
+    }
+
+    public ir.moke.jsysbox.firewall.model.Map map(Table table, String name) {
+        Snapshot current = current();
+        return current.maps.get(current.key(table) + " " + name);
+    }
+
+    public List<VerdictMap> verdictMaps() {
+        return current().nfTables.getVerdictMaps();
+    }
+
+    public List<VerdictMap> verdictMaps(Table table) {
+        Snapshot current = current();
+        return current.verdictMapsByTable.getOrDefault(current.key(table), Collections.emptyList());
+    }
+
+    public VerdictMap verdictMap(Table table, String name) {
+        Snapshot current = current();
+        return current.verdictMaps.get(current.key(table) + " " + name);
+    }
+
+    public List<Flowtable> flowtables() {
+        return current().nfTables.getFlowtables();
+    }
+
+    public Flowtable flowtable(Table table, String name) {
+        Snapshot current = current();
+        return current.flowtables.get(current.key(table) + " " + name);
+    }
+
+    public List<Rule> rules(Chain chain) {
+        Snapshot current = current();
+        return current.rulesByChain.getOrDefault(current.key(chain.getTable()) + " " + chain.getName(), Collections.emptyList());
+    }
+
+    public Rule rule(Chain chain, long handle) {
+        Snapshot current = current();
+        return current.rulesByHandle.get(current.key(chain.getTable()) + " " + chain.getName() + " " + handle);
+    }
+
+    /**
+     * generation id read on the socket of this cache, a failed request closes the socket and the next one opens it again
+     */
+    private synchronized long genid() {
+        if (socket < 0) socket = JFirewall.genidOpen();
+        try {
+            return JFirewall.genid(socket, ++sequence);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * close the generation id socket, called when the network namespace of the cache is released
+     */
+    synchronized void close() {
+        if (socket < 0) return;
+        JFirewall.genidClose(socket);
+        socket = -1;
+    }
+
+    private Snapshot current() {
+        long genid = genid();
+        Snapshot current = snapshot;
+        if (current != null && current.genid == genid) return current;
+
+        // generation is read before listing, a change in between only costs one more reload
+        NFTables nfTables = NFTablesReader.read(JFirewall.exec("list ruleset"));
+        current = new Snapshot(genid, nfTables);
+        snapshot = current;
+        return current;
+    }
+
+    private static String key(TableType type, String name) {
+        return type.getValue() + " " + name;
+    }
+
+    private static String key(Table table) {
+        return key(table.getType(), table.getName());
+    }
+
+    private static String key(Chain chain) {
+        return key(chain.getTable()) + " " + chain.getName();
+    }
+
+    private static class Snapshot {
+        private final long genid;
+        private final NFTables nfTables;
+        private final Map<Integer, Table> tablesByHandle = new HashMap<>();
+        private final Map<String, Table> tables = new HashMap<>();
+        private final Map<String, Chain> chains = new HashMap<>();
+        private final Map<String, Chain> chainsByHandle = new HashMap<>();
+        private final Map<String, List<Chain>> chainsByTable = new HashMap<>();
+        private final Map<String, Set> sets = new HashMap<>();
+        private final Map<String, Set> setsByHandle = new HashMap<>();
+        private final Map<String, List<Set>> setsByTable = new HashMap<>();
+        private final Map<String, ir.moke.jsysbox.firewall.model.Map> maps = new HashMap<>();
+        private final Map<String, List<ir.moke.jsysbox.firewall.model.Map>> mapsByTable = new HashMap<>();
+        private final Map<String, VerdictMap> verdictMaps = new HashMap<>();
+        private final Map<String, List<VerdictMap>> verdictMapsByTable = new HashMap<>();
+        private final Map<String, Flowtable> flowtables = new HashMap<>();
+        private final Map<String, List<Rule>> rulesByChain = new HashMap<>();
+        private final Map<String, Rule> rulesByHandle = new HashMap<>();
+
+        private Snapshot(long genid, NFTables parsed) {
+            this.genid = genid;
+
+            // parsed objects point to placeholder tables and chains, link them to the listed ones
+            for (Table table : parsed.getTables()) {
+                tablesByHandle.put(table.getHandle(), table);
+                tables.put(key(table), table);
+            }
+            for (Chain chain : parsed.getChains()) {
+                String tableKey = key(chain.getTable());
+                chain.setTable(tables.getOrDefault(tableKey, chain.getTable()));
+                chains.put(RulesetCache.key(chain), chain);
+                chainsByHandle.put(tableKey + " " + chain.getHandle(), chain);
+                chainsByTable.computeIfAbsent(tableKey, k -> new ArrayList<>()).add(chain);
+            }
+            for (Set set : parsed.getSets()) {
+                String tableKey = key(set.getTable());
+                set.setTable(tables.getOrDefault(tableKey, set.getTable()));
+                sets.put(tableKey + " " + set.getName(), set);
+                setsByHandle.put(tableKey + " " + set.getHandle(), set);
+                setsByTable.computeIfAbsent(tableKey, k -> new ArrayList<>()).add(set);
+            }
+            for (ir.moke.jsysbox.firewall.model.Map map : parsed.getMaps()) {
+                String tableKey = key(map.getTable());
+                map.setTable(tables.getOrDefault(tableKey, map.getTable()));
+                maps.put(tableKey + " " + map.getName(), map);
+                mapsByTable.computeIfAbsent(tableKey, k -> new ArrayList<>()).add(map);
+            }
+            for (VerdictMap map : parsed.getVerdictMaps()) {
+                String tableKey = key(map.getTable());
+                map.setTable(tables.getOrDefault(tableKey, map.getTable()));
+                verdictMaps.put(tableKey + " " + map.getName(), map);
+                verdictMapsByTable.computeIfAbsent(tableKey, k -> new ArrayList<>()).add(map);
+            }
+            for (Flowtable flowtable : parsed.getFlowtables()) {
+                String tableKey = key(flowtable.getTable());
+                flowtable.setTable(tables.getOrDefault(tableKey, flowtable.getTable()));
+                flowtables.put(tableKey + " " + flowtable.getName(), flowtable);
+            }
+            for (Rule rule : parsed.getRules()) {
+                String chainKey = RulesetCache.key(rule.getChain());
+                rule.setChain(chains.getOrDefault(chainKey, rule.getChain()));
+                rulesByChain.computeIfAbsent(chainKey, k -> new ArrayList<>()).add(rule);
+                rulesByHandle.put(chainKey + " " + rule.getHandle(), rule);
+            }
+
+            this.nfTables = new NFTables(parsed.getMetaInfo(),
+                    Collections.unmodifiableList(parsed.getTables()),
+                    Collections.unmodifiableList(parsed.getChains()),
+                    Collections.unmodifiableList(parsed.getRules()),
+                    Collections.unmodifiableList(parsed.getSets()),
+                    Collections.unmodifiableList(parsed.getMaps()),
+                    Collections.unmodifiableList(parsed.getVerdictMaps()),
+                    Collections.unmodifiableList(parsed.getFlowtables()));
+            chainsByTable.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            setsByTable.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            mapsByTable.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            verdictMapsByTable.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            rulesByChain.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        }
+
+        /**
+         * tables given only by handle are resolved through the handle index
+         */
+        private String key(Table table) {
+            if (table.getName() == null || table.getType() == null) {
+                Table listed = tablesByHandle.get(table.getHandle());
+                return listed != null ? RulesetCache.key(listed) : "";
+            }
+            return RulesetCache.key(table);
+        }
+    }
+}
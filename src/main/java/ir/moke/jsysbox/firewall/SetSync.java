@@ -0,0 +1,185 @@
+package ir.moke.jsysbox.firewall;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesReader;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesVisitor;
+import ir.moke.jsysbox.firewall.model.FlagType;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.model.Table;
+import ir.moke.jsysbox.network.CidrSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Bring elements of a set to a desired collection with the smallest number of element changes.
+ * <p>
+ * Current elements are listed from the kernel, only the difference is submitted: missing elements
+ * are added, elements that are not desired any more are deleted. Changes are split in element
+ * commands of at most {@link #chunkSize(int)} items, all chunks are committed in one transaction.
+ * <p>
+ * Desired elements are consumed one by one from iterators or streams. Each chunk is serialized into
+ * the json document of the batch when it is planned and the document is handed to libnftables from
+ * a direct buffer, a big blocklist never exists as command text or as a single java string.
+ * Elements are compared as text the way the kernel lists them, full length prefixes like
+ * {@code 10.0.0.1/32} are compared as plain addresses. Interval sets with auto-merge list adjacent
+ * elements as one range, pass a {@link CidrSet} to keep the difference small.
+ * <p>
+ * example :
+ * <pre>
+ * JFirewall.setSync(set)
+ *         .timeout(Duration.ofHours(1))
+ *         .elements(Files.lines(blocklist))
+ *         .apply();
+ * </pre>
+ */
+public final class SetSync {
+    private static final Logger logger = LoggerFactory.getLogger(SetSync.class);
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    private final Set set;
+    private final Map<String, Duration> desired = new HashMap<>();
+    private Duration timeout;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    SetSync(Set set) {
+        this.set = set;
+    }
+
+    /**
+     * timeout of elements added without their own timeout, null to use timeout of the set
+     *
+     * @param timeout element timeout, seconds precision
+     */
+    public SetSync timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param chunkSize maximum number of elements of one element command
+     */
+    public SetSync chunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new JSysboxException("Invalid chunk size %s".formatted(chunkSize));
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public SetSync element(String element) {
+        return element(element, null);
+    }
+
+    /**
+     * @param element set element
+     * @param timeout timeout of this element, applied only when the element is added, null for default timeout
+     */
+    public SetSync element(String element, Duration timeout) {
+        desired.put(normalize(element), timeout);
+        return this;
+    }
+
+    public SetSync elements(Iterator<String> elements) {
+        while (elements.hasNext()) {
+            String element = elements.next();
+            if (element != null && !element.isBlank()) element(element);
+        }
+        return this;
+    }
+
+    public SetSync elements(Stream<String> elements) {
+        try (elements) {
+            return elements(elements.iterator());
+        }
+    }
+
+    public SetSync elements(Collection<String> elements) {
+        return elements(elements.iterator());
+    }
+
+    /**
+     * elements of an address set, an interval set gets one element per address interval, other sets one per prefix
+     *
+     * @param cidrSet aggregated addresses {@link CidrSet}
+     */
+    public SetSync elements(CidrSet cidrSet) {
+        boolean interval = set.getFlags() != null && set.getFlags().contains(FlagType.INTERVAL);
+        return elements(interval ? cidrSet.intervals() : cidrSet.cidrs());
+    }
+
+    /**
+     * list current elements and build the batch of element changes, nothing is submitted
+     *
+     * @return batch with delete chunks followed by add chunks
+     */
+    public NftBatch plan() {
+        java.util.Set<String> current = current();
+        NftBatch batch = JFirewall.batch();
+
+        List<String> remove = new ArrayList<>(chunkSize);
+        for (String element : current) {
+            if (desired.containsKey(element)) continue;
+            remove.add(element);
+            if (remove.size() == chunkSize) {
+                batch.setRemoveElement(set, remove);
+                remove = new ArrayList<>(chunkSize);
+            }
+        }
+        batch.setRemoveElement(set, remove);
+
+        Map<String, Duration> add = new LinkedHashMap<>();
+        for (Map.Entry<String, Duration> item : desired.entrySet()) {
+            if (current.contains(item.getKey())) continue;
+            add.put(item.getKey(), item.getValue() != null ? item.getValue() : timeout);
+            if (add.size() == chunkSize) {
+                batch.setAddElement(set, add);
+                add = new LinkedHashMap<>();
+            }
+        }
+        batch.setAddElement(set, add);
+        return batch;
+    }
+
+    /**
+     * submit the difference in one transaction
+     * <p>
+     * elements of timeout sets may expire between listing and commit, a failed commit is planned
+     * and submitted once more against the new elements.
+     *
+     * @return number of element commands submitted
+     */
+    public int apply() {
+        NftBatch batch = plan();
+        try {
+            batch.commit();
+        } catch (JSysboxException e) {
+            logger.warn("set {} changed during sync, retry: {}", set.getName(), e.getMessage());
+            batch = plan();
+            batch.commit();
+        }
+        return batch.size();
+    }
+
+    private java.util.Set<String> current() {
+        Table table = set.getTable();
+        String result = JFirewall.exec("list set %s %s %s".formatted(table.getType().getValue(), table.getName(), set.getName()));
+        java.util.Set<String> elements = new HashSet<>();
+        NFTablesReader.read(result, new NFTablesVisitor() {
+            @Override
+            public void set(Set listed) {
+                if (listed.getElements() != null) listed.getElements().forEach(item -> elements.add(normalize(item)));
+            }
+        });
+        return elements;
+    }
+
+    private static String normalize(String element) {
+        String item = element.trim();
+        // kernel lists ipv6 and mac addresses in lower case
+        if (item.indexOf(':') >= 0) item = item.toLowerCase();
+        if (item.endsWith("/32") && item.indexOf(':') < 0) return item.substring(0, item.length() - 3);
+        if (item.endsWith("/128") && item.indexOf(':') >= 0) return item.substring(0, item.length() - 4);
+        return item;
+    }
+}
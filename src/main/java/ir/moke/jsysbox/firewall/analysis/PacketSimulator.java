@@ -0,0 +1,971 @@
+package ir.moke.jsysbox.firewall.analysis;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.*;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.*;
+import ir.moke.jsysbox.network.CidrSet;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.Map;
+
+/**
+ * Offline evaluation of a {@link NFTables} model against synthetic packets, no kernel or root needed.
+ * <p>
+ * The model is compiled once: rules become arrays of typed tests (address intervals, number
+ * ranges, names and interface wildcards), set references are resolved to their elements. A packet
+ * then walks the hooks of its {@link Path} like the kernel does: base chains of a hook in priority
+ * order, accept ends a base chain, drop, reject and queue end the packet, jump, goto and return
+ * follow the chain stack, verdict maps are looked up by key.
+ * <p>
+ * Simplifications: statements other than verdicts do not change the packet (nat, mark), limits
+ * are under their rate and ct count is zero, nat chains only see packets in ct state new, tables
+ * of family bridge and arp are ignored, ports and protocols given by name are resolved from a
+ * small builtin table. A field the packet does not carry never matches.
+ * <p>
+ * Compiled simulators are immutable and can be shared by threads.
+ * <p>
+ * example :
+ * <pre>
+ * PacketSimulator simulator = PacketSimulator.of(JFirewall.exportToNFTables());
+ * PacketSimulator.Packet packet = PacketSimulator.Packet.builder()
+ *         .path(PacketSimulator.Path.INPUT)
+ *         .protocol("tcp")
+ *         .source("10.0.0.1", 40000)
+ *         .destination("10.0.0.2", 22)
+ *         .ctState(CtExpression.State.NEW)
+ *         .iifname("eth0")
+ *         .build();
+ * PacketSimulator.Result result = simulator.simulate(packet);
+ * </pre>
+ */
+public final class PacketSimulator {
+    private static final int MAX_DEPTH = 16;
+    private static final int CONTINUE = 0;
+    private static final int ACCEPT = 1;
+    private static final int DROP = 2;
+    private static final int REJECT = 3;
+    private static final int QUEUE = 4;
+    private static final int RETURN = 5;
+    private static final int JUMP = 6;
+    private static final int GOTO = 7;
+    private static final Map<String, Integer> PROTOCOLS = Map.ofEntries(
+            Map.entry("icmp", 1), Map.entry("igmp", 2), Map.entry("tcp", 6), Map.entry("udp", 17),
+            Map.entry("gre", 47), Map.entry("esp", 50), Map.entry("ah", 51), Map.entry("icmpv6", 58),
+            Map.entry("ipv6-icmp", 58), Map.entry("dccp", 33), Map.entry("comp", 108), Map.entry("sctp", 132),
+            Map.entry("udplite", 136));
+    private static final Map<String, Integer> SERVICES = Map.ofEntries(
+            Map.entry("ftp", 21), Map.entry("ssh", 22), Map.entry("telnet", 23), Map.entry("smtp", 25),
+            Map.entry("domain", 53), Map.entry("bootps", 67), Map.entry("bootpc", 68), Map.entry("http", 80),
+            Map.entry("pop3", 110), Map.entry("ntp", 123), Map.entry("imap", 143), Map.entry("snmp", 161),
+            Map.entry("ldap", 389), Map.entry("https", 443), Map.entry("submission", 587), Map.entry("imaps", 993),
+            Map.entry("pop3s", 995), Map.entry("mysql", 3306), Map.entry("postgresql", 5432));
+
+    private final Map<ChainHook, CompiledChain[]> hooks;
+
+    private PacketSimulator(Map<ChainHook, CompiledChain[]> hooks) {
+        this.hooks = hooks;
+    }
+
+    /**
+     * compile ruleset
+     *
+     * @param nfTables ruleset
+     * @return simulator of the ruleset
+     */
+    public static PacketSimulator of(NFTables nfTables) {
+        return new Compiler(nfTables).compile();
+    }
+
+    /**
+     * @param packet simulated packet
+     * @return verdict and evaluation cost
+     */
+    public Result simulate(Packet packet) {
+        Trace trace = new Trace();
+        for (ChainHook hook : packet.path.hooks) {
+            CompiledChain[] chains = hooks.get(hook);
+            if (chains == null) continue;
+            for (CompiledChain chain : chains) {
+                if (!chain.applies(packet)) continue;
+                trace.chain = null;
+                trace.rule = null;
+                int outcome = evaluate(chain, packet, trace, 0);
+                if (outcome == RETURN) {
+                    outcome = chain.policy;
+                    trace.chain = chain.chain;
+                }
+                if (outcome != ACCEPT) return trace.result(outcome);
+            }
+        }
+        return trace.result(ACCEPT);
+    }
+
+    private int evaluate(CompiledChain chain, Packet packet, Trace trace, int depth) {
+        if (depth > MAX_DEPTH) throw new JSysboxException("Chain %s exceeds jump depth %s".formatted(chain.chain.getName(), MAX_DEPTH));
+        for (CompiledRule rule : chain.rules) {
+            trace.rules++;
+            if (rule.limited || !rule.matches(packet, trace)) continue;
+            int outcome = apply(rule.verdicts, packet, trace, depth);
+            if (outcome == CONTINUE) continue;
+            // the innermost chain decides, callers only pass the outcome up
+            if (outcome != RETURN && trace.chain == null) {
+                trace.chain = chain.chain;
+                trace.rule = rule.rule;
+            }
+            return outcome;
+        }
+        return RETURN;
+    }
+
+    private int apply(Action[] actions, Packet packet, Trace trace, int depth) {
+        for (Action action : actions) {
+            Action taken = action;
+            if (action.map != null) {
+                taken = action.map.lookup(packet, trace);
+                if (taken == null) continue;
+            }
+            switch (taken.kind) {
+                case CONTINUE -> {
+                }
+                case JUMP -> {
+                    int outcome = evaluate(taken.target, packet, trace, depth + 1);
+                    if (outcome != RETURN) return outcome;
+                }
+                case GOTO -> {
+                    return evaluate(taken.target, packet, trace, depth + 1);
+                }
+                default -> {
+                    return taken.kind;
+                }
+            }
+        }
+        return CONTINUE;
+    }
+
+    public enum Path {
+        /**
+         * received for a local socket
+         */
+        INPUT(ChainHook.INGRESS, ChainHook.PREROUTING, ChainHook.INPUT),
+        /**
+         * routed through the host
+         */
+        FORWARD(ChainHook.INGRESS, ChainHook.PREROUTING, ChainHook.FORWARD, ChainHook.POSTROUTING, ChainHook.EGRESS),
+        /**
+         * sent by a local socket
+         */
+        OUTPUT(ChainHook.OUTPUT, ChainHook.POSTROUTING, ChainHook.EGRESS);
+
+        private final ChainHook[] hooks;
+
+        Path(ChainHook... hooks) {
+            this.hooks = hooks;
+        }
+    }
+
+    public enum Verdict {
+        ACCEPT,
+        DROP,
+        REJECT,
+        QUEUE
+    }
+
+    /**
+     * @param verdict     final verdict of the packet
+     * @param chain       chain that decided, null when no chain saw the packet
+     * @param rule        rule that decided, null when the chain policy decided
+     * @param rules       rules evaluated
+     * @param expressions expressions evaluated, including verdict map lookups
+     */
+    public record Result(Verdict verdict, Chain chain, Rule rule, int rules, int expressions) {
+    }
+
+    /**
+     * Synthetic packet, fields not set are absent and never match.
+     */
+    public static final class Packet {
+        private final Path path;
+        private final int family;
+        private final long saddrHi;
+        private final long saddrLo;
+        private final long daddrHi;
+        private final long daddrLo;
+        private final int protocol;
+        private final int sport;
+        private final int dport;
+        private final String ctState;
+        private final String iifname;
+        private final String oifname;
+        private final long mark;
+        private final int length;
+        private final Map<String, String> fields;
+
+        private Packet(Builder builder) {
+            this.path = builder.path;
+            this.family = builder.family;
+            this.saddrHi = builder.saddr[0];
+            this.saddrLo = builder.saddr[1];
+            this.daddrHi = builder.daddr[0];
+            this.daddrLo = builder.daddr[1];
+            this.protocol = builder.protocol;
+            this.sport = builder.sport;
+            this.dport = builder.dport;
+            this.ctState = builder.ctState;
+            this.iifname = builder.iifname;
+            this.oifname = builder.oifname;
+            this.mark = builder.mark;
+            this.length = builder.length;
+            this.fields = Map.copyOf(builder.fields);
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return 4 or 6, 0 when the packet has no address
+         */
+        public int getFamily() {
+            return family;
+        }
+
+        public static final class Builder {
+            private Path path = Path.INPUT;
+            private int family;
+            private long[] saddr = new long[2];
+            private long[] daddr = new long[2];
+            private int protocol = -1;
+            private int sport = -1;
+            private int dport = -1;
+            private String ctState;
+            private String iifname;
+            private String oifname;
+            private long mark;
+            private int length = -1;
+            private final Map<String, String> fields = new HashMap<>();
+
+            private Builder() {
+            }
+
+            public Builder path(Path path) {
+                this.path = path;
+                return this;
+            }
+
+            /**
+             * @param protocol name, e.g. {@code tcp}, or number
+             */
+            public Builder protocol(String protocol) {
+                this.protocol = (int) protocolNumber(protocol);
+                if (this.protocol < 0) throw new JSysboxException("Unknown protocol %s".formatted(protocol));
+                return this;
+            }
+
+            /**
+             * @param address IPv4 or IPv6 address
+             * @param port    source port, -1 when the protocol has no ports
+             */
+            public Builder source(String address, int port) {
+                this.saddr = address(address);
+                this.sport = port;
+                return this;
+            }
+
+            public Builder destination(String address, int port) {
+                this.daddr = address(address);
+                this.dport = port;
+                return this;
+            }
+
+            public Builder ctState(CtExpression.State state) {
+                this.ctState = state.getValue();
+                return this;
+            }
+
+            public Builder iifname(String iifname) {
+                this.iifname = iifname;
+                return this;
+            }
+
+            public Builder oifname(String oifname) {
+                this.oifname = oifname;
+                return this;
+            }
+
+            public Builder mark(long mark) {
+                this.mark = mark;
+                return this;
+            }
+
+            public Builder length(int length) {
+                this.length = length;
+                return this;
+            }
+
+            /**
+             * any other field, matched as number or name
+             *
+             * @param key   field as written by nft, e.g. {@code ip ttl}, {@code ct status}, {@code icmp type}
+             * @param value field value
+             */
+            public Builder field(String key, String value) {
+                fields.put(key, value);
+                return this;
+            }
+
+            public Packet build() {
+                return new Packet(this);
+            }
+
+            private long[] address(String address) {
+                try {
+                    InetAddress inetAddress = InetAddress.getByName(address);
+                    int version = inetAddress instanceof Inet4Address ? 4 : 6;
+                    if (family != 0 && family != version) throw new JSysboxException("Source and destination of different family");
+                    family = version;
+                    byte[] bytes = inetAddress.getAddress();
+                    long hi = 0;
+                    long lo = 0;
+                    for (int i = 0; i < bytes.length; i++) {
+                        if (bytes.length == 16 && i < 8) {
+                            hi = (hi << 8) | (bytes[i] & 0xFF);
+                        } else {
+                            lo = (lo << 8) | (bytes[i] & 0xFF);
+                        }
+                    }
+                    return new long[]{hi, lo};
+                } catch (UnknownHostException e) {
+                    throw new JSysboxException("Invalid address %s".formatted(address), e);
+                }
+            }
+        }
+    }
+
+    private static final class Trace {
+        private int rules;
+        private int expressions;
+        private Chain chain;
+        private Rule rule;
+
+        private Result result(int outcome) {
+            Verdict verdict = switch (outcome) {
+                case DROP -> Verdict.DROP;
+                case REJECT -> Verdict.REJECT;
+                case QUEUE -> Verdict.QUEUE;
+                default -> Verdict.ACCEPT;
+            };
+            return new Result(verdict, chain, rule, rules, expressions);
+        }
+    }
+
+    private static final class CompiledChain {
+        private final Chain chain;
+        private final int family;
+        private final boolean nat;
+        private final int policy;
+        private CompiledRule[] rules = new CompiledRule[0];
+
+        private CompiledChain(Chain chain) {
+            this.chain = chain;
+            this.family = switch (chain.getTable().getType()) {
+                case IPv4 -> 4;
+                case IPv6 -> 6;
+                default -> 0;
+            };
+            this.nat = chain.getType() == ChainType.NAT;
+            this.policy = chain.getPolicy() == ChainPolicy.DROP ? DROP : ACCEPT;
+        }
+
+        private boolean applies(Packet packet) {
+            if (family != 0 && family != packet.family) return false;
+            return !nat || CtExpression.State.NEW.getValue().equals(packet.ctState);
+        }
+    }
+
+    private static final class CompiledRule {
+        private final Rule rule;
+        private final Test[] tests;
+        private final boolean limited;
+        private final Action[] verdicts;
+
+        private CompiledRule(Rule rule, Test[] tests, boolean limited, Action[] verdicts) {
+            this.rule = rule;
+            this.tests = tests;
+            this.limited = limited;
+            this.verdicts = verdicts;
+        }
+
+        private boolean matches(Packet packet, Trace trace) {
+            for (Test test : tests) {
+                trace.expressions++;
+                if (!test.matches(packet)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Action {
+        private final int kind;
+        private final CompiledChain target;
+        private final Lookup map;
+
+        private Action(int kind, CompiledChain target, Lookup map) {
+            this.kind = kind;
+            this.target = target;
+            this.map = map;
+        }
+    }
+
+    /**
+     * verdict map, elements are tried in order
+     */
+    private static final class Lookup {
+        private final Key[] key;
+        private final Values[][] elements;
+        private final Action[] actions;
+
+        private Lookup(Key[] key, Values[][] elements, Action[] actions) {
+            this.key = key;
+            this.elements = elements;
+            this.actions = actions;
+        }
+
+        private Action lookup(Packet packet, Trace trace) {
+            trace.expressions++;
+            for (Key item : key) {
+                if (!item.present(packet)) return null;
+            }
+            for (int i = 0; i < elements.length; i++) {
+                if (matches(key, elements[i], packet)) return actions[i];
+            }
+            return null;
+        }
+    }
+
+    /**
+     * all components of the key must be present in the packet
+     */
+    private static boolean matches(Key[] key, Values[] element, Packet packet) {
+        for (int k = 0; k < key.length; k++) {
+            if (!element[k].contains(key[k], packet)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * one expression, concatenations test every component
+     */
+    private static final class Test {
+        private final Key[] key;
+        private final Operation operation;
+        private final Values[][] elements;
+        private final Boolean constant;
+
+        private Test(Key[] key, Operation operation, Values[][] elements, Boolean constant) {
+            this.key = key;
+            this.operation = operation;
+            this.elements = elements;
+            this.constant = constant;
+        }
+
+        private boolean matches(Packet packet) {
+            if (constant != null) return constant;
+            for (Key item : key) {
+                if (!item.present(packet)) return false;
+            }
+            // fields of the simulated packet hold one flag, in matches when it is one of the values
+            if (operation == Operation.EQ || operation == Operation.NE || operation == Operation.IN) {
+                boolean found = false;
+                for (Values[] element : elements) {
+                    if (PacketSimulator.matches(key, element, packet)) {
+                        found = true;
+                        break;
+                    }
+                }
+                return found == (operation != Operation.NE);
+            }
+            if (elements.length == 0 || key.length != 1) return false;
+            long value = key[0].number(packet);
+            if (value < 0) return false;
+            long bound = elements[0][0].low.length > 0 ? elements[0][0].low[0] : 0;
+            return switch (operation) {
+                case LT -> value < bound;
+                case GT -> value > bound;
+                case LE -> value <= bound;
+                case GE -> value >= bound;
+                default -> false;
+            };
+        }
+    }
+
+    private enum Attribute {
+        SADDR, DADDR, PROTOCOL, SPORT, DPORT, MARK, LENGTH, CT_STATE, IIFNAME, OIFNAME, NFPROTO, FIELD
+    }
+
+    /**
+     * packet field with the family and protocol the field belongs to
+     */
+    private static final class Key {
+        private final Attribute attribute;
+        private final String field;
+        private final int family;
+        private final int protocol;
+
+        private Key(Attribute attribute, String field, int family, int protocol) {
+            this.attribute = attribute;
+            this.field = field;
+            this.family = family;
+            this.protocol = protocol;
+        }
+
+        private boolean present(Packet packet) {
+            if (family != 0 && family != packet.family) return false;
+            if (protocol >= 0 && protocol != packet.protocol) return false;
+            return switch (attribute) {
+                case SADDR, DADDR, NFPROTO -> packet.family != 0;
+                case PROTOCOL -> packet.protocol >= 0;
+                case SPORT -> packet.sport >= 0;
+                case DPORT -> packet.dport >= 0;
+                case MARK -> true;
+                case LENGTH -> packet.length >= 0;
+                case CT_STATE -> packet.ctState != null;
+                case IIFNAME -> packet.iifname != null;
+                case OIFNAME -> packet.oifname != null;
+                case FIELD -> packet.fields.containsKey(field);
+            };
+        }
+
+        private long number(Packet packet) {
+            return switch (attribute) {
+                case PROTOCOL -> packet.protocol;
+                case SPORT -> packet.sport;
+                case DPORT -> packet.dport;
+                case MARK -> packet.mark;
+                case LENGTH -> packet.length;
+                default -> parseNumber(name(packet));
+            };
+        }
+
+        private String name(Packet packet) {
+            return switch (attribute) {
+                case CT_STATE -> packet.ctState;
+                case IIFNAME -> packet.iifname;
+                case OIFNAME -> packet.oifname;
+                case NFPROTO -> packet.family == 4 ? "ipv4" : "ipv6";
+                case FIELD -> packet.fields.get(field);
+                default -> null;
+            };
+        }
+    }
+
+    /**
+     * values of one key component: number ranges, addresses or names
+     */
+    private static final class Values {
+        private final long[] low;
+        private final long[] high;
+        private final CidrSet addresses;
+        private final java.util.Set<String> names;
+        private final String[] prefixes;
+
+        private Values(long[] low, long[] high, CidrSet addresses, java.util.Set<String> names, String[] prefixes) {
+            this.low = low;
+            this.high = high;
+            this.addresses = addresses;
+            this.names = names;
+            this.prefixes = prefixes;
+        }
+
+        private boolean contains(Key key, Packet packet) {
+            switch (key.attribute) {
+                case SADDR -> {
+                    return packet.family == 4 ? containsNumber(packet.saddrLo) : addresses.containsIpv6(packet.saddrHi, packet.saddrLo);
+                }
+                case DADDR -> {
+                    return packet.family == 4 ? containsNumber(packet.daddrLo) : addresses.containsIpv6(packet.daddrHi, packet.daddrLo);
+                }
+                case PROTOCOL, SPORT, DPORT, MARK, LENGTH -> {
+                    return containsNumber(key.number(packet));
+                }
+                default -> {
+                    String name = key.name(packet);
+                    if (low.length > 0) {
+                        long number = parseNumber(name);
+                        if (number >= 0 && containsNumber(number)) return true;
+                    }
+                    if (!addresses.isEmpty() && (name.indexOf('.') >= 0 || name.indexOf(':') >= 0)) {
+                        try {
+                            if (addresses.contains(name)) return true;
+                        } catch (JSysboxException ignored) {
+                        }
+                    }
+                    String value = name.toLowerCase();
+                    if (names.contains(value)) return true;
+                    for (String prefix : prefixes) {
+                        if (value.startsWith(prefix)) return true;
+                    }
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * ranges are sorted and do not overlap
+         */
+        private boolean containsNumber(long value) {
+            int first = 0;
+            int last = low.length - 1;
+            while (first <= last) {
+                int middle = (first + last) >>> 1;
+                if (value < low[middle]) {
+                    last = middle - 1;
+                } else if (value > high[middle]) {
+                    first = middle + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Values of(Attribute attribute, List<String> items) {
+            List<long[]> ranges = new ArrayList<>();
+            CidrSet addresses = new CidrSet();
+            java.util.Set<String> names = new HashSet<>();
+            List<String> prefixes = new ArrayList<>();
+            for (String item : items) {
+                String value = item.trim();
+                if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) value = value.substring(1, value.length() - 1);
+                long[] range = range(attribute, value);
+                if (range != null) {
+                    ranges.add(range);
+                    continue;
+                }
+                if (attribute == Attribute.SADDR || attribute == Attribute.DADDR || attribute == Attribute.FIELD) {
+                    try {
+                        addresses.add(value);
+                        // IPv4 addresses of a packet are looked up as numbers
+                        if (value.indexOf(':') < 0 && attribute != Attribute.FIELD) {
+                            CidrSet.of(List.of(value)).toIntervals().forEach(interval -> ranges.add(ipv4Range(interval)));
+                        }
+                        continue;
+                    } catch (JSysboxException ignored) {
+                        // not an address, kept as name
+                    }
+                }
+                if (value.endsWith("*")) {
+                    prefixes.add(value.substring(0, value.length() - 1).toLowerCase());
+                } else {
+                    names.add(value.toLowerCase());
+                }
+            }
+            // lookups of the compiled set are read only
+            addresses.normalize();
+            ranges.sort(Comparator.comparingLong(item -> item[0]));
+            long[] low = new long[ranges.size()];
+            long[] high = new long[ranges.size()];
+            int count = 0;
+            for (long[] range : ranges) {
+                if (count > 0 && range[0] <= high[count - 1] + 1) {
+                    high[count - 1] = Math.max(high[count - 1], range[1]);
+                } else {
+                    low[count] = range[0];
+                    high[count++] = range[1];
+                }
+            }
+            return new Values(Arrays.copyOf(low, count), Arrays.copyOf(high, count), addresses, names, prefixes.toArray(String[]::new));
+        }
+
+        /**
+         * @param interval IPv4 address, prefix or {@code first-last} as written by {@link CidrSet#toIntervals()}
+         */
+        private static long[] ipv4Range(String interval) {
+            int dash = interval.indexOf('-');
+            if (dash > 0) return new long[]{ipv4(interval.substring(0, dash)), ipv4(interval.substring(dash + 1))};
+            int slash = interval.indexOf('/');
+            if (slash < 0) {
+                long address = ipv4(interval);
+                return new long[]{address, address};
+            }
+            long address = ipv4(interval.substring(0, slash));
+            long mask = (1L << (32 - Integer.parseInt(interval.substring(slash + 1)))) - 1;
+            return new long[]{address & ~mask, address | mask};
+        }
+
+        private static long ipv4(String address) {
+            long value = 0;
+            for (String octet : address.split("\\.")) value = (value << 8) | Integer.parseInt(octet);
+            return value;
+        }
+
+        private static long[] range(Attribute attribute, String value) {
+            if (attribute == Attribute.SADDR || attribute == Attribute.DADDR) return null;
+            int dash = value.indexOf('-', 1);
+            String first = dash < 0 ? value : value.substring(0, dash);
+            String last = dash < 0 ? value : value.substring(dash + 1);
+            long low = number(attribute, first);
+            long high = number(attribute, last);
+            return low >= 0 && high >= 0 ? new long[]{low, high} : null;
+        }
+
+        private static long number(Attribute attribute, String value) {
+            long number = parseNumber(value);
+            if (number >= 0) return number;
+            Integer named = switch (attribute) {
+                case PROTOCOL -> PROTOCOLS.get(value.toLowerCase());
+                case SPORT, DPORT -> SERVICES.get(value.toLowerCase());
+                default -> null;
+            };
+            return named != null ? named : -1;
+        }
+    }
+
+    private static long protocolNumber(String value) {
+        long number = parseNumber(value);
+        if (number >= 0) return number;
+        Integer named = PROTOCOLS.get(value.toLowerCase());
+        return named != null ? named : -1;
+    }
+
+    /**
+     * @return decimal or hex number, -1 when value is not a number
+     */
+    private static long parseNumber(String value) {
+        if (value == null || value.isEmpty()) return -1;
+        try {
+            if (value.startsWith("0x")) return Long.parseLong(value.substring(2), 16);
+            if (!Character.isDigit(value.charAt(0))) return -1;
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Compiler {
+        private final NFTables nfTables;
+        private final Map<String, CompiledChain> chains = new LinkedHashMap<>();
+        private final Map<String, List<String>> sets = new HashMap<>();
+        private final Map<String, VerdictMap> verdictMaps = new HashMap<>();
+
+        private Compiler(NFTables nfTables) {
+            this.nfTables = nfTables;
+        }
+
+        private PacketSimulator compile() {
+            for (Chain chain : nfTables.getChains()) {
+                TableType type = chain.getTable().getType();
+                if (type == TableType.BRIDGE || type == TableType.ARP) continue;
+                chains.put(key(chain.getTable(), chain.getName()), new CompiledChain(chain));
+            }
+            if (nfTables.getSets() != null) {
+                for (Set set : nfTables.getSets()) {
+                    sets.put(key(set.getTable(), set.getName()), set.getElements() != null ? set.getElements() : List.of());
+                }
+            }
+            if (nfTables.getMaps() != null) {
+                for (ir.moke.jsysbox.firewall.model.Map map : nfTables.getMaps()) {
+                    sets.put(key(map.getTable(), map.getName()), map.getElements() != null ? List.copyOf(map.getElements().keySet()) : List.of());
+                }
+            }
+            if (nfTables.getVerdictMaps() != null) {
+                for (VerdictMap map : nfTables.getVerdictMaps()) {
+                    verdictMaps.put(key(map.getTable(), map.getName()), map);
+                    sets.put(key(map.getTable(), map.getName()), map.getElements() != null ? List.copyOf(map.getElements().keySet()) : List.of());
+                }
+            }
+
+            Map<CompiledChain, List<CompiledRule>> rules = new HashMap<>();
+            for (Rule rule : nfTables.getRules()) {
+                CompiledChain chain = chains.get(key(rule.getChain().getTable(), rule.getChain().getName()));
+                if (chain == null) continue;
+                rules.computeIfAbsent(chain, k -> new ArrayList<>()).add(rule(rule));
+            }
+            rules.forEach((chain, list) -> chain.rules = list.toArray(CompiledRule[]::new));
+
+            Map<ChainHook, List<CompiledChain>> hooks = new EnumMap<>(ChainHook.class);
+            for (CompiledChain chain : chains.values()) {
+                ChainHook hook = chain.chain.getHook();
+                if (chain.chain.getType() == null || hook == null) continue;
+                TableType type = chain.chain.getTable().getType();
+                boolean device = hook == ChainHook.INGRESS || hook == ChainHook.EGRESS;
+                if (type == TableType.NETDEV && !device) continue;
+                hooks.computeIfAbsent(hook, k -> new ArrayList<>()).add(chain);
+            }
+            Map<ChainHook, CompiledChain[]> sorted = new EnumMap<>(ChainHook.class);
+            hooks.forEach((hook, list) -> {
+                list.sort(Comparator.comparingInt(item -> item.chain.getPriority() != null ? item.chain.getPriority() : 0));
+                sorted.put(hook, list.toArray(CompiledChain[]::new));
+            });
+            return new PacketSimulator(sorted);
+        }
+
+        private CompiledRule rule(Rule rule) {
+            Table table = rule.getChain().getTable();
+            List<Test> tests = new ArrayList<>();
+            if (rule.getExpressions() != null) {
+                for (Expression expression : rule.getExpressions()) tests.add(test(table, expression));
+            }
+            boolean limited = false;
+            List<Action> verdicts = new ArrayList<>();
+            List<Action> terminal = new ArrayList<>();
+            if (rule.getStatements() != null) {
+                for (Statement statement : rule.getStatements()) {
+                    if (statement instanceof LimitStatement limit && Boolean.TRUE.equals(limit.getOver())) limited = true;
+                    else if (statement instanceof RejectStatement) terminal.add(new Action(REJECT, null, null));
+                    else if (statement instanceof NatStatement) terminal.add(new Action(ACCEPT, null, null));
+                    else if (statement instanceof VerdictStatement verdict) verdicts.add(verdict(table, verdict));
+                    else if (statement instanceof VerdictMapStatement vmap) verdicts.add(new Action(CONTINUE, null, lookup(table, vmap)));
+                }
+            }
+            // verdicts are written after the other statements, see NftCommands
+            terminal.addAll(verdicts);
+            return new CompiledRule(rule, tests.toArray(Test[]::new), limited, terminal.toArray(Action[]::new));
+        }
+
+        private Action verdict(Table table, VerdictStatement verdict) {
+            return switch (verdict.getType()) {
+                case ACCEPT -> new Action(ACCEPT, null, null);
+                case DROP -> new Action(DROP, null, null);
+                case QUEUE -> new Action(QUEUE, null, null);
+                case CONTINUE -> new Action(CONTINUE, null, null);
+                case RETURN -> new Action(RETURN, null, null);
+                case JUMP, GOTO -> {
+                    CompiledChain target = chains.get(key(table, verdict.getChainName()));
+                    if (target == null) throw new JSysboxException("Unknown chain %s in table %s".formatted(verdict.getChainName(), table.getName()));
+                    yield new Action(verdict.getType() == VerdictStatement.Type.JUMP ? JUMP : GOTO, target, null);
+                }
+            };
+        }
+
+        private Lookup lookup(Table table, VerdictMapStatement statement) {
+            Map<String, VerdictStatement> elements = statement.getElements();
+            if (statement.getMap() != null) {
+                VerdictMap map = verdictMaps.get(key(table, statement.getMap()));
+                if (map == null) throw new JSysboxException("Unknown verdict map %s in table %s".formatted(statement.getMap(), table.getName()));
+                elements = map.getElements();
+            }
+            Key[] key = statement.getKey().stream().map(Compiler::key).toArray(Key[]::new);
+            List<Values[]> compiled = new ArrayList<>();
+            List<Action> actions = new ArrayList<>();
+            if (elements != null) {
+                for (Map.Entry<String, VerdictStatement> entry : elements.entrySet()) {
+                    compiled.add(element(key, entry.getKey()));
+                    actions.add(verdict(table, entry.getValue()));
+                }
+            }
+            return new Lookup(key, compiled.toArray(Values[][]::new), actions.toArray(Action[]::new));
+        }
+
+        private Test test(Table table, Expression expression) {
+            if (expression instanceof CtExpression ct && ct.getField() == CtExpression.Field.COUNT) {
+                // no connection is counted, only "ct count over" fails
+                return new Test(new Key[0], Operation.EQ, new Values[0][], !Boolean.TRUE.equals(ct.getOver()));
+            }
+            Key[] key;
+            if (expression instanceof ConcatExpression concat) {
+                key = concat.getSelectors().stream().map(Compiler::key).toArray(Key[]::new);
+            } else {
+                key = new Key[]{key(expression.matchType(), field(expression))};
+            }
+            List<String> values = values(expression);
+            if (values == null) return new Test(key, Operation.EQ, new Values[0][], false);
+
+            List<String> elements = new ArrayList<>();
+            for (String value : values) {
+                if (value.startsWith("@")) {
+                    List<String> set = sets.get(key(table, value.substring(1)));
+                    if (set == null) throw new JSysboxException("Unknown set %s in table %s".formatted(value, table.getName()));
+                    elements.addAll(set);
+                } else {
+                    elements.add(value);
+                }
+            }
+            Operation operation = expression.getOperation() != null ? expression.getOperation() : Operation.EQ;
+            Values[][] compiled;
+            if (key.length == 1) {
+                // all values of a single field are one element
+                compiled = new Values[][]{{Values.of(key[0].attribute, elements)}};
+            } else {
+                compiled = elements.stream().map(item -> element(key, item)).toArray(Values[][]::new);
+            }
+            return new Test(key, operation, compiled, null);
+        }
+
+        private static Values[] element(Key[] key, String element) {
+            String[] parts = element.split("\\s*\\.\\s+|\\s+\\.\\s*");
+            if (parts.length != key.length) throw new JSysboxException("Element %s does not match key".formatted(element));
+            Values[] values = new Values[key.length];
+            for (int i = 0; i < key.length; i++) values[i] = Values.of(key[i].attribute, List.of(parts[i]));
+            return values;
+        }
+
+        private static List<String> values(Expression expression) {
+            if (expression instanceof IcmpExpression icmp && icmp.getTypes() != null) {
+                return icmp.getTypes().stream().map(IcmpExpression.Type::getValue).toList();
+            }
+            if (expression instanceof Icmpv6Expression icmp && icmp.getTypes() != null) {
+                return icmp.getTypes().stream().map(Icmpv6Expression.Type::getValue).toList();
+            }
+            return expression.getValues();
+        }
+
+        private static String field(Expression expression) {
+            if (expression instanceof CtExpression ct) {
+                if (ct.getStates() != null && !ct.getStates().isEmpty()) return CtExpression.Field.STATE.getValue();
+                if (ct.getStatuses() != null && !ct.getStatuses().isEmpty()) return CtExpression.Field.STATUS.getValue();
+                if (ct.getOriginalType() != null && ct.getType() != null) {
+                    return "%s %s".formatted(ct.getOriginalType() ? "original" : "reply", ct.getType().getValue());
+                }
+            }
+            if ((expression instanceof IcmpExpression || expression instanceof Icmpv6Expression) && expression.getField() == null) return "type";
+            return expression.getField() != null ? expression.getField().getValue() : "";
+        }
+
+        private static Key key(Selector selector) {
+            return key(selector.matchType(), selector.field().getValue());
+        }
+
+        private static Key key(MatchType matchType, String field) {
+            int family = switch (matchType) {
+                case IP, ICMP -> 4;
+                case IP6, ICMPV6, DST, FRAG, HBH, MH, RT -> 6;
+                default -> 0;
+            };
+            int protocol = switch (matchType) {
+                case TCP, UDP, UDPLITE, SCTP, DCCP, AH, ESP, COMP, ICMP, ICMPV6 -> PROTOCOLS.get(matchType.getValue());
+                default -> -1;
+            };
+            String name = matchType.getValue() + " " + field;
+            Attribute attribute = switch (name) {
+                case "ip saddr", "ip6 saddr" -> Attribute.SADDR;
+                case "ip daddr", "ip6 daddr" -> Attribute.DADDR;
+                case "ip protocol", "ip6 nexthdr", "meta l4proto" -> Attribute.PROTOCOL;
+                case "meta mark" -> Attribute.MARK;
+                case "meta length" -> Attribute.LENGTH;
+                case "meta nfproto" -> Attribute.NFPROTO;
+                case "meta iifname", "meta iif" -> Attribute.IIFNAME;
+                case "meta oifname", "meta oif" -> Attribute.OIFNAME;
+                case "ct state" -> Attribute.CT_STATE;
+                default -> switch (field) {
+                    case "sport" -> protocol >= 0 && family == 0 ? Attribute.SPORT : Attribute.FIELD;
+                    case "dport" -> protocol >= 0 && family == 0 ? Attribute.DPORT : Attribute.FIELD;
+                    default -> Attribute.FIELD;
+                };
+            };
+            return new Key(attribute, name, family, protocol);
+        }
+
+        private static String key(Table table, String name) {
+            return table.getType().getValue() + " " + table.getName() + " " + name;
+        }
+    }
+}
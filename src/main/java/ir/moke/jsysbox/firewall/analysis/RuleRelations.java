@@ -0,0 +1,205 @@
+package ir.moke.jsysbox.firewall.analysis;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.CtExpression;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.expression.MatchType;
+import ir.moke.jsysbox.firewall.model.Operation;
+import ir.moke.jsysbox.firewall.model.Rule;
+import ir.moke.jsysbox.firewall.statement.*;
+import ir.moke.jsysbox.network.CidrSet;
+
+import java.util.*;
+
+/**
+ * Conservative relations between rules of one chain.
+ * <p>
+ * Two rules are disjoint when one field is matched by both with {@code ==} and the value lists
+ * have no common value, or when their protocols (implied by payload matches) differ. Only fields
+ * holding one value per packet (addresses, ports, protocols, ct state ...) are compared, flag
+ * fields like {@code tcp flags} or {@code ct status} carry several bits at once and always
+ * overlap. Anything that can not be proven disjoint, e.g. set references, {@code !=} matches or
+ * interface wildcards, is treated as overlapping.
+ */
+final class RuleRelations {
+    private static final String L3 = "l3proto";
+    private static final String L4 = "l4proto";
+    private static final Set<String> FLAG_FIELDS = Set.of("tcp flags", "comp flags", "ct status");
+
+    private RuleRelations() {
+    }
+
+    /**
+     * @return true when swapping the two rules can not change what happens to any packet
+     */
+    static boolean commute(Rule a, Rule b) {
+        if (disjoint(a, b)) return true;
+        String first = action(a);
+        return first != null && first.equals(action(b));
+    }
+
+    /**
+     * @return true when no packet can match both rules
+     */
+    static boolean disjoint(Rule a, Rule b) {
+        Map<String, List<List<String>>> first = constraints(a);
+        Map<String, List<List<String>>> second = constraints(b);
+        for (Map.Entry<String, List<List<String>>> entry : first.entrySet()) {
+            List<List<String>> other = second.get(entry.getKey());
+            if (other == null) continue;
+            for (List<String> left : entry.getValue()) {
+                for (List<String> right : other) {
+                    if (!overlap(left, right)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * statements of rule except counters, null when the rule keeps state (limit, ct count) and
+     * its position matters for every packet it sees
+     */
+    static String action(Rule rule) {
+        StringBuilder sb = new StringBuilder();
+        if (rule.getExpressions() != null) {
+            for (Expression expression : rule.getExpressions()) {
+                if (expression instanceof CtExpression ct && ct.getField() == CtExpression.Field.COUNT) return null;
+            }
+        }
+        for (Statement statement : statements(rule)) {
+            if (statement instanceof CounterStatement) continue;
+            if (statement instanceof LimitStatement) return null;
+            sb.append(statement).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true when a packet matching the rule leaves the chain
+     */
+    static boolean terminal(Rule rule) {
+        for (Statement statement : statements(rule)) {
+            if (statement instanceof RejectStatement || statement instanceof NatStatement) return true;
+            if (statement instanceof VerdictStatement verdict) {
+                switch (verdict.getType()) {
+                    case ACCEPT, DROP, QUEUE, RETURN, GOTO -> {
+                        return true;
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<Statement> statements(Rule rule) {
+        return rule.getStatements() != null ? rule.getStatements() : List.of();
+    }
+
+    /**
+     * values matched with {@code ==} by field, one list per expression
+     */
+    private static Map<String, List<List<String>>> constraints(Rule rule) {
+        Map<String, List<List<String>>> constraints = new HashMap<>();
+        if (rule.getExpressions() == null) return constraints;
+        for (Expression expression : rule.getExpressions()) {
+            MatchType matchType = expression.matchType();
+            String l3 = switch (matchType) {
+                case IP, ICMP -> "ipv4";
+                case IP6, ICMPV6, DST, FRAG, HBH, MH, RT -> "ipv6";
+                default -> null;
+            };
+            if (l3 != null) put(constraints, L3, List.of(l3));
+            String l4 = switch (matchType) {
+                case TCP, UDP, UDPLITE, SCTP, DCCP, AH, ESP, COMP -> matchType.getValue();
+                case ICMPV6 -> "ipv6-icmp";
+                case ICMP -> "icmp";
+                default -> null;
+            };
+            if (l4 != null) put(constraints, L4, List.of(l4));
+
+            String key = field(expression);
+            List<String> values = expression.getValues();
+            if (key == null || FLAG_FIELDS.contains(key) || expression.getOperation() != Operation.EQ || values == null || values.isEmpty()) continue;
+            switch (key) {
+                case "ip protocol", "ip6 nexthdr", "meta l4proto" -> put(constraints, L4, values);
+                case "meta nfproto" -> put(constraints, L3, values);
+                default -> put(constraints, key, values);
+            }
+        }
+        return constraints;
+    }
+
+    private static void put(Map<String, List<List<String>>> constraints, String key, List<String> values) {
+        constraints.computeIfAbsent(key, k -> new ArrayList<>()).add(values);
+    }
+
+    private static String field(Expression expression) {
+        if (expression instanceof CtExpression ct) {
+            if (ct.getStates() != null && !ct.getStates().isEmpty()) return "ct state";
+            if (ct.getStatuses() != null && !ct.getStatuses().isEmpty()) return "ct status";
+            if (ct.getOriginalType() != null && ct.getType() != null) {
+                return "ct %s %s".formatted(ct.getOriginalType() ? "original" : "reply", ct.getType().getValue());
+            }
+        }
+        Expression.Field field = expression.getField();
+        return field != null ? expression.matchType().getValue() + " " + field.getValue() : null;
+    }
+
+    private static boolean overlap(List<String> left, List<String> right) {
+        for (String a : left) {
+            for (String b : right) {
+                if (overlap(a, b)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * numbers and number ranges, addresses, prefixes and address ranges, interface wildcards and
+     * plain names are compared, values of different kind are assumed to overlap
+     */
+    static boolean overlap(String a, String b) {
+        if (a.startsWith("@") || b.startsWith("@")) return true;
+        long[] first = numbers(a);
+        long[] second = numbers(b);
+        if (first != null && second != null) return first[0] <= second[1] && second[0] <= first[1];
+        if (first != null || second != null) return true;
+
+        CidrSet left = addresses(a);
+        CidrSet right = addresses(b);
+        if (left != null && right != null) return !left.intersection(right).isEmpty();
+        if (left != null || right != null) return true;
+
+        if (a.endsWith("*") || b.endsWith("*")) {
+            String x = a.endsWith("*") ? a.substring(0, a.length() - 1) : a;
+            String y = b.endsWith("*") ? b.substring(0, b.length() - 1) : b;
+            return x.startsWith(y) || y.startsWith(x);
+        }
+        return a.equalsIgnoreCase(b);
+    }
+
+    private static long[] numbers(String value) {
+        int dash = value.indexOf('-', 1);
+        try {
+            if (dash < 0) {
+                long number = Long.parseLong(value);
+                return new long[]{number, number};
+            }
+            return new long[]{Long.parseLong(value.substring(0, dash)), Long.parseLong(value.substring(dash + 1))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static CidrSet addresses(String value) {
+        if (value.indexOf('.') < 0 && value.indexOf(':') < 0) return null;
+        try {
+            return new CidrSet().add(value);
+        } catch (JSysboxException e) {
+            return null;
+        }
+    }
+}
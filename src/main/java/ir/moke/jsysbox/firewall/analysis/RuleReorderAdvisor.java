@@ -0,0 +1,165 @@
+package ir.moke.jsysbox.firewall.analysis;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.CounterSampler;
+import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.firewall.model.Chain;
+import ir.moke.jsysbox.firewall.model.Rule;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Proposes an order of the rules of a chain that evaluates fewer rules per packet, based on the
+ * hit rate of each rule.
+ * <p>
+ * A rule may only pass an earlier rule when both commute: no packet matches both, or both do
+ * exactly the same (statements equal except counters). Rules with limit or ct count keep their
+ * place relative to every overlapping rule. Within these constraints rules are placed greedily,
+ * the ready rule with highest hit rate first and original order on ties.
+ * <p>
+ * Cost is the expected number of rules evaluated by a packet that leaves the chain at a
+ * terminal rule (accept, drop, reject, nat, queue, return, goto). Rates of rules without counter
+ * are unknown and taken as zero.
+ * <p>
+ * example :
+ * <pre>
+ * RuleReorderAdvisor.Advice advice = RuleReorderAdvisor.advise(chain, Duration.ofSeconds(10));
+ * if (advice.savings() > 0.2) advice.apply();
+ * </pre>
+ */
+public final class RuleReorderAdvisor {
+
+    private RuleReorderAdvisor() {
+    }
+
+    /**
+     * sample rule counters of chain over window and advise
+     *
+     * @param chain  nftables {@link Chain}
+     * @param window sampling time
+     * @return advice, {@link Advice#proposed()} equals {@link Advice#current()} when no better order exists
+     */
+    public static Advice advise(Chain chain, Duration window) {
+        CounterSampler sampler = JFirewall.counterSampler(chain);
+        sampler.sample();
+        try {
+            Thread.sleep(window);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSysboxException("Counter sampling interrupted", e);
+        }
+        sampler.sample();
+
+        List<Rule> rules = JFirewall.ruleList(chain);
+        double[] rates = new double[rules.size()];
+        for (int i = 0; i < rates.length; i++) {
+            Integer handle = rules.get(i).getHandle();
+            int index = handle != null ? sampler.indexOf(chain.getTable(), handle) : -1;
+            rates[i] = index >= 0 ? sampler.pps(index) : 0;
+        }
+        return advise(chain, rules, rates);
+    }
+
+    /**
+     * @param chain nftables {@link Chain}
+     * @param rules rules of chain in current order
+     * @param rates hit rate of each rule, same order as rules
+     * @return advice
+     */
+    public static Advice advise(Chain chain, List<Rule> rules, double[] rates) {
+        int size = rules.size();
+        if (rates.length != size) throw new JSysboxException("Rates do not match rules");
+
+        double[] weights = new double[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = RuleRelations.terminal(rules.get(i)) ? Math.max(0, rates[i]) : 0;
+        }
+
+        // blockers[i]: earlier rules that must stay before rule i
+        int[] blockers = new int[size];
+        boolean[][] before = new boolean[size][];
+        for (int i = 0; i < size; i++) {
+            before[i] = new boolean[i];
+            for (int j = 0; j < i; j++) {
+                if (!RuleRelations.commute(rules.get(j), rules.get(i))) {
+                    before[i][j] = true;
+                    blockers[i]++;
+                }
+            }
+        }
+
+        int[] order = new int[size];
+        boolean[] placed = new boolean[size];
+        for (int position = 0; position < size; position++) {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (placed[i] || blockers[i] > 0) continue;
+                if (best < 0 || weights[i] > weights[best]) best = i;
+            }
+            order[position] = best;
+            placed[best] = true;
+            for (int i = best + 1; i < size; i++) {
+                if (before[i][best]) blockers[i]--;
+            }
+        }
+
+        List<Rule> proposed = new ArrayList<>(size);
+        double currentCost = 0;
+        double proposedCost = 0;
+        double total = 0;
+        for (int position = 0; position < size; position++) {
+            proposed.add(rules.get(order[position]));
+            currentCost += weights[position] * (position + 1);
+            proposedCost += weights[order[position]] * (position + 1);
+            total += weights[position];
+        }
+        if (total > 0) {
+            currentCost /= total;
+            proposedCost /= total;
+        }
+        return new Advice(chain, List.copyOf(rules), List.copyOf(proposed), currentCost, proposedCost);
+    }
+
+    /**
+     * @param chain        nftables {@link Chain}
+     * @param current      rules in current order
+     * @param proposed     rules in proposed order
+     * @param currentCost  expected rules evaluated per terminating packet with current order
+     * @param proposedCost expected rules evaluated per terminating packet with proposed order
+     */
+    public record Advice(Chain chain, List<Rule> current, List<Rule> proposed, double currentCost,
+                         double proposedCost) {
+
+        /**
+         * @return fraction of rule evaluations saved, 0 when nothing changes
+         */
+        public double savings() {
+            return currentCost > 0 ? (currentCost - proposedCost) / currentCost : 0;
+        }
+
+        public boolean isChanged() {
+            return !current.equals(proposed);
+        }
+
+        /**
+         * move rules to proposed order, rules keep their counters but moved rules get a new handle
+         *
+         * @return rules of chain after reorder
+         * @throws JSysboxException when rules of chain changed since the advice
+         */
+        public List<Rule> apply() {
+            if (!isChanged()) return current;
+            List<Rule> live = JFirewall.ruleList(chain);
+            if (live.size() != current.size()) throw new JSysboxException("Chain %s changed since advice".formatted(chain.getName()));
+            for (int i = 0; i < live.size(); i++) {
+                if (!Objects.equals(live.get(i).getHandle(), current.get(i).getHandle())) {
+                    throw new JSysboxException("Chain %s changed since advice".formatted(chain.getName()));
+                }
+            }
+            return JFirewall.ruleSwitch(chain, proposed.stream().map(Rule::getHandle).toList());
+        }
+    }
+}
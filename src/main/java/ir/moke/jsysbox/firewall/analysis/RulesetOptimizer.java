@@ -0,0 +1,417 @@
+package ir.moke.jsysbox.firewall.analysis;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.firewall.expression.CtExpression;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.CounterStatement;
+import ir.moke.jsysbox.firewall.statement.Statement;
+import ir.moke.jsysbox.firewall.statement.VerdictMapStatement;
+import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+import ir.moke.jsysbox.network.CidrSet;
+
+import java.util.*;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Folds runs of consecutive rules that differ only in the values of one {@code ==} match into
+ * one rule.
+ * <p>
+ * A run with equal statements becomes one rule matching a set of all values, an anonymous set or,
+ * above {@link #namedSetThreshold(int)} elements, a named set added to the table. A run whose
+ * rules only carry different verdicts and match disjoint values becomes one verdict map rule.
+ * Addresses are aggregated to prefixes and ranges, numbers to ranges. Counters of folded rules
+ * are summed into one counter. Rules with limit or ct count, set references and rules with
+ * different comments are never folded.
+ * <p>
+ * example :
+ * <pre>
+ * RulesetOptimizer.Result result = new RulesetOptimizer().optimize(JFirewall.nfTables());
+ * System.out.println(result.rulesBefore() + " -> " + result.rulesAfter());
+ * JFirewall.apply(result.nfTables());
+ * </pre>
+ */
+public final class RulesetOptimizer {
+    public static final int DEFAULT_NAMED_SET_THRESHOLD = 64;
+
+    private int namedSetThreshold = DEFAULT_NAMED_SET_THRESHOLD;
+    private boolean verdictMaps = true;
+
+    /**
+     * @param threshold folded values above this count go to a named set
+     */
+    public RulesetOptimizer namedSetThreshold(int threshold) {
+        if (threshold < 1) throw new JSysboxException("Named set threshold must be positive");
+        this.namedSetThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * @param enabled fold rules with different verdicts into verdict maps
+     */
+    public RulesetOptimizer verdictMaps(boolean enabled) {
+        this.verdictMaps = enabled;
+        return this;
+    }
+
+    /**
+     * @param nfTables ruleset model, not modified
+     * @return equivalent model with folded rules and new named sets
+     */
+    public Result optimize(NFTables nfTables) {
+        Map<String, List<Rule>> chains = new LinkedHashMap<>();
+        for (Rule rule : nfTables.getRules()) {
+            chains.computeIfAbsent(key(rule.getChain()), k -> new ArrayList<>()).add(rule);
+        }
+        List<Set> sets = nfTables.getSets() != null ? new ArrayList<>(nfTables.getSets()) : new ArrayList<>();
+        java.util.Set<String> names = new HashSet<>();
+        for (Set set : sets) names.add(key(set.getTable()) + " " + set.getName());
+
+        List<Rule> rules = new ArrayList<>();
+        for (List<Rule> chainRules : chains.values()) rules.addAll(fold(chainRules, sets, names));
+        NFTables optimized = new NFTables(nfTables.getMetaInfo(), nfTables.getTables(), nfTables.getChains(), rules, sets, nfTables.getMaps(), nfTables.getVerdictMaps(), nfTables.getFlowtables());
+        return new Result(optimized, nfTables.getRules().size(), rules.size());
+    }
+
+    /**
+     * optimize live rules of chain
+     *
+     * @param chain nftables {@link Chain}
+     * @return model with folded rules of chain and new named sets
+     */
+    public Result optimize(Chain chain) {
+        List<Set> sets = JFirewall.setList().stream().filter(item -> item.getTable().equals(chain.getTable())).toList();
+        return optimize(chain, JFirewall.ruleList(chain), sets);
+    }
+
+    /**
+     * @param chain nftables {@link Chain}
+     * @param rules rules of chain in order
+     * @param sets  existing sets of the table, new set names do not collide with them
+     * @return model with folded rules of chain and new named sets
+     */
+    public Result optimize(Chain chain, List<Rule> rules, List<Set> sets) {
+        java.util.Set<String> names = new HashSet<>();
+        for (Set set : sets) names.add(key(set.getTable()) + " " + set.getName());
+        List<Set> created = new ArrayList<>();
+        List<Rule> folded = fold(rules, created, names);
+        NFTables optimized = new NFTables(null, new ArrayList<>(), new ArrayList<>(List.of(chain)), folded, created);
+        return new Result(optimized, rules.size(), folded.size());
+    }
+
+    private List<Rule> fold(List<Rule> rules, List<Set> sets, java.util.Set<String> names) {
+        List<Rule> result = new ArrayList<>();
+        int i = 0;
+        while (i < rules.size()) {
+            Rule first = rules.get(i);
+            int slot = i + 1 < rules.size() ? slot(first, rules.get(i + 1)) : -1;
+            int end = i + 1;
+            if (slot >= 0) {
+                while (end < rules.size() && sameTemplate(first, rules.get(end), slot)) end++;
+            }
+            if (end - i < 2) {
+                result.add(first);
+                i++;
+                continue;
+            }
+
+            List<Rule> run = rules.subList(i, end);
+            Rule vmap = verdictMaps ? verdictMap(run, slot) : null;
+            if (vmap != null) {
+                result.add(vmap);
+            } else {
+                foldSets(run, slot, result, sets, names);
+            }
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * fold consecutive rules with equal statements into one set match
+     */
+    private void foldSets(List<Rule> run, int slot, List<Rule> result, List<Set> sets, java.util.Set<String> names) {
+        int start = 0;
+        while (start < run.size()) {
+            String statements = statements(run.get(start));
+            int end = start + 1;
+            while (end < run.size() && statements(run.get(end)).equals(statements)) end++;
+            if (end - start < 2) {
+                result.add(run.get(start));
+            } else {
+                result.add(setRule(run.subList(start, end), slot, sets, names));
+            }
+            start = end;
+        }
+    }
+
+    private Rule setRule(List<Rule> group, int slot, List<Set> sets, java.util.Set<String> names) {
+        Rule first = group.getFirst();
+        Expression expression = first.getExpressions().get(slot);
+        List<String> values = new ArrayList<>();
+        for (Rule rule : group) values.addAll(rule.getExpressions().get(slot).getValues());
+        List<String> elements = normalize(values);
+
+        SetType type = setType(expression, elements);
+        if (elements.size() > namedSetThreshold && type != null) {
+            Table table = first.getChain().getTable();
+            String base = (first.getChain().getName() + "_" + expression.matchType().getValue() + "_" + expression.getField().getValue()).replaceAll("[^A-Za-z0-9_]", "_");
+            String name = base;
+            for (int n = 1; !names.add(key(table) + " " + name); n++) name = base + "_" + n;
+            List<FlagType> flags = elements.stream().anyMatch(item -> item.contains("/") || item.indexOf('-', 1) > 0) ? List.of(FlagType.INTERVAL) : List.of();
+            sets.add(new Set(elements, flags, table, name, type, 0, null, null, null, null, null));
+            elements = List.of("@" + name);
+        }
+
+        List<Expression> expressions = new ArrayList<>(first.getExpressions());
+        expressions.set(slot, Expression.create(expression.matchType(), expression.getField().getValue(), Operation.EQ, elements, null, null, null, null));
+        return new Rule(first.getChain(), expressions, counters(group), first.getComment(), null);
+    }
+
+    /**
+     * @return one rule with verdict map, null when rules carry anything else than a verdict or values overlap
+     */
+    private static Rule verdictMap(List<Rule> run, int slot) {
+        java.util.Set<String> verdicts = new HashSet<>();
+        for (Rule rule : run) {
+            List<Statement> statements = rule.getStatements();
+            if (statements == null || statements.size() != 1) return null;
+            if (!(statements.getFirst() instanceof VerdictStatement verdict) || verdict.getType() == VerdictStatement.Type.QUEUE) return null;
+            verdicts.add(verdict.toString());
+        }
+        if (verdicts.size() < 2) return null;
+
+        Map<String, VerdictStatement> elements = new LinkedHashMap<>();
+        CidrSet addresses = new CidrSet();
+        List<long[]> numbers = new ArrayList<>();
+        Kind kind = null;
+        for (Rule rule : run) {
+            List<String> values = rule.getExpressions().get(slot).getValues();
+            Kind current = kind(values);
+            if (kind != null && current != kind) return null;
+            kind = current;
+            List<String> normalized = normalize(values);
+            switch (kind) {
+                case ADDRESS -> {
+                    CidrSet set = CidrSet.of(values);
+                    if (!addresses.intersection(set).isEmpty()) return null;
+                    addresses.addAll(set);
+                }
+                case NUMBER -> {
+                    for (String value : normalized) numbers.add(number(value));
+                }
+                case LITERAL -> {
+                    if (values.stream().anyMatch(item -> item.endsWith("*"))) return null;
+                }
+            }
+            for (String value : normalized) {
+                if (elements.putIfAbsent(value, (VerdictStatement) rule.getStatements().getFirst()) != null) return null;
+            }
+        }
+        if (kind == Kind.NUMBER) {
+            numbers.sort(Comparator.comparingLong(item -> item[0]));
+            for (int i = 1; i < numbers.size(); i++) {
+                if (numbers.get(i)[0] <= numbers.get(i - 1)[1]) return null;
+            }
+        }
+
+        Rule first = run.getFirst();
+        Expression expression = first.getExpressions().get(slot);
+        List<Expression> expressions = new ArrayList<>(first.getExpressions());
+        expressions.remove(slot);
+        VerdictMapStatement statement = new VerdictMapStatement(expression.matchType(), expression.getField(), elements);
+        return new Rule(first.getChain(), expressions, List.of(statement), first.getComment(), null);
+    }
+
+    /**
+     * statements of first rule, counter values are the sum of all rules when every rule has them
+     */
+    private static List<Statement> counters(List<Rule> group) {
+        long packets = 0;
+        long bytes = 0;
+        boolean values = true;
+        for (Rule rule : group) {
+            boolean found = false;
+            for (Statement statement : rule.getStatements() != null ? rule.getStatements() : List.<Statement>of()) {
+                if (statement instanceof CounterStatement counter && counter.getPackets() != null && counter.getBytes() != null) {
+                    packets += counter.getPackets();
+                    bytes += counter.getBytes();
+                    found = true;
+                }
+            }
+            values &= found;
+        }
+        List<Statement> statements = new ArrayList<>();
+        for (Statement statement : group.getFirst().getStatements() != null ? group.getFirst().getStatements() : List.<Statement>of()) {
+            if (statement instanceof CounterStatement) {
+                statements.add(values ? new CounterStatement(packets, bytes) : new CounterStatement());
+            } else {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * index of the only expression that differs between two foldable rules, -1 when they can not be folded
+     */
+    private static int slot(Rule a, Rule b) {
+        if (!foldable(a) || !foldable(b) || !Objects.equals(a.getComment(), b.getComment())) return -1;
+        List<Expression> left = a.getExpressions();
+        List<Expression> right = b.getExpressions();
+        if (left.size() != right.size()) return -1;
+        int slot = -1;
+        for (int i = 0; i < left.size(); i++) {
+            if (left.get(i).toString().equals(right.get(i).toString())) continue;
+            if (slot >= 0) return -1;
+            slot = i;
+        }
+        if (slot < 0) {
+            for (int i = 0; i < left.size() && slot < 0; i++) {
+                if (foldable(left.get(i))) slot = i;
+            }
+        }
+        return slot >= 0 && foldable(left.get(slot)) && foldable(right.get(slot)) && sameField(left.get(slot), right.get(slot)) ? slot : -1;
+    }
+
+    private static boolean sameTemplate(Rule first, Rule rule, int slot) {
+        if (!foldable(rule) || !Objects.equals(first.getComment(), rule.getComment())) return false;
+        List<Expression> left = first.getExpressions();
+        List<Expression> right = rule.getExpressions();
+        if (left.size() != right.size()) return false;
+        for (int i = 0; i < left.size(); i++) {
+            if (i == slot) {
+                if (!foldable(right.get(i)) || !sameField(left.get(i), right.get(i))) return false;
+            } else if (!left.get(i).toString().equals(right.get(i).toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean foldable(Rule rule) {
+        return rule.getExpressions() != null && !rule.getExpressions().isEmpty() && RuleRelations.action(rule) != null;
+    }
+
+    private static boolean foldable(Expression expression) {
+        if (expression instanceof CtExpression || expression.getField() == null || expression.getOperation() != Operation.EQ) return false;
+        List<String> values = expression.getValues();
+        return values != null && !values.isEmpty() && values.stream().noneMatch(item -> item.startsWith("@"));
+    }
+
+    private static boolean sameField(Expression a, Expression b) {
+        return a.matchType() == b.matchType() && a.getField().equals(b.getField());
+    }
+
+    private static String statements(Rule rule) {
+        if (rule.getStatements() == null) return "";
+        return rule.getStatements().stream().map(Statement::toString).collect(Collectors.joining(";"));
+    }
+
+    private enum Kind {
+        ADDRESS,
+        NUMBER,
+        LITERAL
+    }
+
+    private static Kind kind(List<String> values) {
+        boolean numbers = true;
+        boolean addresses = true;
+        for (String value : values) {
+            if (number(value) == null) numbers = false;
+            if (addresses && (value.indexOf('.') < 0 && value.indexOf(':') < 0 || !address(value))) addresses = false;
+        }
+        return numbers ? Kind.NUMBER : addresses ? Kind.ADDRESS : Kind.LITERAL;
+    }
+
+    /**
+     * addresses as prefixes and ranges, numbers as merged ranges, other values without duplicates
+     */
+    private static List<String> normalize(List<String> values) {
+        return switch (kind(values)) {
+            case ADDRESS -> CidrSet.of(values).toIntervals();
+            case NUMBER -> {
+                List<long[]> ranges = new ArrayList<>();
+                for (String value : values) ranges.add(number(value));
+                ranges.sort(Comparator.comparingLong(item -> item[0]));
+                List<String> merged = new ArrayList<>();
+                long start = ranges.getFirst()[0];
+                long end = ranges.getFirst()[1];
+                for (long[] range : ranges) {
+                    if (range[0] > end + 1) {
+                        merged.add(start == end ? String.valueOf(start) : start + "-" + end);
+                        start = range[0];
+                    }
+                    end = Math.max(end, range[1]);
+                }
+                merged.add(start == end ? String.valueOf(start) : start + "-" + end);
+                yield merged;
+            }
+            case LITERAL -> new ArrayList<>(new LinkedHashSet<>(values));
+        };
+    }
+
+    private static long[] number(String value) {
+        int dash = value.indexOf('-', 1);
+        try {
+            if (dash < 0) {
+                long number = Long.parseLong(value);
+                return number >= 0 ? new long[]{number, number} : null;
+            }
+            long start = Long.parseLong(value.substring(0, dash));
+            long end = Long.parseLong(value.substring(dash + 1));
+            return start >= 0 && start <= end ? new long[]{start, end} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean address(String value) {
+        try {
+            new CidrSet().add(value);
+            return true;
+        } catch (JSysboxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * type of named set for field, null when only an anonymous set fits
+     */
+    private static SetType setType(Expression expression, List<String> elements) {
+        if (elements.stream().anyMatch(item -> item.endsWith("*"))) return null;
+        String field = expression.getField().getValue();
+        return switch (expression.matchType()) {
+            case IP -> field.equals("saddr") || field.equals("daddr") ? SetType.IPV4_ADDR : field.equals("protocol") ? SetType.INET_PROTO : null;
+            case IP6 -> field.equals("saddr") || field.equals("daddr") ? SetType.IPV6_ADDR : field.equals("nexthdr") ? SetType.INET_PROTO : null;
+            case TCP, UDP, UDPLITE, SCTP, DCCP -> field.equals("sport") || field.equals("dport") ? SetType.INET_SERVICE : null;
+            case ETHER -> field.equals("saddr") || field.equals("daddr") ? SetType.ETHER_ADDR : null;
+            case META -> switch (field) {
+                case "iifname", "oifname" -> SetType.IFNAME;
+                case "mark" -> SetType.MARK;
+                case "l4proto" -> SetType.INET_PROTO;
+                default -> null;
+            };
+            default -> null;
+        };
+    }
+
+    private static String key(Chain chain) {
+        return key(chain.getTable()) + " " + chain.getName();
+    }
+
+    private static String key(Table table) {
+        return table.getType().getValue() + " " + table.getName();
+    }
+
+    /**
+     * @param nfTables    optimized model
+     * @param rulesBefore number of rules before optimization
+     * @param rulesAfter  number of rules after optimization
+     */
+    public record Result(NFTables nfTables, int rulesBefore, int rulesAfter) {
+    }
+}
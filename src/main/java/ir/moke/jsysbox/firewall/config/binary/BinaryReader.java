@@ -0,0 +1,242 @@
+package ir.moke.jsysbox.firewall.config.binary;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Primitive decoder of {@link NFTablesCodec}, counterpart of {@link BinaryWriter}.
+ * Without channel the buffer holds the whole stream, with channel it is refilled when drained.
+ * <p>
+ * Sizes read from the stream are checked before anything is allocated for them: every item takes at
+ * least one byte, so a size can not exceed the bytes left in the buffer, nor {@link #MAX_SIZE} on a channel.
+ */
+final class BinaryReader {
+    private static final int CAPACITY = 64 * 1024;
+    static final int MAX_SIZE = 1 << 24;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final List<String> strings = new ArrayList<>();
+
+    BinaryReader(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+    }
+
+    BinaryReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(CAPACITY).flip();
+    }
+
+    int readByte() {
+        require(1);
+        return buffer.get() & 0xFF;
+    }
+
+    boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    Boolean readNullableBoolean() {
+        int value = readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new JSysboxException("Malformed nftables binary, varint too long");
+    }
+
+    int readVarInt() {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) throw new JSysboxException("Malformed nftables binary, value %s out of range".formatted(value));
+        return (int) value;
+    }
+
+    /**
+     * number of items or bytes that follow
+     */
+    int readSize() {
+        return checkSize(readVarInt());
+    }
+
+    long readSigned() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    Long readNullableLong() {
+        long value = readVarLong();
+        if (value == 0) return null;
+        value--;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    Integer readNullableInt() {
+        Long value = readNullableLong();
+        if (value == null) return null;
+        if (value != value.intValue()) throw new JSysboxException("Malformed nftables binary, value %s out of range".formatted(value));
+        return value.intValue();
+    }
+
+    <E extends Enum<E>> E readEnum(E[] values) {
+        int ordinal = readByte();
+        if (ordinal == 0) return null;
+        if (ordinal > values.length) throw new JSysboxException("Malformed nftables binary, unknown constant %s".formatted(ordinal - 1));
+        return values[ordinal - 1];
+    }
+
+    /**
+     * size of a list written as size + 1, -1 for null
+     */
+    int readListSize() {
+        int size = readVarInt();
+        return size == 0 ? -1 : checkSize(size - 1);
+    }
+
+    <E extends Enum<E>> List<E> readEnums(E[] values) {
+        int size = readListSize();
+        if (size < 0) return null;
+        List<E> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(readEnum(values));
+        return list;
+    }
+
+    String readString() {
+        int tag = readVarInt();
+        if (tag == 0) return null;
+        switch (tag) {
+            case 1 -> {
+            }
+            case 2 -> {
+                return Long.toString(readVarLong());
+            }
+            case 3, 4 -> {
+                require(4);
+                int address = buffer.getInt();
+                return address(address, tag == 3 ? -1 : readByte());
+            }
+            default -> {
+                if (tag - 5 >= strings.size()) throw new JSysboxException("Malformed nftables binary, unknown string %s".formatted(tag - 5));
+                return strings.get(tag - 5);
+            }
+        }
+        int length = readSize();
+        String value;
+        boolean whole = buffer.remaining() >= length || length <= buffer.capacity() && fill(length);
+        if (whole && buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                require(1);
+                int size = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, size);
+                offset += size;
+            }
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        strings.add(value);
+        return value;
+    }
+
+    List<String> readStrings() {
+        return readStrings(readListSize());
+    }
+
+    /**
+     * @param size number of strings checked by {@link #checkSize(int)}, -1 for null
+     */
+    List<String> readStrings(int size) {
+        if (size < 0) return null;
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) list.add(readString());
+        return list;
+    }
+
+    /**
+     * counterpart of {@link BinaryWriter#writeElements(List)}
+     */
+    List<String> readElements() {
+        int tag = readVarInt();
+        if (tag == 0) return readStrings();
+        if (tag > 2) throw new JSysboxException("Malformed nftables binary, unknown elements %s".formatted(tag));
+        int size = readSize();
+        List<String> list = new ArrayList<>(size);
+        long address = 0;
+        for (int i = 0; i < size; i++) {
+            address += readSigned();
+            list.add(address((int) address, tag == 1 ? -1 : readByte()));
+        }
+        return list;
+    }
+
+    /**
+     * dotted quad, followed by the prefix length unless it is negative
+     */
+    private static String address(int address, int prefix) {
+        if (prefix > 32) throw new JSysboxException("Malformed nftables binary, prefix length %s".formatted(prefix));
+        byte[] text = new byte[18];
+        int length = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int octet = address >>> shift & 0xFF;
+            if (octet >= 100) text[length++] = (byte) ('0' + octet / 100);
+            if (octet >= 10) text[length++] = (byte) ('0' + octet / 10 % 10);
+            text[length++] = (byte) ('0' + octet % 10);
+            text[length++] = '.';
+        }
+        length--;
+        if (prefix >= 0) {
+            text[length++] = '/';
+            if (prefix >= 10) text[length++] = (byte) ('0' + prefix / 10);
+            text[length++] = (byte) ('0' + prefix % 10);
+        }
+        return new String(text, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return size of items that follow, when it fits the stream
+     */
+    int checkSize(int size) {
+        if (size > MAX_SIZE || channel == null && size > buffer.remaining()) {
+            throw new JSysboxException("Malformed nftables binary, size %s exceeds the stream".formatted(size));
+        }
+        return size;
+    }
+
+    private void require(int size) {
+        if (buffer.remaining() >= size) return;
+        if (!fill(size)) throw new JSysboxException("Truncated nftables binary");
+    }
+
+    /**
+     * refill buffer from channel until {@code size} bytes are available
+     */
+    private boolean fill(int size) {
+        if (channel == null) return false;
+        buffer.compact();
+        try {
+            while (buffer.position() < size) {
+                if (channel.read(buffer) < 0) break;
+            }
+        } catch (IOException e) {
+            throw new JSysboxException("Failed to read nftables binary: %s".formatted(e.getMessage()), e);
+        } finally {
+            buffer.flip();
+        }
+        return buffer.remaining() >= size;
+    }
+}
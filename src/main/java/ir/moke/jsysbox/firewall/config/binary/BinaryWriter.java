@@ -0,0 +1,273 @@
+package ir.moke.jsysbox.firewall.config.binary;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitive encoder of {@link NFTablesCodec}.
+ * <p>
+ * Numbers are LEB128 varints, signed numbers are zigzag encoded first. Strings start with a tag:
+ * 0 null, 1 new string (length and UTF-8 bytes follow), 2 decimal number as varint, 3 IPv4 address
+ * as four bytes, 4 IPv4 prefix as four bytes and length, n > 4 the new string number n - 5 of the
+ * stream. Numbers and addresses are only compacted when the text renders back exactly the same.
+ * Set elements that are all IPv4 addresses, or all IPv4 prefixes, are written as a column of address
+ * differences (see {@link #writeElements(List)}).
+ * Without channel the buffer grows, with channel a full buffer is written out.
+ */
+final class BinaryWriter {
+    private static final int CAPACITY = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private byte[] buffer;
+    private int position;
+
+    BinaryWriter() {
+        this(null, 4096);
+    }
+
+    BinaryWriter(WritableByteChannel channel) {
+        this(channel, CAPACITY);
+    }
+
+    private BinaryWriter(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.buffer = new byte[capacity];
+    }
+
+    void writeByte(int value) {
+        require(1);
+        buffer[position++] = (byte) value;
+    }
+
+    void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * 0 null, 1 false, 2 true
+     */
+    void writeBoolean(Boolean value) {
+        writeByte(value == null ? 0 : value ? 2 : 1);
+    }
+
+    /**
+     * unsigned varint, negative values take ten bytes, use {@link #writeSigned(long)} for them
+     */
+    void writeVarLong(long value) {
+        if ((value & ~0x7FL) == 0) {
+            writeByte((int) value);
+            return;
+        }
+        require(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    void writeSigned(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * zigzag value + 1, 0 is null, {@link Long#MIN_VALUE} can not be written
+     */
+    void writeNullable(Long value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        if (value == Long.MIN_VALUE) throw new JSysboxException("Value %s can not be encoded".formatted(value));
+        writeVarLong(((value << 1) ^ (value >> 63)) + 1);
+    }
+
+    void writeNullable(Integer value) {
+        writeNullable(value != null ? Long.valueOf(value) : null);
+    }
+
+    /**
+     * ordinal + 1 as one byte, 0 is null
+     */
+    void writeEnum(Enum<?> value) {
+        writeByte(value != null ? value.ordinal() + 1 : 0);
+    }
+
+    void writeEnums(List<? extends Enum<?>> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(values.size() + 1L);
+        for (Enum<?> value : values) writeEnum(value);
+    }
+
+    void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        // numbers and addresses are never kept as strings
+        if (writeNumber(value) || writeAddress(value)) return;
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarLong(index + 5L);
+            return;
+        }
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(1);
+        writeVarLong(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            require(1);
+            int length = Math.min(buffer.length - position, bytes.length - offset);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    private boolean writeNumber(String value) {
+        int length = value.length();
+        if (length == 0 || length > 18 || (length > 1 && value.charAt(0) == '0')) return false;
+        long number = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+            number = number * 10 + (c - '0');
+        }
+        writeVarLong(2);
+        writeVarLong(number);
+        return true;
+    }
+
+    /**
+     * dotted quad with optional prefix length, octets without leading zeros
+     */
+    private boolean writeAddress(String value) {
+        long address = address(value);
+        if (address < 0) return false;
+        int prefix = (int) (address & 0xFF) - 1;
+        writeVarLong(prefix < 0 ? 3 : 4);
+        require(5);
+        for (int shift = 32; shift >= 8; shift -= 8) buffer[position++] = (byte) (address >>> shift);
+        if (prefix >= 0) buffer[position++] = (byte) prefix;
+        return true;
+    }
+
+    /**
+     * @return address in bits 8-39 and prefix length + 1 in bits 0-7 (0 without prefix), -1 when
+     * the value is no IPv4 address or prefix
+     */
+    private static long address(String value) {
+        int length = value.length();
+        if (length < 7 || length > 18) return -1;
+        int address = 0;
+        int octet = -1;
+        int dots = 0;
+        int prefix = -1;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (octet == 0) return -1;
+                octet = octet < 0 ? c - '0' : octet * 10 + (c - '0');
+                if (octet > 255) return -1;
+            } else if (c == '.' && dots < 3 && octet >= 0) {
+                address = address << 8 | octet;
+                octet = -1;
+                dots++;
+            } else if (c == '/' && dots == 3 && octet >= 0 && i + 1 < length) {
+                prefix = 0;
+                for (int j = i + 1; j < length; j++) {
+                    char d = value.charAt(j);
+                    if (d < '0' || d > '9' || (j > i + 1 && prefix == 0)) return -1;
+                    prefix = prefix * 10 + (d - '0');
+                }
+                if (prefix > 32) return -1;
+                break;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) return -1;
+        address = address << 8 | octet;
+        return (address & 0xFFFFFFFFL) << 8 | (prefix + 1);
+    }
+
+    /**
+     * size + 1 followed by the strings, 0 is null
+     */
+    void writeStrings(List<String> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(values.size() + 1L);
+        for (String value : values) writeString(value);
+    }
+
+    /**
+     * elements of a set, tag 1 column of IPv4 addresses or tag 2 column of IPv4 prefixes followed by
+     * the size and the zigzag difference of every address to the previous one, with its prefix length
+     * for tag 2. Elements that do not fit a column are written with tag 0 as {@link #writeStrings(List)}
+     */
+    void writeElements(List<String> values) {
+        long[] addresses = new long[values != null ? values.size() : 0];
+        boolean column = addresses.length > 0;
+        for (int i = 0; column && i < addresses.length; i++) {
+            addresses[i] = address(values.get(i));
+            // a column holds either addresses or prefixes
+            column = addresses[i] >= 0 && ((addresses[i] & 0xFF) == 0) == ((addresses[0] & 0xFF) == 0);
+        }
+        if (!column) {
+            writeVarLong(0);
+            writeStrings(values);
+            return;
+        }
+        boolean prefixes = (addresses[0] & 0xFF) != 0;
+        writeVarLong(prefixes ? 2 : 1);
+        writeVarLong(addresses.length);
+        long previous = 0;
+        for (long address : addresses) {
+            writeSigned((address >>> 8) - previous);
+            previous = address >>> 8;
+            if (prefixes) writeByte((int) (address & 0xFF) - 1);
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * write buffered bytes to channel
+     */
+    void flush() {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+        try {
+            while (bytes.hasRemaining()) channel.write(bytes);
+        } catch (IOException e) {
+            throw new JSysboxException("Failed to write nftables binary: %s".formatted(e.getMessage()), e);
+        }
+        position = 0;
+    }
+
+    private void require(int size) {
+        if (buffer.length - position >= size) return;
+        if (channel != null) {
+            flush();
+            return;
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + size));
+    }
+}
@@ -0,0 +1,721 @@
+package ir.moke.jsysbox.firewall.config.binary;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.*;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Map;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compact binary format of {@link NFTables}, used for snapshots stored on disk or sent between nodes.
+ * <p>
+ * The stream starts with magic {@code NFTB} and a format version, followed by meta info, tables,
+ * chains, sets, maps, verdict maps, flowtables and rules, each list prefixed with its size.
+ * Handles and sizes are varints, enum constants are one byte ordinals and strings are written once
+ * and referenced by index afterward (see {@link BinaryWriter}). Chains, sets and flowtables refer to
+ * their table by family and name, rules refer to their chain by index in the chain list and store
+ * their handle as difference to the previous rule, decoded objects share the table and chain
+ * instances of the snapshot.
+ * <p>
+ * Rules mostly repeat a few expressions and statements, so both are written once and referenced
+ * afterward. An expression is split into its shape, the kind with fields like protocol, field and
+ * operation, and its values: the shape is a tag below {@code 16} followed by the fields, or the
+ * index of an earlier shape + 16; the values are {@code 0} for null, {@code (size + 1) * 2} followed
+ * by the strings, or {@code index * 2 + 1} of one of the first 64 value lists of the same shape. Statements
+ * other than counters are referenced the same way as shapes. Decoded rules share equal expressions
+ * and statements, they must not be changed through the snapshot.
+ * <p>
+ * Unlike java serialization no class is instantiated from the stream, only the model types of this
+ * package. Enum ordinals are part of the format, a change of enum constants needs a new {@link #VERSION}.
+ * <p>
+ * example :
+ * <pre>
+ * byte[] bytes = NFTablesCodec.encode(JFirewall.exportToNFTables());
+ * NFTables nfTables = NFTablesCodec.decode(bytes);
+ * </pre>
+ */
+public final class NFTablesCodec {
+    /**
+     * format version written after the magic, streams of other versions are rejected
+     */
+    public static final int VERSION = 2;
+    private static final int MAGIC = 0x4E465442;
+    // tags from here on reference an earlier shape or statement
+    private static final int REFERENCE = 16;
+    // value lists kept per shape, the index of a reference stays one byte
+    private static final int VALUES = 64;
+
+    private static final int EXPRESSION_MATCH = 1;
+    private static final int EXPRESSION_TYPES = 2;
+    private static final int EXPRESSION_CT = 3;
+    private static final int EXPRESSION_CT_DIRECTION = 4;
+    private static final int EXPRESSION_CT_COUNT = 5;
+    private static final int EXPRESSION_CONCAT = 6;
+
+    private static final int STATEMENT_VERDICT = 1;
+    private static final int STATEMENT_COUNTER = 2;
+    private static final int STATEMENT_LIMIT = 3;
+    private static final int STATEMENT_LOG = 4;
+    private static final int STATEMENT_REJECT = 5;
+    private static final int STATEMENT_NAT = 6;
+    private static final int STATEMENT_VERDICT_MAP = 7;
+    private static final int STATEMENT_FLOW_OFFLOAD = 8;
+
+    private NFTablesCodec() {
+    }
+
+    public static byte[] encode(NFTables nfTables) {
+        BinaryWriter writer = new BinaryWriter();
+        new Encoder(writer).nfTables(nfTables);
+        return writer.toByteArray();
+    }
+
+    /**
+     * encode to channel in chunks, the channel is not closed
+     *
+     * @param nfTables ruleset
+     * @param channel  destination, e.g. {@link java.nio.channels.FileChannel} or socket channel
+     */
+    public static void encode(NFTables nfTables, WritableByteChannel channel) {
+        BinaryWriter writer = new BinaryWriter(channel);
+        new Encoder(writer).nfTables(nfTables);
+        writer.flush();
+    }
+
+    public static NFTables decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * decode from position of buffer, the position is advanced to the end of the snapshot
+     *
+     * @param buffer heap or direct buffer
+     */
+    public static NFTables decode(ByteBuffer buffer) {
+        return decode(new BinaryReader(buffer));
+    }
+
+    /**
+     * decode from channel, bytes after the snapshot may be consumed by read ahead
+     *
+     * @param channel source, the channel is not closed
+     */
+    public static NFTables decode(ReadableByteChannel channel) {
+        return decode(new BinaryReader(channel));
+    }
+
+    private static NFTables decode(BinaryReader reader) {
+        try {
+            return new Decoder(reader).nfTables();
+        } catch (JSysboxException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // values of a corrupt stream that the model types reject
+            throw new JSysboxException("Malformed nftables binary: %s".formatted(e.getMessage()), e);
+        }
+    }
+
+    private static <T> List<T> list(List<T> list) {
+        return list != null ? list : List.of();
+    }
+
+    /**
+     * encoding state, index of the chains and dictionaries of the expressions and statements written so far
+     */
+    private static final class Encoder {
+        private final BinaryWriter writer;
+        private final java.util.Map<Chain, Integer> chains = new IdentityHashMap<>();
+        private final java.util.Map<Fields, Shape> shapes = new HashMap<>();
+        private final java.util.Map<Fields, Integer> statements = new HashMap<>();
+
+        private Encoder(BinaryWriter writer) {
+            this.writer = writer;
+        }
+
+        private void nfTables(NFTables nfTables) {
+            writer.writeByte(MAGIC >>> 24);
+            writer.writeByte(MAGIC >>> 16);
+            writer.writeByte(MAGIC >>> 8);
+            writer.writeByte(MAGIC);
+            writer.writeByte(VERSION);
+
+            MetaInfo metaInfo = nfTables.getMetaInfo();
+            writer.writeBoolean(metaInfo != null);
+            if (metaInfo != null) {
+                writer.writeString(metaInfo.getVersion());
+                writer.writeString(metaInfo.getReleaseName());
+                writer.writeString(metaInfo.getJsonSchemaVersion());
+            }
+
+            List<Table> tables = list(nfTables.getTables());
+            writer.writeVarLong(tables.size());
+            for (Table table : tables) {
+                writer.writeEnum(table.getType());
+                writer.writeString(table.getName());
+                writer.writeVarLong(table.getHandle());
+            }
+
+            List<Chain> chainList = list(nfTables.getChains());
+            writer.writeVarLong(chainList.size());
+            for (int i = 0; i < chainList.size(); i++) {
+                Chain chain = chainList.get(i);
+                chains.putIfAbsent(chain, i);
+                writeTable(chain.getTable());
+                writer.writeString(chain.getName());
+                writer.writeVarLong(chain.getHandle());
+                writer.writeEnum(chain.getType());
+                writer.writeEnum(chain.getHook());
+                writer.writeNullable(chain.getPriority());
+                writer.writeEnum(chain.getPolicy());
+            }
+
+            List<Set> sets = list(nfTables.getSets());
+            writer.writeVarLong(sets.size());
+            for (Set set : sets) {
+                writeTable(set.getTable());
+                writer.writeString(set.getName());
+                writer.writeVarLong(set.getHandle());
+                writer.writeEnum(set.getType());
+                writer.writeEnums(set.getFlags());
+                writer.writeNullable(set.getSize());
+                writer.writeNullable(set.getTimeout());
+                writer.writeNullable(set.getGcInterval());
+                writer.writeEnum(set.getPolicy());
+                writer.writeString(set.getComment());
+                writer.writeElements(set.getElements());
+            }
+
+            List<Map> maps = list(nfTables.getMaps());
+            writer.writeVarLong(maps.size());
+            for (Map map : maps) {
+                writeMap(map);
+                writer.writeEnums(map.getDataType());
+                write(map.getElements());
+            }
+
+            List<VerdictMap> verdictMaps = list(nfTables.getVerdictMaps());
+            writer.writeVarLong(verdictMaps.size());
+            for (VerdictMap map : verdictMaps) {
+                writeMap(map);
+                write(map.getElements());
+            }
+
+            List<Flowtable> flowtables = list(nfTables.getFlowtables());
+            writer.writeVarLong(flowtables.size());
+            for (Flowtable flowtable : flowtables) {
+                writeTable(flowtable.getTable());
+                writer.writeString(flowtable.getName());
+                writer.writeVarLong(flowtable.getHandle());
+                writer.writeEnum(flowtable.getHook());
+                writer.writeNullable(flowtable.getPriority());
+                writer.writeStrings(flowtable.getDevices());
+                writer.writeBoolean(flowtable.isOffload());
+            }
+
+            List<Rule> rules = list(nfTables.getRules());
+            writer.writeVarLong(rules.size());
+            long handle = 0;
+            for (Rule rule : rules) {
+                Integer chain = chains.get(rule.getChain());
+                writer.writeVarLong(chain != null ? chain + 1L : 0);
+                if (chain == null) {
+                    writeTable(rule.getChain().getTable());
+                    writer.writeString(rule.getChain().getName());
+                }
+                writer.writeNullable(rule.getHandle() != null ? rule.getHandle() - handle : null);
+                if (rule.getHandle() != null) handle = rule.getHandle();
+                writer.writeString(rule.getComment());
+                List<Expression> expressions = list(rule.getExpressions());
+                writer.writeVarLong(expressions.size());
+                for (Expression expression : expressions) writeExpression(expression);
+                List<Statement> statementList = list(rule.getStatements());
+                writer.writeVarLong(statementList.size());
+                for (Statement statement : statementList) writeStatement(statement);
+            }
+        }
+
+        private void writeTable(Table table) {
+            writer.writeEnum(table.getType());
+            writer.writeString(table.getName());
+        }
+
+        private void writeMap(NamedMap<?> map) {
+            writeTable(map.getTable());
+            writer.writeString(map.getName());
+            writer.writeVarLong(map.getHandle());
+            writer.writeEnums(map.getKeyType());
+            writer.writeEnums(map.getFlags());
+            writer.writeNullable(map.getSize());
+            writer.writeNullable(map.getTimeout());
+            writer.writeNullable(map.getGcInterval());
+            writer.writeEnum(map.getPolicy());
+            writer.writeString(map.getComment());
+        }
+
+        private void writeExpression(Expression expression) {
+            Parts parts = parts(expression);
+            Shape shape = shapes.get(parts.shape());
+            if (shape != null) {
+                writer.writeVarLong(REFERENCE + shape.index);
+            } else {
+                shape = new Shape(shapes.size());
+                shapes.put(parts.shape(), shape);
+                writeFields(parts.shape());
+            }
+            List<String> values = parts.values();
+            if (values == null) {
+                writer.writeVarLong(0);
+                return;
+            }
+            // value lists of a shape that did not repeat among the first ones, like addresses, are not looked up anymore
+            if (shape.hits > 0 || shape.values.size() < VALUES) {
+                Integer index = shape.values.get(values);
+                if (index != null) {
+                    shape.hits++;
+                    writer.writeVarLong(index * 2L + 1);
+                    return;
+                }
+                if (shape.values.size() < VALUES) shape.values.put(values, shape.values.size());
+            }
+            writer.writeVarLong((values.size() + 1L) * 2);
+            for (String value : values) writer.writeString(value);
+        }
+
+        private static Parts parts(Expression expression) {
+            return switch (expression) {
+                case ConcatExpression concat ->
+                        new Parts(new Fields(EXPRESSION_CONCAT, concat.getSelectors(), concat.getOperation()), concat.getValues());
+                case CtExpression ct when ct.getOriginalType() != null ->
+                        new Parts(new Fields(EXPRESSION_CT_DIRECTION, ct.getOriginalType(), ct.getType()), ct.getValues());
+                case CtExpression ct when ct.getField() == CtExpression.Field.COUNT ->
+                        new Parts(new Fields(EXPRESSION_CT_COUNT, ct.getOver(), ct.getValue()), null);
+                case CtExpression ct -> {
+                    CtExpression.Field field = ct.getField();
+                    if (ct.getStates() != null) field = CtExpression.Field.STATE;
+                    if (ct.getStatuses() != null) field = CtExpression.Field.STATUS;
+                    yield new Parts(new Fields(EXPRESSION_CT, field, ct.getOperation()), ct.getValues());
+                }
+                case IcmpExpression icmp when icmp.getTypes() != null ->
+                        types(MatchType.ICMP, icmp.getTypes().stream().map(IcmpExpression.Type::getValue).toList());
+                case Icmpv6Expression icmpv6 when icmpv6.getTypes() != null ->
+                        types(MatchType.ICMPV6, icmpv6.getTypes().stream().map(Icmpv6Expression.Type::getValue).toList());
+                case EtherExpression ether when ether.getTypes() != null ->
+                        types(MatchType.ETHER, ether.getTypes().stream().map(EtherExpression.Type::getValue).toList());
+                case DccpExpression dccp when dccp.getTypes() != null ->
+                        types(MatchType.DCCP, dccp.getTypes().stream().map(DccpExpression.Type::getValue).toList());
+                case ArpExpression arp when arp.getArpOperations() != null ->
+                        types(MatchType.ARP, arp.getArpOperations().stream().map(ArpExpression.ArpOperation::getValue).toList());
+                default -> {
+                    if (expression.getField() == null) throw new JSysboxException("Unsupported expression %s".formatted(expression));
+                    yield new Parts(new Fields(EXPRESSION_MATCH, expression.matchType(), expression.getField().getValue(), expression.getOperation()), expression.getValues());
+                }
+            };
+        }
+
+        private static Parts types(MatchType matchType, List<String> types) {
+            return new Parts(new Fields(EXPRESSION_TYPES, matchType), types);
+        }
+
+        private void writeStatement(Statement statement) {
+            // counters differ from rule to rule, they would only fill the dictionary
+            if (statement instanceof CounterStatement counter) {
+                writer.writeVarLong(STATEMENT_COUNTER);
+                writer.writeNullable(counter.getPackets());
+                writer.writeNullable(counter.getBytes());
+                return;
+            }
+            Fields fields = switch (statement) {
+                case VerdictStatement verdict -> new Fields(STATEMENT_VERDICT, verdict.getType(), verdict.getChainName());
+                case LimitStatement limit -> new Fields(STATEMENT_LIMIT, limit.getRate(), limit.getTimeUnit(), limit.getRateUnit(),
+                        limit.getOver(), limit.getBurst(), limit.getBurstUnit());
+                case LogStatement log -> new Fields(STATEMENT_LOG, log.getLevel(), log.getPrefix());
+                case RejectStatement reject -> new Fields(STATEMENT_REJECT, reject.getReason());
+                case NatStatement nat -> new Fields(STATEMENT_NAT, nat.getType(), nat.getAddress(), nat.getPort(), nat.getFlag(),
+                        nat.getMap(), nat.getMapKey());
+                case VerdictMapStatement vmap -> new Fields(STATEMENT_VERDICT_MAP, vmap.getKey(), vmap.getMap(), vmap.getElements());
+                case FlowOffloadStatement flow -> new Fields(STATEMENT_FLOW_OFFLOAD, flow.getFlowtable());
+                default -> throw new JSysboxException("Unsupported statement %s".formatted(statement.getClass().getSimpleName()));
+            };
+            Integer index = statements.putIfAbsent(fields, statements.size());
+            if (index != null) {
+                writer.writeVarLong(REFERENCE + index);
+                return;
+            }
+            writeFields(fields);
+        }
+
+        /**
+         * kind followed by the fields of an expression shape or statement
+         */
+        private void writeFields(Fields fields) {
+            writer.writeVarLong((Integer) fields.values()[0]);
+            for (int i = 1; i < fields.values().length; i++) write(fields.values()[i]);
+        }
+
+        /**
+         * field by its type, null is a single 0 for every type; lists and maps are written as size + 1
+         */
+        private void write(Object value) {
+            switch (value) {
+                case null -> writer.writeByte(0);
+                case Enum<?> constant -> writer.writeEnum(constant);
+                case String string -> writer.writeString(string);
+                case Boolean flag -> writer.writeBoolean(flag);
+                case Long number -> writer.writeNullable(number);
+                case Integer number -> writer.writeNullable(number);
+                case Selector selector -> {
+                    writer.writeEnum(selector.matchType());
+                    writer.writeString(selector.field().getValue());
+                }
+                case VerdictStatement verdict -> {
+                    writer.writeEnum(verdict.getType());
+                    writer.writeString(verdict.getChainName());
+                }
+                case List<?> list -> {
+                    writer.writeVarLong(list.size() + 1L);
+                    for (Object item : list) write(item);
+                }
+                case java.util.Map<?, ?> map -> {
+                    writer.writeVarLong(map.size() + 1L);
+                    for (java.util.Map.Entry<?, ?> entry : map.entrySet()) {
+                        write(entry.getKey());
+                        write(entry.getValue());
+                    }
+                }
+                default -> throw new JSysboxException("Unsupported field %s".formatted(value.getClass().getSimpleName()));
+            }
+        }
+    }
+
+    /**
+     * expression split into its shape, kind and fields without values, and its values
+     */
+    private record Parts(Fields shape, List<String> values) {
+    }
+
+    /**
+     * kind followed by the fields of an expression shape or statement, equal when all fields are equal
+     */
+    private record Fields(Object... values) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fields fields && Arrays.equals(values, fields.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * index of a written shape, the value lists kept for it and how often they were referenced
+     */
+    private static final class Shape {
+        private final int index;
+        private final java.util.Map<List<String>, Integer> values = new HashMap<>();
+        private int hits;
+
+        private Shape(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * decoding state, tables and chains seen so far by family, table and name, dictionaries of the
+     * expression shapes and statements read so far
+     */
+    private static final class Decoder {
+        // values() copies the constants on every call, rules read them many times
+        private static final MatchType[] MATCH_TYPES = MatchType.values();
+        private static final Operation[] OPERATIONS = Operation.values();
+        private static final VerdictStatement.Type[] VERDICTS = VerdictStatement.Type.values();
+
+        private final BinaryReader reader;
+        private final java.util.Map<String, Table> tables = new HashMap<>();
+        private final java.util.Map<String, Chain> chains = new HashMap<>();
+        private final List<Chain> chainList = new ArrayList<>();
+        private final List<DecodedShape> shapes = new ArrayList<>();
+        private final List<Statement> statements = new ArrayList<>();
+
+        private Decoder(BinaryReader reader) {
+            this.reader = reader;
+        }
+
+        private NFTables nfTables() {
+            int magic = reader.readByte() << 24 | reader.readByte() << 16 | reader.readByte() << 8 | reader.readByte();
+            if (magic != MAGIC) throw new JSysboxException("Not a nftables binary snapshot");
+            int version = reader.readByte();
+            if (version != VERSION) throw new JSysboxException("Unsupported nftables binary version %s".formatted(version));
+
+            MetaInfo metaInfo = reader.readBoolean() ? new MetaInfo(reader.readString(), reader.readString(), reader.readString()) : null;
+
+            int size = reader.readSize();
+            List<Table> tableList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Table table = new Table(reader.readEnum(TableType.values()), reader.readString(), reader.readVarInt());
+                tables.put(key(table.getType(), table.getName()), table);
+                tableList.add(table);
+            }
+
+            size = reader.readSize();
+            for (int i = 0; i < size; i++) {
+                Table table = table();
+                Chain chain = new Chain(table, reader.readString(), reader.readVarInt(),
+                        reader.readEnum(ChainType.values()),
+                        reader.readEnum(ChainHook.values()),
+                        reader.readNullableInt(),
+                        reader.readEnum(ChainPolicy.values()));
+                chains.put(key(table.getType(), table.getName()) + " " + chain.getName(), chain);
+                chainList.add(chain);
+            }
+
+            size = reader.readSize();
+            List<Set> sets = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Table table = table();
+                String name = reader.readString();
+                int handle = reader.readVarInt();
+                SetType type = reader.readEnum(SetType.values());
+                List<FlagType> flags = reader.readEnums(FlagType.values());
+                Integer setSize = reader.readNullableInt();
+                Integer timeout = reader.readNullableInt();
+                Integer gcInterval = reader.readNullableInt();
+                SetPolicy policy = reader.readEnum(SetPolicy.values());
+                String comment = reader.readString();
+                sets.add(new Set(reader.readElements(), flags, table, name, type, handle, setSize, timeout, gcInterval, policy, comment));
+            }
+
+            size = reader.readSize();
+            List<Map> maps = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Header header = header();
+                List<SetType> dataType = reader.readEnums(SetType.values());
+                int count = reader.readListSize();
+                java.util.Map<String, String> elements = count < 0 ? null : new LinkedHashMap<>();
+                for (int j = 0; j < count; j++) elements.put(reader.readString(), reader.readString());
+                maps.add(new Map(elements, header.flags, header.table, header.name, header.keyType, dataType, header.handle, header.size, header.timeout, header.gcInterval, header.policy, header.comment));
+            }
+
+            size = reader.readSize();
+            List<VerdictMap> verdictMaps = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Header header = header();
+                verdictMaps.add(new VerdictMap(verdicts(), header.flags, header.table, header.name, header.keyType, header.handle, header.size, header.timeout, header.gcInterval, header.policy, header.comment));
+            }
+
+            size = reader.readSize();
+            List<Flowtable> flowtables = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                flowtables.add(new Flowtable(table(), reader.readString(), reader.readVarInt(),
+                        reader.readEnum(ChainHook.values()),
+                        reader.readNullableInt(),
+                        reader.readStrings(),
+                        reader.readBoolean()));
+            }
+
+            size = reader.readSize();
+            List<Rule> rules = new ArrayList<>(size);
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                Chain chain = ruleChain();
+                Long delta = reader.readNullableLong();
+                Integer handle = null;
+                if (delta != null) {
+                    previous += delta;
+                    if (previous != (int) previous) throw new JSysboxException("Malformed nftables binary, handle %s out of range".formatted(previous));
+                    handle = (int) previous;
+                }
+                String comment = reader.readString();
+                int count = reader.readSize();
+                List<Expression> expressions = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) expressions.add(expression());
+                count = reader.readSize();
+                List<Statement> statementList = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) statementList.add(statement());
+                rules.add(new Rule(chain, expressions, statementList, comment, handle));
+            }
+            return new NFTables(metaInfo, tableList, chainList, rules, sets, maps, verdictMaps, flowtables);
+        }
+
+        private Table table() {
+            TableType type = reader.readEnum(TableType.values());
+            String name = reader.readString();
+            return tables.computeIfAbsent(key(type, name), k -> new Table(type, name));
+        }
+
+        /**
+         * chain of a rule, index + 1 in the chain list or 0 followed by table and name
+         */
+        private Chain ruleChain() {
+            int index = reader.readVarInt();
+            if (index > chainList.size()) throw new JSysboxException("Malformed nftables binary, unknown chain %s".formatted(index - 1));
+            if (index > 0) return chainList.get(index - 1);
+            Table table = table();
+            String name = reader.readString();
+            return chains.computeIfAbsent(key(table.getType(), table.getName()) + " " + name, k -> new Chain(table, name));
+        }
+
+        private Header header() {
+            Table table = table();
+            String name = reader.readString();
+            int handle = reader.readVarInt();
+            List<SetType> keyType = reader.readEnums(SetType.values());
+            List<FlagType> flags = reader.readEnums(FlagType.values());
+            Integer size = reader.readNullableInt();
+            Integer timeout = reader.readNullableInt();
+            Integer gcInterval = reader.readNullableInt();
+            SetPolicy policy = reader.readEnum(SetPolicy.values());
+            return new Header(table, name, handle, keyType, flags, size, timeout, gcInterval, policy, reader.readString());
+        }
+
+        private java.util.Map<String, VerdictStatement> verdicts() {
+            int count = reader.readListSize();
+            if (count < 0) return null;
+            java.util.Map<String, VerdictStatement> elements = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = reader.readString();
+                elements.put(key, new VerdictStatement(reader.readEnum(VERDICTS), reader.readString()));
+            }
+            return elements;
+        }
+
+        private List<Selector> selectors() {
+            int count = reader.readListSize();
+            if (count < 0) return null;
+            List<Selector> selectors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) selectors.add(Selector.of(reader.readEnum(MATCH_TYPES), reader.readString()));
+            return selectors;
+        }
+
+        private Expression expression() {
+            int tag = reader.readVarInt();
+            DecodedShape shape;
+            if (tag >= REFERENCE) {
+                if (tag - REFERENCE >= shapes.size()) throw new JSysboxException("Malformed nftables binary, unknown expression %s".formatted(tag - REFERENCE));
+                shape = shapes.get(tag - REFERENCE);
+            } else {
+                shape = new DecodedShape(shape(tag), new ArrayList<>());
+                shapes.add(shape);
+            }
+
+            int values = reader.readVarInt();
+            if (values == 0) return shape.factory().apply(null);
+            if ((values & 1) == 1) {
+                if (values >> 1 >= shape.expressions().size()) throw new JSysboxException("Malformed nftables binary, unknown values %s".formatted(values >> 1));
+                return shape.expressions().get(values >> 1);
+            }
+            Expression expression = shape.factory().apply(reader.readStrings(reader.checkSize((values >> 1) - 1)));
+            if (shape.expressions().size() < VALUES) shape.expressions().add(expression);
+            return expression;
+        }
+
+        /**
+         * read the fields of a shape
+         *
+         * @return expression of the shape with the given values
+         */
+        private Function<List<String>, Expression> shape(int kind) {
+            return switch (kind) {
+                case EXPRESSION_MATCH -> {
+                    MatchType matchType = reader.readEnum(MATCH_TYPES);
+                    String field = reader.readString();
+                    Operation operation = reader.readEnum(OPERATIONS);
+                    yield values -> Expression.create(matchType, field, operation, values, null, null, null, null);
+                }
+                case EXPRESSION_TYPES -> {
+                    MatchType matchType = reader.readEnum(MATCH_TYPES);
+                    yield values -> Expression.create(matchType, "type", Operation.EQ, values, null, null, null, null);
+                }
+                case EXPRESSION_CT -> {
+                    CtExpression.Field field = reader.readEnum(CtExpression.Field.values());
+                    Operation operation = reader.readEnum(OPERATIONS);
+                    yield values -> new CtExpression(field, operation, values);
+                }
+                case EXPRESSION_CT_DIRECTION -> {
+                    boolean original = Boolean.TRUE.equals(reader.readNullableBoolean());
+                    CtExpression.Type type = reader.readEnum(CtExpression.Type.values());
+                    yield values -> new CtExpression(original, type, values);
+                }
+                case EXPRESSION_CT_COUNT -> {
+                    Boolean over = reader.readNullableBoolean();
+                    Long count = reader.readNullableLong();
+                    yield values -> new CtExpression(over, count);
+                }
+                case EXPRESSION_CONCAT -> {
+                    List<Selector> selectors = selectors();
+                    Operation operation = reader.readEnum(OPERATIONS);
+                    yield values -> new ConcatExpression(selectors, operation, values);
+                }
+                default -> throw new JSysboxException("Malformed nftables binary, unknown expression %s".formatted(kind));
+            };
+        }
+
+        private Statement statement() {
+            int kind = reader.readVarInt();
+            if (kind >= REFERENCE) {
+                if (kind - REFERENCE >= statements.size()) throw new JSysboxException("Malformed nftables binary, unknown statement %s".formatted(kind - REFERENCE));
+                return statements.get(kind - REFERENCE);
+            }
+            Statement statement = switch (kind) {
+                case STATEMENT_VERDICT -> new VerdictStatement(reader.readEnum(VERDICTS), reader.readString());
+                case STATEMENT_COUNTER -> new CounterStatement(reader.readNullableLong(), reader.readNullableLong());
+                case STATEMENT_LIMIT -> new LimitStatement(reader.readNullableLong(),
+                        reader.readEnum(LimitStatement.TimeUnit.values()),
+                        reader.readEnum(LimitStatement.ByteUnit.values()),
+                        reader.readNullableBoolean(),
+                        reader.readNullableLong(),
+                        reader.readEnum(LimitStatement.ByteUnit.values()));
+                case STATEMENT_LOG -> new LogStatement(reader.readEnum(LogStatement.LogLevel.values()), reader.readString());
+                case STATEMENT_REJECT -> new RejectStatement(reader.readEnum(RejectStatement.Reason.values()));
+                case STATEMENT_NAT -> {
+                    NatStatement.Type type = reader.readEnum(NatStatement.Type.values());
+                    String address = reader.readString();
+                    Integer port = reader.readNullableInt();
+                    List<NatStatement.Flag> flags = reader.readEnums(NatStatement.Flag.values());
+                    String map = reader.readString();
+                    List<Selector> mapKey = selectors();
+                    if (map != null) yield new NatStatement(type, mapKey, map, flags);
+                    if (type == NatStatement.Type.MASQUERADE) yield new NatStatement(flags);
+                    yield new NatStatement(type, address, port, flags);
+                }
+                case STATEMENT_VERDICT_MAP -> {
+                    List<Selector> key = selectors();
+                    String map = reader.readString();
+                    java.util.Map<String, VerdictStatement> elements = verdicts();
+                    yield map != null ? new VerdictMapStatement(key, map) : new VerdictMapStatement(key, elements);
+                }
+                case STATEMENT_FLOW_OFFLOAD -> new FlowOffloadStatement(reader.readString());
+                default -> throw new JSysboxException("Malformed nftables binary, unknown statement %s".formatted(kind));
+            };
+            if (kind != STATEMENT_COUNTER) statements.add(statement);
+            return statement;
+        }
+
+        private static String key(TableType type, String name) {
+            return (type != null ? type.getValue() : "") + " " + name;
+        }
+    }
+
+    /**
+     * decoded shape and the expressions decoded for its value lists
+     */
+    private record DecodedShape(Function<List<String>, Expression> factory, List<Expression> expressions) {
+    }
+
+    private record Header(Table table, String name, int handle, List<SetType> keyType, List<FlagType> flags,
+                          Integer size, Integer timeout, Integer gcInterval, SetPolicy policy, String comment) {
+    }
+}
@@ -0,0 +1,16 @@
+package ir.moke.jsysbox.firewall.config.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import ir.moke.jsysbox.firewall.model.Flowtable;
+
+import java.io.IOException;
+
+public class FlowtableDeserializer extends JsonDeserializer<Flowtable> {
+
+    @Override
+    public Flowtable deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        return NFTablesReader.readFlowtable(parser);
+    }
+}
@@ -0,0 +1,606 @@
+package ir.moke.jsysbox.firewall.config.deserializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.ConcatExpression;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.expression.MatchType;
+import ir.moke.jsysbox.firewall.expression.Selector;
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Set;
+import ir.moke.jsysbox.firewall.statement.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.Map;
+
+/**
+ * Single pass decoder of nftables JSON documents.
+ * <p>
+ * Objects are built straight from {@link JsonParser} tokens, the document is never held as a tree or
+ * converted back to text. Only one match or statement at a time is kept as a small map of its fields.
+ * Chains, sets and rules are linked to the table and chain objects seen before them in the same document.
+ * <p>
+ * {@link #read(String, NFTablesVisitor)} hands every object to a {@link NFTablesVisitor} as soon as it is
+ * decoded, so a large ruleset can be processed without keeping the whole {@link NFTables} in memory.
+ */
+public class NFTablesReader {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final JsonParser parser;
+    private final Map<String, Table> tables = new HashMap<>();
+    private final Map<String, Chain> chains = new HashMap<>();
+
+    private NFTablesReader(JsonParser parser) {
+        this.parser = parser;
+    }
+
+    public static NFTables read(String json) {
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.nextToken();
+            return read(parser);
+        } catch (IOException e) {
+            throw new JSysboxException("Failed to parse nftables json: %s".formatted(e.getMessage()));
+        }
+    }
+
+    public static void read(String json, NFTablesVisitor visitor) {
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.nextToken();
+            new NFTablesReader(parser).document(visitor);
+        } catch (IOException e) {
+            throw new JSysboxException("Failed to parse nftables json: %s".formatted(e.getMessage()));
+        }
+    }
+
+    public static void read(InputStream inputStream, NFTablesVisitor visitor) {
+        try (JsonParser parser = factory.createParser(inputStream)) {
+            parser.nextToken();
+            new NFTablesReader(parser).document(visitor);
+        } catch (IOException e) {
+            throw new JSysboxException("Failed to parse nftables json: %s".formatted(e.getMessage()));
+        }
+    }
+
+    /**
+     * @param parser parser positioned on the start of document object
+     */
+    static NFTables read(JsonParser parser) throws IOException {
+        List<Table> tables = new ArrayList<>();
+        List<Chain> chains = new ArrayList<>();
+        List<Set> sets = new ArrayList<>();
+        List<Rule> rules = new ArrayList<>();
+        List<ir.moke.jsysbox.firewall.model.Map> maps = new ArrayList<>();
+        List<VerdictMap> verdictMaps = new ArrayList<>();
+        List<Flowtable> flowtables = new ArrayList<>();
+        MetaInfo[] metaInfo = new MetaInfo[1];
+        new NFTablesReader(parser).document(new NFTablesVisitor() {
+            @Override
+            public void metaInfo(MetaInfo info) {
+                metaInfo[0] = info;
+            }
+
+            @Override
+            public void table(Table table) {
+                tables.add(table);
+            }
+
+            @Override
+            public void chain(Chain chain) {
+                chains.add(chain);
+            }
+
+            @Override
+            public void set(Set set) {
+                sets.add(set);
+            }
+
+            @Override
+            public void map(ir.moke.jsysbox.firewall.model.Map map) {
+                maps.add(map);
+            }
+
+            @Override
+            public void verdictMap(VerdictMap map) {
+                verdictMaps.add(map);
+            }
+
+            @Override
+            public void flowtable(Flowtable flowtable) {
+                flowtables.add(flowtable);
+            }
+
+            @Override
+            public void rule(Rule rule) {
+                rules.add(rule);
+            }
+        });
+        return new NFTables(metaInfo[0], tables, chains, rules, sets, maps, verdictMaps, flowtables);
+    }
+
+    static Chain readChain(JsonParser parser) throws IOException {
+        return new NFTablesReader(parser).chain();
+    }
+
+    static Set readSet(JsonParser parser) throws IOException {
+        return new NFTablesReader(parser).set();
+    }
+
+    static NamedMap<?> readMap(JsonParser parser) throws IOException {
+        return new NFTablesReader(parser).map();
+    }
+
+    static Flowtable readFlowtable(JsonParser parser) throws IOException {
+        return new NFTablesReader(parser).flowtable();
+    }
+
+    static Rule readRule(JsonParser parser) throws IOException {
+        return new NFTablesReader(parser).rule();
+    }
+
+    private void document(NFTablesVisitor visitor) throws IOException {
+        expect(JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (!name.equals("nftables")) {
+                parser.skipChildren();
+                continue;
+            }
+            expect(JsonToken.START_ARRAY);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String kind = parser.currentName();
+                    parser.nextToken();
+                    switch (kind) {
+                        case "metainfo" -> visitor.metaInfo(metaInfo());
+                        case "table" -> visitor.table(table());
+                        case "chain" -> visitor.chain(chain());
+                        case "set" -> visitor.set(set());
+                        case "map" -> {
+                            NamedMap<?> map = map();
+                            if (map instanceof VerdictMap verdictMap) {
+                                visitor.verdictMap(verdictMap);
+                            } else {
+                                visitor.map((ir.moke.jsysbox.firewall.model.Map) map);
+                            }
+                        }
+                        case "flowtable" -> visitor.flowtable(flowtable());
+                        case "rule" -> visitor.rule(rule());
+                        default -> parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private MetaInfo metaInfo() throws IOException {
+        Map<String, Object> fields = fields();
+        return new MetaInfo(text(fields.get("version")), text(fields.get("release_name")), text(fields.get("json_schema_version")));
+    }
+
+    private Table table() throws IOException {
+        Map<String, Object> fields = fields();
+        Table table = new Table(TableType.fromValue(text(fields.get("family"))), text(fields.get("name")), integer(fields.get("handle"), 0));
+        tables.put(key(table.getType(), table.getName()), table);
+        return table;
+    }
+
+    private Chain chain() throws IOException {
+        Map<String, Object> fields = fields();
+        Table table = table(text(fields.get("family")), text(fields.get("table")));
+        String name = text(fields.get("name"));
+        ChainType type = fields.containsKey("type") ? ChainType.fromValue(text(fields.get("type"))) : null;
+        ChainHook hook = fields.containsKey("hook") ? ChainHook.fromValue(text(fields.get("hook"))) : null;
+        Integer priority = fields.containsKey("prio") ? integer(fields.get("prio"), null) : null;
+        ChainPolicy policy = fields.containsKey("hook") && fields.containsKey("policy") ? ChainPolicy.fromValue(text(fields.get("policy"))) : null;
+
+        Chain chain = new Chain(table, name, integer(fields.get("handle"), 0), type, hook, priority, policy);
+        chains.put(key(table.getType(), table.getName()) + " " + name, chain);
+        return chain;
+    }
+
+    private Set set() throws IOException {
+        expect(JsonToken.START_OBJECT);
+        Map<String, Object> fields = new HashMap<>();
+        List<String> elements = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (name.equals("elem")) {
+                // elements are rendered one by one, big sets never exist as a list of nodes
+                expect(JsonToken.START_ARRAY);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    elements.add(text(value()));
+                }
+            } else {
+                fields.put(name, value());
+            }
+        }
+
+        List<FlagType> flags = new ArrayList<>();
+        for (String flag : values(fields.get("flags"))) flags.add(FlagType.fromValue(flag));
+        Table table = table(text(fields.get("family")), text(fields.get("table")));
+        Object type = fields.get("type");
+        SetType setType = SetType.fromValue(type instanceof List<?> list ? String.join(" . ", values(list)) : text(type));
+
+        return new Set(elements, flags, table,
+                text(fields.get("name")),
+                setType,
+                integer(fields.get("handle"), 0),
+                integer(fields.get("size"), null),
+                integer(fields.get("timeout"), null),
+                integer(fields.get("gc-interval"), null),
+                fields.containsKey("policy") ? SetPolicy.fromValue(text(fields.get("policy"))) : null,
+                text(fields.get("comment")));
+    }
+
+    /**
+     * map or verdict map, elements are [key, value] pairs
+     */
+    private NamedMap<?> map() throws IOException {
+        expect(JsonToken.START_OBJECT);
+        Map<String, Object> fields = new HashMap<>();
+        List<List<?>> pairs = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (name.equals("elem")) {
+                expect(JsonToken.START_ARRAY);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (value() instanceof List<?> pair && pair.size() == 2) pairs.add(pair);
+                }
+            } else {
+                fields.put(name, value());
+            }
+        }
+
+        List<FlagType> flags = new ArrayList<>();
+        for (String flag : values(fields.get("flags"))) flags.add(FlagType.fromValue(flag));
+        Table table = table(text(fields.get("family")), text(fields.get("table")));
+        List<SetType> keyType = types(fields.get("type"));
+        String name = text(fields.get("name"));
+        int handle = integer(fields.get("handle"), 0);
+        Integer size = integer(fields.get("size"), null);
+        Integer timeout = integer(fields.get("timeout"), null);
+        Integer gcInterval = integer(fields.get("gc-interval"), null);
+        SetPolicy policy = fields.containsKey("policy") ? SetPolicy.fromValue(text(fields.get("policy"))) : null;
+        String comment = text(fields.get("comment"));
+
+        if ("verdict".equals(text(fields.get("map")))) {
+            Map<String, VerdictStatement> elements = new LinkedHashMap<>();
+            for (List<?> pair : pairs) {
+                VerdictStatement verdict = verdict(pair.get(1));
+                if (verdict != null) elements.put(text(pair.get(0)), verdict);
+            }
+            return new VerdictMap(elements, flags, table, name, keyType, handle, size, timeout, gcInterval, policy, comment);
+        }
+        Map<String, String> elements = new LinkedHashMap<>();
+        for (List<?> pair : pairs) elements.put(text(pair.get(0)), text(pair.get(1)));
+        return new ir.moke.jsysbox.firewall.model.Map(elements, flags, table, name, keyType, types(fields.get("map")), handle, size, timeout, gcInterval, policy, comment);
+    }
+
+    /**
+     * set or map type, concatenations are written as array
+     */
+    private static List<SetType> types(Object type) {
+        List<SetType> types = new ArrayList<>();
+        for (String item : type instanceof List<?> list ? values(list) : List.of(text(type))) types.add(SetType.fromValue(item));
+        return types;
+    }
+
+    /**
+     * nft does not list the offload flag in json, flowtables are read without it
+     */
+    private Flowtable flowtable() throws IOException {
+        Map<String, Object> fields = fields();
+        Table table = table(text(fields.get("family")), text(fields.get("table")));
+        ChainHook hook = fields.containsKey("hook") ? ChainHook.fromValue(text(fields.get("hook"))) : null;
+        return new Flowtable(table, text(fields.get("name")), integer(fields.get("handle"), 0), hook,
+                integer(fields.get("prio"), null), values(fields.get("dev")), false);
+    }
+
+    private Rule rule() throws IOException {
+        expect(JsonToken.START_OBJECT);
+        String family = null;
+        String tableName = null;
+        String chainName = null;
+        Integer handle = null;
+        String comment = null;
+        List<Expression> expressions = new ArrayList<>();
+        List<Statement> statements = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+                case "family" -> family = parser.getText();
+                case "table" -> tableName = parser.getText();
+                case "chain" -> chainName = parser.getText();
+                case "handle" -> handle = parser.getIntValue();
+                case "comment" -> comment = parser.getText().isEmpty() ? null : parser.getText();
+                case "expr" -> {
+                    expect(JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        expr(expressions, statements);
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        Table table = table(family, tableName);
+        Chain chain = chains.get(key(table.getType(), tableName) + " " + chainName);
+        if (chain == null) chain = new Chain(table, chainName);
+        return new Rule(chain, expressions, statements, comment, handle);
+    }
+
+    /**
+     * one item of rule expr array, parser is positioned on its start object
+     */
+    private void expr(List<Expression> expressions, List<Statement> statements) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String kind = parser.currentName();
+            parser.nextToken();
+            Object body = value();
+            try {
+                if (kind.equals("match") || kind.equals("ct count")) {
+                    Expression expression = expression(kind, map(body));
+                    if (expression != null) expressions.add(expression);
+                } else {
+                    Statement statement = statement(kind, body);
+                    if (statement != null) statements.add(statement);
+                }
+            } catch (JSysboxException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new JSysboxException("Failed to parse %s '%s'".formatted(kind, body), e);
+            }
+        }
+    }
+
+    private static Expression expression(String kind, Map<String, Object> body) {
+        if (kind.equals("ct count")) {
+            return Expression.create(MatchType.CT, null, null, null, body.containsKey("inv"), Long.parseLong(text(body.get("val"))), null, null);
+        }
+
+        // flag matches like "ct state established,related" are written with the implicit "in" operator
+        Operation operation = Operation.fromValue(text(body.get("op")));
+        Map<String, Object> left = map(body.get("left"));
+        List<String> values = values(body.get("right"));
+        if (left.containsKey("concat")) {
+            return new ConcatExpression(selectors(left), operation, values);
+        } else if (left.containsKey("payload")) {
+            Map<String, Object> payload = map(left.get("payload"));
+            MatchType matchType = MatchType.fromValue(text(payload.get("protocol")));
+            return Expression.create(matchType, text(payload.get("field")), operation, values, null, null, null, null);
+        } else if (left.containsKey("meta")) {
+            return Expression.create(MatchType.META, text(map(left.get("meta")).get("key")), operation, values, null, null, null, null);
+        } else if (left.containsKey("ct")) {
+            Map<String, Object> ct = map(left.get("ct"));
+            String key = text(ct.get("key"));
+            Boolean isOriginal = ct.containsKey("dir") ? text(ct.get("dir")).equals("original") : null;
+            return Expression.create(MatchType.CT, key, operation, values, null, null, key, isOriginal);
+        }
+        throw new JSysboxException("Unsupported match type");
+    }
+
+    private static Statement statement(String kind, Object body) {
+        Map<String, Object> fields = body instanceof Map<?, ?> ? map(body) : Collections.emptyMap();
+        return switch (kind) {
+            case "accept" -> new VerdictStatement(VerdictStatement.Type.ACCEPT);
+            case "drop" -> new VerdictStatement(VerdictStatement.Type.DROP);
+            case "queue" -> new VerdictStatement(VerdictStatement.Type.QUEUE);
+            case "continue" -> new VerdictStatement(VerdictStatement.Type.CONTINUE);
+            case "return" -> new VerdictStatement(VerdictStatement.Type.RETURN);
+            case "jump" -> new VerdictStatement(VerdictStatement.Type.JUMP, text(fields.get("target")));
+            case "goto" -> new VerdictStatement(VerdictStatement.Type.GOTO, text(fields.get("target")));
+            case "counter" -> fields.containsKey("packets")
+                    ? new CounterStatement(Long.parseLong(text(fields.get("packets"))), Long.parseLong(text(fields.get("bytes"))))
+                    : new CounterStatement();
+            case "log" -> new LogStatement(
+                    fields.containsKey("level") ? LogStatement.LogLevel.valueOf(text(fields.get("level")).toUpperCase()) : null,
+                    text(fields.get("prefix")));
+            case "limit" -> limit(fields);
+            case "vmap" -> vmap(fields);
+            case "snat", "dnat" -> {
+                NatStatement.Type type = kind.equals("snat") ? NatStatement.Type.SNAT : NatStatement.Type.DNAT;
+                Map<String, Object> lookup = map(map(fields.get("addr")).get("map"));
+                if (!lookup.isEmpty()) {
+                    yield new NatStatement(type, selectors(lookup.get("key")), reference(lookup.get("data")), natFlags(fields));
+                }
+                yield new NatStatement(type, text(fields.get("addr")), integer(fields.get("port"), null), natFlags(fields));
+            }
+            case "redirect" -> new NatStatement(NatStatement.Type.REDIRECT, integer(fields.get("port"), null), natFlags(fields));
+            case "masquerade" -> new NatStatement(natFlags(fields));
+            case "flow" -> new FlowOffloadStatement(reference(fields.get("flowtable")));
+            case "reject" -> {
+                String type = text(fields.get("type"));
+                if ("tcp reset".equals(type)) yield new RejectStatement(RejectStatement.Reason.TCP_RESET);
+                yield new RejectStatement(fields.containsKey("expr") ? RejectStatement.Reason.fromValue(text(fields.get("expr")).toLowerCase()) : null);
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * verdict map lookup, data is a named map reference or a set of [element, verdict] pairs
+     */
+    private static VerdictMapStatement vmap(Map<String, Object> fields) {
+        List<Selector> key = selectors(fields.get("key"));
+        Object data = fields.get("data");
+        if (!(data instanceof Map<?, ?>)) return new VerdictMapStatement(key, reference(data));
+
+        Map<String, VerdictStatement> elements = new LinkedHashMap<>();
+        if (map(data).get("set") instanceof List<?> list) {
+            for (Object item : list) {
+                if (!(item instanceof List<?> pair) || pair.size() != 2) continue;
+                VerdictStatement verdict = verdict(pair.get(1));
+                if (verdict != null) elements.put(text(pair.get(0)), verdict);
+            }
+        }
+        return new VerdictMapStatement(key, elements);
+    }
+
+    /**
+     * verdict object like {@code {"jump": {"target": "web"}}}
+     */
+    private static VerdictStatement verdict(Object value) {
+        for (Map.Entry<String, Object> entry : map(value).entrySet()) {
+            if (statement(entry.getKey(), entry.getValue()) instanceof VerdictStatement verdict) return verdict;
+        }
+        return null;
+    }
+
+    /**
+     * fields of a lookup key, concatenations give one selector per field
+     */
+    private static List<Selector> selectors(Object value) {
+        Map<String, Object> key = map(value);
+        if (!key.containsKey("concat")) return List.of(selector(key));
+        List<Selector> selectors = new ArrayList<>();
+        if (key.get("concat") instanceof List<?> list) {
+            for (Object item : list) selectors.add(selector(map(item)));
+        }
+        return selectors;
+    }
+
+    private static Selector selector(Map<String, Object> key) {
+        if (key.containsKey("meta")) return Selector.of(MatchType.META, text(map(key.get("meta")).get("key")));
+        if (key.containsKey("payload")) {
+            Map<String, Object> payload = map(key.get("payload"));
+            MatchType matchType = MatchType.fromValue(text(payload.get("protocol")));
+            if (matchType != null) return Selector.of(matchType, text(payload.get("field")));
+        }
+        throw new JSysboxException("Unsupported key %s".formatted(key));
+    }
+
+    /**
+     * name of a set or map written as {@code @name}
+     */
+    private static String reference(Object value) {
+        String text = text(value);
+        return text != null && text.startsWith("@") ? text.substring(1) : text;
+    }
+
+    private static LimitStatement limit(Map<String, Object> fields) {
+        Long rate = fields.containsKey("rate") ? Long.parseLong(text(fields.get("rate"))) : null;
+        Long burst = fields.containsKey("burst") ? Long.parseLong(text(fields.get("burst"))) : null;
+        LimitStatement.TimeUnit timeUnit = fields.containsKey("per") ? LimitStatement.TimeUnit.valueOf(text(fields.get("per")).toUpperCase()) : null;
+        Boolean isOver = fields.containsKey("inv") ? Boolean.parseBoolean(text(fields.get("inv"))) : null;
+        LimitStatement.ByteUnit rateUnit = fields.containsKey("rate_unit") ? LimitStatement.ByteUnit.valueOf(text(fields.get("rate_unit")).toUpperCase()) : null;
+        LimitStatement.ByteUnit burstUnit = fields.containsKey("burst_unit") ? LimitStatement.ByteUnit.valueOf(text(fields.get("burst_unit")).toUpperCase()) : null;
+        if (rateUnit == null) {
+            return new LimitStatement(rate, timeUnit, isOver);
+        } else if (burst == null) {
+            return new LimitStatement(rate, timeUnit, rateUnit, isOver);
+        } else {
+            return new LimitStatement(rate, timeUnit, rateUnit, isOver, burst, burstUnit);
+        }
+    }
+
+    private static List<NatStatement.Flag> natFlags(Map<String, Object> fields) {
+        List<NatStatement.Flag> flags = new ArrayList<>();
+        for (String flag : values(fields.get("flags"))) flags.add(NatStatement.Flag.fromValue(flag));
+        return flags;
+    }
+
+    /**
+     * read current object as map of decoded values
+     */
+    private Map<String, Object> fields() throws IOException {
+        expect(JsonToken.START_OBJECT);
+        return map(value());
+    }
+
+    /**
+     * decode current value: text for scalars, list for arrays, map for objects
+     */
+    private Object value() throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_ARRAY) {
+            List<Object> list = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) list.add(value());
+            return list;
+        } else if (token == JsonToken.START_OBJECT) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                map.put(name, value());
+            }
+            return map;
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return parser.getText();
+    }
+
+    /**
+     * render one value the way it is written in nft syntax
+     */
+    private static String text(Object value) {
+        if (value == null) return null;
+        if (value instanceof List<?> list) return String.join(",", values(list));
+        if (value instanceof Map<?, ?> map) {
+            if (map.containsKey("prefix")) {
+                Map<String, Object> prefix = map(map.get("prefix"));
+                return text(prefix.get("addr")) + "/" + text(prefix.get("len"));
+            } else if (map.containsKey("range")) {
+                List<String> range = values(map.get("range"));
+                return range.get(0) + "-" + range.get(1);
+            } else if (map.containsKey("elem")) {
+                return text(map(map.get("elem")).get("val"));
+            } else if (map.containsKey("concat")) {
+                return String.join(" . ", values(map.get("concat")));
+            } else if (map.containsKey("set")) {
+                return String.join(",", values(map.get("set")));
+            }
+            return map.toString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * flatten value to list, anonymous sets and arrays give one entry per item
+     */
+    private static List<String> values(Object value) {
+        if (value == null) return new ArrayList<>();
+        if (value instanceof Map<?, ?> map && map.containsKey("set")) return values(map.get("set"));
+        List<String> values = new ArrayList<>();
+        if (value instanceof List<?> list) {
+            for (Object item : list) values.add(text(item));
+        } else {
+            values.add(text(value));
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return value instanceof Map<?, ?> ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    private static Integer integer(Object value, Integer defaultValue) {
+        return value != null ? Integer.valueOf(text(value)) : defaultValue;
+    }
+
+    private Table table(String family, String name) {
+        TableType type = TableType.fromValue(family);
+        Table table = tables.get(key(type, name));
+        return table != null ? table : new Table(type, name);
+    }
+
+    private static String key(TableType type, String name) {
+        return type + " " + name;
+    }
+
+    private void expect(JsonToken token) throws IOException {
+        if (parser.currentToken() != token) {
+            throw new JSysboxException("Unexpected token %s, expected %s at %s".formatted(parser.currentToken(), token, parser.currentLocation()));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ir.moke.jsysbox.firewall.config.deserializer;
+
+import ir.moke.jsysbox.firewall.model.*;
+import ir.moke.jsysbox.firewall.model.Map;
+import ir.moke.jsysbox.firewall.model.Set;
+
+/**
+ * Callbacks of {@link NFTablesReader}, objects are delivered in document order.
+ * Tables come before their chains, sets, maps and flowtables, chains come before their rules.
+ */
+public interface NFTablesVisitor {
+
+    default void metaInfo(MetaInfo metaInfo) {
+    }
+
+    default void table(Table table) {
+    }
+
+    default void chain(Chain chain) {
+    }
+
+    default void set(Set set) {
+    }
+
+    default void map(Map map) {
+    }
+
+    default void verdictMap(VerdictMap map) {
+    }
+
+    default void flowtable(Flowtable flowtable) {
+    }
+
+    default void rule(Rule rule) {
+    }
+}
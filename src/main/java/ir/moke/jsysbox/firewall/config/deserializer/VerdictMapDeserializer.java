@@ -0,0 +1,18 @@
+package ir.moke.jsysbox.firewall.config.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.model.VerdictMap;
+
+import java.io.IOException;
+
+public class VerdictMapDeserializer extends JsonDeserializer<VerdictMap> {
+
+    @Override
+    public VerdictMap deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (NFTablesReader.readMap(parser) instanceof VerdictMap map) return map;
+        throw new JSysboxException("Not a verdict map");
+    }
+}
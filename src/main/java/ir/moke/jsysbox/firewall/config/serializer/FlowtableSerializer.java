@@ -0,0 +1,47 @@
+package ir.moke.jsysbox.firewall.config.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.model.Flowtable;
+
+import java.io.IOException;
+
+public class FlowtableSerializer extends JsonSerializer<Flowtable> {
+
+    @Override
+    public void serialize(Flowtable flowtable, JsonGenerator gen, SerializerProvider serializers) {
+        try {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("flowtable");
+            gen.writeStringField("family", flowtable.getTable().getType().getValue());
+            gen.writeStringField("table", flowtable.getTable().getName());
+            gen.writeStringField("name", flowtable.getName());
+            gen.writeNumberField("handle", flowtable.getHandle());
+            writeFields(gen, flowtable);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } catch (Exception e) {
+            throw new JSysboxException("Failed to serialize flowtable: %s".formatted(flowtable.getName()), e);
+        }
+    }
+
+    /**
+     * "hook", "prio" and "dev" fields, a single device is written as string like nft does
+     */
+    public static void writeFields(JsonGenerator gen, Flowtable flowtable) throws IOException {
+        if (flowtable.getHook() != null) gen.writeStringField("hook", flowtable.getHook().getValue());
+        gen.writeNumberField("prio", flowtable.getPriority() != null ? flowtable.getPriority() : 0);
+        if (flowtable.getDevices() == null || flowtable.getDevices().isEmpty()) return;
+        if (flowtable.getDevices().size() == 1) {
+            gen.writeStringField("dev", flowtable.getDevices().getFirst());
+        } else {
+            gen.writeArrayFieldStart("dev");
+            for (String device : flowtable.getDevices()) {
+                gen.writeString(device);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
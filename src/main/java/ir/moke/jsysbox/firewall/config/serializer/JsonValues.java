@@ -0,0 +1,92 @@
+package ir.moke.jsysbox.firewall.config.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import ir.moke.jsysbox.firewall.model.Operation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Write textual values of expressions and set elements as nftables json values.
+ * <p>
+ * libnftables resolves plain json strings like the command line does, except prefixes and ranges
+ * which must be written as {@code {"prefix": ...}} and {@code {"range": ...}} objects. Concatenated
+ * values like {@code 10.0.0.1 . 22} are written as {@code {"concat": [...]}}.
+ */
+public final class JsonValues {
+    private static final Pattern PREFIX = Pattern.compile("^([0-9a-fA-F:.]*[0-9][0-9a-fA-F:.]*)/(\\d+)$");
+    private static final Pattern RANGE = Pattern.compile("^([0-9a-fA-F:.]*[0-9][0-9a-fA-F:.]*)-([0-9a-fA-F:.]*[0-9][0-9a-fA-F:.]*)$");
+
+    private JsonValues() {
+    }
+
+    public static void write(JsonGenerator gen, String value) throws IOException {
+        String item = value.trim();
+        if (item.contains(" . ")) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("concat");
+            for (String part : item.split(" \\. ")) {
+                write(gen, part);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            return;
+        }
+        Matcher prefix = PREFIX.matcher(item);
+        if (prefix.matches()) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("prefix");
+            gen.writeStringField("addr", prefix.group(1));
+            gen.writeNumberField("len", Integer.parseInt(prefix.group(2)));
+            gen.writeEndObject();
+            gen.writeEndObject();
+            return;
+        }
+        Matcher range = RANGE.matcher(item);
+        if (range.matches()) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("range");
+            gen.writeString(range.group(1));
+            gen.writeString(range.group(2));
+            gen.writeEndArray();
+            gen.writeEndObject();
+            return;
+        }
+        gen.writeString(item);
+    }
+
+    /**
+     * single value is written as is, more values as anonymous set
+     */
+    public static void writeField(JsonGenerator gen, String field, List<String> values) throws IOException {
+        gen.writeFieldName(field);
+        if (values.size() == 1) {
+            write(gen, values.getFirst());
+        } else {
+            gen.writeStartObject();
+            writeArray(gen, "set", values);
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * right side of a match, flags of {@link Operation#IN} are written as array
+     */
+    public static void writeField(JsonGenerator gen, String field, Operation operation, List<String> values) throws IOException {
+        if (operation == Operation.IN && values.size() > 1) {
+            writeArray(gen, field, values);
+        } else {
+            writeField(gen, field, values);
+        }
+    }
+
+    public static void writeArray(JsonGenerator gen, String field, List<String> values) throws IOException {
+        gen.writeArrayFieldStart(field);
+        for (String value : values) {
+            write(gen, value);
+        }
+        gen.writeEndArray();
+    }
+}
@@ -0,0 +1,83 @@
+package ir.moke.jsysbox.firewall.config.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.model.FlagType;
+import ir.moke.jsysbox.firewall.model.NamedMap;
+import ir.moke.jsysbox.firewall.model.SetType;
+import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class MapSerializer extends JsonSerializer<NamedMap<?>> {
+
+    @Override
+    public void serialize(NamedMap<?> map, JsonGenerator gen, SerializerProvider serializers) {
+        try {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("map");
+            gen.writeStringField("family", map.getTable().getType().getValue());
+            gen.writeStringField("table", map.getTable().getName());
+            gen.writeStringField("name", map.getName());
+            writeType(gen, map);
+            gen.writeNumberField("handle", map.getHandle());
+            if (map.getTimeout() != null) gen.writeNumberField("timeout", map.getTimeout());
+            if (map.getGcInterval() != null) gen.writeNumberField("gc-interval", map.getGcInterval());
+            if (map.getSize() != null) gen.writeNumberField("size", map.getSize());
+            if (map.getComment() != null) gen.writeStringField("comment", map.getComment());
+            if (map.getPolicy() != null) gen.writeStringField("policy", map.getPolicy().getValue());
+
+            if (map.getFlags() != null) {
+                gen.writeArrayFieldStart("flags");
+                for (FlagType flag : map.getFlags()) {
+                    gen.writeString(flag.getValue());
+                }
+                gen.writeEndArray();
+            }
+
+            if (map.getElements() != null) writeElements(gen, map.getElements());
+
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } catch (Exception e) {
+            throw new JSysboxException("Failed to serialize map: %s".formatted(map.getName()), e);
+        }
+    }
+
+    /**
+     * "type" of key, concatenations as array, and "map" of data
+     */
+    public static void writeType(JsonGenerator gen, NamedMap<?> map) throws IOException {
+        if (map.getKeyType().size() == 1) {
+            gen.writeStringField("type", map.getKeyType().getFirst().getValue());
+        } else {
+            gen.writeArrayFieldStart("type");
+            for (SetType type : map.getKeyType()) {
+                gen.writeString(type.getValue());
+            }
+            gen.writeEndArray();
+        }
+        gen.writeStringField("map", map.getDataTypeValue());
+    }
+
+    /**
+     * "elem" field with {@code [key, value]} pairs, values are verdict objects or data values
+     */
+    public static void writeElements(JsonGenerator gen, Map<String, ?> elements) throws IOException {
+        gen.writeArrayFieldStart("elem");
+        for (Map.Entry<String, ?> entry : elements.entrySet()) {
+            gen.writeStartArray();
+            JsonValues.write(gen, entry.getKey());
+            if (entry.getValue() instanceof VerdictStatement verdict) {
+                RuleSerializer.writeVerdict(gen, verdict);
+            } else {
+                JsonValues.write(gen, String.valueOf(entry.getValue()));
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndArray();
+    }
+}
@@ -34,6 +34,25 @@ public class NFTablesSerializer extends JsonSerializer<NFTables> {
                 gen.writeObject(set);
             }
 
+            // Serialize Maps
+            if (nfTables.getMaps() != null) {
+                for (Map map : nfTables.getMaps()) {
+                    gen.writeObject(map);
+                }
+            }
+            if (nfTables.getVerdictMaps() != null) {
+                for (VerdictMap map : nfTables.getVerdictMaps()) {
+                    gen.writeObject(map);
+                }
+            }
+
+            // Serialize Flowtables
+            if (nfTables.getFlowtables() != null) {
+                for (Flowtable flowtable : nfTables.getFlowtables()) {
+                    gen.writeObject(flowtable);
+                }
+            }
+
             // Serialize Rules
             for (Rule rule : nfTables.getRules()) {
                 gen.writeObject(rule);
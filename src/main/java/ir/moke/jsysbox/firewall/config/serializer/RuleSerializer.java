@@ -4,16 +4,19 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.ConcatExpression;
 import ir.moke.jsysbox.firewall.expression.CtExpression;
 import ir.moke.jsysbox.firewall.expression.Expression;
 import ir.moke.jsysbox.firewall.expression.MatchType;
-import ir.moke.jsysbox.firewall.expression.MetaExpression;
+import ir.moke.jsysbox.firewall.expression.Selector;
 import ir.moke.jsysbox.firewall.model.Operation;
 import ir.moke.jsysbox.firewall.model.Rule;
 import ir.moke.jsysbox.firewall.statement.*;
 
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 public class RuleSerializer extends JsonSerializer<Rule> {
 
@@ -25,45 +28,9 @@ public class RuleSerializer extends JsonSerializer<Rule> {
             gen.writeStringField("family", rule.getChain().getTable().getType().getValue());
             gen.writeStringField("table", rule.getChain().getTable().getName());
             gen.writeStringField("chain", rule.getChain().getName());
-            gen.writeNumberField("handle", rule.getHandle());
-            gen.writeStringField("comment", rule.getComment());
-
-            // Start expr
-            gen.writeArrayFieldStart("expr");
-
-            // fill expressions
-            if (rule.getExpressions() != null && !rule.getExpressions().isEmpty()) {
-                for (Expression expression : rule.getExpressions()) {
-                    MatchType matchType = expression.matchType();
-                    if (matchType.equals(MatchType.CT)) {
-                        parseCtExpression(gen, (CtExpression) expression);
-                    } else {
-                        parsePayloadExpression(gen, expression);
-                    }
-                }
-            }
-
-            // fill statement
-            List<Statement> statements = rule.getStatements();
-            for (Statement statement : statements) {
-                if (statement instanceof VerdictStatement verdictStatement) {
-                    parseVerdictStatement(gen, verdictStatement);
-                } else if (statement instanceof LogStatement logStatement) {
-                    parseLogStatement(gen, logStatement);
-                } else if (statement instanceof RejectStatement rejectStatement) {
-                    parseRejectStatement(gen, rejectStatement);
-                } else if (statement instanceof CounterStatement counterStatement) {
-                    parseCounterStatement(gen, counterStatement);
-                } else if (statement instanceof LimitStatement limitStatement) {
-                    parseLimitStatement(gen, limitStatement);
-                } else if (statement instanceof NatStatement natStatement) {
-                    parseNatStatement(gen, natStatement);
-                }
-            }
-
-            // End expr
-            gen.writeEndArray();
-
+            if (rule.getHandle() != null) gen.writeNumberField("handle", rule.getHandle());
+            if (rule.getComment() != null) gen.writeStringField("comment", rule.getComment());
+            writeExpr(gen, rule, true);
             gen.writeEndObject();
             gen.writeEndObject();
         } catch (Exception e) {
@@ -71,42 +38,79 @@ public class RuleSerializer extends JsonSerializer<Rule> {
         }
     }
 
+    /**
+     * write "expr" field of rule, verdict statement is written last
+     *
+     * @param counterValues write packets and bytes of counter statements, otherwise counters start from zero
+     */
+    public static void writeExpr(JsonGenerator gen, Rule rule, boolean counterValues) throws IOException {
+        // Start expr
+        gen.writeArrayFieldStart("expr");
+
+        // fill expressions
+        if (rule.getExpressions() != null && !rule.getExpressions().isEmpty()) {
+            for (Expression expression : rule.getExpressions()) {
+                MatchType matchType = expression.matchType();
+                if (expression instanceof ConcatExpression concatExpression) {
+                    parseConcatExpression(gen, concatExpression);
+                } else if (matchType.equals(MatchType.CT)) {
+                    parseCtExpression(gen, (CtExpression) expression);
+                } else {
+                    parsePayloadExpression(gen, expression);
+                }
+            }
+        }
+
+        // fill statement
+        List<Statement> statements = rule.getStatements() != null ? rule.getStatements() : List.of();
+        for (Statement statement : statements.stream().sorted(Comparator.comparing(item -> item instanceof VerdictStatement || item instanceof VerdictMapStatement)).toList()) {
+            if (statement instanceof VerdictStatement verdictStatement) {
+                parseVerdictStatement(gen, verdictStatement);
+            } else if (statement instanceof LogStatement logStatement) {
+                parseLogStatement(gen, logStatement);
+            } else if (statement instanceof RejectStatement rejectStatement) {
+                parseRejectStatement(gen, rejectStatement);
+            } else if (statement instanceof CounterStatement counterStatement) {
+                parseCounterStatement(gen, counterStatement, counterValues);
+            } else if (statement instanceof LimitStatement limitStatement) {
+                parseLimitStatement(gen, limitStatement);
+            } else if (statement instanceof NatStatement natStatement) {
+                parseNatStatement(gen, natStatement);
+            } else if (statement instanceof VerdictMapStatement verdictMapStatement) {
+                parseVerdictMapStatement(gen, verdictMapStatement);
+            } else if (statement instanceof FlowOffloadStatement flowOffloadStatement) {
+                parseFlowOffloadStatement(gen, flowOffloadStatement);
+            }
+        }
+
+        // End expr
+        gen.writeEndArray();
+    }
+
     private static void parseNatStatement(JsonGenerator gen, NatStatement natStatement) throws IOException {
         gen.writeStartObject();
         NatStatement.Type type = natStatement.getType();
-        if (natStatement.getFlag() == null) {
-            gen.writeStartObject();
-            gen.writeStringField(type.name().toLowerCase(), null);
-            gen.writeEndObject();
+        if (natStatement.getFlag() == null && natStatement.getAddress() == null && natStatement.getPort() == null && natStatement.getMap() == null) {
+            gen.writeNullField(type.name().toLowerCase());
         } else {
             gen.writeObjectFieldStart(type.name().toLowerCase());
-            if (type.equals(NatStatement.Type.SNAT) || type.equals(NatStatement.Type.DNAT)) {
-                gen.writeStringField("addr", natStatement.getAddress());
-                if (natStatement.getPort() != null) gen.writeNumberField("port", natStatement.getPort());
-                if (natStatement.getFlag() != null) {
-                    gen.writeArrayFieldStart("flags");
-                    for (NatStatement.Flag flag : natStatement.getFlag()) {
-                        gen.writeString(flag.getValue());
-                    }
-                    gen.writeEndArray();
-                }
-            } else if (type.equals(NatStatement.Type.REDIRECT)) {
-                gen.writeNumberField("port", natStatement.getPort());
-                if (natStatement.getFlag() != null) {
-                    gen.writeArrayFieldStart("flags");
-                    for (NatStatement.Flag flag : natStatement.getFlag()) {
-                        gen.writeString(flag.getValue());
-                    }
-                    gen.writeEndArray();
-                }
-            } else {
-                if (natStatement.getFlag() != null) {
-                    gen.writeArrayFieldStart("flags");
-                    for (NatStatement.Flag flag : natStatement.getFlag()) {
-                        gen.writeString(flag.getValue());
-                    }
-                    gen.writeEndArray();
+            if (natStatement.getMap() != null) {
+                gen.writeObjectFieldStart("addr");
+                gen.writeObjectFieldStart("map");
+                gen.writeFieldName("key");
+                writeKey(gen, natStatement.getMapKey());
+                gen.writeStringField("data", "@" + natStatement.getMap());
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+            if (natStatement.getAddress() != null) gen.writeStringField("addr", natStatement.getAddress());
+            if (natStatement.getPort() != null) gen.writeNumberField("port", natStatement.getPort());
+            if (natStatement.getFlag() != null) {
+                gen.writeArrayFieldStart("flags");
+                for (NatStatement.Flag flag : natStatement.getFlag()) {
+                    gen.writeString(flag.getValue());
                 }
+                gen.writeEndArray();
             }
             gen.writeEndObject();
         }
@@ -125,7 +129,7 @@ public class RuleSerializer extends JsonSerializer<Rule> {
         LimitStatement.ByteUnit burstUnit = limitStatement.getBurstUnit();
 
         gen.writeNumberField("rate", rate);
-        gen.writeStringField("rate_unit", rateUnit.name().toLowerCase());
+        if (rateUnit != null) gen.writeStringField("rate_unit", rateUnit.name().toLowerCase());
         if (timeUnit != null) gen.writeStringField("per", timeUnit.name().toLowerCase());
         if (isOver != null) gen.writeBooleanField("inv", isOver);
         if (burst != null) gen.writeNumberField("burst", burst);
@@ -135,24 +139,32 @@ public class RuleSerializer extends JsonSerializer<Rule> {
         gen.writeEndObject();
     }
 
-    private static void parseCounterStatement(JsonGenerator gen, CounterStatement counterStatement) throws IOException {
+    private static void parseCounterStatement(JsonGenerator gen, CounterStatement counterStatement, boolean counterValues) throws IOException {
+        boolean values = counterValues && counterStatement.getPackets() != null && counterStatement.getBytes() != null;
         gen.writeStartObject();
         gen.writeObjectFieldStart("counter");
-        gen.writeNumberField("packets", counterStatement.getPackets());
-        gen.writeNumberField("bytes", counterStatement.getBytes());
+        gen.writeNumberField("packets", values ? counterStatement.getPackets() : 0);
+        gen.writeNumberField("bytes", values ? counterStatement.getBytes() : 0);
         gen.writeEndObject();
         gen.writeEndObject();
     }
 
     private static void parseRejectStatement(JsonGenerator gen, RejectStatement rejectStatement) throws IOException {
+        RejectStatement.Reason reason = rejectStatement.getReason();
         gen.writeStartObject();
-        gen.writeObjectFieldStart("reject");
-        gen.writeStringField("type", rejectStatement.getReason().equals(RejectStatement.Reason.TCP_RESET) ? "tcp reset" : "icmp");
-        if (rejectStatement.getReason() != null) {
-            gen.writeStringField("expr", rejectStatement.getReason().getValue().toLowerCase());
+        if (reason == null) {
+            gen.writeNullField("reject");
+        } else {
+            gen.writeObjectFieldStart("reject");
+            if (reason.equals(RejectStatement.Reason.TCP_RESET)) {
+                gen.writeStringField("type", "tcp reset");
+            } else {
+                gen.writeStringField("type", "icmp");
+                gen.writeStringField("expr", reason.getValue());
+            }
+            gen.writeEndObject();
         }
         gen.writeEndObject();
-        gen.writeEndObject();
     }
 
     private static void parseLogStatement(JsonGenerator gen, LogStatement logStatement) throws IOException {
@@ -165,6 +177,50 @@ public class RuleSerializer extends JsonSerializer<Rule> {
         gen.writeEndObject();
     }
 
+    private static void parseFlowOffloadStatement(JsonGenerator gen, FlowOffloadStatement flowOffloadStatement) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("flow");
+        gen.writeStringField("op", "add");
+        gen.writeStringField("flowtable", "@" + flowOffloadStatement.getFlowtable());
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    private static void parseVerdictMapStatement(JsonGenerator gen, VerdictMapStatement verdictMapStatement) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("vmap");
+
+        // Key
+        gen.writeFieldName("key");
+        writeKey(gen, verdictMapStatement.getKey());
+
+        // Data, named map or anonymous set of [element, verdict]
+        if (verdictMapStatement.getMap() != null) {
+            gen.writeStringField("data", "@" + verdictMapStatement.getMap());
+        } else {
+            gen.writeObjectFieldStart("data");
+            gen.writeArrayFieldStart("set");
+            for (Map.Entry<String, VerdictStatement> entry : verdictMapStatement.getElements().entrySet()) {
+                gen.writeStartArray();
+                JsonValues.write(gen, entry.getKey());
+                parseVerdictStatement(gen, entry.getValue());
+                gen.writeEndArray();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * verdict as object, e.g. {@code {"jump": {"target": "web"}}}
+     */
+    public static void writeVerdict(JsonGenerator gen, VerdictStatement verdictStatement) throws IOException {
+        parseVerdictStatement(gen, verdictStatement);
+    }
+
     private static void parseVerdictStatement(JsonGenerator gen, VerdictStatement verdictStatement) throws IOException {
         gen.writeStartObject();
         VerdictStatement.Type type = verdictStatement.getType();
@@ -197,34 +253,58 @@ public class RuleSerializer extends JsonSerializer<Rule> {
         gen.writeStringField("op", expression.getOperation().getValue());
 
         // Left
-        gen.writeObjectFieldStart("left");
-        if (expression.matchType().equals(MatchType.META)) {
-            MetaExpression metaExpression = (MetaExpression) expression;
-            gen.writeObjectFieldStart("meta");
-            gen.writeStringField("key", metaExpression.getField().getValue());
-            gen.writeEndObject();
-        } else {
-            gen.writeObjectFieldStart("payload");
-            gen.writeStringField("protocol", expression.matchType().getValue());
-            gen.writeStringField("field", expression.getField().getValue());
-            gen.writeEndObject();
+        gen.writeFieldName("left");
+        writeLeft(gen, expression.matchType(), expression.getField());
+
+        // Right
+        JsonValues.writeField(gen, "right", expression.getOperation(), expression.getValues());
+
+        // End match
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    private static void parseConcatExpression(JsonGenerator gen, ConcatExpression expression) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("match");
+        gen.writeStringField("op", expression.getOperation().getValue());
+        gen.writeFieldName("left");
+        writeKey(gen, expression.getSelectors());
+        JsonValues.writeField(gen, "right", expression.getOperation(), expression.getValues());
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * single field as object, more fields as {@code {"concat": [...]}}
+     */
+    public static void writeKey(JsonGenerator gen, List<Selector> selectors) throws IOException {
+        if (selectors.size() == 1) {
+            writeLeft(gen, selectors.getFirst().matchType(), selectors.getFirst().field());
+            return;
+        }
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("concat");
+        for (Selector selector : selectors) {
+            writeLeft(gen, selector.matchType(), selector.field());
         }
+        gen.writeEndArray();
         gen.writeEndObject();
+    }
 
-        // Right
-        if (expression.getValues().size() == 1) {
-            gen.writeStringField("right", expression.getValues().getFirst());
+    /**
+     * meta key or payload field as object
+     */
+    private static void writeLeft(JsonGenerator gen, MatchType matchType, Expression.Field field) throws IOException {
+        gen.writeStartObject();
+        if (matchType.equals(MatchType.META)) {
+            gen.writeObjectFieldStart("meta");
+            gen.writeStringField("key", field.getValue());
         } else {
-            gen.writeObjectFieldStart("right");
-            gen.writeArrayFieldStart("set");
-            for (String value : expression.getValues()) {
-                gen.writeString(value);
-            }
-            gen.writeEndArray();
-            gen.writeEndObject();
+            gen.writeObjectFieldStart("payload");
+            gen.writeStringField("protocol", matchType.getValue());
+            gen.writeStringField("field", field.getValue());
         }
-
-        // End match
         gen.writeEndObject();
         gen.writeEndObject();
     }
@@ -261,17 +341,7 @@ public class RuleSerializer extends JsonSerializer<Rule> {
             gen.writeEndObject();
 
             // Right
-            if (expression.getValues().size() == 1) {
-                gen.writeStringField("right", expression.getValues().getFirst());
-            } else {
-                gen.writeObjectFieldStart("right");
-                gen.writeArrayFieldStart("set");
-                for (String value : expression.getValues()) {
-                    gen.writeString(value);
-                }
-                gen.writeEndArray();
-                gen.writeEndObject();
-            }
+            JsonValues.writeField(gen, "right", expression.getOperation(), expression.getValues());
 
             // End match
             gen.writeEndObject();
@@ -282,7 +352,7 @@ public class RuleSerializer extends JsonSerializer<Rule> {
             gen.writeStartObject();
             gen.writeObjectFieldStart("ct count");
             gen.writeNumberField("val", expression.getValue());
-            if (expression.getOver()) {
+            if (Boolean.TRUE.equals(expression.getOver())) {
                 gen.writeBooleanField("inv", expression.getOver());
             }
             gen.writeEndObject();
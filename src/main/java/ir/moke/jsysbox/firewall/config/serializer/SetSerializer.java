@@ -39,11 +39,7 @@ public class SetSerializer extends JsonSerializer<Set> {
 
             if (set.getElements() != null) {
                 // > serialize elements
-                gen.writeArrayFieldStart("elem");
-                for (String item : set.getElements()) {
-                    gen.writeString(item);
-                }
-                gen.writeEndArray();
+                JsonValues.writeArray(gen, "elem", set.getElements());
                 // < End
             }
 
@@ -29,7 +29,7 @@ public class ArpExpression implements Expression {
             List<String> typeList = arpOperations.stream().map(ArpExpression.ArpOperation::getValue).toList();
             return "%s operation {%s}".formatted(matchType().getValue(), String.join(",", typeList));
         } else {
-            return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+            return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
         }
     }
 
@@ -0,0 +1,59 @@
+package ir.moke.jsysbox.firewall.expression;
+
+import ir.moke.jsysbox.firewall.model.Operation;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Match on concatenated fields, values are written as {@code 10.0.0.1 . 22} or a set reference {@code @name}.
+ * <p>
+ * example : {@code ip saddr . tcp dport { 10.0.0.1 . 22, 10.0.0.2 . 443 }}
+ */
+public class ConcatExpression implements Expression {
+    private final List<Selector> selectors;
+    private final Operation operation;
+    private final List<String> values;
+
+    public ConcatExpression(List<Selector> selectors, Operation operation, List<String> values) {
+        this.selectors = selectors;
+        this.operation = operation;
+        this.values = values;
+    }
+
+    public List<Selector> getSelectors() {
+        return selectors;
+    }
+
+    @Override
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return null, fields are given by {@link #getSelectors()}
+     */
+    @Override
+    public Field getField() {
+        return null;
+    }
+
+    @Override
+    public List<String> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        String key = selectors.stream().map(Selector::toString).collect(Collectors.joining(" . "));
+        return "%s %s".formatted(key, Expression.right(operation, values));
+    }
+
+    /**
+     * @return match type of the first field
+     */
+    @Override
+    public MatchType matchType() {
+        return selectors.getFirst().matchType();
+    }
+}
@@ -46,9 +46,9 @@ public class CtExpression implements Expression {
     @Override
     public String toString() {
         if (states != null && !states.isEmpty()) {
-            return "%s %s %s {%s}".formatted(matchType().getValue(), Field.STATE.getValue(), operation.getValue(), String.join(",", values));
+            return "%s %s %s".formatted(matchType().getValue(), Field.STATE.getValue(), Expression.right(operation, values));
         } else if (statuses != null && !statuses.isEmpty()) {
-            return "%s %s %s {%s}".formatted(matchType().getValue(), Field.STATUS.getValue(), operation.getValue(), String.join(",", values));
+            return "%s %s %s".formatted(matchType().getValue(), Field.STATUS.getValue(), Expression.right(operation, values));
         } else if (originalType != null) {
             String typeMode = originalType ? "original" : "reply";
             StringBuilder sb = new StringBuilder("ct ").append(typeMode).append(" ");
@@ -66,7 +66,7 @@ public class CtExpression implements Expression {
             if (field.equals(Field.COUNT)) {
                 return "%s count %s %s".formatted(matchType().getValue(), (over != null && over) ? "over" : "", value);
             } else {
-                return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+                return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
             }
         }
     }
@@ -46,9 +46,9 @@ public class DccpExpression implements Expression {
     public String toString() {
         if (types != null) {
             List<String> typeList = types.stream().map(Type::getValue).toList();
-            return "%s type %s {%s}".formatted(matchType().getValue(), operation.getValue(), String.join(",", typeList));
+            return "%s type %s".formatted(matchType().getValue(), Expression.right(operation, typeList));
         } else {
-            return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+            return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
         }
     }
 
@@ -20,7 +20,7 @@ public class DstExpression implements Expression {
 
     @Override
     public String toString() {
-        return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+        return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
     }
 
     @Override
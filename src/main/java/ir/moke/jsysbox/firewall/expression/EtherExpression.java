@@ -29,7 +29,7 @@ public class EtherExpression implements Expression {
             List<String> typeList = types.stream().map(EtherExpression.Type::getValue).toList();
             return "%s type {%s}".formatted(matchType().getValue(), String.join(",", typeList));
         } else {
-            return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+            return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
         }
     }
 
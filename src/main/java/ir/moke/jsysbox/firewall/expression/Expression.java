@@ -19,6 +19,20 @@ public interface Expression extends Serializable {
 
     List<String> getValues();
 
+    /**
+     * operation and values in nftables syntax, values of {@link Operation#IN} are a bare list of flags
+     * <p>
+     * example :
+     * <pre>
+     * Expression.right(Operation.EQ, List.of("22", "80"))   // == {22,80}
+     * Expression.right(Operation.IN, List.of("syn", "ack")) // syn,ack
+     * </pre>
+     */
+    static String right(Operation operation, List<String> values) {
+        if (operation == Operation.IN) return String.join(",", values);
+        return "%s {%s}".formatted(operation.getValue(), String.join(",", values));
+    }
+
     static Expression getExpression(JsonNode node) {
         try {
             Operation operation = null;
@@ -44,6 +58,7 @@ public interface Expression extends Serializable {
                 matchType = MatchType.CT;
                 operation = Operation.fromValue(node.get("match").get("op").asText());
                 ctKey = node.get("match").get("left").get("ct").get("key").asText();
+                field = ctKey;
                 if (node.get("match").get("left").get("ct").has("dir")) {
                     String dir = node.get("match").get("left").get("ct").get("dir").asText();
                     isOriginal = dir.equals("original");
@@ -57,36 +72,53 @@ public interface Expression extends Serializable {
                 throw new JSysboxException("Unsupported match type");
             }
 
-            return switch (matchType) {
-                case IP -> createIpExpression(field, operation, values);
-                case IP6 -> createIp6Expression(field, operation, values);
-                case TCP -> createTcpExpression(field, operation, values);
-                case UDP -> createUdpExpression(field, operation, values);
-                case UDPLITE -> createUdpLightExpression(field, operation, values);
-                case SCTP -> createSctpExpression(field, operation, values);
-                case DCCP -> createDccpExpression(field, operation, values);
-                case AH -> createAhExpression(field, operation, values);
-                case ESP -> createEspExpression(field, operation, values);
-                case COMP -> createCompExpression(field, operation, values);
-                case ICMP -> createIcmpExpression(field, operation, values);
-                case ICMPV6 -> createIcmp6Expression(field, operation, values);
-                case ETHER -> createEtherExpression(field, values, operation);
-                case DST -> createDstExpression(field, operation, values);
-                case FRAG -> createFragExpression(field, operation, values);
-                case HBH -> createHbhExpression(field, operation, values);
-                case MH -> createMhExpression(field, operation, values);
-                case RT -> createRtExpression(field, operation, values);
-                case VLAN -> createVlanExpression(field, operation, values);
-                case ARP -> createArpExpression(field, operation, values);
-                case CT -> createCtExpression(field, operation, values, isOver, ctCount, ctKey, isOriginal);
-                case META -> createMetaExpression(field, operation, values);
-                case null -> null;
-            };
+            return create(matchType, field, operation, values, isOver, ctCount, ctKey, isOriginal);
         } catch (Exception e) {
             throw new JSysboxException("Failed to parse expression '%s'".formatted(node.toString()), e);
         }
     }
 
+    /**
+     * create expression from decoded match
+     *
+     * @param matchType  protocol or key family of left side
+     * @param field      payload field or meta key
+     * @param operation  match operation
+     * @param values     right side values
+     * @param isOver     inverted ct count
+     * @param ctCount    ct count value
+     * @param ctKey      ct key
+     * @param isOriginal ct direction, null when match has no direction
+     * @return expression or null for unknown match type
+     */
+    static Expression create(MatchType matchType, String field, Operation operation, List<String> values, Boolean isOver, Long ctCount, String ctKey, Boolean isOriginal) {
+        return switch (matchType) {
+            case IP -> createIpExpression(field, operation, values);
+            case IP6 -> createIp6Expression(field, operation, values);
+            case TCP -> createTcpExpression(field, operation, values);
+            case UDP -> createUdpExpression(field, operation, values);
+            case UDPLITE -> createUdpLightExpression(field, operation, values);
+            case SCTP -> createSctpExpression(field, operation, values);
+            case DCCP -> createDccpExpression(field, operation, values);
+            case AH -> createAhExpression(field, operation, values);
+            case ESP -> createEspExpression(field, operation, values);
+            case COMP -> createCompExpression(field, operation, values);
+            case ICMP -> createIcmpExpression(field, operation, values);
+            case ICMPV6 -> createIcmp6Expression(field, operation, values);
+            case ETHER -> createEtherExpression(field, values, operation);
+            case DST -> createDstExpression(field, operation, values);
+            case FRAG -> createFragExpression(field, operation, values);
+            case HBH -> createHbhExpression(field, operation, values);
+            case MH -> createMhExpression(field, operation, values);
+            case RT -> createRtExpression(field, operation, values);
+            case VLAN -> createVlanExpression(field, operation, values);
+            case ARP -> createArpExpression(field, operation, values);
+            case CT -> createCtExpression(field, operation, values, isOver, ctCount, ctKey, isOriginal);
+            case META -> createMetaExpression(field, operation, values);
+            case null -> null;
+        };
+    }
+
     private static List<String> getRight(JsonNode node) {
         List<String> values = new ArrayList<>();
         JsonNode rightNode = node.get("match").get("right");
@@ -94,6 +126,11 @@ public interface Expression extends Serializable {
             for (JsonNode item : rightNode.get("set")) {
                 values.add(item.asText());
             }
+        } else if (rightNode.isArray()) {
+            // flags of the implicit "in" operation
+            for (JsonNode item : rightNode) {
+                values.add(item.asText());
+            }
         } else {
             values.add(rightNode.asText());
         }
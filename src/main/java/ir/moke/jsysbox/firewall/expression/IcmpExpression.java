@@ -29,8 +29,8 @@ public class IcmpExpression implements Expression {
             List<String> typeList = types.stream().map(IcmpExpression.Type::getValue).toList();
             return "%s type {%s}".formatted(matchType().getValue(), String.join(",", typeList));
         } else {
-            if (operation.equals(Operation.EQ) || operation.equals(Operation.NE)) {
-                return "%s %s %s {%s}".formatted(matchType().getValue(), field.getValue(), operation.getValue(), String.join(",", values));
+            if (operation.equals(Operation.EQ) || operation.equals(Operation.NE) || operation.equals(Operation.IN)) {
+                return "%s %s %s".formatted(matchType().getValue(), field.getValue(), Expression.right(operation, values));
             } else {
                 return "%s %s %s %s".formatted(matchType().getValue(), field.getValue(), operation.getValue(), values.getFirst());
             }
@@ -0,0 +1,31 @@
+package ir.moke.jsysbox.firewall.expression;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.model.Operation;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Packet field used as key of a concatenation or a map lookup, e.g. {@code ip saddr}.
+ *
+ * @param matchType protocol or meta
+ * @param field     payload field or meta key
+ */
+public record Selector(MatchType matchType, Expression.Field field) implements Serializable {
+
+    /**
+     * @param matchType protocol or meta
+     * @param field     field name as written by nft
+     */
+    public static Selector of(MatchType matchType, String field) {
+        Expression expression = Expression.create(matchType, field, Operation.EQ, List.of(), null, null, null, null);
+        if (expression == null || expression.getField() == null) throw new JSysboxException("Unsupported selector %s %s".formatted(matchType, field));
+        return new Selector(matchType, expression.getField());
+    }
+
+    @Override
+    public String toString() {
+        return matchType.getValue() + " " + field.getValue();
+    }
+}
@@ -7,7 +7,8 @@ import java.util.Arrays;
 public enum FlagType {
     CONSTANT("constant"),
     INTERVAL("interval"),
-    TIMEOUT("timeout");
+    TIMEOUT("timeout"),
+    DYNAMIC("dynamic");
 
     private final String value;
 
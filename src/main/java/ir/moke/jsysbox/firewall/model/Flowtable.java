@@ -0,0 +1,83 @@
+package ir.moke.jsysbox.firewall.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import ir.moke.jsysbox.firewall.config.deserializer.FlowtableDeserializer;
+import ir.moke.jsysbox.firewall.config.serializer.FlowtableSerializer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flowtable, fastpath for established flows of forwarded traffic.
+ * <p>
+ * Flows are added by {@link ir.moke.jsysbox.firewall.statement.FlowOffloadStatement} in a forward
+ * chain, later packets of the flow skip the classic forwarding path at the ingress hook of the
+ * devices. With {@code offload} the flows are pushed to hardware of devices that support it.
+ * <p>
+ * example : {@code flowtable ft { hook ingress priority 0; devices = { eth0, eth1 }; }}
+ */
+@JsonDeserialize(using = FlowtableDeserializer.class)
+@JsonSerialize(using = FlowtableSerializer.class)
+public class Flowtable implements Serializable {
+    private Table table;
+    private String name;
+    private int handle;
+    private ChainHook hook = ChainHook.INGRESS;
+    private Integer priority;
+    private List<String> devices = new ArrayList<>();
+    private boolean offload;
+
+    public Flowtable() {
+    }
+
+    public Flowtable(Table table, String name, Integer priority, List<String> devices) {
+        this(table, name, 0, ChainHook.INGRESS, priority, devices, false);
+    }
+
+    public Flowtable(Table table, String name, int handle, ChainHook hook, Integer priority, List<String> devices, boolean offload) {
+        this.table = table;
+        this.name = name;
+        this.handle = handle;
+        this.hook = hook;
+        this.priority = priority;
+        this.devices = devices;
+        this.offload = offload;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public ChainHook getHook() {
+        return hook;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public List<String> getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return true when flows are offloaded to hardware
+     */
+    public boolean isOffload() {
+        return offload;
+    }
+}
@@ -0,0 +1,35 @@
+package ir.moke.jsysbox.firewall.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import ir.moke.jsysbox.firewall.config.deserializer.MapDeserializer;
+import ir.moke.jsysbox.firewall.config.serializer.MapSerializer;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Named map from key to data value, e.g. {@code type ipv4_addr : ipv4_addr . inet_service} for dnat targets.
+ */
+@JsonDeserialize(using = MapDeserializer.class)
+@JsonSerialize(using = MapSerializer.class)
+public class Map extends NamedMap<String> {
+    private List<SetType> dataType;
+
+    public Map() {
+    }
+
+    public Map(java.util.Map<String, String> elements, List<FlagType> flags, Table table, String name, List<SetType> keyType, List<SetType> dataType, int handle, Integer size, Integer timeout, Integer gcInterval, SetPolicy policy, String comment) {
+        super(elements, flags, table, name, keyType, handle, size, timeout, gcInterval, policy, comment);
+        this.dataType = dataType;
+    }
+
+    public List<SetType> getDataType() {
+        return dataType;
+    }
+
+    @Override
+    public String getDataTypeValue() {
+        return dataType.stream().map(SetType::getValue).collect(Collectors.joining(" . "));
+    }
+}
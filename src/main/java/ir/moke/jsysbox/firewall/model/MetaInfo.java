@@ -14,6 +14,15 @@ public class MetaInfo implements Serializable {
     @JsonProperty("json_schema_version")
     private String jsonSchemaVersion;
 
+    public MetaInfo() {
+    }
+
+    public MetaInfo(String version, String releaseName, String jsonSchemaVersion) {
+        this.version = version;
+        this.releaseName = releaseName;
+        this.jsonSchemaVersion = jsonSchemaVersion;
+    }
+
     public String getVersion() {
         return version;
     }
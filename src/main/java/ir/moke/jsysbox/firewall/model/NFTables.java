@@ -17,6 +17,9 @@ public class NFTables implements Serializable {
     private List<Chain> chains = new ArrayList<>();
     private List<Rule> rules = new ArrayList<>();
     private List<Set> sets = new ArrayList<>();
+    private List<Map> maps = new ArrayList<>();
+    private List<VerdictMap> verdictMaps = new ArrayList<>();
+    private List<Flowtable> flowtables = new ArrayList<>();
 
     public NFTables() {
     }
@@ -29,6 +32,17 @@ public class NFTables implements Serializable {
         this.sets = sets;
     }
 
+    public NFTables(MetaInfo metaInfo, List<Table> tables, List<Chain> chains, List<Rule> rules, List<Set> sets, List<Map> maps, List<VerdictMap> verdictMaps) {
+        this(metaInfo, tables, chains, rules, sets);
+        this.maps = maps;
+        this.verdictMaps = verdictMaps;
+    }
+
+    public NFTables(MetaInfo metaInfo, List<Table> tables, List<Chain> chains, List<Rule> rules, List<Set> sets, List<Map> maps, List<VerdictMap> verdictMaps, List<Flowtable> flowtables) {
+        this(metaInfo, tables, chains, rules, sets, maps, verdictMaps);
+        this.flowtables = flowtables;
+    }
+
     public MetaInfo getMetaInfo() {
         return metaInfo;
     }
@@ -48,4 +62,16 @@ public class NFTables implements Serializable {
     public List<Set> getSets() {
         return sets;
     }
+
+    public List<Map> getMaps() {
+        return maps;
+    }
+
+    public List<VerdictMap> getVerdictMaps() {
+        return verdictMaps;
+    }
+
+    public List<Flowtable> getFlowtables() {
+        return flowtables;
+    }
 }
@@ -0,0 +1,106 @@
+package ir.moke.jsysbox.firewall.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Common part of {@link Map} and {@link VerdictMap}.
+ * <p>
+ * A key with more than one type is a concatenation, its elements are written as
+ * {@code 10.0.0.1 . 22}.
+ *
+ * @param <V> type of element values
+ */
+public abstract class NamedMap<V> implements Serializable {
+    private java.util.Map<String, V> elements = new LinkedHashMap<>();
+    private List<FlagType> flags = new ArrayList<>();
+    private Table table;
+    private String name;
+    private List<SetType> keyType;
+    private int handle;
+    private Integer size;
+    private Integer timeout;
+    private Integer gcInterval;
+    private String comment;
+    private SetPolicy policy;
+
+    protected NamedMap() {
+    }
+
+    protected NamedMap(java.util.Map<String, V> elements, List<FlagType> flags, Table table, String name, List<SetType> keyType, int handle, Integer size, Integer timeout, Integer gcInterval, SetPolicy policy, String comment) {
+        this.elements = elements;
+        this.flags = flags;
+        this.table = table;
+        this.name = name;
+        this.keyType = keyType;
+        this.handle = handle;
+        this.size = size;
+        this.timeout = timeout;
+        this.gcInterval = gcInterval;
+        this.policy = policy;
+        this.comment = comment;
+    }
+
+    /**
+     * @return nft name of the value type, e.g. {@code verdict}
+     */
+    public abstract String getDataTypeValue();
+
+    public java.util.Map<String, V> getElements() {
+        return elements;
+    }
+
+    public List<FlagType> getFlags() {
+        return flags;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<SetType> getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return key type as written by nft, e.g. {@code ipv4_addr . inet_service}
+     */
+    public String getKeyTypeValue() {
+        return keyType.stream().map(SetType::getValue).collect(Collectors.joining(" . "));
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    public Integer getGcInterval() {
+        return gcInterval;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public SetPolicy getPolicy() {
+        return policy;
+    }
+}
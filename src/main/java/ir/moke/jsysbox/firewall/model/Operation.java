@@ -10,7 +10,13 @@ public enum Operation {
     LT("<"),
     GT(">"),
     LE("<="),
-    GE(">=");
+    GE(">="),
+    /**
+     * implicit operation of flag matches like {@code tcp flags syn} or {@code ct status dnat},
+     * true when any of the listed bits is set. It has no symbol in nftables syntax, the values
+     * follow the field as a bare comma separated list
+     */
+    IN("in");
 
     private final String value;
 
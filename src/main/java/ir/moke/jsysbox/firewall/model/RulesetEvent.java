@@ -0,0 +1,52 @@
+package ir.moke.jsysbox.firewall.model;
+
+import java.util.List;
+
+/**
+ * Change of the live ruleset reported by the kernel.
+ * <p>
+ * Events of one transaction are followed by a {@link Type#COMMIT} event carrying the new
+ * generation id and the process that made the change. Events describe the changed object by name
+ * and handle only, rules and sets can be looked up by handle when their content is needed.
+ *
+ * @param type       kind of change
+ * @param object     changed object, null for {@link Type#COMMIT} and {@link Type#OVERFLOW}
+ * @param family     table family
+ * @param table      table name
+ * @param name       chain name for chains and rules, set name for sets and elements
+ * @param handle     handle of table, chain, rule or set, -1 when not reported
+ * @param elements   set elements as text, empty for other objects
+ * @param generation ruleset generation id of {@link Type#COMMIT}, -1 otherwise
+ * @param process    name of the process that committed the transaction
+ */
+public record RulesetEvent(Type type,
+                           ObjectType object,
+                           TableType family,
+                           String table,
+                           String name,
+                           long handle,
+                           List<String> elements,
+                           long generation,
+                           String process) {
+
+    public enum Type {
+        ADD,
+        DELETE,
+        /**
+         * end of a transaction
+         */
+        COMMIT,
+        /**
+         * kernel dropped events because the listener was too slow, the ruleset must be read again
+         */
+        OVERFLOW
+    }
+
+    public enum ObjectType {
+        TABLE,
+        CHAIN,
+        RULE,
+        SET,
+        ELEMENT
+    }
+}
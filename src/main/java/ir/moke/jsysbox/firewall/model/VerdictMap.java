@@ -0,0 +1,30 @@
+package ir.moke.jsysbox.firewall.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import ir.moke.jsysbox.firewall.config.deserializer.VerdictMapDeserializer;
+import ir.moke.jsysbox.firewall.config.serializer.MapSerializer;
+import ir.moke.jsysbox.firewall.statement.VerdictStatement;
+
+import java.util.List;
+
+/**
+ * Named verdict map, looked up by {@link ir.moke.jsysbox.firewall.statement.VerdictMapStatement}.
+ * Element values are verdicts, jump and goto values dispatch to per key chains.
+ */
+@JsonDeserialize(using = VerdictMapDeserializer.class)
+@JsonSerialize(using = MapSerializer.class)
+public class VerdictMap extends NamedMap<VerdictStatement> {
+
+    public VerdictMap() {
+    }
+
+    public VerdictMap(java.util.Map<String, VerdictStatement> elements, List<FlagType> flags, Table table, String name, List<SetType> keyType, int handle, Integer size, Integer timeout, Integer gcInterval, SetPolicy policy, String comment) {
+        super(elements, flags, table, name, keyType, handle, size, timeout, gcInterval, policy, comment);
+    }
+
+    @Override
+    public String getDataTypeValue() {
+        return "verdict";
+    }
+}
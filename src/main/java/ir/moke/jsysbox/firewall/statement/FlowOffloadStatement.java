@@ -0,0 +1,34 @@
+package ir.moke.jsysbox.firewall.statement;
+
+import ir.moke.jsysbox.firewall.model.Flowtable;
+
+/**
+ * Add the flow of the packet to a flowtable, later packets of the flow take the fastpath.
+ * <p>
+ * Usually placed in a forward chain after the connection is established.
+ * <p>
+ * example : {@code ip protocol { tcp, udp } flow add @ft}
+ */
+public class FlowOffloadStatement implements Statement {
+    private final String flowtable;
+
+    /**
+     * @param flowtable name of flowtable in the table of the rule
+     */
+    public FlowOffloadStatement(String flowtable) {
+        this.flowtable = flowtable;
+    }
+
+    public FlowOffloadStatement(Flowtable flowtable) {
+        this(flowtable.getName());
+    }
+
+    public String getFlowtable() {
+        return flowtable;
+    }
+
+    @Override
+    public String toString() {
+        return "flow add @%s".formatted(flowtable);
+    }
+}
@@ -1,15 +1,19 @@
 package ir.moke.jsysbox.firewall.statement;
 
 import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.Selector;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class NatStatement implements Statement {
     private final List<Flag> flags;
     private Type type = Type.MASQUERADE;
     private String address;
     private Integer port;
+    private List<Selector> mapKey;
+    private String map;
 
     public NatStatement(Type type, String address, Integer port, List<Flag> flags) {
         this.type = type;
@@ -35,6 +39,21 @@ public class NatStatement implements Statement {
         this.flags = flags;
     }
 
+    /**
+     * target looked up in a named map, e.g. {@code dnat to ip daddr . tcp dport map @targets}
+     *
+     * @param type  {@link Type#SNAT} or {@link Type#DNAT}
+     * @param key   looked up fields
+     * @param map   name of map with address or address . port values
+     * @param flags nat flags {@link Flag}
+     */
+    public NatStatement(Type type, List<Selector> key, String map, List<Flag> flags) {
+        this.type = type;
+        this.mapKey = key;
+        this.map = map;
+        this.flags = flags;
+    }
+
     /**
      * This constructor usable for masquerade
      *
@@ -60,29 +79,48 @@ public class NatStatement implements Statement {
         return flags;
     }
 
+    /**
+     * @return looked up fields of map target, null when target is an address
+     */
+    public List<Selector> getMapKey() {
+        return mapKey;
+    }
+
+    /**
+     * @return name of map target, null when target is an address
+     */
+    public String getMap() {
+        return map;
+    }
+
     @Override
     public String toString() {
         String result = "";
-        switch (type) {
-            case DNAT -> {
-                if (port != null) {
-                    result = "dnat to %s:%s".formatted(address, port);
-                } else {
-                    result = "dnat to %s".formatted(address);
+        if (map != null && (type == Type.DNAT || type == Type.SNAT)) {
+            String key = mapKey.stream().map(Selector::toString).collect(Collectors.joining(" . "));
+            result = "%s to %s map @%s".formatted(type.name().toLowerCase(), key, map);
+        } else {
+            switch (type) {
+                case DNAT -> {
+                    if (port != null) {
+                        result = "dnat to %s:%s".formatted(address, port);
+                    } else {
+                        result = "dnat to %s".formatted(address);
+                    }
                 }
-            }
-            case SNAT -> {
-                if (port != null) {
-                    result = "snat to %s:%s".formatted(address, port);
-                } else {
-                    result = "snat to %s".formatted(address);
+                case SNAT -> {
+                    if (port != null) {
+                        result = "snat to %s:%s".formatted(address, port);
+                    } else {
+                        result = "snat to %s".formatted(address);
+                    }
                 }
+                case REDIRECT -> {
+                    if (port == null) throw new JSysboxException("Port can not be empty");
+                    result = "redirect to %s".formatted(port);
+                }
+                case MASQUERADE -> result = "masquerade";
             }
-            case REDIRECT -> {
-                if (port == null) throw new JSysboxException("Port can not be empty");
-                result = "redirect to %s".formatted(port);
-            }
-            case MASQUERADE -> result = "masquerade";
         }
         if (flags != null) {
             String flagStr = String.join(",", flags.stream().map(Flag::getValue).toList());
@@ -15,6 +15,7 @@ public class RejectStatement implements Statement {
 
     @Override
     public String toString() {
+        if (reason == null) return "reject";
         return switch (reason) {
             case HOST_UNREACHABLE,
                  NET_UNREACHABLE,
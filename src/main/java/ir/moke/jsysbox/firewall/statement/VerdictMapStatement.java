@@ -0,0 +1,92 @@
+package ir.moke.jsysbox.firewall.statement;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.expression.Expression;
+import ir.moke.jsysbox.firewall.expression.MatchType;
+import ir.moke.jsysbox.firewall.expression.Selector;
+import ir.moke.jsysbox.firewall.model.VerdictMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Verdict map lookup, applies the verdict of the element matching the packet key.
+ * <p>
+ * The map is anonymous, given as elements, or a named {@link VerdictMap}. Keys of more than one
+ * field are concatenations.
+ * <p>
+ * example : {@code ip saddr vmap { 10.0.0.1 : accept, 10.0.0.0/8 : drop }},
+ * {@code ip saddr . tcp dport vmap @tenants}
+ */
+public class VerdictMapStatement implements Statement {
+    private final List<Selector> key;
+    private final Map<String, VerdictStatement> elements;
+    private final String map;
+
+    /**
+     * @param matchType protocol of looked up field
+     * @param field     looked up field
+     * @param elements  verdict by element, elements must not overlap
+     */
+    public VerdictMapStatement(MatchType matchType, Expression.Field field, Map<String, VerdictStatement> elements) {
+        this(List.of(new Selector(matchType, field)), elements);
+    }
+
+    /**
+     * @param key      looked up fields
+     * @param elements verdict by element, elements must not overlap
+     */
+    public VerdictMapStatement(List<Selector> key, Map<String, VerdictStatement> elements) {
+        this.key = key;
+        this.elements = elements;
+        this.map = null;
+    }
+
+    /**
+     * @param key looked up fields
+     * @param map named verdict map
+     */
+    public VerdictMapStatement(List<Selector> key, VerdictMap map) {
+        this(key, map.getName());
+    }
+
+    /**
+     * @param key looked up fields
+     * @param map name of verdict map
+     */
+    public VerdictMapStatement(List<Selector> key, String map) {
+        this.key = key;
+        this.elements = null;
+        this.map = map;
+    }
+
+    public List<Selector> getKey() {
+        return key;
+    }
+
+    /**
+     * @return elements of anonymous map, null for named map
+     */
+    public Map<String, VerdictStatement> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return name of verdict map, null for anonymous map
+     */
+    public String getMap() {
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        String selector = key.stream().map(Selector::toString).collect(Collectors.joining(" . "));
+        if (map != null) return "%s vmap @%s".formatted(selector, map);
+        if (elements == null || elements.isEmpty()) throw new JSysboxException("verdict map could not be empty");
+        String data = elements.entrySet().stream()
+                .map(item -> item.getKey() + " : " + item.getValue())
+                .collect(Collectors.joining(", "));
+        return "%s vmap { %s }".formatted(selector, data);
+    }
+}
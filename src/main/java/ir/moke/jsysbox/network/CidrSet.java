@@ -0,0 +1,675 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Set of IPv4 and IPv6 addresses stored as sorted, non overlapping address intervals.
+ * <p>
+ * Intervals live in primitive {@code long[]} arrays, an address is a 128 bit number of two longs
+ * (IPv4 uses the low 32 bits), no object is kept per address or per prefix. Adjacent and
+ * overlapping input collapses on the fly, so millions of addresses become a few intervals.
+ * <p>
+ * Accepted elements: {@code 10.0.0.1}, {@code 10.0.0.0/8}, {@code 10.0.0.1-10.0.0.9} and the
+ * same forms of IPv6.
+ * <p>
+ * example :
+ * <pre>
+ * CidrSet blocklist = CidrSet.of(Files.lines(path));
+ * List&lt;String&gt; cidrs = blocklist.difference(CidrSet.of(List.of("10.0.0.0/8"))).toCidrs();
+ * </pre>
+ */
+public final class CidrSet {
+    private static final long IPV4_MAX = 0xFFFFFFFFL;
+    private final Ranges ipv4 = new Ranges(32);
+    private final Ranges ipv6 = new Ranges(128);
+
+    public CidrSet() {
+    }
+
+    public static CidrSet of(Iterator<String> elements) {
+        CidrSet cidrSet = new CidrSet();
+        while (elements.hasNext()) {
+            String element = elements.next();
+            if (element != null && !element.isBlank()) cidrSet.add(element);
+        }
+        return cidrSet;
+    }
+
+    public static CidrSet of(Iterable<String> elements) {
+        return of(elements.iterator());
+    }
+
+    public static CidrSet of(Stream<String> elements) {
+        try (elements) {
+            return of(elements.iterator());
+        }
+    }
+
+    /**
+     * @param element address, prefix or range of addresses
+     */
+    public CidrSet add(String element) {
+        String item = element.trim();
+        int dash = item.indexOf('-');
+        int slash = item.indexOf('/');
+        if (dash > 0) {
+            String first = item.substring(0, dash).trim();
+            String last = item.substring(dash + 1).trim();
+            if (isIpv6(first) != isIpv6(last)) throw new JSysboxException("Invalid address range %s".formatted(element));
+            if (isIpv6(first)) {
+                long[] start = parseIpv6(first);
+                long[] end = parseIpv6(last);
+                ipv6.add(start[0], start[1], end[0], end[1]);
+            } else {
+                ipv4.add(0, parseIpv4(first), 0, parseIpv4(last));
+            }
+        } else if (slash > 0) {
+            String address = item.substring(0, slash);
+            int length = parsePrefixLength(item.substring(slash + 1), isIpv6(address) ? 128 : 32, element);
+            if (isIpv6(address)) {
+                long[] start = parseIpv6(address);
+                long maskHi = hostMaskHi(128 - length);
+                long maskLo = hostMaskLo(128 - length);
+                ipv6.add(start[0] & ~maskHi, start[1] & ~maskLo, start[0] | maskHi, start[1] | maskLo);
+            } else {
+                long start = parseIpv4(address);
+                long mask = hostMaskLo(32 - length);
+                ipv4.add(0, start & ~mask, 0, start | mask);
+            }
+        } else if (isIpv6(item)) {
+            long[] address = parseIpv6(item);
+            ipv6.add(address[0], address[1], address[0], address[1]);
+        } else {
+            long address = parseIpv4(item);
+            ipv4.add(0, address, 0, address);
+        }
+        return this;
+    }
+
+    /**
+     * add IPv4 addresses from {@code start} to {@code end}, addresses as unsigned int
+     */
+    public CidrSet addIpv4(int start, int end) {
+        ipv4.add(0, start & IPV4_MAX, 0, end & IPV4_MAX);
+        return this;
+    }
+
+    public CidrSet addAll(CidrSet other) {
+        other.ipv4.normalized().forEach(ipv4::add);
+        other.ipv6.normalized().forEach(ipv6::add);
+        return this;
+    }
+
+    public CidrSet union(CidrSet other) {
+        CidrSet result = new CidrSet();
+        Ranges.union(ipv4.normalized(), other.ipv4.normalized(), result.ipv4);
+        Ranges.union(ipv6.normalized(), other.ipv6.normalized(), result.ipv6);
+        return result;
+    }
+
+    public CidrSet intersection(CidrSet other) {
+        CidrSet result = new CidrSet();
+        Ranges.intersection(ipv4.normalized(), other.ipv4.normalized(), result.ipv4);
+        Ranges.intersection(ipv6.normalized(), other.ipv6.normalized(), result.ipv6);
+        return result;
+    }
+
+    /**
+     * @return addresses of this set that are not in {@code other}
+     */
+    public CidrSet difference(CidrSet other) {
+        CidrSet result = new CidrSet();
+        Ranges.difference(ipv4.normalized(), other.ipv4.normalized(), result.ipv4);
+        Ranges.difference(ipv6.normalized(), other.ipv6.normalized(), result.ipv6);
+        return result;
+    }
+
+    public boolean contains(String address) {
+        String item = address.trim();
+        if (isIpv6(item)) {
+            long[] value = parseIpv6(item);
+            return ipv6.normalized().contains(value[0], value[1]);
+        }
+        return ipv4.normalized().contains(0, parseIpv4(item));
+    }
+
+    /**
+     * @param address IPv4 address as unsigned int
+     */
+    public boolean containsIpv4(int address) {
+        return ipv4.normalized().contains(0, address & IPV4_MAX);
+    }
+
+    /**
+     * @param hi high 64 bits of IPv6 address
+     * @param lo low 64 bits of IPv6 address
+     */
+    public boolean containsIpv6(long hi, long lo) {
+        return ipv6.normalized().contains(hi, lo);
+    }
+
+    /**
+     * sort and merge added elements now instead of on the next read, a set not changed afterward
+     * is then only read by lookups and can be shared by threads
+     */
+    public CidrSet normalize() {
+        ipv4.normalized();
+        ipv6.normalized();
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return ipv4.normalized().size == 0 && ipv6.normalized().size == 0;
+    }
+
+    /**
+     * @return number of address intervals, the element count of an nft interval set holding this set
+     */
+    public int intervalCount() {
+        return ipv4.normalized().size + ipv6.normalized().size;
+    }
+
+    /**
+     * @return number of IPv4 addresses
+     */
+    public long ipv4AddressCount() {
+        Ranges ranges = ipv4.normalized();
+        long count = 0;
+        for (int i = 0; i < ranges.size; i++) {
+            count += ranges.data[i * 4 + 3] - ranges.data[i * 4 + 1] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return minimal list of prefixes covering exactly this set, full length prefixes are written as address
+     */
+    public List<String> toCidrs() {
+        List<String> list = new ArrayList<>();
+        cidrs().forEachRemaining(list::add);
+        return list;
+    }
+
+    /**
+     * prefixes are computed and formatted one interval at a time
+     */
+    public Iterator<String> cidrs() {
+        return new CidrIterator();
+    }
+
+    /**
+     * smallest element list for nft interval sets, the way nft lists them: an interval that is exactly
+     * one prefix is written as prefix or address, any other interval as {@code first-last} range
+     */
+    public List<String> toIntervals() {
+        List<String> list = new ArrayList<>();
+        intervals().forEachRemaining(list::add);
+        return list;
+    }
+
+    public Iterator<String> intervals() {
+        return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < intervalCount();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Ranges ranges = index < ipv4.size ? ipv4 : ipv6;
+                int i = index < ipv4.size ? index : index - ipv4.size;
+                index++;
+                long[] cidrs = ranges.cidrs(i);
+                if (cidrs.length == 3) return format(ranges.bits, cidrs[0], cidrs[1], (int) cidrs[2]);
+                long[] data = ranges.data;
+                return format(ranges.bits, data[i * 4], data[i * 4 + 1], ranges.bits) + "-" + format(ranges.bits, data[i * 4 + 2], data[i * 4 + 3], ranges.bits);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return toIntervals().toString();
+    }
+
+    private class CidrIterator implements Iterator<String> {
+        private int index;
+        private long[] current = new long[0];
+        private int position;
+        private Ranges ranges;
+
+        @Override
+        public boolean hasNext() {
+            while (position >= current.length) {
+                if (index >= intervalCount()) return false;
+                ranges = index < ipv4.size ? ipv4 : ipv6;
+                current = ranges.cidrs(index < ipv4.size ? index : index - ipv4.size);
+                position = 0;
+                index++;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String cidr = format(ranges.bits, current[position], current[position + 1], (int) current[position + 2]);
+            position += 3;
+            return cidr;
+        }
+    }
+
+    /**
+     * sorted, merged intervals of one address family, 4 longs per interval: start hi, start lo, end hi, end lo
+     */
+    private static final class Ranges {
+        private final int bits;
+        private long[] data = new long[16];
+        private int size;
+        private boolean normalized = true;
+
+        private Ranges(int bits) {
+            this.bits = bits;
+        }
+
+        @FunctionalInterface
+        private interface Consumer {
+            void accept(long startHi, long startLo, long endHi, long endLo);
+        }
+
+        private void add(long startHi, long startLo, long endHi, long endLo) {
+            if (compare(startHi, startLo, endHi, endLo) > 0) {
+                add(endHi, endLo, startHi, startLo);
+                return;
+            }
+            // in order input keeps the intervals normalized, anything else is sorted on next read
+            if (normalized && size > 0 && !after(startHi, startLo, size - 1)) normalized = false;
+            ensureCapacity(size + 1);
+            int i = size * 4;
+            data[i] = startHi;
+            data[i + 1] = startLo;
+            data[i + 2] = endHi;
+            data[i + 3] = endLo;
+            size++;
+        }
+
+        /**
+         * append interval whose start is not lower than start of the last interval, merge when it touches the last one
+         */
+        private void append(long startHi, long startLo, long endHi, long endLo) {
+            if (size > 0 && !after(startHi, startLo, size - 1)) {
+                int last = (size - 1) * 4;
+                if (compare(endHi, endLo, data[last + 2], data[last + 3]) > 0) {
+                    data[last + 2] = endHi;
+                    data[last + 3] = endLo;
+                }
+                return;
+            }
+            ensureCapacity(size + 1);
+            int i = size * 4;
+            data[i] = startHi;
+            data[i + 1] = startLo;
+            data[i + 2] = endHi;
+            data[i + 3] = endLo;
+            size++;
+        }
+
+        /**
+         * @return true when address is beyond end + 1 of interval, so there is a gap between them
+         */
+        private boolean after(long hi, long lo, int index) {
+            long endHi = data[index * 4 + 2];
+            long endLo = data[index * 4 + 3];
+            if (endHi == -1L && endLo == -1L) return false;
+            return compare(hi, lo, incHi(endHi, endLo), endLo + 1) > 0;
+        }
+
+        private Ranges normalized() {
+            if (normalized) return this;
+            long[] source = data;
+            int count = size;
+            data = new long[Math.max(16, count * 4)];
+            size = 0;
+            if (bits == 32) {
+                // IPv4 interval fits one long, start in the high half, flip the sign bit for unsigned order
+                long[] packed = new long[count];
+                for (int k = 0; k < count; k++) packed[k] = ((source[k * 4 + 1] << 32) | source[k * 4 + 3]) ^ Long.MIN_VALUE;
+                Arrays.sort(packed);
+                for (long item : packed) {
+                    item ^= Long.MIN_VALUE;
+                    append(0, item >>> 32, 0, item & IPV4_MAX);
+                }
+            } else {
+                for (int index : sort(source, count)) {
+                    int i = index * 4;
+                    append(source[i], source[i + 1], source[i + 2], source[i + 3]);
+                }
+            }
+            normalized = true;
+            return this;
+        }
+
+        /**
+         * bottom up merge sort of interval indexes by start address
+         */
+        private static int[] sort(long[] data, int size) {
+            int[] source = new int[size];
+            int[] target = new int[size];
+            for (int i = 0; i < size; i++) source[i] = i;
+            for (int width = 1; width < size; width *= 2) {
+                for (int low = 0; low < size; low += 2 * width) {
+                    int middle = Math.min(low + width, size);
+                    int high = Math.min(low + 2 * width, size);
+                    int left = low, right = middle, k = low;
+                    while (left < middle && right < high) {
+                        int a = source[left] * 4, b = source[right] * 4;
+                        target[k++] = compare(data[a], data[a + 1], data[b], data[b + 1]) <= 0 ? source[left++] : source[right++];
+                    }
+                    while (left < middle) target[k++] = source[left++];
+                    while (right < high) target[k++] = source[right++];
+                }
+                int[] swap = source;
+                source = target;
+                target = swap;
+            }
+            return source;
+        }
+
+        private void forEach(Consumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(data[i * 4], data[i * 4 + 1], data[i * 4 + 2], data[i * 4 + 3]);
+            }
+        }
+
+        private boolean contains(long hi, long lo) {
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int i = middle * 4;
+                if (compare(hi, lo, data[i], data[i + 1]) < 0) {
+                    high = middle - 1;
+                } else if (compare(hi, lo, data[i + 2], data[i + 3]) > 0) {
+                    low = middle + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * split interval in the largest aligned prefixes
+         *
+         * @return 3 longs per prefix: address hi, address lo, prefix length
+         */
+        private long[] cidrs(int index) {
+            int i = index * 4;
+            long startHi = data[i], startLo = data[i + 1];
+            long endHi = data[i + 2], endLo = data[i + 3];
+            long[] result = new long[6];
+            int count = 0;
+            while (true) {
+                int host = Math.min(trailingZeros(startHi, startLo), bits);
+                while (host > 0 && compare(startHi | hostMaskHi(host), startLo | hostMaskLo(host), endHi, endLo) > 0) {
+                    host--;
+                }
+                if (count + 3 > result.length) result = Arrays.copyOf(result, result.length * 2);
+                result[count++] = startHi;
+                result[count++] = startLo;
+                result[count++] = bits - host;
+
+                long lastHi = startHi | hostMaskHi(host);
+                long lastLo = startLo | hostMaskLo(host);
+                if (compare(lastHi, lastLo, endHi, endLo) >= 0) break;
+                startHi = incHi(lastHi, lastLo);
+                startLo = lastLo + 1;
+            }
+            return count == result.length ? result : Arrays.copyOf(result, count);
+        }
+
+        private void ensureCapacity(int intervals) {
+            if (intervals * 4 > data.length) data = Arrays.copyOf(data, Math.max(intervals * 4, data.length * 2));
+        }
+
+        private static void union(Ranges a, Ranges b, Ranges result) {
+            int i = 0, j = 0;
+            while (i < a.size || j < b.size) {
+                boolean fromA = j >= b.size || (i < a.size && a.compareStartWith(i, b, j) <= 0);
+                Ranges source = fromA ? a : b;
+                int k = (fromA ? i++ : j++) * 4;
+                result.append(source.data[k], source.data[k + 1], source.data[k + 2], source.data[k + 3]);
+            }
+        }
+
+        private static void intersection(Ranges a, Ranges b, Ranges result) {
+            int i = 0, j = 0;
+            while (i < a.size && j < b.size) {
+                long[] x = a.data, y = b.data;
+                int p = i * 4, q = j * 4;
+                boolean startA = compare(x[p], x[p + 1], y[q], y[q + 1]) >= 0;
+                long startHi = startA ? x[p] : y[q], startLo = startA ? x[p + 1] : y[q + 1];
+                boolean endA = compare(x[p + 2], x[p + 3], y[q + 2], y[q + 3]) <= 0;
+                long endHi = endA ? x[p + 2] : y[q + 2], endLo = endA ? x[p + 3] : y[q + 3];
+                if (compare(startHi, startLo, endHi, endLo) <= 0) result.append(startHi, startLo, endHi, endLo);
+                if (endA) i++;
+                else j++;
+            }
+        }
+
+        private static void difference(Ranges a, Ranges b, Ranges result) {
+            int j = 0;
+            long[] y = b.data;
+            for (int i = 0; i < a.size; i++) {
+                int p = i * 4;
+                long startHi = a.data[p], startLo = a.data[p + 1];
+                long endHi = a.data[p + 2], endLo = a.data[p + 3];
+                while (j < b.size && compare(y[j * 4 + 2], y[j * 4 + 3], startHi, startLo) < 0) j++;
+
+                boolean covered = false;
+                for (int k = j; k < b.size && compare(y[k * 4], y[k * 4 + 1], endHi, endLo) <= 0; k++) {
+                    int q = k * 4;
+                    if (compare(y[q], y[q + 1], startHi, startLo) > 0) {
+                        result.append(startHi, startLo, decHi(y[q], y[q + 1]), y[q + 1] - 1);
+                    }
+                    if (compare(y[q + 2], y[q + 3], endHi, endLo) >= 0) {
+                        covered = true;
+                        break;
+                    }
+                    startHi = incHi(y[q + 2], y[q + 3]);
+                    startLo = y[q + 3] + 1;
+                }
+                if (!covered) result.append(startHi, startLo, endHi, endLo);
+            }
+        }
+
+        private int compareStartWith(int index, Ranges other, int otherIndex) {
+            return compare(data[index * 4], data[index * 4 + 1], other.data[otherIndex * 4], other.data[otherIndex * 4 + 1]);
+        }
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int result = Long.compareUnsigned(aHi, bHi);
+        return result != 0 ? result : Long.compareUnsigned(aLo, bLo);
+    }
+
+    private static long incHi(long hi, long lo) {
+        return lo == -1L ? hi + 1 : hi;
+    }
+
+    private static long decHi(long hi, long lo) {
+        return lo == 0 ? hi - 1 : hi;
+    }
+
+    private static int trailingZeros(long hi, long lo) {
+        return lo != 0 ? Long.numberOfTrailingZeros(lo) : 64 + Long.numberOfTrailingZeros(hi);
+    }
+
+    private static long hostMaskHi(int host) {
+        if (host <= 64) return 0;
+        return host == 128 ? -1L : (1L << (host - 64)) - 1;
+    }
+
+    private static long hostMaskLo(int host) {
+        return host >= 64 ? -1L : (1L << host) - 1;
+    }
+
+    private static boolean isIpv6(String address) {
+        return address.indexOf(':') >= 0;
+    }
+
+    private static int parsePrefixLength(String value, int max, String element) {
+        try {
+            int length = Integer.parseInt(value.trim());
+            if (length >= 0 && length <= max) return length;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new JSysboxException("Invalid prefix %s".formatted(element));
+    }
+
+    private static long parseIpv4(String address) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = 0; i <= address.length(); i++) {
+            char c = i < address.length() ? address.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) break;
+            } else if (c == '.' && octet >= 0 && octets < 4) {
+                value = (value << 8) | octet;
+                octets++;
+                octet = -1;
+            } else {
+                octets = -1;
+                break;
+            }
+        }
+        if (octets != 4) throw new JSysboxException("Invalid IPv4 address %s".formatted(address));
+        return value;
+    }
+
+    /**
+     * @return high and low 64 bits of address
+     */
+    private static long[] parseIpv6(String address) {
+        String item = address;
+        int zone = item.indexOf('%');
+        if (zone >= 0) item = item.substring(0, zone);
+
+        int[] groups = new int[8];
+        int count = 0;
+        int compressed = -1;
+        int length = item.length();
+        int i = 0;
+        if (item.startsWith("::")) {
+            compressed = 0;
+            i = 2;
+        }
+        while (i < length) {
+            int next = item.indexOf(':', i);
+            String group = next < 0 ? item.substring(i) : item.substring(i, next);
+            if (group.indexOf('.') >= 0 && next < 0 && count <= 6) {
+                long ipv4 = parseIpv4(group);
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xFFFF);
+                break;
+            }
+            if (group.isEmpty() || group.length() > 4 || count >= 8) throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+            try {
+                groups[count++] = Integer.parseInt(group, 16);
+            } catch (NumberFormatException e) {
+                throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+            }
+            if (next < 0) break;
+            if (next + 1 < length && item.charAt(next + 1) == ':') {
+                if (compressed >= 0) throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+                compressed = count;
+                i = next + 2;
+            } else {
+                if (next + 1 == length) throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+                i = next + 1;
+            }
+        }
+        if (compressed >= 0) {
+            int shift = 8 - count;
+            if (shift <= 0) throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+            System.arraycopy(groups, compressed, groups, compressed + shift, count - compressed);
+            for (int k = compressed; k < compressed + shift; k++) groups[k] = 0;
+        } else if (count != 8) {
+            throw new JSysboxException("Invalid IPv6 address %s".formatted(address));
+        }
+
+        long hi = 0, lo = 0;
+        for (int k = 0; k < 4; k++) hi = (hi << 16) | groups[k];
+        for (int k = 4; k < 8; k++) lo = (lo << 16) | groups[k];
+        return new long[]{hi, lo};
+    }
+
+    private static String format(int bits, long hi, long lo, int prefix) {
+        String address = bits == 32 ? formatIpv4(lo) : formatIpv6(hi, lo);
+        return prefix == bits ? address : address + "/" + prefix;
+    }
+
+    private static String formatIpv4(long value) {
+        return ((value >> 24) & 0xFF) + "." + ((value >> 16) & 0xFF) + "." + ((value >> 8) & 0xFF) + "." + (value & 0xFF);
+    }
+
+    /**
+     * RFC 5952 text: lower case, longest run of two or more zero groups replaced by ::
+     */
+    private static String formatIpv6(long hi, long lo) {
+        int[] groups = new int[8];
+        for (int k = 0; k < 4; k++) {
+            groups[k] = (int) ((hi >>> (48 - k * 16)) & 0xFFFF);
+            groups[k + 4] = (int) ((lo >>> (48 - k * 16)) & 0xFFFF);
+        }
+        int bestStart = -1, bestLength = 1;
+        for (int k = 0; k < 8; ) {
+            if (groups[k] != 0) {
+                k++;
+                continue;
+            }
+            int start = k;
+            while (k < 8 && groups[k] == 0) k++;
+            if (k - start > bestLength) {
+                bestStart = start;
+                bestLength = k - start;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < 8; k++) {
+            if (k == bestStart) {
+                sb.append("::");
+                k += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') sb.append(':');
+            sb.append(Integer.toHexString(groups[k]));
+        }
+        return sb.toString();
+    }
+}
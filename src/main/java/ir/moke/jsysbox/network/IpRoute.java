@@ -0,0 +1,285 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * IPv4 or IPv6 route of any routing table, as reported and installed by {@link RouteEngine}.
+ * <p>
+ * example :
+ * <pre>
+ * IpRoute route = IpRoute.of("10.20.0.0/16", "192.168.1.1", "eth0").withTable(100).withMetric(10);
+ * IpRoute blackhole = IpRoute.of(IpRoute.Type.BLACKHOLE, "2001:db8::/32");
+ * </pre>
+ *
+ * @param family      address family
+ * @param table       routing table id, see {@link #MAIN_TABLE}
+ * @param destination network address, 0.0.0.0 or :: for default routes
+ * @param prefix      prefix length of destination
+ * @param tos         type of service the route matches, ipv4 only, 0 matches any
+ * @param gateway     next hop address, null for directly connected and non unicast routes
+ * @param iface       output interface, null when the kernel picks it from gateway
+ * @param metric      route priority, lower wins
+ * @param type        route type
+ * @param protocol    origin of the route, see {@link #PROTOCOL_STATIC}
+ * @param scope       distance to destination, see {@link #SCOPE_UNIVERSE}
+ * @param source      preferred source address, null when not set
+ */
+public record IpRoute(Family family,
+                      int table,
+                      String destination,
+                      int prefix,
+                      int tos,
+                      String gateway,
+                      String iface,
+                      int metric,
+                      Type type,
+                      int protocol,
+                      int scope,
+                      String source) {
+    public static final int DEFAULT_TABLE = 253;
+    public static final int MAIN_TABLE = 254;
+    public static final int LOCAL_TABLE = 255;
+
+    public static final int PROTOCOL_KERNEL = 2;
+    public static final int PROTOCOL_BOOT = 3;
+    public static final int PROTOCOL_STATIC = 4;
+
+    public static final int SCOPE_UNIVERSE = 0;
+    public static final int SCOPE_LINK = 253;
+    public static final int SCOPE_HOST = 254;
+
+    // the kernel stores an IPv6 route of metric 0 with this metric
+    public static final int IPV6_DEFAULT_METRIC = 1024;
+
+    /**
+     * unicast route of the main table with static protocol
+     *
+     * @param destination network with prefix length like 10.0.0.0/8 or 2001:db8::/32, an address without
+     *                    prefix length is a host route, {@code default} is 0.0.0.0/0 or ::/0 by family of gateway.
+     *                    Host bits are cleared, like the kernel does for IPv6. Metric is 0 for IPv4
+     *                    and {@link #IPV6_DEFAULT_METRIC} for IPv6, as the kernel reports them
+     * @param gateway     next hop address or null
+     * @param iface       output interface or null
+     */
+    public static IpRoute of(String destination, String gateway, String iface) {
+        byte[] next = gateway != null ? address(gateway) : null;
+        byte[] network;
+        int prefix;
+        if (destination.equals("default")) {
+            network = new byte[next != null && next.length == 16 ? 16 : 4];
+            prefix = 0;
+        } else {
+            int slash = destination.indexOf('/');
+            network = address(slash < 0 ? destination : destination.substring(0, slash));
+            try {
+                prefix = slash < 0 ? network.length * 8 : Integer.parseInt(destination.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new JSysboxException("Invalid prefix length: " + destination);
+            }
+            if (prefix < 0 || prefix > network.length * 8) throw new JSysboxException("Invalid prefix length: " + destination);
+            mask(network, prefix);
+        }
+        if (next != null && next.length != network.length) {
+            throw new JSysboxException("Gateway %s is not of the family of %s".formatted(gateway, destination));
+        }
+        Family family = network.length == 4 ? Family.IPV4 : Family.IPV6;
+        // like ip route, an ipv4 route without gateway reaches its destination on the link
+        int scope = family == Family.IPV4 && next == null && iface != null ? SCOPE_LINK : SCOPE_UNIVERSE;
+        return new IpRoute(family, MAIN_TABLE, format(network), prefix, 0, next != null ? format(next) : null,
+                iface, family == Family.IPV4 ? 0 : IPV6_DEFAULT_METRIC, Type.UNICAST, PROTOCOL_STATIC, scope, null);
+    }
+
+    /**
+     * route without next hop, like blackhole, unreachable, prohibit or throw
+     */
+    public static IpRoute of(Type type, String destination) {
+        IpRoute route = of(destination, null, null);
+        return new IpRoute(route.family, route.table, route.destination, route.prefix, 0, null, null,
+                route.metric, type, route.protocol, SCOPE_UNIVERSE, null);
+    }
+
+    public IpRoute withTable(int table) {
+        if (table <= 0) throw new JSysboxException("Invalid routing table: " + table);
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, source);
+    }
+
+    public IpRoute withMetric(int metric) {
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, source);
+    }
+
+    public IpRoute withProtocol(int protocol) {
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, source);
+    }
+
+    public IpRoute withTos(int tos) {
+        if (family != Family.IPV4 || tos < 0 || tos > 255) throw new JSysboxException("Invalid type of service for %s: %s".formatted(this, tos));
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, source);
+    }
+
+    public IpRoute withSource(String source) {
+        String address = source != null ? format(address(source)) : null;
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, address);
+    }
+
+    public RouteKey key() {
+        return new RouteKey(family, table, destination, prefix, tos, metric);
+    }
+
+    public boolean isDefault() {
+        return prefix == 0;
+    }
+
+    /**
+     * @param address IPv4 or IPv6 literal, host names are not resolved
+     * @return address bytes, 4 or 16
+     */
+    static byte[] address(String address) {
+        boolean literal = address.indexOf(':') >= 0 || (!address.isEmpty() && address.chars().allMatch(c -> c == '.' || (c >= '0' && c <= '9')));
+        if (!literal) throw new JSysboxException("Invalid ip address: " + address);
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            throw new JSysboxException("Invalid ip address: " + address);
+        }
+    }
+
+    /**
+     * @return dotted IPv4 or compressed IPv6 form, the same string for the same address
+     */
+    static String format(byte[] address) {
+        if (address.length == 4) {
+            return (address[0] & 0xFF) + "." + (address[1] & 0xFF) + "." + (address[2] & 0xFF) + "." + (address[3] & 0xFF);
+        }
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) groups[i] = ((address[i * 2] & 0xFF) << 8) | (address[i * 2 + 1] & 0xFF);
+        // longest run of zero groups, at least two, becomes ::
+        int bestStart = -1, bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < 8 && groups[i] == 0) i++;
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (!sb.isEmpty() && sb.charAt(sb.length() - 1) != ':') sb.append(':');
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+
+    private static void mask(byte[] address, int prefix) {
+        for (int i = 0; i < address.length; i++) {
+            int bits = Math.max(0, Math.min(8, prefix - i * 8));
+            address[i] &= (byte) (0xFF00 >> bits);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (type != Type.UNICAST) sb.append(type).append(' ');
+        sb.append(isDefault() ? "default" : destination + "/" + prefix);
+        if (gateway != null) sb.append(" via ").append(gateway);
+        if (iface != null) sb.append(" dev ").append(iface);
+        if (table != MAIN_TABLE) sb.append(" table ").append(table);
+        if (tos != 0) sb.append(" tos 0x").append(Integer.toHexString(tos));
+        if (source != null) sb.append(" src ").append(source);
+        if (metric != 0) sb.append(" metric ").append(metric);
+        return sb.toString();
+    }
+
+    public enum Family {
+        IPV4(2),
+        IPV6(10);
+
+        private final int value;
+
+        Family(int value) {
+            this.value = value;
+        }
+
+        public static Family fromValue(int value) {
+            return Arrays.stream(Family.class.getEnumConstants())
+                    .filter(item -> item.getValue() == value)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        /**
+         * @return AF_INET or AF_INET6
+         */
+        public int getValue() {
+            return value;
+        }
+    }
+
+    public enum Type {
+        UNICAST(1, "unicast"),
+        LOCAL(2, "local"),
+        BROADCAST(3, "broadcast"),
+        ANYCAST(4, "anycast"),
+        MULTICAST(5, "multicast"),
+        BLACKHOLE(6, "blackhole"),
+        UNREACHABLE(7, "unreachable"),
+        PROHIBIT(8, "prohibit"),
+        THROW(9, "throw"),
+        NAT(10, "nat");
+
+        private final int value;
+        private final String name;
+
+        Type(int value, String name) {
+            this.value = value;
+            this.name = name;
+        }
+
+        public static Type fromValue(int value) {
+            return Arrays.stream(Type.class.getEnumConstants())
+                    .filter(item -> item.getValue() == value)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        /**
+         * @return RTN_* value
+         */
+        public int getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -35,8 +35,10 @@ import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class JNetwork {
-    private static final Path ROUTE_TABLE_PATH = Paths.get("/proc/net/route");
-    private static final Path ETHERNET_STATISTICS_PATH = Paths.get("/proc/net/dev");
+    // /proc/net follows the main thread, thread-self follows the network namespace of the calling thread
+    private static final Path PROC_NET_PATH = Paths.get("/proc/thread-self/net");
+    private static final Path ROUTE_TABLE_PATH = PROC_NET_PATH.resolve("route");
+    private static final Path ETHERNET_STATISTICS_PATH = PROC_NET_PATH.resolve("dev");
     private static final Path SYS_NET_PATH = Paths.get("/sys/class/net");
     private static final int DEFAULT_METRICS = 600;
 
@@ -78,6 +80,45 @@ public class JNetwork {
 
     private native static void initResolve();
 
+    /**
+     * open rtnetlink socket, in the network namespace of the calling thread
+     *
+     * @param bufferSize socket send and receive buffer size in bytes
+     * @return socket file descriptor
+     */
+    native static int rtnetlinkOpen(int bufferSize);
+
+    /**
+     * send netlink messages to the kernel with one sendto
+     */
+    native static void rtnetlinkSend(int fd, byte[] buffer, int length);
+
+    /**
+     * wait for a reply and read one datagram
+     *
+     * @return bytes read
+     */
+    native static int rtnetlinkReceive(int fd, byte[] buffer, int timeout);
+
+    /**
+     * @return socket receive buffer size in bytes, as charged by the kernel
+     */
+    native static int rtnetlinkBufferSize(int fd);
+
+    native static void rtnetlinkClose(int fd);
+
+    native static String strerror(int error);
+
+    /**
+     * @return interface index in the network namespace of the calling thread, 0 when missing
+     */
+    native static int ifIndex(String iface);
+
+    /**
+     * @return interface name in the network namespace of the calling thread, null when missing
+     */
+    native static String ifName(int index);
+
     public static void flush(String iface) throws JSysboxException {
         setIp(iface, "0.0.0.0", "");
     }
@@ -97,10 +138,20 @@ public class JNetwork {
         }
     }
 
+    /**
+     * sysfs shows the network namespace it was mounted in, the address is read through a socket of the calling thread
+     *
+     * @param iface interface name
+     * @return hardware address like 52:54:00:12:34:56
+     */
     public static String getMacAddress(String iface) {
         try {
-            return Files.readString(SYS_NET_PATH.resolve(iface).resolve(Path.of("address"))).trim();
-        } catch (IOException e) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(iface);
+            if (networkInterface == null) throw new JSysboxException("No such device " + iface);
+            byte[] address = networkInterface.getHardwareAddress();
+            if (address == null) address = new byte[6];
+            return HexFormat.ofDelimiter(":").formatHex(address);
+        } catch (SocketException e) {
             throw new JSysboxException(e);
         }
     }
@@ -202,6 +253,10 @@ public class JNetwork {
         updateRoute("0.0.0.0", "0.0.0.0", gateway, null, 600, false, false);
     }
 
+    /**
+     * @deprecated row ids move whenever a route is added or removed, please use deleteRoute(RouteKey)
+     */
+    @Deprecated
     public static void deleteRoute(int id) throws JSysboxException {
         Optional<Route> optionalRoute = route().stream()
                 .filter(item -> item.getId() == id)
@@ -225,6 +280,29 @@ public class JNetwork {
         return routeList;
     }
 
+    /**
+     * @return routes of all tables, IPv4 and IPv6, read over rtnetlink
+     */
+    public static List<IpRoute> routes() {
+        try (RouteEngine engine = RouteEngine.open()) {
+            return engine.routes();
+        }
+    }
+
+    /**
+     * @param route route, fails when a route of the same key exists
+     */
+    public static void addRoute(IpRoute route) throws JSysboxException {
+        new RouteBatch().add(route).commit().requireSuccess();
+    }
+
+    /**
+     * @param key key of route, see {@link IpRoute#key()}
+     */
+    public static void deleteRoute(RouteKey key) throws JSysboxException {
+        new RouteBatch().delete(key).commit().requireSuccess();
+    }
+
     public static boolean isRouteExists(String destination, String netmask, String gateway, String iface, Integer metrics) {
         Optional<Route> optionalRoute = route()
                 .stream()
@@ -394,7 +472,7 @@ public class JNetwork {
     public static List<Netstat> netstatIpv4() {
         try {
             List<Netstat> netstatList = new ArrayList<>();
-            Files.readAllLines(Path.of("/proc/net/tcp"))
+            Files.readAllLines(PROC_NET_PATH.resolve("tcp"))
                     .stream()
                     .skip(1)
                     .map(String::trim)
@@ -402,7 +480,7 @@ public class JNetwork {
                     .map(item -> mapToNetstat(item, Netstat.Protocol.TCP))
                     .forEach(netstatList::add);
 
-            Files.readAllLines(Path.of("/proc/net/udp"))
+            Files.readAllLines(PROC_NET_PATH.resolve("udp"))
                     .stream()
                     .skip(1)
                     .map(String::trim)
@@ -410,7 +488,7 @@ public class JNetwork {
                     .map(item -> mapToNetstat(item, Netstat.Protocol.UDP))
                     .forEach(netstatList::add);
 
-            Files.readAllLines(Path.of("/proc/net/udplite"))
+            Files.readAllLines(PROC_NET_PATH.resolve("udplite"))
                     .stream()
                     .skip(1)
                     .map(String::trim)
@@ -0,0 +1,256 @@
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.JniNativeLoader;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * Handle of a network namespace, an open descriptor of its {@code ns/net} file.
+ * <p>
+ * The network namespace is an attribute of a thread, not of the process. {@link #unshare()} and
+ * {@link #enter()} move only the calling thread, threads started by it inherit its namespace.
+ * Sockets, libnftables contexts and ioctls of jsysbox act on the namespace of the thread that
+ * created them, {@code JFirewall} keeps its sessions and ruleset cache per namespace, see {@link #currentId()}.
+ * The namespace id of a thread is cached, it follows {@link #enter()} and {@link #unshare()} but not
+ * setns() or unshare() called by other native code.
+ * Those are freed once the last handle of the namespace is closed and no thread of the process is
+ * inside it anymore, see {@link #onRelease(LongConsumer)}.
+ * <p>
+ * {@link #run(Runnable)} and {@link #call(Callable)} execute a task on a worker of
+ * {@link NetNsExecutor#common()} inside the namespace, the calling thread does not move.
+ * Entering a namespace needs CAP_SYS_ADMIN in the user namespace that owns it and in the user
+ * namespace of the process, as root or in a process started in its own user namespace
+ * ({@code unshare --user --map-root-user}).
+ * <p>
+ * example :
+ * <pre>
+ * try (NetNs netNs = NetNs.named("blue")) {
+ *     netNs.run(() -&gt; JFirewall.restore(nfTables));
+ *     String ip = netNs.call(() -&gt; JNetwork.getIpAddress("eth0"));
+ * }
+ * </pre>
+ */
+public final class NetNs implements AutoCloseable {
+    private static final Path CURRENT = Path.of("/proc/thread-self/ns/net");
+    private static final Path NAMED = Path.of("/run/netns");
+    private static final Path TASKS = Path.of("/proc/self/task");
+    // open handles per namespace id
+    private static final Map<Long, Integer> handles = new ConcurrentHashMap<>();
+    private static final List<LongConsumer> releaseListeners = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Long> threadNamespace = ThreadLocal.withInitial(NetNs::readCurrentId);
+
+    private final int fd;
+    private final long id;
+    private volatile boolean closed;
+
+    private NetNs(int fd) {
+        this.fd = fd;
+        this.id = inode(fd);
+        handles.merge(id, 1, Integer::sum);
+    }
+
+    /**
+     * the native library is loaded by the first handle, ids and release listeners work without it
+     */
+    private static int open(Path path) {
+        JniNativeLoader.load("jnetwork");
+        return open(path.toString());
+    }
+
+    private native static int open(String path);
+
+    private native static void close(int fd);
+
+    private native static long inode(int fd);
+
+    private native static void setns(int fd);
+
+    private native static void unshareNet();
+
+    /**
+     * @return handle of the network namespace of the calling thread
+     */
+    public static NetNs current() {
+        return new NetNs(open(CURRENT));
+    }
+
+    /**
+     * @param path namespace file, like /proc/[pid]/ns/net or a bind mount of it
+     * @return handle of the namespace
+     */
+    public static NetNs of(Path path) {
+        return new NetNs(open(path));
+    }
+
+    /**
+     * @param pid process id
+     * @return handle of the network namespace of the process
+     */
+    public static NetNs ofPid(long pid) {
+        return of(Path.of("/proc", String.valueOf(pid), "ns", "net"));
+    }
+
+    /**
+     * @param name name of a namespace created by {@code ip netns add}, mounted under /run/netns
+     * @return handle of the namespace
+     */
+    public static NetNs named(String name) {
+        if (name.isEmpty() || name.contains("/") || name.equals(".") || name.equals("..")) {
+            throw new JSysboxException("Invalid network namespace name: " + name);
+        }
+        return of(NAMED.resolve(name));
+    }
+
+    /**
+     * move the calling thread to a new network namespace, it starts with a down loopback interface only
+     *
+     * @return handle of the new namespace
+     */
+    public static NetNs unshare() {
+        JniNativeLoader.load("jnetwork");
+        unshareNet();
+        NetNs netNs = current();
+        threadNamespace.set(netNs.id);
+        return netNs;
+    }
+
+    /**
+     * identifier of the network namespace of the calling thread, the inode of its {@code ns/net} file
+     *
+     * @return namespace identifier, equal to {@link #id()} of its handles
+     */
+    public static long currentId() {
+        return threadNamespace.get();
+    }
+
+    private static long readCurrentId() {
+        try {
+            return id(CURRENT);
+        } catch (IOException | RuntimeException e) {
+            throw new JSysboxException("Failed to read network namespace of thread: " + e.getMessage());
+        }
+    }
+
+    /**
+     * register a listener called with the id of a namespace once its last handle is closed and no thread
+     * of the process is inside it, to free what was kept for the namespace
+     *
+     * @param listener receiver of namespace ids
+     */
+    public static void onRelease(LongConsumer listener) {
+        releaseListeners.add(listener);
+    }
+
+    /**
+     * notify release listeners when the namespace is not used by this process anymore,
+     * called when a handle is closed and when a thread leaves the namespace
+     *
+     * @param id namespace identifier
+     */
+    static void released(long id) {
+        if (releaseListeners.isEmpty() || handles.containsKey(id) || entered(id)) return;
+        releaseListeners.forEach(listener -> listener.accept(id));
+    }
+
+    /**
+     * @return true when a thread of the process is inside the namespace
+     */
+    private static boolean entered(long id) {
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(TASKS)) {
+            for (Path task : tasks) {
+                try {
+                    if (id(task.resolve("ns/net")) == id) return true;
+                } catch (IOException | RuntimeException e) {
+                    // thread exited meanwhile
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static long id(Path path) throws IOException {
+        // link target is net:[inode]
+        String target = Files.readSymbolicLink(path).toString();
+        return Long.parseLong(target.substring(target.indexOf('[') + 1, target.length() - 1));
+    }
+
+    /**
+     * move the calling thread to this namespace
+     */
+    public void enter() {
+        if (closed) throw new JSysboxException("network namespace handle is closed");
+        setns(fd);
+        threadNamespace.set(id);
+    }
+
+    /**
+     * run task inside this namespace and wait for it, see {@link NetNsExecutor}
+     *
+     * @param task task
+     */
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * run task inside this namespace and wait for its result, see {@link NetNsExecutor}
+     *
+     * @param task task
+     * @return result of task
+     */
+    public <T> T call(Callable<T> task) {
+        if (closed) throw new JSysboxException("network namespace handle is closed");
+        try {
+            // already inside, no worker needed
+            if (currentId() == id) return task.call();
+            return NetNsExecutor.common().submit(this, task).join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtimeException) return runtimeException;
+        if (e instanceof Error error) throw error;
+        return new JSysboxException(e);
+    }
+
+    public long id() {
+        return id;
+    }
+
+    /**
+     * close the handle, the namespace stays while a thread, process or mount still refers to it
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        close(fd);
+        handles.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+        released(id);
+    }
+
+    @Override
+    public String toString() {
+        return "net:[%s]".formatted(id);
+    }
+}
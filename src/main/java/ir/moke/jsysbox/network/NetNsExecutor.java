@@ -0,0 +1,194 @@
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of worker threads running tasks inside network namespaces.
+ * <p>
+ * A worker moves to the namespace of a task with setns() before running it and stays there while
+ * more tasks are queued, so a series of tasks of one namespace switches once. An idle worker goes
+ * back to the namespace the executor was created in, it does not keep a removed namespace alive.
+ * Everything a task does through jsysbox (nftables sessions, ioctls, /proc/thread-self/net)
+ * acts on the namespace of the task, threads started by a task inherit it.
+ * <p>
+ * Tasks of many namespaces run in parallel, one per worker. A task must not wait for a task of
+ * another namespace on the same executor, with all workers waiting nothing would run.
+ * <p>
+ * example :
+ * <pre>
+ * try (NetNsExecutor executor = new NetNsExecutor(8)) {
+ *     List&lt;CompletableFuture&lt;Void&gt;&gt; futures = executor.submitAll(namespaces, () -&gt; {
+ *         JFirewall.restore(nfTables);
+ *         JFirewall.releaseNamespace();
+ *         return null;
+ *     });
+ *     CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+ * }
+ * </pre>
+ */
+public final class NetNsExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NetNsExecutor.class);
+    private static final int POLL_TIMEOUT = 200;
+    private static volatile NetNsExecutor common;
+
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final NetNs home;
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    /**
+     * @param threads number of workers, they start in the network namespace of the calling thread
+     */
+    public NetNsExecutor(int threads) {
+        if (threads < 1) throw new JSysboxException("threads must be positive");
+        this.home = NetNs.current();
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            // platform threads, a virtual thread would move its carrier
+            workers[i] = new Thread(this::work, "netns-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * shared executor of {@link NetNs#run(Runnable)} and {@link NetNs#call(Callable)}, one worker per processor
+     */
+    public static NetNsExecutor common() {
+        NetNsExecutor executor = common;
+        if (executor == null) {
+            synchronized (NetNsExecutor.class) {
+                if (common == null) common = new NetNsExecutor(Runtime.getRuntime().availableProcessors());
+                executor = common;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * run task inside namespace
+     *
+     * @param netNs namespace, the handle must stay open until the task has started
+     * @param task  task
+     * @return future of the task result
+     */
+    public <T> CompletableFuture<T> submit(NetNs netNs, Callable<T> task) {
+        Task<T> item = new Task<>(netNs, task);
+        if (!running) {
+            item.future.completeExceptionally(new JSysboxException("network namespace executor is closed"));
+        } else {
+            queue.add(item);
+        }
+        return item.future;
+    }
+
+    public CompletableFuture<Void> submit(NetNs netNs, Runnable task) {
+        return submit(netNs, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * run the same task inside each namespace
+     *
+     * @return futures in the order of namespaces
+     */
+    public <T> List<CompletableFuture<T>> submitAll(Collection<NetNs> namespaces, Callable<T> task) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(namespaces.size());
+        for (NetNs netNs : namespaces) futures.add(submit(netNs, task));
+        return futures;
+    }
+
+    /**
+     * @return tasks waiting for a worker
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * stop accepting tasks, tasks already queued run before the workers stop
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            for (Thread worker : workers) worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Task<?> item;
+        while ((item = queue.poll()) != null) {
+            item.future.completeExceptionally(new JSysboxException("network namespace executor is closed"));
+        }
+        home.close();
+    }
+
+    private void work() {
+        long current = home.id();
+        try {
+            while (running || !queue.isEmpty()) {
+                Task<?> task = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (task == null) continue;
+                if (task.netNs.id() != current) {
+                    try {
+                        task.netNs.enter();
+                        NetNs.released(current);
+                        current = task.netNs.id();
+                    } catch (JSysboxException e) {
+                        task.future.completeExceptionally(e);
+                        continue;
+                    }
+                }
+                task.run();
+                if (current != home.id() && queue.isEmpty()) {
+                    try {
+                        home.enter();
+                        NetNs.released(current);
+                        current = home.id();
+                    } catch (JSysboxException e) {
+                        logger.warn("worker can not go back to network namespace {}: {}", home, e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Task<T> {
+        private final NetNs netNs;
+        private final Callable<T> callable;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(NetNs netNs, Callable<T> callable) {
+            this.netNs = netNs;
+            this.callable = callable;
+        }
+
+        private void run() {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Route additions and deletions sent to the kernel together, see {@link RouteEngine#commit(RouteBatch)}.
+ * <p>
+ * Operations are applied in order, each on its own: a failed operation does not undo or stop the
+ * others, {@link Result} reports every failure with its index in the batch.
+ * <p>
+ * example :
+ * <pre>
+ * RouteBatch.Result result = new RouteBatch()
+ *         .add(IpRoute.of("10.20.0.0/16", "192.168.1.1", "eth0"))
+ *         .replace(IpRoute.of(IpRoute.Type.BLACKHOLE, "2001:db8::/32").withTable(100))
+ *         .delete(RouteKey.of("10.30.0.0/16", IpRoute.MAIN_TABLE, 0))
+ *         .commit();
+ * result.failures().forEach(failure -&gt; logger.warn("{}", failure));
+ * </pre>
+ */
+public final class RouteBatch {
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * add route, fails when a route of the same key exists
+     */
+    public RouteBatch add(IpRoute route) {
+        operations.add(new Operation(Kind.ADD, route, route.key()));
+        return this;
+    }
+
+    /**
+     * add route or replace the route of the same key
+     */
+    public RouteBatch replace(IpRoute route) {
+        operations.add(new Operation(Kind.REPLACE, route, route.key()));
+        return this;
+    }
+
+    /**
+     * delete route, fails when no route matches the key
+     */
+    public RouteBatch delete(RouteKey key) {
+        operations.add(new Operation(Kind.DELETE, null, key));
+        return this;
+    }
+
+    public RouteBatch delete(IpRoute route) {
+        return delete(route.key());
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    List<Operation> operations() {
+        return operations;
+    }
+
+    /**
+     * commit on a new rtnetlink socket in the network namespace of the calling thread
+     */
+    public Result commit() {
+        try (RouteEngine engine = RouteEngine.open()) {
+            return engine.commit(this);
+        }
+    }
+
+    enum Kind {
+        ADD,
+        REPLACE,
+        DELETE
+    }
+
+    record Operation(Kind kind, IpRoute route, RouteKey key) {
+    }
+
+    /**
+     * @param applied  number of operations the kernel applied
+     * @param failures failed operations, in batch order
+     */
+    public record Result(int applied, List<Failure> failures) {
+        public Result {
+            failures = Collections.unmodifiableList(failures);
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        /**
+         * @throws JSysboxException listing the failures, when any operation failed
+         */
+        public Result requireSuccess() {
+            if (!isSuccess()) {
+                throw new JSysboxException("%s of %s route operations failed: %s".formatted(
+                        failures.size(), applied + failures.size(),
+                        failures.stream().limit(10).map(Failure::toString).collect(Collectors.joining(", "))));
+            }
+            return this;
+        }
+    }
+
+    /**
+     * @param index   position of the operation in the batch
+     * @param key     key of the route
+     * @param error   errno reported by the kernel, like EEXIST for an existing route or ESRCH for a missing one
+     * @param message kernel extended ack message, or the errno description
+     */
+    public record Failure(int index, RouteKey key, int error, String message) {
+        @Override
+        public String toString() {
+            return "#%s %s: %s".formatted(index, key, message);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ir.moke.jsysbox.network;
+
+import ir.moke.jsysbox.JSysboxException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing tables over rtnetlink (NETLINK_ROUTE), IPv4 and IPv6, all tables.
+ * <p>
+ * {@link #routes()} dumps every route of the namespace with one request. {@link #commit(RouteBatch)}
+ * packs many route messages into one sendto, the kernel applies them in order and answers only the
+ * failed ones plus the last message, so a batch of tens of thousands of routes costs a few system calls.
+ * Batches are split by the socket buffers, a reply must never be dropped for lack of room.
+ * <p>
+ * The socket belongs to the network namespace of the thread that opened the engine, later calls
+ * act on that namespace from any thread. An engine is not thread safe.
+ * <p>
+ * example :
+ * <pre>
+ * try (RouteEngine engine = RouteEngine.open()) {
+ *     List&lt;IpRoute&gt; routes = engine.routes();
+ *     RouteBatch batch = new RouteBatch();
+ *     routes.stream()
+ *             .filter(route -&gt; route.table() == 100)
+ *             .forEach(batch::delete);
+ *     engine.commit(batch).requireSuccess();
+ * }
+ * </pre>
+ */
+public final class RouteEngine implements AutoCloseable {
+    private static final int SOCKET_BUFFER_SIZE = 8 << 20;
+    private static final int RECEIVE_BUFFER_SIZE = 64 << 10;
+    private static final int SEND_SIZE = 128 << 10;
+    // receive buffer charge of one reply, skb overhead included
+    private static final int REPLY_SIZE = 1024;
+    private static final int MESSAGE_SIZE = 128;
+    private static final int TIMEOUT = 10_000;
+    private static final int DUMP_RETRIES = 3;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RTMSG_SIZE = 12;
+
+    private static final int NLMSG_ERROR = 2;
+    private static final int NLMSG_DONE = 3;
+    private static final int RTM_NEWROUTE = 24;
+    private static final int RTM_DELROUTE = 25;
+    private static final int RTM_GETROUTE = 26;
+
+    private static final int NLM_F_REQUEST = 0x1;
+    private static final int NLM_F_ACK = 0x4;
+    private static final int NLM_F_DUMP_INTR = 0x10;
+    private static final int NLM_F_REPLACE = 0x100;
+    private static final int NLM_F_EXCL = 0x200;
+    private static final int NLM_F_CREATE = 0x400;
+    private static final int NLM_F_DUMP = 0x300;
+    private static final int NLM_F_CAPPED = 0x100;
+    private static final int NLM_F_ACK_TLVS = 0x200;
+    private static final int NLMSGERR_ATTR_MSG = 1;
+
+    private static final int RTA_DST = 1;
+    private static final int RTA_OIF = 4;
+    private static final int RTA_GATEWAY = 5;
+    private static final int RTA_PRIORITY = 6;
+    private static final int RTA_PREFSRC = 7;
+    private static final int RTA_MULTIPATH = 9;
+    private static final int RTA_TABLE = 15;
+
+    private static final int RTM_F_CLONED = 0x200;
+    private static final int RT_SCOPE_NOWHERE = 255;
+    private static final int ENODEV = 19;
+
+    private final int fd;
+    private final int messagesPerSend;
+    private final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+    private final ByteBuffer reply = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+    private int sequence;
+    private boolean closed;
+
+    private RouteEngine(int fd) {
+        this.fd = fd;
+        this.messagesPerSend = Math.max(1, JNetwork.rtnetlinkBufferSize(fd) / REPLY_SIZE);
+    }
+
+    /**
+     * @return engine on a new rtnetlink socket in the network namespace of the calling thread
+     */
+    public static RouteEngine open() {
+        return new RouteEngine(JNetwork.rtnetlinkOpen(SOCKET_BUFFER_SIZE));
+    }
+
+    /**
+     * @return routes of all tables, IPv4 and IPv6, without cached clones and routes of types {@link IpRoute.Type} does not know
+     */
+    public List<IpRoute> routes() {
+        for (int attempt = 1; ; attempt++) {
+            List<IpRoute> routes = dump();
+            if (routes != null) return routes;
+            if (attempt == DUMP_RETRIES) throw new JSysboxException("Route dump interrupted by concurrent changes");
+        }
+    }
+
+    /**
+     * @return routes of one family and table
+     */
+    public List<IpRoute> routes(IpRoute.Family family, int table) {
+        return routes().stream()
+                .filter(item -> item.family() == family)
+                .filter(item -> item.table() == table)
+                .toList();
+    }
+
+    /**
+     * send batch, see {@link RouteBatch}
+     *
+     * @return applied count and failures
+     */
+    public RouteBatch.Result commit(RouteBatch batch) {
+        ensureOpen();
+        List<RouteBatch.Operation> operations = batch.operations();
+        List<RouteBatch.Failure> failures = new ArrayList<>();
+        Map<String, Integer> indexes = new HashMap<>();
+        ByteBuffer out = ByteBuffer.allocate(SEND_SIZE + MESSAGE_SIZE).order(ByteOrder.nativeOrder());
+        int base = sequence + 1;
+        sequence += operations.size();
+        int sent = 0;
+        int unresolved = 0;
+        int pending = 0;
+        int last = -1;
+        for (int i = 0; i < operations.size(); i++) {
+            RouteBatch.Operation operation = operations.get(i);
+            IpRoute route = operation.route();
+            int oif = 0;
+            if (route != null && route.iface() != null) {
+                oif = indexes.computeIfAbsent(route.iface(), JNetwork::ifIndex);
+                if (oif == 0) {
+                    failures.add(new RouteBatch.Failure(i, operation.key(), ENODEV, "No such device: " + route.iface()));
+                    unresolved++;
+                    continue;
+                }
+            }
+            last = out.position();
+            write(out, operation, oif, base + i);
+            sent++;
+            if (++pending == messagesPerSend || out.position() >= SEND_SIZE) {
+                flush(out, last, base, operations, failures);
+                pending = 0;
+            }
+        }
+        if (pending > 0) flush(out, last, base, operations, failures);
+        failures.sort(Comparator.comparingInt(RouteBatch.Failure::index));
+        return new RouteBatch.Result(sent - (failures.size() - unresolved), failures);
+    }
+
+    private void write(ByteBuffer out, RouteBatch.Operation operation, int oif, int seq) {
+        int start = out.position();
+        RouteKey key = operation.key();
+        IpRoute route = operation.route();
+        boolean delete = operation.kind() == RouteBatch.Kind.DELETE;
+        int flags = NLM_F_REQUEST | switch (operation.kind()) {
+            case ADD -> NLM_F_CREATE | NLM_F_EXCL;
+            case REPLACE -> NLM_F_CREATE | NLM_F_REPLACE;
+            case DELETE -> 0;
+        };
+        header(out, delete ? RTM_DELROUTE : RTM_NEWROUTE, flags, seq);
+        out.put((byte) key.family().getValue());
+        out.put((byte) key.prefix());
+        out.put((byte) 0);
+        out.put((byte) key.tos());
+        // ids beyond 255 only fit RTA_TABLE
+        out.put((byte) (key.table() < 256 ? key.table() : 0));
+        // a delete matches any protocol, scope and type
+        out.put((byte) (delete ? 0 : route.protocol()));
+        out.put((byte) (delete ? RT_SCOPE_NOWHERE : route.scope()));
+        out.put((byte) (delete ? 0 : route.type().getValue()));
+        out.putInt(0);
+        attribute(out, RTA_TABLE, key.table());
+        if (key.prefix() > 0) attribute(out, RTA_DST, IpRoute.address(key.destination()));
+        if (key.metric() != 0) attribute(out, RTA_PRIORITY, key.metric());
+        if (!delete) {
+            if (route.gateway() != null) attribute(out, RTA_GATEWAY, IpRoute.address(route.gateway()));
+            if (oif != 0) attribute(out, RTA_OIF, oif);
+            if (route.source() != null) attribute(out, RTA_PREFSRC, IpRoute.address(route.source()));
+        }
+        out.putInt(start, out.position() - start);
+    }
+
+    /**
+     * send pending messages, the last one asks for an ack, then collect replies up to that ack
+     */
+    private void flush(ByteBuffer out, int last, int base, List<RouteBatch.Operation> operations, List<RouteBatch.Failure> failures) {
+        out.putShort(last + 6, (short) (out.getShort(last + 6) | NLM_F_ACK));
+        int lastSeq = out.getInt(last + 8);
+        JNetwork.rtnetlinkSend(fd, out.array(), out.position());
+        out.clear();
+        while (true) {
+            int len = JNetwork.rtnetlinkReceive(fd, buffer, TIMEOUT);
+            boolean done = false;
+            for (int offset = 0; offset + HEADER_SIZE <= len; ) {
+                int msgLen = reply.getInt(offset);
+                if (msgLen < HEADER_SIZE || offset + msgLen > len) break;
+                int type = reply.getShort(offset + 4) & 0xFFFF;
+                int seq = reply.getInt(offset + 8);
+                if (type == NLMSG_ERROR && seq >= base && seq <= lastSeq) {
+                    int error = -reply.getInt(offset + HEADER_SIZE);
+                    if (error != 0) {
+                        RouteBatch.Operation operation = operations.get(seq - base);
+                        failures.add(new RouteBatch.Failure(seq - base, operation.key(), error, errorMessage(offset, msgLen, error)));
+                    }
+                    if (seq == lastSeq) done = true;
+                }
+                offset += align(msgLen);
+            }
+            if (done) return;
+        }
+    }
+
+    /**
+     * @return null when the dump was interrupted by a concurrent change
+     */
+    private List<IpRoute> dump() {
+        ensureOpen();
+        int seq = ++sequence;
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + RTMSG_SIZE).order(ByteOrder.nativeOrder());
+        header(out, RTM_GETROUTE, NLM_F_REQUEST | NLM_F_DUMP, seq);
+        // zero rtmsg, AF_UNSPEC asks for every family
+        out.position(out.capacity());
+        out.putInt(0, out.capacity());
+        JNetwork.rtnetlinkSend(fd, out.array(), out.capacity());
+
+        List<IpRoute> routes = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
+        boolean interrupted = false;
+        while (true) {
+            int len = JNetwork.rtnetlinkReceive(fd, buffer, TIMEOUT);
+            for (int offset = 0; offset + HEADER_SIZE <= len; ) {
+                int msgLen = reply.getInt(offset);
+                if (msgLen < HEADER_SIZE || offset + msgLen > len) break;
+                int type = reply.getShort(offset + 4) & 0xFFFF;
+                int flags = reply.getShort(offset + 6) & 0xFFFF;
+                if (reply.getInt(offset + 8) == seq) {
+                    if ((flags & NLM_F_DUMP_INTR) != 0) interrupted = true;
+                    if (type == NLMSG_DONE) return interrupted ? null : routes;
+                    if (type == NLMSG_ERROR) {
+                        int error = -reply.getInt(offset + HEADER_SIZE);
+                        throw new JSysboxException("Failed to dump routes: " + errorMessage(offset, msgLen, error));
+                    }
+                    if (type == RTM_NEWROUTE) {
+                        IpRoute route = route(offset + HEADER_SIZE, offset + msgLen, names);
+                        if (route != null) routes.add(route);
+                    }
+                }
+                offset += align(msgLen);
+            }
+        }
+    }
+
+    private IpRoute route(int start, int end, Map<Integer, String> names) {
+        IpRoute.Family family = IpRoute.Family.fromValue(reply.get(start) & 0xFF);
+        if (family == null) return null;
+        if ((reply.getInt(start + 8) & RTM_F_CLONED) != 0) return null;
+        int prefix = reply.get(start + 1) & 0xFF;
+        int tos = reply.get(start + 3) & 0xFF;
+        int table = reply.get(start + 4) & 0xFF;
+        int protocol = reply.get(start + 5) & 0xFF;
+        int scope = reply.get(start + 6) & 0xFF;
+        IpRoute.Type type = IpRoute.Type.fromValue(reply.get(start + 7) & 0xFF);
+        // a route of a type not modeled by IpRoute could not be written back
+        if (type == null) return null;
+        int[][] attrs = attributes(start + RTMSG_SIZE, end);
+        if (attrs[RTA_TABLE] != null) table = reply.getInt(attrs[RTA_TABLE][0]);
+        String destination = attrs[RTA_DST] != null ? address(attrs[RTA_DST]) : IpRoute.format(new byte[family == IpRoute.Family.IPV4 ? 4 : 16]);
+        String gateway = address(attrs[RTA_GATEWAY]);
+        int oif = attrs[RTA_OIF] != null ? reply.getInt(attrs[RTA_OIF][0]) : 0;
+        int metric = attrs[RTA_PRIORITY] != null ? reply.getInt(attrs[RTA_PRIORITY][0]) : 0;
+        if (attrs[RTA_MULTIPATH] != null && attrs[RTA_MULTIPATH][1] >= 8) {
+            // first next hop of a multipath route, struct rtnexthop then its attributes
+            int nexthop = attrs[RTA_MULTIPATH][0];
+            int nexthopLen = reply.getShort(nexthop) & 0xFFFF;
+            if (oif == 0) oif = reply.getInt(nexthop + 4);
+            if (gateway == null) gateway = address(attributes(nexthop + 8, nexthop + nexthopLen)[RTA_GATEWAY]);
+        }
+        String iface = oif != 0 ? names.computeIfAbsent(oif, JNetwork::ifName) : null;
+        return new IpRoute(family, table, destination, prefix, tos, gateway, iface, metric, type, protocol, scope, address(attrs[RTA_PREFSRC]));
+    }
+
+    private String errorMessage(int offset, int msgLen, int error) {
+        int flags = reply.getShort(offset + 6) & 0xFFFF;
+        if ((flags & NLM_F_ACK_TLVS) != 0) {
+            // nlmsgerr: error, then the request header, with its payload unless capped
+            int request = offset + HEADER_SIZE + 4;
+            int tlvs = request + ((flags & NLM_F_CAPPED) != 0 ? HEADER_SIZE : align(reply.getInt(request)));
+            int[] message = attributes(tlvs, offset + msgLen)[NLMSGERR_ATTR_MSG];
+            if (message != null) return string(message);
+        }
+        return JNetwork.strerror(error);
+    }
+
+    private int[][] attributes(int start, int end) {
+        int[][] attrs = new int[32][];
+        int offset = start;
+        while (offset + 4 <= end) {
+            int len = reply.getShort(offset) & 0xFFFF;
+            int type = reply.getShort(offset + 2) & 0x3FFF;
+            if (len < 4 || offset + len > end) break;
+            if (type < attrs.length) attrs[type] = new int[]{offset + 4, len - 4};
+            offset += align(len);
+        }
+        return attrs;
+    }
+
+    private String address(int[] attr) {
+        if (attr == null || (attr[1] != 4 && attr[1] != 16)) return null;
+        byte[] bytes = new byte[attr[1]];
+        reply.get(attr[0], bytes);
+        return IpRoute.format(bytes);
+    }
+
+    private String string(int[] attr) {
+        int len = attr[1];
+        while (len > 0 && reply.get(attr[0] + len - 1) == 0) len--;
+        return new String(buffer, attr[0], len, StandardCharsets.UTF_8);
+    }
+
+    private static void header(ByteBuffer out, int type, int flags, int seq) {
+        // length is patched once the message is complete
+        out.putInt(0);
+        out.putShort((short) type);
+        out.putShort((short) flags);
+        out.putInt(seq);
+        out.putInt(0);
+    }
+
+    private static void attribute(ByteBuffer out, int type, int value) {
+        out.putShort((short) 8);
+        out.putShort((short) type);
+        out.putInt(value);
+    }
+
+    private static void attribute(ByteBuffer out, int type, byte[] value) {
+        out.putShort((short) (4 + value.length));
+        out.putShort((short) type);
+        out.put(value);
+        // addresses are 4 or 16 bytes, already aligned
+    }
+
+    private static int align(int len) {
+        return (len + 3) & ~3;
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new JSysboxException("route engine is closed");
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        JNetwork.rtnetlinkClose(fd);
+    }
+}
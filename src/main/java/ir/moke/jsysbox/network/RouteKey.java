@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ir.moke.jsysbox.network;
+
+/**
+ * Identity of a route in the kernel, what {@code ip route del} matches on.
+ * <p>
+ * A key stays valid while other routes come and go, unlike the row index of {@link Route}.
+ * Addresses are canonical, see {@link IpRoute#of(String, String, String)}.
+ *
+ * @param family      address family
+ * @param table       routing table id
+ * @param destination network address, never null, 0.0.0.0 or :: for default routes
+ * @param prefix      prefix length of destination
+ * @param tos         type of service, ipv4 only
+ * @param metric      route priority, lower wins
+ */
+public record RouteKey(IpRoute.Family family, int table, String destination, int prefix, int tos, int metric) {
+
+    /**
+     * @param destination network like {@link IpRoute#of(String, String, String)}
+     */
+    public static RouteKey of(String destination, int table, int metric) {
+        IpRoute route = IpRoute.of(destination, null, null);
+        return new RouteKey(route.family(), table, route.destination(), route.prefix(), 0, metric);
+    }
+
+    @Override
+    public String toString() {
+        String key = "%s/%s table %s metric %s".formatted(destination, prefix, table, metric);
+        return tos != 0 ? key + " tos 0x" + Integer.toHexString(tos) : key;
+    }
+}
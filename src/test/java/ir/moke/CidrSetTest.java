@@ -0,0 +1,53 @@
+package ir.moke;
+
+import ir.moke.jsysbox.network.CidrSet;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CidrSetTest {
+    private static final Logger logger = LoggerFactory.getLogger(CidrSetTest.class);
+
+    @Test
+    @Order(0)
+    public void checkAggregation() {
+        logger.info("Execute <checkAggregation>");
+        CidrSet cidrSet = CidrSet.of(List.of("10.0.0.0/25", "10.0.0.128/25", "10.0.1.0", "10.0.1.1", "10.0.1.2-10.0.1.5", "192.168.1.7/24"));
+        Assertions.assertEquals(List.of("10.0.0.0/24", "10.0.1.0/30", "10.0.1.4/31", "192.168.1.0/24"), cidrSet.toCidrs());
+        Assertions.assertEquals(List.of("10.0.0.0-10.0.1.5", "192.168.1.0/24"), cidrSet.toIntervals());
+
+        CidrSet addresses = CidrSet.of(IntStream.range(0, 65536).mapToObj(i -> "172.16.%s.%s".formatted(i >> 8, i & 255)));
+        Assertions.assertEquals(List.of("172.16.0.0/16"), addresses.toCidrs());
+        Assertions.assertEquals(65536, addresses.ipv4AddressCount());
+    }
+
+    @Test
+    @Order(1)
+    public void checkIpv6() {
+        logger.info("Execute <checkIpv6>");
+        CidrSet cidrSet = CidrSet.of(List.of("2001:db8::/33", "2001:DB8:8000::/33", "::1", "fe80::1-fe80::4"));
+        Assertions.assertEquals(List.of("::1", "2001:db8::/32", "fe80::1", "fe80::2/127", "fe80::4"), cidrSet.toCidrs());
+        Assertions.assertTrue(cidrSet.contains("2001:db8:ffff::1"));
+        Assertions.assertFalse(cidrSet.contains("2001:db9::"));
+        Assertions.assertEquals(List.of("::/0"), CidrSet.of(List.of("::/0")).toCidrs());
+    }
+
+    @Test
+    @Order(2)
+    public void checkSetOperations() {
+        logger.info("Execute <checkSetOperations>");
+        CidrSet a = CidrSet.of(List.of("10.0.0.0/24", "2001:db8::/64"));
+        CidrSet b = CidrSet.of(List.of("10.0.0.64/26", "10.0.1.0/24", "2001:db8::/65"));
+
+        Assertions.assertEquals(List.of("10.0.0.0/23", "2001:db8::/64"), a.union(b).toCidrs());
+        Assertions.assertEquals(List.of("10.0.0.64/26", "2001:db8::/65"), a.intersection(b).toCidrs());
+        Assertions.assertEquals(List.of("10.0.0.0/26", "10.0.0.128/25", "2001:db8:0:0:8000::/65"), a.difference(b).toCidrs());
+        Assertions.assertTrue(a.difference(a).isEmpty());
+        Assertions.assertEquals(List.of("0.0.0.0/0"), CidrSet.of(List.of("0.0.0.0/1", "128.0.0.0-255.255.255.255")).toCidrs());
+        Assertions.assertEquals(1, new CidrSet().add("10.0.0.1").add("10.0.0.0/24").normalize().intervalCount());
+    }
+}
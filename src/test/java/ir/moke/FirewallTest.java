@@ -1,22 +1,47 @@
 package ir.moke;
 
 import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.CounterSampler;
 import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.firewall.NftBatch;
+import ir.moke.jsysbox.firewall.NftMonitor;
+import ir.moke.jsysbox.firewall.NftReconciler;
+import ir.moke.jsysbox.firewall.NftSession;
+import ir.moke.jsysbox.firewall.NftValidation;
+import ir.moke.jsysbox.firewall.NftWriter;
+import ir.moke.jsysbox.firewall.analysis.PacketSimulator;
+import ir.moke.jsysbox.firewall.analysis.RuleReorderAdvisor;
+import ir.moke.jsysbox.firewall.analysis.RulesetOptimizer;
+import ir.moke.jsysbox.firewall.config.binary.NFTablesCodec;
+import ir.moke.jsysbox.firewall.config.deserializer.NFTablesVisitor;
 import ir.moke.jsysbox.firewall.expression.*;
 import ir.moke.jsysbox.firewall.model.*;
 import ir.moke.jsysbox.firewall.statement.*;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@ExtendWith(NetNsExtension.class)
 public class FirewallTest {
     private static final Logger logger = LoggerFactory.getLogger(FirewallTest.class);
 
@@ -138,6 +163,25 @@ public class FirewallTest {
         Assertions.assertEquals(localNetworkSetAfterUpdate.getElements().size(), elements.size());
     }
 
+    /**
+     * A dedicated session and a pooled session answer the same, throughput of both is measured by
+     * FirewallSessionBenchmark of jsysbox-benchmarks
+     */
+    @Test
+    @Order(9)
+    public void checkSession() {
+        logger.info("Execute <checkSession>");
+        String dedicated;
+        try (NftSession session = JFirewall.openSession()) {
+            dedicated = session.exec("list tables");
+        }
+        try (NftSession session = JFirewall.session()) {
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertEquals(dedicated, session.exec("list tables"));
+            }
+        }
+    }
+
     @Test
     @Order(100)
     public void checkRuleAdd() {
@@ -357,7 +401,508 @@ public class FirewallTest {
         Rule r1 = JFirewall.ruleList(chain).getFirst();
         Rule r2 = JFirewall.ruleList(chain).getLast();
 
-        JFirewall.ruleSwitch(chain, List.of(r2.getHandle(), r1.getHandle()));
+        List<Rule> rules = JFirewall.ruleSwitch(chain, List.of(r2.getHandle(), r1.getHandle()));
+        Assertions.assertEquals("R2", rules.getFirst().getComment());
+        Assertions.assertEquals(r2.getHandle(), rules.getFirst().getHandle());
+    }
+
+    @Test
+    @Order(203)
+    public void checkBatch() {
+        logger.info("Execute <checkBatch>");
+        Table table = new Table(TableType.INET, "BatchTable");
+        Chain chain = new Chain(table, "BatchChain");
+        JFirewall.batch()
+                .tableAdd(table)
+                .chainAdd(chain)
+                .ruleAdd(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.10.10.1"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "B1")
+                .ruleAdd(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.10.10.2"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "B2")
+                .commit();
+        Assertions.assertEquals(2, JFirewall.ruleList(JFirewall.chain(JFirewall.table("BatchTable", TableType.INET), "BatchChain")).size());
+
+        // second command fails, so the first one must not be applied
+        Chain brokenChain = new Chain(table, "BrokenChain");
+        Assertions.assertThrows(JSysboxException.class, () -> JFirewall.batch()
+                .chainAdd(brokenChain)
+                .command("add rule inet BatchTable NotExistsChain drop")
+                .commit());
+        Assertions.assertNull(JFirewall.chain(JFirewall.table("BatchTable", TableType.INET), "BrokenChain"));
+    }
+
+    @Test
+    @Order(204)
+    public void checkReconcile() {
+        logger.info("Execute <checkReconcile>");
+        NFTables live = JFirewall.exportToNFTables();
+        Assertions.assertTrue(NftReconciler.plan(live, live).isEmpty());
+
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        List<Rule> before = JFirewall.ruleList(chain);
+
+        NFTables desired = JFirewall.exportToNFTables();
+        Rule rule = new Rule(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.10.10.3"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "B3", null);
+        desired.getRules().add(rule);
+        NftBatch plan = JFirewall.reconcile(desired);
+        Assertions.assertEquals(1, plan.size());
+
+        List<Rule> after = JFirewall.ruleList(chain);
+        Assertions.assertEquals(before.size() + 1, after.size());
+        Assertions.assertEquals(before.getFirst().getHandle(), after.getFirst().getHandle());
+    }
+
+    @Test
+    @Order(205)
+    public void checkRuleUpdate() {
+        logger.info("Execute <checkRuleUpdate>");
+        Chain chain = JFirewall.chain(JFirewall.table("BatchTable", TableType.INET), "BatchChain");
+        List<Rule> before = JFirewall.ruleList(chain);
+        Rule first = before.getFirst();
+        first.setExpressions(List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.10.20.1"))));
+        first.setStatements(List.of(new CounterStatement(), new VerdictStatement(VerdictStatement.Type.DROP)));
+        JFirewall.ruleUpdate(first);
+
+        List<Rule> after = JFirewall.ruleList(chain);
+        Assertions.assertEquals(before.size(), after.size());
+        Assertions.assertEquals(first.getHandle(), after.getFirst().getHandle());
+        Assertions.assertEquals(before.getLast().getHandle(), after.getLast().getHandle());
+        Assertions.assertEquals("10.10.20.1", after.getFirst().getExpressions().getFirst().getValues().getFirst());
+    }
+
+    @Test
+    @Order(206)
+    public void checkRulesetCache() {
+        logger.info("Execute <checkRulesetCache>");
+        Table first = JFirewall.table("BatchTable", TableType.INET);
+        long generation = JFirewall.rulesetCache().generation();
+        Assertions.assertSame(first, JFirewall.table(first.getHandle()));
+        Assertions.assertEquals(generation, JFirewall.rulesetCache().generation());
+
+        Table table = JFirewall.tableAdd("CacheTable", TableType.INET);
+        Assertions.assertNotNull(table);
+        Assertions.assertNotEquals(generation, JFirewall.rulesetCache().generation());
+        JFirewall.tableRemove(table);
+        Assertions.assertNull(JFirewall.table("CacheTable", TableType.INET));
+    }
+
+    @Test
+    @Order(207)
+    public void checkExportVisitor() {
+        logger.info("Execute <checkExportVisitor>");
+        int[] rules = new int[1];
+        JFirewall.export(new NFTablesVisitor() {
+            @Override
+            public void rule(Rule rule) {
+                Assertions.assertNotNull(rule.getChain().getTable());
+                rules[0]++;
+            }
+        });
+        Assertions.assertEquals(JFirewall.exportToNFTables().getRules().size(), rules[0]);
+    }
+
+    @Test
+    @Order(208)
+    public void checkJsonCommands() {
+        logger.info("Execute <checkJsonCommands>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        int size = JFirewall.ruleList(chain).size();
+        NftBatch batch = JFirewall.batch()
+                .ruleAdd(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.20.0.0/16"))), List.of(new CounterStatement(), new VerdictStatement(VerdictStatement.Type.DROP)), "J1")
+                .ruleAdd(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("8000-8080", "9090"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "J2");
+        Assertions.assertNotNull(batch.json());
+        batch.commit();
+
+        List<Rule> rules = JFirewall.ruleList(chain);
+        Assertions.assertEquals(size + 2, rules.size());
+        Assertions.assertEquals("J2", rules.getLast().getComment());
+        Assertions.assertNull(JFirewall.batch().command("flush chain inet BatchTable BatchChain").json());
+    }
+
+    @Test
+    @Order(209)
+    public void checkSetSync() {
+        logger.info("Execute <checkSetSync>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Set set = new Set(null, List.of(FlagType.TIMEOUT), table, "SyncSet", SetType.IPV4_ADDR, 0, null, null, null, null, null);
+        JFirewall.batch().setAdd(set).commit();
+
+        JFirewall.setSync(set).chunkSize(100).timeout(Duration.ofHours(1))
+                .elements(IntStream.range(0, 500).mapToObj(i -> "10.30.%s.%s".formatted(i / 250, i % 250)))
+                .apply();
+        Assertions.assertEquals(500, JFirewall.set(table, "SyncSet").getElements().size());
+
+        // 10.30.0.x stays, 10.30.1.x is removed and 10.31.0.x is added
+        int commands = JFirewall.setSync(set).chunkSize(100)
+                .elements(IntStream.range(0, 250).mapToObj(i -> "10.30.0.%s/32".formatted(i)))
+                .elements(IntStream.range(0, 50).mapToObj(i -> "10.31.0.%s".formatted(i)))
+                .apply();
+        Assertions.assertEquals(4, commands);
+        Assertions.assertEquals(300, JFirewall.set(table, "SyncSet").getElements().size());
+        Assertions.assertTrue(JFirewall.setSync(set).elements(JFirewall.set(table, "SyncSet").getElements()).plan().isEmpty());
+    }
+
+    @Test
+    @Order(210)
+    public void checkMonitor() throws InterruptedException {
+        logger.info("Execute <checkMonitor>");
+        List<RulesetEvent> events = new CopyOnWriteArrayList<>();
+        CountDownLatch commit = new CountDownLatch(1);
+        try (NftMonitor monitor = JFirewall.monitor(event -> {
+            events.add(event);
+            if (event.type() == RulesetEvent.Type.COMMIT) commit.countDown();
+        })) {
+            Assertions.assertTrue(monitor.isRunning());
+            Table table = JFirewall.table("BatchTable", TableType.INET);
+            JFirewall.batch().chainAdd(new Chain(table, "MonitorChain")).commit();
+            Assertions.assertTrue(commit.await(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertTrue(events.stream().anyMatch(event -> event.type() == RulesetEvent.Type.ADD
+                && event.object() == RulesetEvent.ObjectType.CHAIN
+                && "MonitorChain".equals(event.name())));
+    }
+
+    @Test
+    @Order(211)
+    public void checkCounterSampler() {
+        logger.info("Execute <checkCounterSampler>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        Rule rule = JFirewall.ruleList(chain).stream().filter(item -> "J1".equals(item.getComment())).findFirst().orElseThrow();
+
+        CounterSampler sampler = JFirewall.counterSampler(chain);
+        Assertions.assertTrue(sampler.sample() > 0);
+        int index = sampler.indexOf(table, rule.getHandle());
+        Assertions.assertTrue(index >= 0);
+        Assertions.assertEquals("inet BatchTable", sampler.table(index));
+        Assertions.assertEquals(0, sampler.pps(index));
+
+        sampler.sample(true);
+        Assertions.assertEquals(rule.getHandle().longValue(), sampler.handle(sampler.indexOf(table, rule.getHandle())));
+        Assertions.assertTrue(JFirewall.counterSampler().sample() >= sampler.size());
+    }
+
+    @Test
+    @Order(212)
+    public void checkReorderAdvisor() {
+        logger.info("Execute <checkReorderAdvisor>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        RuleReorderAdvisor.Advice advice = RuleReorderAdvisor.advise(chain, Duration.ofMillis(200));
+        Assertions.assertEquals(advice.current().size(), advice.proposed().size());
+        Assertions.assertTrue(advice.proposedCost() <= advice.currentCost());
+
+        List<Rule> rules = List.of(
+                new Rule(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.0.0.1"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "A", 1),
+                new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "B", 2),
+                new Rule(chain, List.of(new UdpExpression(UdpExpression.Field.DPORT, Operation.EQ, List.of("53"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "C", 3),
+                new Rule(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("192.168.0.0/16"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "D", 4));
+        advice = RuleReorderAdvisor.advise(chain, rules, new double[]{1, 100, 50, 500});
+        Assertions.assertEquals(List.of("B", "D", "A", "C"), advice.proposed().stream().map(Rule::getComment).toList());
+        Assertions.assertTrue(advice.savings() > 0);
+
+        // flag fields carry several bits, a syn,ack packet matches both rules
+        List<Rule> flags = List.of(
+                new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.FLAGS, Operation.EQ, List.of("syn"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "syn", 1),
+                new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.FLAGS, Operation.EQ, List.of("ack"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "ack", 2));
+        advice = RuleReorderAdvisor.advise(chain, flags, new double[]{1, 100});
+        Assertions.assertEquals(List.of("syn", "ack"), advice.proposed().stream().map(Rule::getComment).toList());
+        Assertions.assertFalse(advice.isChanged());
+    }
+
+    @Test
+    @Order(213)
+    public void checkRulesetOptimizer() {
+        logger.info("Execute <checkRulesetOptimizer>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        RulesetOptimizer.Result live = new RulesetOptimizer().optimize(chain);
+        Assertions.assertTrue(live.rulesAfter() <= live.rulesBefore());
+
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rules.add(new Rule(chain, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.%s.0.1".formatted(i)))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), null, null));
+        }
+        rules.add(new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null, null));
+        rules.add(new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("23"))), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), null, null));
+        RulesetOptimizer.Result result = new RulesetOptimizer().namedSetThreshold(4).optimize(chain, rules, List.of());
+        Assertions.assertEquals(12, result.rulesBefore());
+        Assertions.assertEquals(2, result.rulesAfter());
+        Assertions.assertEquals(1, result.nfTables().getSets().size());
+        Assertions.assertEquals(10, result.nfTables().getSets().getFirst().getElements().size());
+        Assertions.assertInstanceOf(VerdictMapStatement.class, result.nfTables().getRules().getLast().getStatements().getFirst());
+    }
+
+    @Test
+    @Order(214)
+    public void checkVerdictMap() {
+        logger.info("Execute <checkVerdictMap>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        Chain tenant = new Chain(table, "TenantChain");
+        JFirewall.batch().chainAdd(tenant).commit();
+
+        java.util.Map<String, VerdictStatement> elements = new LinkedHashMap<>();
+        elements.put("10.0.0.1 . 22", new VerdictStatement(VerdictStatement.Type.JUMP, tenant));
+        elements.put("10.0.0.2 . 22", new VerdictStatement(VerdictStatement.Type.DROP));
+        VerdictMap map = JFirewall.verdictMapAdd(new VerdictMap(elements, null, table, "tenants", List.of(SetType.IPV4_ADDR, SetType.INET_SERVICE), 0, null, null, null, null, null));
+        Assertions.assertNotNull(map);
+        Assertions.assertEquals(2, map.getElements().size());
+
+        JFirewall.mapAddElement(map, java.util.Map.of("10.0.0.3 . 80", new VerdictStatement(VerdictStatement.Type.ACCEPT)));
+        JFirewall.mapRemoveElement(map, List.of("10.0.0.2 . 22"));
+        map = JFirewall.verdictMap(table, "tenants");
+        Assertions.assertEquals(java.util.Set.of("10.0.0.1 . 22", "10.0.0.3 . 80"), map.getElements().keySet());
+
+        List<Selector> key = List.of(Selector.of(MatchType.IP, "saddr"), Selector.of(MatchType.TCP, "dport"));
+        JFirewall.ruleAdd(chain, List.of(), List.of(new VerdictMapStatement(key, map)), "vmap");
+        Assertions.assertTrue(JFirewall.ruleList(chain).stream().anyMatch(item -> item.getStatements().getFirst() instanceof VerdictMapStatement statement && "tenants".equals(statement.getMap())));
+    }
+
+    @Test
+    @Order(215)
+    public void checkFlowtable() {
+        logger.info("Execute <checkFlowtable>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Flowtable flowtable = JFirewall.flowtableAdd(new Flowtable(table, "BatchFlowtable", 0, List.of("lo")));
+        Assertions.assertNotNull(flowtable);
+        Assertions.assertEquals(List.of("lo"), flowtable.getDevices());
+        Assertions.assertTrue(JFirewall.flowtableList().stream().anyMatch(item -> item.getName().equals("BatchFlowtable")));
+
+        Chain chain = new Chain(table, "BatchForward", 0, ChainType.FILTER, ChainHook.FORWARD, 0, ChainPolicy.ACCEPT);
+        JFirewall.batch().chainAdd(chain).commit();
+        JFirewall.ruleAdd(chain, List.of(new CtExpression(CtExpression.Field.STATE, Operation.EQ, List.of(CtExpression.State.ESTABLISHED.getValue()))), List.of(new FlowOffloadStatement(flowtable)), null);
+        Rule rule = JFirewall.ruleList(JFirewall.chain(table, "BatchForward")).getFirst();
+        Assertions.assertInstanceOf(FlowOffloadStatement.class, rule.getStatements().getFirst());
+
+        JFirewall.ruleRemove(rule);
+        JFirewall.flowtableRemove(flowtable);
+        Assertions.assertNull(JFirewall.flowtable(table, "BatchFlowtable"));
+    }
+
+    @Test
+    @Order(216)
+    public void checkValidate() {
+        logger.info("Execute <checkValidate>");
+        Table table = new Table(TableType.INET, "ValidateTable");
+        Chain chain = new Chain(table, "ValidateChain");
+        Expression port = new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("no-such-service"));
+        Rule valid = new Rule(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null, null);
+        Rule invalid = new Rule(chain, List.of(port), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null, null);
+
+        NftBatch checked = JFirewall.batch().tableAdd(table).chainAdd(chain).ruleAdd(valid);
+        NftValidation validation = checked.validate();
+        Assertions.assertTrue(validation.isValid());
+        Assertions.assertNull(JFirewall.table("ValidateTable", TableType.INET));
+
+        // a validated batch commits the checked script
+        checked.commit();
+        Assertions.assertEquals(1, JFirewall.ruleList(JFirewall.chain(table, "ValidateChain")).size());
+        JFirewall.tableRemove(table);
+
+        validation = JFirewall.batch().tableAdd(table).chainAdd(chain).ruleAdd(valid).ruleAdd(invalid).validate();
+        Assertions.assertFalse(validation.isValid());
+        NftValidation.Error error = validation.errors().getFirst();
+        Assertions.assertEquals(3, error.index());
+        Assertions.assertSame(invalid, error.rule());
+        Assertions.assertSame(port, error.expression());
+        Assertions.assertNull(JFirewall.table("ValidateTable", TableType.INET));
+
+        // a rejected rule reports the nftables error
+        Chain missing = new Chain(new Table(TableType.INET, "NoSuchTable"), "NoSuchChain");
+        JSysboxException rejected = Assertions.assertThrows(JSysboxException.class, () -> JFirewall.ruleAdd(missing, List.of(), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null));
+        Assertions.assertNotNull(rejected.getMessage());
+        Assertions.assertThrows(JSysboxException.class, () -> JFirewall.ruleInsert(missing, List.of(), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null, 1));
+    }
+
+    @Test
+    @Order(217)
+    public void checkWriter() {
+        logger.info("Execute <checkWriter>");
+        List<Table> tables = IntStream.range(0, 50).mapToObj(i -> new Table(TableType.INET, "WriterTable" + i)).toList();
+        try (NftWriter writer = JFirewall.writer()) {
+            List<CompletableFuture<Void>> futures = tables.stream().map(table -> writer.submit(batch -> batch.tableAdd(table))).toList();
+            writer.flush().join();
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            Assertions.assertTrue(writer.transactions() < tables.size());
+            Assertions.assertNotNull(JFirewall.table("WriterTable49", TableType.INET));
+
+            // a rejected mutation fails only its own future
+            long transactions = writer.transactions();
+            CompletableFuture<Void> rejected = writer.submit(batch -> batch.chainAdd(new Chain(new Table(TableType.INET, "NoSuchTable"), "WriterChain")));
+            CompletableFuture<Void> accepted = writer.submit(batch -> batch.chainAdd(new Chain(tables.getFirst(), "WriterChain")));
+            Assertions.assertThrows(CompletionException.class, rejected::join);
+            accepted.join();
+            Assertions.assertTrue(writer.transactions() > transactions);
+
+            // a throwing mutation does not stop the writer
+            CompletableFuture<Void> failed = writer.submit(batch -> {
+                throw new IllegalStateException("mutation failed");
+            });
+            Assertions.assertThrows(CompletionException.class, failed::join);
+            writer.flush().join();
+            Assertions.assertTrue(writer.isRunning());
+
+            tables.forEach(table -> writer.submit(batch -> batch.tableRemove(table)));
+            writer.flush().join();
+            Assertions.assertNull(JFirewall.table("WriterTable0", TableType.INET));
+        }
+        // transactions are bounded by operations, not by mutations
+        try (NftWriter writer = JFirewall.writer(Duration.ofMillis(50), 2)) {
+            List<CompletableFuture<Void>> futures = tables.subList(0, 4).stream().map(table -> writer.submit(batch -> batch.tableAdd(table).tableRemove(table))).toList();
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            Assertions.assertEquals(4, writer.transactions());
+        }
+        NftWriter closed = JFirewall.writer();
+        closed.close();
+        Assertions.assertThrows(CompletionException.class, () -> closed.submit(batch -> batch.tableAdd(tables.getFirst())).join());
+    }
+
+    @Test
+    @Order(218)
+    public void checkPacketSimulator() {
+        logger.info("Execute <checkPacketSimulator>");
+        Table table = new Table(TableType.INET, "SimulatorTable");
+        Chain input = new Chain(table, "input", 1, ChainType.FILTER, ChainHook.INPUT, 0, ChainPolicy.DROP);
+        Chain trusted = new Chain(table, "trusted", 2);
+        Set web = new Set(List.of("80", "443"), List.of(), table, "web", SetType.INET_SERVICE, 3, null, null, null, null, null);
+        VerdictStatement accept = new VerdictStatement(VerdictStatement.Type.ACCEPT);
+        List<Rule> rules = List.of(
+                new Rule(input, List.of(new CtExpression(CtExpression.Field.STATE, Operation.EQ, List.of("established", "related"))), List.of(accept), null, null),
+                new Rule(input, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("@web"))), List.of(accept), null, null),
+                new Rule(input, List.of(new IpExpression(IpExpression.Field.SADDR, Operation.EQ, List.of("10.0.0.0/8"))), List.of(new VerdictStatement(VerdictStatement.Type.JUMP, "trusted")), null, null),
+                new Rule(trusted, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.LT, List.of("1024"))), List.of(accept), null, null));
+        NFTables nfTables = new NFTables(null, List.of(table), List.of(input, trusted), rules, List.of(web), List.of(), List.of(), List.of());
+        PacketSimulator simulator = PacketSimulator.of(nfTables);
+
+        PacketSimulator.Result result = simulator.simulate(packet("1.2.3.4", 443));
+        Assertions.assertEquals(PacketSimulator.Verdict.ACCEPT, result.verdict());
+        Assertions.assertEquals(rules.get(1), result.rule());
+
+        result = simulator.simulate(packet("10.1.1.1", 22));
+        Assertions.assertEquals(PacketSimulator.Verdict.ACCEPT, result.verdict());
+        Assertions.assertEquals(trusted, result.chain());
+
+        result = simulator.simulate(packet("1.2.3.4", 22));
+        Assertions.assertEquals(PacketSimulator.Verdict.DROP, result.verdict());
+        Assertions.assertNull(result.rule());
+    }
+
+    @Test
+    @Order(219)
+    public void checkChainUpdate() {
+        logger.info("Execute <checkChainUpdate>");
+        Table table = JFirewall.tableAdd("UpdateTable", TableType.INET);
+        Chain chain = JFirewall.chainAdd(table, "Before", ChainType.FILTER, ChainHook.INPUT, ChainPolicy.ACCEPT, 0);
+        JFirewall.ruleAdd(chain, List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22"))), List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), "U1");
+
+        Chain renamed = JFirewall.chainUpdate(chain, "Renamed", null, null, null, null);
+        Assertions.assertNull(JFirewall.chain(table, "Before"));
+        Assertions.assertEquals("Before", chain.getName());
+        Assertions.assertSame(JFirewall.chain(table, "Renamed"), renamed);
+        Assertions.assertEquals(1, JFirewall.ruleList(renamed).size());
+
+        // rename and new hook, the old chain is removed and rebuilt under the new name
+        JFirewall.chainUpdate(renamed, "Retyped", null, null, ChainHook.OUTPUT, null);
+        Assertions.assertNull(JFirewall.chain(table, "Renamed"));
+        Chain retyped = JFirewall.chain(table, "Retyped");
+        Assertions.assertNotNull(retyped);
+        Assertions.assertEquals(ChainHook.OUTPUT, retyped.getHook());
+        Assertions.assertEquals("U1", JFirewall.ruleList(retyped).getFirst().getComment());
+        JFirewall.tableRemove(table);
+    }
+
+    @Test
+    @Order(220)
+    public void checkMapReplaceElement() {
+        logger.info("Execute <checkMapReplaceElement>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        java.util.Map<String, String> elements = new LinkedHashMap<>();
+        elements.put("22", "10.0.0.1");
+        ir.moke.jsysbox.firewall.model.Map ports = JFirewall.mapAdd(new ir.moke.jsysbox.firewall.model.Map(elements, null, table, "ports", List.of(SetType.INET_SERVICE), List.of(SetType.IPV4_ADDR), 0, null, null, null, null, null));
+
+        JFirewall.mapAddElement(ports, java.util.Map.of("22", "10.0.0.2", "80", "10.0.0.3"));
+        ports = JFirewall.map(table, "ports");
+        Assertions.assertEquals(java.util.Map.of("22", "10.0.0.2", "80", "10.0.0.3"), ports.getElements());
+
+        VerdictMap tenants = JFirewall.verdictMap(table, "tenants");
+        JFirewall.mapAddElement(tenants, java.util.Map.of("10.0.0.1 . 22", new VerdictStatement(VerdictStatement.Type.DROP)));
+        Assertions.assertEquals("drop", JFirewall.verdictMap(table, "tenants").getElements().get("10.0.0.1 . 22").toString());
+
+        // reconcile remaps elements and removes maps
+        NFTables desired = JFirewall.exportToNFTables();
+        desired.getMaps().stream().filter(item -> item.getName().equals("ports")).findFirst().orElseThrow().getElements().put("22", "10.0.0.4");
+        JFirewall.reconcile(desired);
+        Assertions.assertEquals("10.0.0.4", JFirewall.map(table, "ports").getElements().get("22"));
+        Assertions.assertTrue(NftReconciler.plan(JFirewall.exportToNFTables(), desired).isEmpty());
+
+        desired.getMaps().removeIf(item -> item.getName().equals("ports"));
+        JFirewall.reconcile(desired);
+        Assertions.assertNull(JFirewall.map(table, "ports"));
+    }
+
+    @Test
+    @Order(221)
+    public void checkReconcileFlowtable() {
+        logger.info("Execute <checkReconcileFlowtable>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchForward");
+        Flowtable flowtable = JFirewall.flowtableAdd(new Flowtable(table, "ReconcileFlowtable", 0, List.of("lo")));
+        JFirewall.ruleAdd(chain, List.of(), List.of(new FlowOffloadStatement(flowtable)), "offload");
+
+        // changed priority recreates the flowtable and the rule using it
+        NFTables desired = JFirewall.exportToNFTables();
+        desired.getFlowtables().replaceAll(item -> item.getName().equals("ReconcileFlowtable") ? new Flowtable(table, "ReconcileFlowtable", 10, List.of("lo")) : item);
+        desired.getFlowtables().add(new Flowtable(table, "NewFlowtable", 0, List.of("lo")));
+        JFirewall.reconcile(desired);
+        Assertions.assertEquals(10, JFirewall.flowtable(table, "ReconcileFlowtable").getPriority());
+        Assertions.assertNotNull(JFirewall.flowtable(table, "NewFlowtable"));
+        Assertions.assertTrue(JFirewall.ruleList(chain).stream().anyMatch(item -> "offload".equals(item.getComment())));
+        Assertions.assertTrue(NftReconciler.plan(JFirewall.exportToNFTables(), desired).isEmpty());
+
+        desired = JFirewall.exportToNFTables();
+        desired.getFlowtables().removeIf(item -> item.getTable().getName().equals("BatchTable"));
+        desired.getRules().removeIf(item -> "offload".equals(item.getComment()));
+        JFirewall.reconcile(desired);
+        Assertions.assertNull(JFirewall.flowtable(table, "ReconcileFlowtable"));
+        Assertions.assertNull(JFirewall.flowtable(table, "NewFlowtable"));
+    }
+
+    @Test
+    @Order(222)
+    public void checkFlagMatch() {
+        logger.info("Execute <checkFlagMatch>");
+        Table table = JFirewall.table("BatchTable", TableType.INET);
+        Chain chain = JFirewall.chain(table, "BatchChain");
+        TcpExpression syn = new TcpExpression(TcpExpression.Field.FLAGS, Operation.IN, List.of("syn"));
+        CtExpression dnat = new CtExpression(CtExpression.Field.STATUS, Operation.IN, List.of("dnat"));
+        Assertions.assertEquals("tcp flags syn", syn.toString());
+        Assertions.assertEquals("ct status dnat", dnat.toString());
+
+        Rule rule = new Rule(chain, List.of(syn, dnat), List.of(new VerdictStatement(VerdictStatement.Type.DROP)), "flags", null);
+        Assertions.assertTrue(JFirewall.batch().ruleAdd(rule).script().contains("tcp flags syn ct status dnat"));
+        Assertions.assertTrue(JFirewall.batch().ruleAdd(rule).json().contains("\"op\":\"in\""));
+        JFirewall.ruleAdd(chain, rule.getExpressions(), rule.getStatements(), rule.getComment());
+
+        // nftables lists the rule with the implicit operation, it is read and written back unchanged
+        NFTables nfTables = JFirewall.exportToNFTables();
+        Rule listed = nfTables.getRules().stream().filter(item -> "flags".equals(item.getComment())).findFirst().orElseThrow();
+        Assertions.assertEquals(List.of("tcp flags syn", "ct status dnat"), listed.getExpressions().stream().map(Expression::toString).toList());
+        Assertions.assertTrue(listed.getExpressions().stream().allMatch(item -> item.getOperation() == Operation.IN));
+        NFTables decoded = JFirewall.deserializeJson(JFirewall.serializeJson(nfTables));
+        Rule json = decoded.getRules().stream().filter(item -> "flags".equals(item.getComment())).findFirst().orElseThrow();
+        Assertions.assertEquals(listed.getExpressions().toString(), json.getExpressions().toString());
+        Rule binary = JFirewall.deserializeByteCode(JFirewall.serializeByteCode(nfTables)).getRules().stream().filter(item -> "flags".equals(item.getComment())).findFirst().orElseThrow();
+        Assertions.assertEquals(listed.getExpressions().toString(), binary.getExpressions().toString());
+    }
+
+    private static PacketSimulator.Packet packet(String source, int port) {
+        return PacketSimulator.Packet.builder()
+                .protocol("tcp")
+                .source(source, 40000)
+                .destination("10.9.9.9", port)
+                .ctState(CtExpression.State.NEW)
+                .build();
     }
 
     @Test
@@ -385,6 +930,36 @@ public class FirewallTest {
         }
     }
 
+    @Test
+    @Order(301)
+    public void checkDeserializeByteCode() {
+        logger.info("Execute <checkDeserializeByteCode>");
+        NFTables nfTables = JFirewall.exportToNFTables();
+        NFTables decoded = JFirewall.deserializeByteCode(JFirewall.serializeByteCode(nfTables));
+        Assertions.assertEquals(nfTables.getTables().size(), decoded.getTables().size());
+        Assertions.assertEquals(nfTables.getChains().size(), decoded.getChains().size());
+        Assertions.assertEquals(nfTables.getSets().stream().map(item -> item.getElements()).toList(), decoded.getSets().stream().map(item -> item.getElements()).toList());
+        Assertions.assertEquals(nfTables.getRules().stream().map(item -> item.getHandle() + " " + item.getExpressions()).toList(), decoded.getRules().stream().map(item -> item.getHandle() + " " + item.getExpressions()).toList());
+        Assertions.assertThrows(JSysboxException.class, () -> JFirewall.deserializeByteCode(new byte[]{1, 2, 3, 4, 5}));
+        // a corrupt size fails before allocating
+        Assertions.assertThrows(JSysboxException.class, () -> JFirewall.deserializeByteCode(new byte[]{'N', 'F', 'T', 'B', NFTablesCodec.VERSION, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}));
+
+        // repeated expressions and statements are written once, address sets as column of differences
+        Table table = new Table(TableType.INET, "CodecTable");
+        Chain chain = new Chain(table, "CodecChain", 1);
+        List<Rule> rules = IntStream.range(0, 1000).mapToObj(i -> new Rule(chain,
+                List.of(new TcpExpression(TcpExpression.Field.DPORT, Operation.EQ, List.of("22")), new CtExpression(CtExpression.Field.STATE, Operation.EQ, List.of("established"))),
+                List.of(new VerdictStatement(VerdictStatement.Type.ACCEPT)), null, i + 1)).toList();
+        List<String> addresses = IntStream.range(0, 1000).mapToObj(i -> "10.0." + i / 256 + "." + i % 256).toList();
+        Set set = new Set(addresses, null, table, "CodecSet", SetType.IPV4_ADDR, 2, null, null, null, null, null);
+        NFTables snapshot = new NFTables(null, List.of(table), List.of(chain), rules, List.of(set), List.of(), List.of(), List.of());
+        byte[] bytes = JFirewall.serializeByteCode(snapshot);
+        Assertions.assertTrue(bytes.length < 10 * 1000 + 2 * 1000);
+        decoded = JFirewall.deserializeByteCode(bytes);
+        Assertions.assertEquals(addresses, decoded.getSets().getFirst().getElements());
+        Assertions.assertEquals(snapshot.getRules().stream().map(item -> item.getHandle() + " " + item.getExpressions() + " " + item.getStatements()).toList(), decoded.getRules().stream().map(item -> item.getHandle() + " " + item.getExpressions() + " " + item.getStatements()).toList());
+    }
+
     @Test
     @Order(302)
     public void checkSerializeJson() {
@@ -407,6 +982,24 @@ public class FirewallTest {
         }
     }
 
+    @Test
+    @Order(303)
+    public void checkRestoreFromMemory() {
+        logger.info("Execute <checkRestoreFromMemory>");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long written = JFirewall.backup(Channels.newChannel(output));
+        Assertions.assertEquals(output.size(), written);
+
+        NFTables nfTables = JFirewall.exportToNFTables();
+        JFirewall.restore(ByteBuffer.wrap(output.toByteArray()));
+        Assertions.assertEquals(nfTables.getRules().size(), JFirewall.exportToNFTables().getRules().size());
+
+        JFirewall.restore(nfTables);
+        Assertions.assertEquals(nfTables.getTables().size(), JFirewall.exportToNFTables().getTables().size());
+        Assertions.assertThrows(JSysboxException.class, () -> JFirewall.restoreRuleset("add table inet"));
+        Assertions.assertEquals(nfTables.getTables().size(), JFirewall.exportToNFTables().getTables().size());
+    }
+
     @Test
     @Order(400)
     public void checkNFTablesObject() {
@@ -0,0 +1,88 @@
+package ir.moke;
+
+import ir.moke.jsysbox.JSysboxException;
+import ir.moke.jsysbox.firewall.JFirewall;
+import ir.moke.jsysbox.network.JNetwork;
+import ir.moke.jsysbox.network.NetNs;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Runs a test class in its own network namespace, firewall and network tests then never touch the
+ * host stack and classes can run in parallel.
+ * <p>
+ * The thread of the class moves to a new namespace with {@code lo} up and a dummy {@code eth0},
+ * and moves back after the class. Methods of the class must run on that thread
+ * (junit parallel mode same_thread for methods, concurrent for classes). Without CAP_SYS_ADMIN
+ * the class is skipped, the {@code netns} maven profile starts the test jvm as root of its own
+ * user and network namespace, so no real root is needed.
+ */
+public class NetNsExtension implements BeforeAllCallback, AfterAllCallback {
+    private static final Logger logger = LoggerFactory.getLogger(NetNsExtension.class);
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(NetNsExtension.class);
+
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        NetNs origin = NetNs.current();
+        NetNs isolated;
+        try {
+            isolated = NetNs.unshare();
+        } catch (JSysboxException e) {
+            origin.close();
+            Assumptions.abort("Network namespace is not available: " + e.getMessage());
+            return;
+        }
+        ExtensionContext.Store store = context.getStore(NAMESPACE);
+        store.put("origin", origin);
+        store.put("isolated", isolated);
+        logger.info("### {} runs in network namespace {} ###", context.getDisplayName(), isolated);
+
+        JNetwork.ifUp("lo");
+        // child processes start in the namespace of the thread that spawns them
+        if (exec("ip", "link", "add", "eth0", "type", "dummy")) {
+            JNetwork.ifUp("eth0");
+        } else {
+            logger.warn("iproute2 is not installed, namespace {} has no eth0", isolated);
+        }
+    }
+
+    @Override
+    public void afterAll(ExtensionContext context) {
+        ExtensionContext.Store store = context.getStore(NAMESPACE);
+        NetNs origin = store.remove("origin", NetNs.class);
+        NetNs isolated = store.remove("isolated", NetNs.class);
+        if (origin == null) return;
+        try {
+            JFirewall.releaseNamespace();
+            origin.enter();
+        } finally {
+            origin.close();
+            isolated.close();
+        }
+    }
+
+    /**
+     * @return false when the program is not installed
+     */
+    private static boolean exec(String... command) {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).inheritIO().start();
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            if (process.waitFor() != 0) throw new JSysboxException("Failed to execute " + String.join(" ", command));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSysboxException(e);
+        }
+    }
+}
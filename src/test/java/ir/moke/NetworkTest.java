@@ -1,15 +1,26 @@
 package ir.moke;
 
 import ir.moke.jsysbox.network.Ethernet;
+import ir.moke.jsysbox.network.IpRoute;
 import ir.moke.jsysbox.network.JNetwork;
+import ir.moke.jsysbox.network.NetNs;
+import ir.moke.jsysbox.network.NetNsExecutor;
 import ir.moke.jsysbox.network.Route;
+import ir.moke.jsysbox.network.RouteBatch;
+import ir.moke.jsysbox.network.RouteEngine;
+import ir.moke.jsysbox.network.RouteKey;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@ExtendWith(NetNsExtension.class)
 public class NetworkTest {
     private static final Logger logger = LoggerFactory.getLogger(NetworkTest.class);
 
@@ -98,4 +109,87 @@ public class NetworkTest {
         logger.info("Execute <checkNetstat>");
         JNetwork.netstatIpv4().forEach(System.out::println);
     }
+
+    @Test
+    @Order(9)
+    public void checkNetNsExecutor() throws InterruptedException {
+        logger.info("Execute <checkNetNsExecutor>");
+        List<NetNs> namespaces = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            NetNs[] created = new NetNs[1];
+            long[] cached = new long[1];
+            Thread thread = new Thread(() -> {
+                created[0] = NetNs.unshare();
+                cached[0] = NetNs.currentId();
+            });
+            thread.start();
+            thread.join();
+            // the cached id of the thread follows unshare
+            Assertions.assertEquals(created[0].id(), cached[0]);
+            namespaces.add(created[0]);
+        }
+        try (NetNsExecutor executor = new NetNsExecutor(2)) {
+            List<CompletableFuture<Long>> ids = executor.submitAll(namespaces, () -> {
+                JNetwork.ifUp("lo");
+                return NetNs.currentId();
+            });
+            for (int i = 0; i < namespaces.size(); i++) {
+                Assertions.assertEquals(namespaces.get(i).id(), ids.get(i).join());
+            }
+        }
+        NetNs first = namespaces.getFirst();
+        Assertions.assertTrue(first.call(() -> JNetwork.ethernetIsUp("lo")));
+        Assertions.assertFalse(first.call(() -> JNetwork.isEthernetExists("eth0")));
+        Assertions.assertNotEquals(first.id(), NetNs.currentId());
+
+        // closing the last handle releases the namespace once the worker has left it
+        List<Long> released = new CopyOnWriteArrayList<>();
+        NetNs.onRelease(released::add);
+        namespaces.forEach(NetNs::close);
+        for (int i = 0; i < 50 && !released.contains(first.id()); i++) Thread.sleep(20);
+        Assertions.assertTrue(released.containsAll(namespaces.stream().map(NetNs::id).toList()));
+    }
+
+    @Test
+    @Order(10)
+    public void checkRouteEngine() {
+        logger.info("Execute <checkRouteEngine>");
+        IpRoute ipv4 = IpRoute.of("10.10.0.0/16", null, "lo");
+        IpRoute ipv6 = IpRoute.of(IpRoute.Type.BLACKHOLE, "2001:db8:10::/48").withTable(1000);
+        RouteBatch.Result result = new RouteBatch()
+                .add(ipv4)
+                .add(ipv6)
+                .add(ipv4)
+                .delete(RouteKey.of("10.20.0.0/16", IpRoute.MAIN_TABLE, 0))
+                .commit();
+        Assertions.assertEquals(2, result.applied());
+        Assertions.assertEquals(List.of(2, 3), result.failures().stream().map(RouteBatch.Failure::index).toList());
+
+        List<RouteKey> keys = JNetwork.routes().stream().map(IpRoute::key).toList();
+        Assertions.assertTrue(keys.contains(ipv4.key()));
+        Assertions.assertTrue(keys.contains(ipv6.key()));
+
+        // routes that differ only by type of service are distinct
+        IpRoute any = IpRoute.of("10.30.0.0/16", null, "lo");
+        IpRoute lowDelay = any.withTos(0x10);
+        Assertions.assertTrue(new RouteBatch().add(any).add(lowDelay).commit().isSuccess());
+        Assertions.assertTrue(JNetwork.routes().stream().anyMatch(item -> item.key().equals(lowDelay.key()) && item.tos() == 0x10));
+        Assertions.assertEquals(2, new RouteBatch().delete(lowDelay).delete(any).commit().requireSuccess().applied());
+
+        try (RouteEngine engine = RouteEngine.open()) {
+            RouteBatch batch = new RouteBatch();
+            for (int i = 0; i < 5000; i++) {
+                batch.add(IpRoute.of(IpRoute.Type.BLACKHOLE, "172.%s.%s.0/24".formatted(16 + i / 256, i % 256)).withTable(2000));
+            }
+            Assertions.assertTrue(engine.commit(batch).isSuccess());
+            List<IpRoute> table = engine.routes(IpRoute.Family.IPV4, 2000);
+            Assertions.assertEquals(5000, table.size());
+
+            RouteBatch delete = new RouteBatch();
+            table.forEach(delete::delete);
+            delete.delete(ipv4).delete(ipv6);
+            Assertions.assertEquals(5002, engine.commit(delete).requireSuccess().applied());
+        }
+        Assertions.assertFalse(JNetwork.routes().stream().anyMatch(item -> item.table() == 2000));
+    }
 }